@@ -0,0 +1,51 @@
+package com.example.android.inventoryapp.benchmark;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.IsolatedInventory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Runs {@link ProviderBenchmark} on a device, against an isolated copy of the database. Table
+ * sizes come from the {@code benchmarkRows} instrumentation argument, for example
+ * {@code -e benchmarkRows 10000,100000}, and results are written to logcat under the
+ * {@link #TAG} tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProviderDeviceBenchmark {
+
+    private static final String TAG = "ProviderBenchmark";
+
+    private IsolatedInventory mInventory;
+
+    @Before
+    public void setUp() {
+        mInventory = IsolatedInventory.create(InstrumentationRegistry.getTargetContext());
+    }
+
+    @After
+    public void tearDown() {
+        mInventory.clear();
+    }
+
+    @Test
+    public void providers() {
+        ProviderBenchmark benchmark = new ProviderBenchmark(mInventory.getResolver());
+        String tableRows = InstrumentationRegistry.getArguments().getString("benchmarkRows");
+        for (int rows : ProviderBenchmark.parseTableRows(tableRows)) {
+            for (BenchmarkResult result : benchmark.run(rows)) {
+                Log.i(TAG, result.toString());
+                assertFalse(result.operation, result.opsPerSecond == 0);
+            }
+            Log.i(TAG, benchmark.stockTableStats());
+        }
+    }
+}
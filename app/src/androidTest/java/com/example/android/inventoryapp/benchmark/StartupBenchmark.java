@@ -0,0 +1,225 @@
+package com.example.android.inventoryapp.benchmark;
+
+import android.app.Instrumentation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.Loader;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.LayoutInflater;
+import android.view.View;
+
+import com.example.android.inventoryapp.R;
+import com.example.android.inventoryapp.adapter.ProductCursorAdapter;
+import com.example.android.inventoryapp.data.IsolatedInventory;
+import com.example.android.inventoryapp.data.KeysetCursorLoader;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.SalesAndProductsDbHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the start of the product list on a device, against an isolated copy of the database
+ * of 1k and 100k products, with the database closed as in a new process. Every run replays what
+ * {@link com.example.android.inventoryapp.ui.ProductsActivity} does on a cold start: the
+ * database is warmed up or not, the list layout is inflated and drawn, which gives the first
+ * frame, and the first page is loaded and drawn, which gives the full list. Medians are written
+ * to logcat under the {@link #TAG} tag.
+ *
+ * Launches of the app itself report the same two times through
+ * {@link com.example.android.inventoryapp.StartupTimer}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupBenchmark {
+
+    private static final String TAG = "StartupBenchmark";
+
+    private static final int[] CATALOG_ROWS = {1000, 100000};
+
+    /** Starts measured per catalog size and mode; the median is reported */
+    private static final int RUNS = 5;
+
+    private static final int PAGE_SIZE = 50;
+
+    private static final int FILL_CHUNK = 10000;
+
+    private static final String[] PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY};
+
+    private IsolatedInventory mInventory;
+
+    private Instrumentation mInstrumentation;
+
+    @Before
+    public void setUp() {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        mInventory = IsolatedInventory.create(InstrumentationRegistry.getTargetContext());
+    }
+
+    @After
+    public void tearDown() {
+        mInventory.clear();
+    }
+
+    @Test
+    public void productListStart() throws InterruptedException {
+        for (int rows : CATALOG_ROWS) {
+            fill(rows);
+            report(rows, "cold open", measure(false));
+            report(rows, "warmed up", measure(true));
+            mInventory.clear();
+        }
+    }
+
+    private void report(int rows, String mode, long[][] runs) {
+        Log.i(TAG, String.format(Locale.US, "%7d products, %s: first frame %4d ms, full list %4d ms",
+                rows, mode, median(runs[0]), median(runs[1])));
+    }
+
+    /**
+     * Starts the list {@link #RUNS} times, and returns the times to the first frame and to the
+     * full list of every run.
+     */
+    private long[][] measure(boolean warmUp) throws InterruptedException {
+        long[][] runs = new long[2][RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            SalesAndProductsDbHelper helper = SalesAndProductsDbHelper.getInstance(mInventory.getContext());
+            helper.close();
+
+            StartedList list = new StartedList();
+            long start = SystemClock.uptimeMillis();
+            if (warmUp) {
+                helper.warmUp();
+            }
+            mInstrumentation.runOnMainSync(list);
+            runs[0][run] = list.mFirstFrame - start;
+            assertTrue(list.mShown.await(30, TimeUnit.SECONDS));
+            runs[1][run] = list.mFullList - start;
+            list.reset();
+        }
+        return runs;
+    }
+
+    private static long median(long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private void fill(int rows) {
+        ContentResolver resolver = mInventory.getResolver();
+        for (int start = 0; start < rows; start += FILL_CHUNK) {
+            ContentValues[] chunk = new ContentValues[Math.min(FILL_CHUNK, rows - start)];
+            for (int i = 0; i < chunk.length; i++) {
+                ContentValues values = new ContentValues();
+                values.put(ProductEntry.COLUMN_PRODUCT_NAME, String.format(Locale.US, "Product %07d", start + i));
+                values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 10 + i % 90);
+                values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 100);
+                values.put(ProductEntry.COLUMN_SUPPLIER_NAME, i % 7);
+                chunk[i] = values;
+            }
+            resolver.bulkInsert(ProductEntry.CONTENT_URI, chunk);
+        }
+    }
+
+    /**
+     * The product list as the activity builds it, drawn into a bitmap the size of the screen.
+     * Created and drawn on the main thread.
+     */
+    private class StartedList implements Runnable {
+
+        final CountDownLatch mShown = new CountDownLatch(1);
+
+        volatile long mFirstFrame;
+        volatile long mFullList;
+
+        private KeysetCursorLoader mLoader;
+
+        private View mScreen;
+
+        private Bitmap mFrame;
+
+        @Override
+        public void run() {
+            Context target = mInstrumentation.getTargetContext();
+            Context themed = new ContextThemeWrapper(target, R.style.AppTheme);
+            mScreen = LayoutInflater.from(themed).inflate(R.layout.activity_products, null);
+            RecyclerView listView = (RecyclerView) mScreen.findViewById(R.id.list);
+            listView.setLayoutManager(new LinearLayoutManager(themed));
+            final ProductCursorAdapter adapter = new ProductCursorAdapter(themed, null);
+            listView.setAdapter(adapter);
+
+            // The loader reads the isolated providers
+            Context isolated = new ContextWrapper(mInventory.getContext()) {
+                @Override
+                public ContentResolver getContentResolver() {
+                    return mInventory.getResolver();
+                }
+            };
+            mLoader = new KeysetCursorLoader(isolated, ProductEntry.CONTENT_URI, PROJECTION,
+                    ProductEntry.COLUMN_PRODUCT_NAME, PAGE_SIZE);
+            mLoader.registerListener(0, new Loader.OnLoadCompleteListener<Cursor>() {
+                @Override
+                public void onLoadComplete(Loader<Cursor> loader, Cursor data) {
+                    if (mShown.getCount() == 0) {
+                        return;
+                    }
+                    adapter.swapCursor(data);
+                    draw();
+                    mFullList = SystemClock.uptimeMillis();
+                    mShown.countDown();
+                }
+            });
+            mLoader.startLoading();
+
+            draw();
+            mFirstFrame = SystemClock.uptimeMillis();
+        }
+
+        private void draw() {
+            DisplayMetrics display = mInstrumentation.getTargetContext().getResources().getDisplayMetrics();
+            if (mFrame == null) {
+                mFrame = Bitmap.createBitmap(display.widthPixels, display.heightPixels, Bitmap.Config.ARGB_8888);
+            }
+            mScreen.measure(View.MeasureSpec.makeMeasureSpec(display.widthPixels, View.MeasureSpec.EXACTLY),
+                    View.MeasureSpec.makeMeasureSpec(display.heightPixels, View.MeasureSpec.EXACTLY));
+            mScreen.layout(0, 0, display.widthPixels, display.heightPixels);
+            mScreen.draw(new Canvas(mFrame));
+        }
+
+        /** Stops the loader and frees the frame. Must be called on the main thread. */
+        void reset() {
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    mLoader.reset();
+                    mFrame.recycle();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.SaleContract.SaleEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the rows/sec of {@link ProductProvider#bulkInsert}, {@link ProductProvider#applyBatch}
+ * and the matching {@link SaleProvider} methods against inserting the same rows one by one.
+ * Results are written to logcat under the {@link #TAG} tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BulkInsertBenchmark {
+
+    private static final String TAG = "BulkInsertBenchmark";
+
+    /** Batch sizes to measure */
+    private static final int[] BATCH_SIZES = {1000, 100000, 1000000};
+
+    /**
+     * Rows inserted one by one per measurement. Every row pays for its own transaction, so the
+     * rate is flat and timing a sample is enough; a million single inserts take about an hour.
+     */
+    private static final int PER_ROW_SAMPLE = 10000;
+
+    /** Largest batch run through applyBatch, which allocates one operation and result per row */
+    private static final int MAX_APPLY_BATCH = 100000;
+
+    /** Number of distinct rows; larger batches repeat them to keep the benchmark's heap small */
+    private static final int DISTINCT_ROWS = 1000;
+
+    private IsolatedInventory mInventory;
+
+    @Before
+    public void setUp() {
+        mInventory = IsolatedInventory.create(InstrumentationRegistry.getTargetContext());
+    }
+
+    @Test
+    public void products() throws Exception {
+        ContentValues[] rows = new ContentValues[DISTINCT_ROWS];
+        for (int i = 0; i < rows.length; i++) {
+            ContentValues values = new ContentValues();
+            values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Product " + i);
+            values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 10 + i % 90);
+            values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, i % 500);
+            values.put(ProductEntry.COLUMN_SUPPLIER_NAME, i % 7);
+            values.put(ProductEntry.COLUMN_SUPPLIER_PHONE, "0212584" + (1000 + i));
+            rows[i] = values;
+        }
+        measure("products", ProductEntry.CONTENT_URI, rows);
+    }
+
+    @Test
+    public void sales() throws Exception {
+        ContentValues[] rows = new ContentValues[DISTINCT_ROWS];
+        for (int i = 0; i < rows.length; i++) {
+            ContentValues values = new ContentValues();
+            values.put(SaleEntry.COLUMN_SALE_PRODUCT_NAME, "Product " + i);
+            values.put(SaleEntry.COLUMN_SALE_PRICE, 10 + i % 90);
+            values.put(SaleEntry.COLUMN_SALE_QUANTITY, 1 + i % 5);
+            values.put(SaleEntry.COLUMN_SALE_SUPPLIER_NAME, i % 7);
+            values.put(SaleEntry.COLUMN_SALE_SUPPLIER_PHONE, "0212584" + (1000 + i));
+            rows[i] = values;
+        }
+        measure("sales", SaleEntry.CONTENT_URI, rows);
+    }
+
+    private void measure(String table, Uri uri, ContentValues[] distinctRows) throws Exception {
+        ContentResolver resolver = mInventory.getResolver();
+        String authority = uri.getAuthority();
+
+        for (int size : BATCH_SIZES) {
+            ContentValues[] batch = new ContentValues[size];
+            for (int i = 0; i < size; i++) {
+                batch[i] = distinctRows[i % distinctRows.length];
+            }
+
+            // One insert, one transaction and one notification per row
+            mInventory.clear();
+            int sample = Math.min(size, PER_ROW_SAMPLE);
+            long start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < sample; i++) {
+                resolver.insert(uri, batch[i]);
+            }
+            double perRowRate = rate(sample, SystemClock.elapsedRealtimeNanos() - start);
+            assertEquals(sample, count(uri));
+
+            // One transaction and one compiled statement for the whole batch
+            mInventory.clear();
+            start = SystemClock.elapsedRealtimeNanos();
+            int inserted = resolver.bulkInsert(uri, batch);
+            double bulkRate = rate(inserted, SystemClock.elapsedRealtimeNanos() - start);
+            assertEquals(size, count(uri));
+
+            // One transaction for the whole batch, but the per-row insert path
+            String applyBatchRate = "skipped";
+            if (size <= MAX_APPLY_BATCH) {
+                mInventory.clear();
+                ArrayList<ContentProviderOperation> operations = new ArrayList<>(size);
+                for (ContentValues values : batch) {
+                    operations.add(ContentProviderOperation.newInsert(uri).withValues(values).build());
+                }
+                start = SystemClock.elapsedRealtimeNanos();
+                resolver.applyBatch(authority, operations);
+                applyBatchRate = String.format(Locale.US, "%.0f rows/s",
+                        rate(size, SystemClock.elapsedRealtimeNanos() - start));
+                assertEquals(size, count(uri));
+            }
+
+            Log.i(TAG, String.format(Locale.US,
+                    "%s %d rows: per-row %.0f rows/s, bulkInsert %.0f rows/s (%.1fx), applyBatch %s",
+                    table, size, perRowRate, bulkRate, bulkRate / perRowRate, applyBatchRate));
+        }
+        mInventory.clear();
+    }
+
+    private int count(Uri uri) {
+        Cursor cursor = mInventory.getResolver().query(uri, new String[]{"count(*) AS count"}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static double rate(int rows, long nanos) {
+        return rows * 1e9 / nanos;
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures {@link ProductCsvImporter} on CSV files of 10k, 100k and 1M products, imported into
+ * an isolated copy of the database. Results are written to logcat under the {@link #TAG} tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CsvImportBenchmark {
+
+    private static final String TAG = "CsvImportBenchmark";
+
+    private static final int[] FILE_ROWS = {10000, 100000, 1000000};
+
+    private IsolatedInventory mInventory;
+
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mInventory = IsolatedInventory.create(InstrumentationRegistry.getTargetContext());
+        mFile = new File(mInventory.getContext().getCacheDir(), "import-benchmark.csv");
+    }
+
+    @After
+    public void tearDown() {
+        mInventory.clear();
+        mFile.delete();
+    }
+
+    @Test
+    public void importProducts() throws IOException {
+        for (int rows : FILE_ROWS) {
+            write(rows);
+            mInventory.clear();
+
+            long start = SystemClock.elapsedRealtimeNanos();
+            ProductCsvImporter.Report report = new ProductCsvImporter(mInventory.getResolver())
+                    .importFrom(new FileInputStream(mFile), null);
+            long nanos = SystemClock.elapsedRealtimeNanos() - start;
+
+            assertEquals(rows, report.rowsImported);
+            assertEquals(rows, count());
+            Log.i(TAG, String.format(Locale.US, "%7d rows, %.1f MB: %.2f s, %.0f rows/s",
+                    rows, mFile.length() / 1e6, nanos / 1e9, rows * 1e9 / nanos));
+        }
+    }
+
+    private void write(int rows) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mFile), "UTF-8"));
+        try {
+            out.write("name,price,quantity,supplier,supplier_phone\n");
+            for (int i = 0; i < rows; i++) {
+                out.write(String.format(Locale.US, "\"Product %07d, size %d\",%d,%d,%d,0212584%04d\n",
+                        i, 36 + i % 10, 10 + i % 90, i % 500, i % 7, i % 10000));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private int count() {
+        Cursor cursor = mInventory.getResolver().query(ProductEntry.CONTENT_URI,
+                new String[]{"count(*) AS count"}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.os.Looper;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that operations on one entity run in order off the main thread, and that their
+ * results are delivered on the main thread.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DataOperationQueueTest {
+
+    private static final int OPERATIONS = 200;
+
+    @Test
+    public void operationsOnAnEntityRunInOrder() throws InterruptedException {
+        DataOperationQueue queue = DataOperationQueue.getInstance(InstrumentationRegistry.getTargetContext());
+        final List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Integer> completed = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Boolean> onMainThread = Collections.synchronizedList(new ArrayList<Boolean>());
+        final CountDownLatch done = new CountDownLatch(OPERATIONS);
+
+        for (int i = 0; i < OPERATIONS; i++) {
+            final int operation = i;
+            queue.enqueue(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 7),
+                    new DataOperationQueue.Operation<Integer>() {
+                        @Override
+                        public Integer run(ContentResolver resolver) {
+                            if (Looper.getMainLooper() != Looper.myLooper()) {
+                                ran.add(operation);
+                            }
+                            return operation;
+                        }
+                    },
+                    new DataOperationQueue.Callback<Integer>() {
+                        @Override
+                        public void onComplete(Integer result) {
+                            onMainThread.add(Looper.getMainLooper() == Looper.myLooper());
+                            completed.add(result);
+                            done.countDown();
+                        }
+                    });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        // Only operations run off the main thread are recorded
+        assertEquals(OPERATIONS, ran.size());
+        for (int i = 0; i < OPERATIONS; i++) {
+            assertEquals(i, ran.get(i).intValue());
+            assertEquals(Integer.valueOf(i), completed.get(i));
+            assertTrue(onMainThread.get(i));
+        }
+    }
+
+    @Test
+    public void rejectedOperationCompletesWithNull() throws InterruptedException {
+        final Object[] result = {"not completed"};
+        final CountDownLatch done = new CountDownLatch(1);
+        DataOperationQueue.getInstance(InstrumentationRegistry.getTargetContext()).enqueue(
+                ProductEntry.CONTENT_URI,
+                new DataOperationQueue.Operation<String>() {
+                    @Override
+                    public String run(ContentResolver resolver) {
+                        throw new IllegalArgumentException("Product requires a name");
+                    }
+                },
+                new DataOperationQueue.Callback<String>() {
+                    @Override
+                    public void onComplete(String value) {
+                        result[0] = value;
+                        done.countDown();
+                    }
+                });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertNull(result[0]);
+    }
+
+    @Test
+    public void failureIsToldApartFromNull() throws InterruptedException {
+        final Object[] result = {"not completed", "not failed"};
+        final CountDownLatch done = new CountDownLatch(2);
+        DataOperationQueue queue = DataOperationQueue.getInstance(InstrumentationRegistry.getTargetContext());
+        queue.enqueue(ProductEntry.CONTENT_URI,
+                new DataOperationQueue.Operation<String>() {
+                    @Override
+                    public String run(ContentResolver resolver) {
+                        return null;
+                    }
+                },
+                new DataOperationQueue.FailureCallback<String>() {
+                    @Override
+                    public void onComplete(String value) {
+                        result[0] = value;
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onFailure(RuntimeException error) {
+                        done.countDown();
+                    }
+                });
+        queue.enqueue(ProductEntry.CONTENT_URI,
+                new DataOperationQueue.Operation<String>() {
+                    @Override
+                    public String run(ContentResolver resolver) {
+                        throw new IllegalStateException("database is locked");
+                    }
+                },
+                new DataOperationQueue.FailureCallback<String>() {
+                    @Override
+                    public void onComplete(String value) {
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onFailure(RuntimeException error) {
+                        result[1] = error.getMessage();
+                        done.countDown();
+                    }
+                });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertNull(result[0]);
+        assertEquals("database is locked", result[1]);
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.pm.ProviderInfo;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.SaleContract.SaleEntry;
+
+/**
+ * The product and sale providers attached to a renamed copy of the database, so that tests
+ * and benchmarks never touch the app's own inventory.db.
+ */
+public final class IsolatedInventory {
+
+    /** Prefix added to the name of every database file opened by the providers */
+    private static final String FILE_PREFIX = "isolated.";
+
+    private final Context mContext;
+
+    private final MockContentResolver mResolver;
+
+    private IsolatedInventory(Context context, MockContentResolver resolver) {
+        mContext = context;
+        mResolver = resolver;
+    }
+
+    /**
+     * Creates fresh providers on an empty database. The database file itself is kept between
+     * calls, because the process-wide helper keeps it open.
+     *
+     * @param targetContext context of the app under test
+     */
+    public static IsolatedInventory create(Context targetContext) {
+        RenamingDelegatingContext context = new RenamingDelegatingContext(targetContext, FILE_PREFIX);
+
+        MockContentResolver resolver = new MockContentResolver(context);
+        resolver.addProvider(ProductContract.CONTENT_AUTHORITY,
+                attach(new ProductProvider(), context, ProductContract.CONTENT_AUTHORITY));
+        resolver.addProvider(SaleContract.CONTENT_AUTHORITY,
+                attach(new SaleProvider(), context, SaleContract.CONTENT_AUTHORITY));
+        IsolatedInventory inventory = new IsolatedInventory(context, resolver);
+        inventory.clear();
+        return inventory;
+    }
+
+    private static ContentProvider attach(ContentProvider provider, Context context, String authority) {
+        ProviderInfo info = new ProviderInfo();
+        info.authority = authority;
+        provider.attachInfo(context, info);
+        return provider;
+    }
+
+    /** Returns a resolver that routes both authorities to the isolated providers. */
+    public ContentResolver getResolver() {
+        return mResolver;
+    }
+
+    /** Returns the context the providers are attached to. */
+    public Context getContext() {
+        return mContext;
+    }
+
+    /** Deletes every product and sale. */
+    public void clear() {
+        mResolver.delete(SaleEntry.CONTENT_URI, null, null);
+        mResolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.SaleContract.SaleEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that reading the lists page by page returns every row once, in the same order as
+ * reading them in one query.
+ */
+@RunWith(AndroidJUnit4.class)
+public class KeysetPagingTest {
+
+    private static final int ROWS = 230;
+
+    private static final int PAGE_SIZE = 25;
+
+    private IsolatedInventory mInventory;
+
+    @Before
+    public void setUp() {
+        mInventory = IsolatedInventory.create(InstrumentationRegistry.getTargetContext());
+
+        // Few distinct names, so that pages split rows sharing a name
+        ContentValues[] products = new ContentValues[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Product " + (i % 7));
+            values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 10);
+            values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 5);
+            values.put(ProductEntry.COLUMN_SUPPLIER_NAME, ProductEntry.NIKE);
+            products[i] = values;
+        }
+        mInventory.getResolver().bulkInsert(ProductEntry.CONTENT_URI, products);
+
+        ContentValues[] sales = new ContentValues[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(SaleEntry.COLUMN_SALE_PRODUCT_NAME, "Product " + (i % 7));
+            values.put(SaleEntry.COLUMN_SALE_PRICE, 10);
+            values.put(SaleEntry.COLUMN_SALE_QUANTITY, 1);
+            sales[i] = values;
+        }
+        mInventory.getResolver().bulkInsert(SaleEntry.CONTENT_URI, sales);
+    }
+
+    @After
+    public void tearDown() {
+        mInventory.clear();
+    }
+
+    @Test
+    public void productPagesFollowNameOrder() {
+        List<Long> expected = ids(ProductEntry.CONTENT_URI,
+                ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry._ID);
+
+        List<Long> paged = new ArrayList<>();
+        String afterName = null;
+        long afterId = -1;
+        while (true) {
+            Uri page = KeysetPaging.buildPageUri(ProductEntry.CONTENT_URI, PAGE_SIZE, afterName, afterId);
+            Cursor cursor = mInventory.getResolver().query(page,
+                    new String[]{ProductEntry._ID, ProductEntry.COLUMN_PRODUCT_NAME}, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    afterId = cursor.getLong(0);
+                    afterName = cursor.getString(1);
+                    paged.add(afterId);
+                }
+                if (cursor.getCount() < PAGE_SIZE) {
+                    break;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        assertEquals(ROWS, expected.size());
+        assertEquals(expected, paged);
+    }
+
+    @Test
+    public void salePagesFollowIdOrder() {
+        List<Long> expected = ids(SaleEntry.CONTENT_URI, SaleEntry._ID);
+
+        List<Long> paged = new ArrayList<>();
+        long afterId = -1;
+        while (true) {
+            Uri page = KeysetPaging.buildPageUri(SaleEntry.CONTENT_URI, PAGE_SIZE, null, afterId);
+            Cursor cursor = mInventory.getResolver().query(page,
+                    new String[]{SaleEntry._ID}, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    afterId = cursor.getLong(0);
+                    paged.add(afterId);
+                }
+                if (cursor.getCount() < PAGE_SIZE) {
+                    break;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        assertEquals(ROWS, expected.size());
+        assertEquals(expected, paged);
+    }
+
+    private List<Long> ids(Uri uri, String sortOrder) {
+        List<Long> ids = new ArrayList<>();
+        Cursor cursor = mInventory.getResolver().query(uri, new String[]{BaseColumns._ID}, null, null, sortOrder);
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+}
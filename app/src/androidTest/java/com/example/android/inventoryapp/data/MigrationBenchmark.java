@@ -0,0 +1,103 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures every step of {@link SalesAndProductsDbHelper#migrate} on a version 1 database
+ * holding a million products and a million sales. Results are written to logcat under the
+ * {@link #TAG} tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MigrationBenchmark {
+
+    private static final String TAG = "MigrationBenchmark";
+
+    /** Rows in each table of the version 1 database */
+    private static final int ROWS = 1000000;
+
+    private File mFile;
+
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mFile = context.getDatabasePath("migration-benchmark.db");
+        SQLiteDatabase.deleteDatabase(mFile);
+        mFile.getParentFile().mkdirs();
+        mDatabase = SQLiteDatabase.openOrCreateDatabase(mFile, null);
+
+        mDatabase.beginTransaction();
+        try {
+            SalesAndProductsDbHelper.createVersion1(mDatabase);
+            fill("INSERT INTO products (name, price, quantity, supplierName, supplierPhone)"
+                    + " VALUES (?, ?, ?, ?, ?)");
+            fill("INSERT INTO sales (name, price, quantity, supplierName, supplierPhone)"
+                    + " VALUES (?, ?, ?, ?, ?)");
+            mDatabase.setVersion(1);
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+        SQLiteDatabase.deleteDatabase(mFile);
+    }
+
+    @Test
+    public void migrateMillionRows() {
+        long total = 0;
+        for (int version = 2; version <= SalesAndProductsDbHelper.DATABASE_VERSION; version++) {
+            long start = SystemClock.elapsedRealtime();
+            mDatabase.beginTransaction();
+            try {
+                SalesAndProductsDbHelper.migrate(mDatabase, version - 1, version);
+                mDatabase.setVersion(version);
+                mDatabase.setTransactionSuccessful();
+            } finally {
+                mDatabase.endTransaction();
+            }
+            long elapsed = SystemClock.elapsedRealtime() - start;
+            total += elapsed;
+            Log.i(TAG, "version " + (version - 1) + " -> " + version + " on " + ROWS
+                    + " rows per table: " + elapsed + " ms");
+        }
+        Log.i(TAG, "version 1 -> " + SalesAndProductsDbHelper.DATABASE_VERSION + ": " + total + " ms");
+
+        assertEquals(SalesAndProductsDbHelper.DATABASE_VERSION, mDatabase.getVersion());
+    }
+
+    private void fill(String sql) {
+        SQLiteStatement insert = mDatabase.compileStatement(sql);
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                insert.bindString(1, "Product " + (i % 50000));
+                insert.bindLong(2, 10 + i % 90);
+                insert.bindLong(3, i % 500);
+                insert.bindLong(4, i % 7);
+                insert.bindString(5, "0212584" + (1000 + i % 9000));
+                insert.executeInsert();
+            }
+        } finally {
+            insert.close();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures searches through {@link ProductContract.ProductEntry#buildSearchUri} on a catalog of
+ * half a million products, and checks that name matches are ranked before supplier matches.
+ * Results are written to logcat under the {@link #TAG} tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductSearchBenchmark {
+
+    private static final String TAG = "ProductSearchBenchmark";
+
+    private static final int ROWS = 500000;
+
+    private static final int RUNS = 21;
+
+    private static final String[] WORDS = {"boots", "sneaker", "sandal", "jacket", "runner",
+            "classic", "trail", "leather", "canvas", "street"};
+
+    private IsolatedInventory mInventory;
+
+    @Before
+    public void setUp() {
+        mInventory = IsolatedInventory.create(InstrumentationRegistry.getTargetContext());
+
+        ContentValues[] rows = new ContentValues[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(ProductEntry.COLUMN_PRODUCT_NAME, WORDS[i % WORDS.length] + " "
+                    + WORDS[(i / WORDS.length) % WORDS.length] + " " + i);
+            values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 10 + i % 90);
+            values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, i % 500);
+            values.put(ProductEntry.COLUMN_SUPPLIER_NAME, i % 7);
+            rows[i] = values;
+        }
+        // A product named like a supplier, which must come before that supplier's products
+        rows[ROWS - 1].put(ProductEntry.COLUMN_PRODUCT_NAME, "Nike collector box");
+        mInventory.getResolver().bulkInsert(ProductEntry.CONTENT_URI, rows);
+    }
+
+    @After
+    public void tearDown() {
+        mInventory.clear();
+    }
+
+    @Test
+    public void search() {
+        measure("sn");
+        measure("trail");
+        measure("leather can");
+        measure("12345");
+        measure("forex jack");
+
+        Cursor cursor = search("nike");
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Nike collector box", cursor.getString(1));
+            assertTrue(cursor.moveToNext());
+            assertEquals(ProductEntry.NIKE, cursor.getInt(2));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void measure(String text) {
+        long[] times = new long[RUNS];
+        int count = 0;
+        for (int i = 0; i < RUNS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            Cursor cursor = search(text);
+            try {
+                count = cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+            times[i] = SystemClock.elapsedRealtimeNanos() - start;
+        }
+        Arrays.sort(times);
+        Log.i(TAG, String.format(Locale.US, "\"%s\" on %d rows: %d results, median %.2f ms, max %.2f ms",
+                text, ROWS, count, times[RUNS / 2] / 1e6, times[RUNS - 1] / 1e6));
+    }
+
+    private Cursor search(String text) {
+        return mInventory.getResolver().query(ProductEntry.buildSearchUri(text),
+                new String[]{ProductEntry._ID, ProductEntry.COLUMN_PRODUCT_NAME,
+                        ProductEntry.COLUMN_SUPPLIER_NAME}, null, null, null);
+    }
+}
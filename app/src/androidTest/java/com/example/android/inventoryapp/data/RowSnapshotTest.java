@@ -0,0 +1,118 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.MatrixCursor;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.view.ViewGroup;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a diff between two snapshots notifies the list of the changed rows only.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RowSnapshotTest {
+
+    private static final String[] COLUMNS = {ProductEntry._ID, ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY};
+
+    @Test
+    public void soldProductChangesOneRow() {
+        RowSnapshot before = RowSnapshot.read(products(1, 5, 3), null);
+        RowSnapshot after = RowSnapshot.read(products(1, 5, 2), null).diffFrom(before);
+
+        List<String> changes = new ArrayList<>();
+        assertTrue(after.dispatchUpdatesTo(recording(changes), before));
+        assertEquals("[changed 3+1]", changes.toString());
+    }
+
+    @Test
+    public void nextPageInsertsItsRows() {
+        RowSnapshot firstPage = RowSnapshot.read(products(1, 5, 3), null);
+        RowSnapshot bothPages = RowSnapshot.read(products(6, 3, 3), firstPage).diffFrom(firstPage);
+
+        List<String> changes = new ArrayList<>();
+        assertTrue(bothPages.dispatchUpdatesTo(recording(changes), firstPage));
+        assertEquals("[inserted 5+3]", changes.toString());
+        assertEquals(8, bothPages.size());
+    }
+
+    @Test
+    public void diffFromAnotherSnapshotIsNotDispatched() {
+        RowSnapshot before = RowSnapshot.read(products(1, 5, 3), null);
+        RowSnapshot after = RowSnapshot.read(products(1, 5, 2), null).diffFrom(before);
+
+        List<String> changes = new ArrayList<>();
+        assertFalse(after.dispatchUpdatesTo(recording(changes), RowSnapshot.read(products(1, 5, 3), null)));
+        assertFalse(after.dispatchUpdatesTo(recording(changes), null));
+        assertTrue(changes.isEmpty());
+    }
+
+    /**
+     * Products with ids counted from the given one. The product with id 4, if any, has the given
+     * quantity; the others have 10.
+     */
+    private static MatrixCursor products(int firstId, int rows, int quantityOfFourth) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (int id = firstId; id < firstId + rows; id++) {
+            cursor.addRow(new Object[]{id, "Product " + id, id == 4 ? quantityOfFourth : 10});
+        }
+        return cursor;
+    }
+
+    /** An adapter that records the changes it is notified of. */
+    private static RecyclerView.Adapter recording(final List<String> changes) {
+        RecyclerView.Adapter adapter = new RecyclerView.Adapter<RecyclerView.ViewHolder>() {
+            @Override
+            public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+            }
+
+            @Override
+            public int getItemCount() {
+                return 0;
+            }
+        };
+        adapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                changes.add("all");
+            }
+
+            @Override
+            public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
+                changes.add("changed " + positionStart + "+" + itemCount);
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                changes.add("inserted " + positionStart + "+" + itemCount);
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                changes.add("removed " + positionStart + "+" + itemCount);
+            }
+
+            @Override
+            public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+                changes.add("moved " + fromPosition + ">" + toPosition);
+            }
+        });
+        return adapter;
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.SaleContract.SaleEntry;
+import com.example.android.inventoryapp.data.SaleContract.SaleSummaryEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the sale totals follow inserts, sells, updates and deletes of sales, and
+ * supplier changes of products.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SaleSummaryTest {
+
+    private IsolatedInventory mInventory;
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mInventory = IsolatedInventory.create(InstrumentationRegistry.getTargetContext());
+        mResolver = mInventory.getResolver();
+    }
+
+    @After
+    public void tearDown() {
+        mInventory.clear();
+    }
+
+    @Test
+    public void totalsFollowSales() {
+        long boots = insertProduct("Boots", 20, ProductEntry.NIKE);
+        long hat = insertProduct("Hat", 5, ProductEntry.KAMUEL);
+
+        mResolver.update(ProductEntry.buildSellUri(boots, 2), new ContentValues(), null, null);
+        mResolver.update(ProductEntry.buildSellUri(hat, 1), new ContentValues(), null, null);
+        Uri sale = insertSale(boots, 20, 1);
+
+        assertTotals(SaleSummaryEntry.PRODUCT_URI, SaleSummaryEntry.COLUMN_PRODUCT_ID, boots, 3, 60, 2);
+        assertTotals(SaleSummaryEntry.SUPPLIER_URI, SaleSummaryEntry.COLUMN_SUPPLIER, ProductEntry.NIKE, 3, 60, 2);
+        assertTotals(SaleSummaryEntry.SUPPLIER_URI, SaleSummaryEntry.COLUMN_SUPPLIER, ProductEntry.KAMUEL, 1, 5, 1);
+
+        ContentValues quantity = new ContentValues();
+        quantity.put(SaleEntry.COLUMN_SALE_QUANTITY, 4);
+        mResolver.update(sale, quantity, null, null);
+        assertTotals(SaleSummaryEntry.PRODUCT_URI, SaleSummaryEntry.COLUMN_PRODUCT_ID, boots, 6, 120, 2);
+
+        ContentValues supplier = new ContentValues();
+        supplier.put(ProductEntry.COLUMN_SUPPLIER_NAME, ProductEntry.FOREX);
+        mResolver.update(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, boots), supplier, null, null);
+        assertTotals(SaleSummaryEntry.SUPPLIER_URI, SaleSummaryEntry.COLUMN_SUPPLIER, ProductEntry.FOREX, 6, 120, 2);
+        assertEquals(0, count(SaleSummaryEntry.SUPPLIER_URI, SaleSummaryEntry.COLUMN_SUPPLIER, ProductEntry.NIKE));
+
+        mResolver.delete(sale, null, null);
+        assertTotals(SaleSummaryEntry.PRODUCT_URI, SaleSummaryEntry.COLUMN_PRODUCT_ID, boots, 2, 40, 1);
+
+        // Every sale is on the same day
+        Cursor days = mResolver.query(SaleSummaryEntry.DAY_URI, null, null, null, null);
+        try {
+            assertEquals(1, days.getCount());
+            assertTrue(days.moveToFirst());
+            assertEquals(3, days.getLong(days.getColumnIndexOrThrow(SaleSummaryEntry.COLUMN_UNITS)));
+        } finally {
+            days.close();
+        }
+    }
+
+    private long insertProduct(String name, int price, int supplier) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 100);
+        values.put(ProductEntry.COLUMN_SUPPLIER_NAME, supplier);
+        values.put(ProductEntry.COLUMN_SUPPLIER_PHONE, "0");
+        return ContentUris.parseId(mResolver.insert(ProductEntry.CONTENT_URI, values));
+    }
+
+    private Uri insertSale(long productId, int price, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(SaleEntry.COLUMN_SALE_PRODUCT_ID, productId);
+        values.put(SaleEntry.COLUMN_SALE_PRICE, price);
+        values.put(SaleEntry.COLUMN_SALE_QUANTITY, quantity);
+        return mResolver.insert(SaleEntry.CONTENT_URI, values);
+    }
+
+    private void assertTotals(Uri uri, String keyColumn, long key, long units, long revenue, long sales) {
+        Cursor cursor = mResolver.query(uri, new String[]{SaleSummaryEntry.COLUMN_UNITS,
+                        SaleSummaryEntry.COLUMN_REVENUE, SaleSummaryEntry.COLUMN_SALE_COUNT},
+                keyColumn + " = ?", new String[]{String.valueOf(key)}, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(units, cursor.getLong(0));
+            assertEquals(revenue, cursor.getLong(1));
+            assertEquals(sales, cursor.getLong(2));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int count(Uri uri, String keyColumn, long key) {
+        Cursor cursor = mResolver.query(uri, null, keyColumn + " = ?",
+                new String[]{String.valueOf(key)}, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
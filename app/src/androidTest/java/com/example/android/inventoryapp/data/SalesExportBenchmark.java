@@ -0,0 +1,129 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Debug;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.SaleContract.SaleEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the throughput of the sales exports on a table of 5M sales, read through the pipe
+ * as another app would, and the peak heap of the process while they run. Results are written
+ * to logcat under the {@link #TAG} tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SalesExportBenchmark {
+
+    private static final String TAG = "SalesExportBenchmark";
+
+    private static final int SALES = 5000000;
+
+    private static final int FILL_CHUNK = 100000;
+
+    /** Bytes read between two samples of the heap */
+    private static final int SAMPLE_BYTES = 1 << 20;
+
+    private IsolatedInventory mInventory;
+
+    @Before
+    public void setUp() {
+        mInventory = IsolatedInventory.create(InstrumentationRegistry.getTargetContext());
+    }
+
+    @After
+    public void tearDown() {
+        mInventory.clear();
+    }
+
+    @Test
+    public void exportSales() throws IOException {
+        fill();
+        measure("csv", SaleContract.EXPORT_CSV_URI, SALES + 1);
+        measure("json lines", SaleContract.EXPORT_JSON_LINES_URI, SALES);
+    }
+
+    private void fill() {
+        ContentResolver resolver = mInventory.getResolver();
+        ContentValues product = new ContentValues();
+        product.put(ProductEntry.COLUMN_PRODUCT_NAME, "Boots");
+        product.put(ProductEntry.COLUMN_PRODUCT_PRICE, 20);
+        product.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 0);
+        product.put(ProductEntry.COLUMN_SUPPLIER_NAME, ProductEntry.NIKE);
+        long productId = Long.parseLong(resolver.insert(ProductEntry.CONTENT_URI, product).getLastPathSegment());
+
+        ContentValues[] chunk = new ContentValues[FILL_CHUNK];
+        long now = System.currentTimeMillis();
+        for (int start = 0; start < SALES; start += FILL_CHUNK) {
+            for (int i = 0; i < chunk.length; i++) {
+                ContentValues values = new ContentValues();
+                values.put(SaleEntry.COLUMN_SALE_PRODUCT_ID, productId);
+                values.put(SaleEntry.COLUMN_SALE_PRICE, 10 + i % 90);
+                values.put(SaleEntry.COLUMN_SALE_QUANTITY, 1 + i % 5);
+                values.put(SaleEntry.COLUMN_SALE_DATE, now - (SALES - start - i) * 1000L);
+                chunk[i] = values;
+            }
+            resolver.bulkInsert(SaleEntry.CONTENT_URI, chunk);
+        }
+    }
+
+    private void measure(String format, Uri uri, int expectedLines) throws IOException {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        long baseHeap = runtime.totalMemory() - runtime.freeMemory();
+        long baseNative = Debug.getNativeHeapAllocatedSize();
+        long peakHeap = baseHeap;
+        long peakNative = baseNative;
+
+        byte[] buffer = new byte[64 * 1024];
+        long bytes = 0;
+        long nextSample = SAMPLE_BYTES;
+        int lines = 0;
+        long start = SystemClock.elapsedRealtimeNanos();
+        ParcelFileDescriptor descriptor = mInventory.getResolver().openFileDescriptor(uri, "r");
+        InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
+        try {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n') {
+                        lines++;
+                    }
+                }
+                bytes += read;
+                if (bytes >= nextSample) {
+                    nextSample += SAMPLE_BYTES;
+                    peakHeap = Math.max(peakHeap, runtime.totalMemory() - runtime.freeMemory());
+                    peakNative = Math.max(peakNative, Debug.getNativeHeapAllocatedSize());
+                }
+            }
+        } finally {
+            in.close();
+        }
+        long nanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        assertEquals(expectedLines, lines);
+        Log.i(TAG, String.format(Locale.US,
+                "%s, %d sales: %.1f MB in %.2f s, %.0f sales/s, %.1f MB/s, "
+                        + "peak heap +%.1f MB, peak native heap +%.1f MB",
+                format, SALES, bytes / 1e6, nanos / 1e9, SALES * 1e9 / nanos, bytes * 1e3 / nanos,
+                (peakHeap - baseHeap) / 1e6, (peakNative - baseNative) / 1e6));
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.SaleContract.SaleEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures lookups through {@link ProductEntry#buildSkuUri} and sustained scans through
+ * {@link ProductEntry#buildSkuSellUri} on a catalog of 100,000 products, one scan after the
+ * other as at a checkout. Results are written to logcat under the {@link #TAG} tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ScanSaleBenchmark {
+
+    private static final String TAG = "ScanSaleBenchmark";
+
+    private static final int PRODUCTS = 100000;
+
+    private static final int WARM_UP_SCANS = 200;
+
+    private static final int SCANS = 5000;
+
+    private IsolatedInventory mInventory;
+
+    @Before
+    public void setUp() {
+        mInventory = IsolatedInventory.create(InstrumentationRegistry.getTargetContext());
+
+        ContentValues[] rows = new ContentValues[PRODUCTS];
+        for (int i = 0; i < PRODUCTS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Product " + i);
+            values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 10 + i % 90);
+            values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 1000);
+            values.put(ProductEntry.COLUMN_SUPPLIER_NAME, i % 7);
+            values.put(ProductEntry.COLUMN_PRODUCT_SKU, sku(i));
+            rows[i] = values;
+        }
+        mInventory.getResolver().bulkInsert(ProductEntry.CONTENT_URI, rows);
+    }
+
+    @After
+    public void tearDown() {
+        mInventory.clear();
+    }
+
+    @Test
+    public void scanToSell() {
+        ContentResolver resolver = mInventory.getResolver();
+        Random random = new Random(42);
+
+        long[] lookups = new long[SCANS];
+        for (int i = 0; i < SCANS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            Cursor cursor = resolver.query(ProductEntry.buildSkuUri(sku(random.nextInt(PRODUCTS))),
+                    new String[]{ProductEntry._ID, ProductEntry.COLUMN_PRODUCT_QUANTITY}, null, null, null);
+            try {
+                assertTrue(cursor.moveToFirst());
+            } finally {
+                cursor.close();
+            }
+            lookups[i] = SystemClock.elapsedRealtimeNanos() - start;
+        }
+
+        for (int i = 0; i < WARM_UP_SCANS; i++) {
+            scan(resolver, sku(random.nextInt(PRODUCTS)));
+        }
+        long[] scans = new long[SCANS];
+        long first = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < SCANS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            assertTrue(scan(resolver, sku(random.nextInt(PRODUCTS))) >= 0);
+            scans[i] = SystemClock.elapsedRealtimeNanos() - start;
+        }
+        long total = SystemClock.elapsedRealtimeNanos() - first;
+
+        // A code of no product sells nothing
+        assertEquals(ProductEntry.SELL_REJECTED, scan(resolver, "0000000000000"));
+        assertEquals(WARM_UP_SCANS + SCANS, count(SaleEntry.CONTENT_URI));
+
+        Arrays.sort(lookups);
+        Arrays.sort(scans);
+        Log.i(TAG, String.format(Locale.US,
+                "%d products: lookup median %.3f ms, p99 %.3f ms; "
+                        + "%d scans at %.0f scans/s, median %.3f ms, p99 %.3f ms, max %.3f ms",
+                PRODUCTS, lookups[SCANS / 2] / 1e6, lookups[SCANS * 99 / 100] / 1e6,
+                SCANS, SCANS / (total / 1e9), scans[SCANS / 2] / 1e6, scans[SCANS * 99 / 100] / 1e6,
+                scans[SCANS - 1] / 1e6));
+    }
+
+    private static int scan(ContentResolver resolver, String sku) {
+        return resolver.update(ProductEntry.buildSkuSellUri(sku, 1), null, null, null);
+    }
+
+    private int count(Uri uri) {
+        Cursor cursor = mInventory.getResolver().query(uri, new String[]{SaleEntry._ID}, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Returns an EAN-13 shaped code for the product with the given index. */
+    private static String sku(int index) {
+        return String.format(Locale.US, "400%010d", index);
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.android.inventoryapp.benchmark;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Throughput and latency of one operation measured at one table size.
+ */
+public final class BenchmarkResult {
+
+    /** Name of the operation */
+    public final String operation;
+
+    /** Rows in the table while the operation was measured */
+    public final int tableRows;
+
+    /** Number of operations measured */
+    public final int operations;
+
+    /** Operations per second over all measured operations */
+    public final double opsPerSecond;
+
+    /** Median and 99th percentile latency, in nanoseconds */
+    public final long p50Nanos;
+    public final long p99Nanos;
+
+    /**
+     * @param latencies latency of every operation in nanoseconds. The array is sorted in place.
+     */
+    BenchmarkResult(String operation, int tableRows, long[] latencies) {
+        this.operation = operation;
+        this.tableRows = tableRows;
+        this.operations = latencies.length;
+
+        long total = 0;
+        for (long latency : latencies) {
+            total += latency;
+        }
+        Arrays.sort(latencies);
+        this.opsPerSecond = total == 0 ? 0 : latencies.length * 1e9 / total;
+        this.p50Nanos = percentile(latencies, 50);
+        this.p99Nanos = percentile(latencies, 99);
+    }
+
+    /** Returns the given percentile of sorted latencies, by the nearest rank. */
+    static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%-24s %8d rows: %10.0f ops/s  p50 %8.1f us  p99 %8.1f us",
+                operation, tableRows, opsPerSecond, p50Nanos / 1e3, p99Nanos / 1e3);
+    }
+}
@@ -0,0 +1,415 @@
+package com.example.android.inventoryapp.benchmark;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.data.KeysetPaging;
+import com.example.android.inventoryapp.data.ProductContract;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.SaleContract.SaleEntry;
+import com.example.android.inventoryapp.data.SaleContract.SaleSummaryEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Drives {@link com.example.android.inventoryapp.data.ProductProvider} and
+ * {@link com.example.android.inventoryapp.data.SaleProvider} through a content resolver, and
+ * measures single inserts, updates, deletes, item queries and page queries against tables of a
+ * given size.
+ *
+ * The same code runs on the host through Robolectric and on a device, so that both report
+ * comparable numbers. The resolver must route both authorities to providers on a database that
+ * can be wiped.
+ */
+public class ProviderBenchmark {
+
+    /** Table sizes measured when none are given */
+    public static final String DEFAULT_TABLE_ROWS = "10000,100000,1000000";
+
+    /** Operations timed for each measurement */
+    private static final int OPERATIONS = 1000;
+
+    /** Operations run before timing, so that the statement caches and JIT are warm */
+    private static final int WARM_UP_OPERATIONS = 100;
+
+    /** Rows of a page query, like the lists load */
+    private static final int PAGE_SIZE = 50;
+
+    /** Products read over and over by the stock query, like the rows on screen */
+    private static final int HOT_ROWS = 100;
+
+    /** Columns of a product list row, which the provider answers from memory */
+    private static final String[] STOCK_PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY};
+
+    /** Rows inserted per bulk insert while filling the tables */
+    private static final int FILL_CHUNK = 10000;
+
+    private final ContentResolver mResolver;
+
+    private final Random mRandom = new Random(42);
+
+    /** Id of the first product and sale of the filled tables; the others follow it */
+    private long mFirstProductId;
+    private long mFirstSaleId;
+
+    public ProviderBenchmark(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Parse table sizes from a comma separated list, such as {@link #DEFAULT_TABLE_ROWS}.
+     */
+    public static int[] parseTableRows(String spec) {
+        String[] parts = (spec == null ? DEFAULT_TABLE_ROWS : spec).split(",");
+        int[] rows = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            rows[i] = Integer.parseInt(parts[i].trim());
+        }
+        return rows;
+    }
+
+    /**
+     * Fill both tables with the given number of rows each, and measure every operation on them.
+     * The tables are emptied first.
+     */
+    public List<BenchmarkResult> run(int tableRows) {
+        fill(tableRows);
+
+        List<BenchmarkResult> results = new ArrayList<>();
+        results.add(measure("product insert", tableRows, new ProductInsert()));
+        results.add(measure("product update", tableRows, new ProductUpdate(tableRows)));
+        results.add(measure("product item query", tableRows, new ProductItemQuery(tableRows)));
+        results.add(measure("product stock query", tableRows, new ProductStockQuery(tableRows)));
+        results.add(measure("product page query", tableRows, new ProductPageQuery(tableRows)));
+        results.add(measure("product sell", tableRows, new ProductSell(tableRows)));
+        results.add(measure("product delete", tableRows, new ProductDelete()));
+        results.add(measure("sale insert", tableRows, new SaleInsert(tableRows)));
+        results.add(measure("sale update", tableRows, new SaleUpdate(tableRows)));
+        results.add(measure("sale item query", tableRows, new SaleItemQuery(tableRows)));
+        results.add(measure("sale page query", tableRows, new SalePageQuery(tableRows)));
+        results.add(measure("sale delete", tableRows, new SaleDelete()));
+        results.add(measure("sale summary query", tableRows, new SaleSummaryQuery(tableRows)));
+
+        clear();
+        return results;
+    }
+
+    /**
+     * Returns the hit rate and memory use of the product provider's stock table so far.
+     */
+    public String stockTableStats() {
+        Bundle stats = mResolver.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_STOCK_TABLE_STATS,
+                null, null);
+        long hits = stats.getLong(ProductContract.KEY_STOCK_TABLE_HITS);
+        long misses = stats.getLong(ProductContract.KEY_STOCK_TABLE_MISSES);
+        return String.format(Locale.US, "stock table: %d hits, %d misses (%.1f%% hit rate), %d rows, %d KB",
+                hits, misses, hits + misses == 0 ? 0 : 100.0 * hits / (hits + misses),
+                stats.getInt(ProductContract.KEY_STOCK_TABLE_ROWS),
+                stats.getLong(ProductContract.KEY_STOCK_TABLE_BYTES) / 1024);
+    }
+
+    /** Delete every sale and product. */
+    public void clear() {
+        mResolver.delete(SaleEntry.CONTENT_URI, null, null);
+        mResolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    private void fill(int tableRows) {
+        clear();
+
+        ContentValues[] chunk = new ContentValues[Math.min(FILL_CHUNK, tableRows)];
+        for (int start = 0; start < tableRows; start += chunk.length) {
+            int size = Math.min(chunk.length, tableRows - start);
+            ContentValues[] rows = size == chunk.length ? chunk : new ContentValues[size];
+            for (int i = 0; i < size; i++) {
+                rows[i] = product(start + i);
+            }
+            mResolver.bulkInsert(ProductEntry.CONTENT_URI, rows);
+        }
+        mFirstProductId = firstId(ProductEntry.CONTENT_URI, ProductEntry._ID);
+
+        for (int start = 0; start < tableRows; start += chunk.length) {
+            int size = Math.min(chunk.length, tableRows - start);
+            ContentValues[] rows = size == chunk.length ? chunk : new ContentValues[size];
+            for (int i = 0; i < size; i++) {
+                rows[i] = sale(mFirstProductId + start + i, 1 + (start + i) % 5);
+            }
+            mResolver.bulkInsert(SaleEntry.CONTENT_URI, rows);
+        }
+        mFirstSaleId = firstId(SaleEntry.CONTENT_URI, SaleEntry.TABLE_NAME + "." + SaleEntry._ID);
+    }
+
+    private long firstId(Uri uri, String idColumn) {
+        Cursor cursor = mResolver.query(uri, new String[]{"min(" + idColumn + ") AS first_id"},
+                null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private BenchmarkResult measure(String name, int tableRows, Operation operation) {
+        for (int i = 0; i < WARM_UP_OPERATIONS; i++) {
+            operation.run(i);
+        }
+        operation.reset();
+
+        long[] latencies = new long[OPERATIONS];
+        for (int i = 0; i < OPERATIONS; i++) {
+            long start = System.nanoTime();
+            operation.run(i);
+            latencies[i] = System.nanoTime() - start;
+        }
+        return new BenchmarkResult(name, tableRows, latencies);
+    }
+
+    /** Names sort in insertion order, so that a page can start after any product. */
+    private static String productName(int index) {
+        return String.format(Locale.US, "Product %07d", index);
+    }
+
+    private static ContentValues product(int index) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, productName(index));
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 10 + index % 90);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 1000000);
+        values.put(ProductEntry.COLUMN_SUPPLIER_NAME, index % 7);
+        values.put(ProductEntry.COLUMN_SUPPLIER_PHONE, "0212584" + (1000 + index % 9000));
+        return values;
+    }
+
+    private static ContentValues sale(long productId, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(SaleEntry.COLUMN_SALE_PRODUCT_ID, productId);
+        values.put(SaleEntry.COLUMN_SALE_PRICE, 10 + (int) (productId % 90));
+        values.put(SaleEntry.COLUMN_SALE_QUANTITY, quantity);
+        return values;
+    }
+
+    /** Reads every column of every row, so that queries are measured with their cursor fill. */
+    private static void consume(Cursor cursor) {
+        try {
+            int columns = cursor.getColumnCount();
+            while (cursor.moveToNext()) {
+                for (int i = 0; i < columns; i++) {
+                    cursor.getString(i);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int randomRow(int tableRows) {
+        return mRandom.nextInt(tableRows);
+    }
+
+    /** One kind of operation. Runs may create rows that a later run removes. */
+    private abstract static class Operation {
+        abstract void run(int i);
+
+        /** Called between the warm-up and the timed runs. */
+        void reset() {
+        }
+    }
+
+    private class ProductInsert extends Operation {
+        @Override
+        void run(int i) {
+            mResolver.insert(ProductEntry.CONTENT_URI, product(10000000 + i));
+        }
+    }
+
+    /** Deletes the products added by {@link ProductInsert}, so that the table keeps its size. */
+    private class ProductDelete extends Operation {
+        private final List<Long> mIds = new ArrayList<>();
+
+        private int mNext;
+
+        ProductDelete() {
+            Cursor cursor = mResolver.query(ProductEntry.CONTENT_URI, new String[]{ProductEntry._ID},
+                    ProductEntry.COLUMN_PRODUCT_NAME + " >= ?", new String[]{productName(10000000)}, null);
+            try {
+                while (cursor.moveToNext()) {
+                    mIds.add(cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        @Override
+        void run(int i) {
+            mResolver.delete(ContentUris.withAppendedId(ProductEntry.CONTENT_URI,
+                    mIds.get(mNext++ % mIds.size())), null, null);
+        }
+    }
+
+    private class ProductUpdate extends Operation {
+        private final int mTableRows;
+
+        ProductUpdate(int tableRows) {
+            mTableRows = tableRows;
+        }
+
+        @Override
+        void run(int i) {
+            ContentValues values = new ContentValues();
+            values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 10 + i % 90);
+            mResolver.update(ContentUris.withAppendedId(ProductEntry.CONTENT_URI,
+                    mFirstProductId + randomRow(mTableRows)), values, null, null);
+        }
+    }
+
+    private class ProductItemQuery extends Operation {
+        private final int mTableRows;
+
+        ProductItemQuery(int tableRows) {
+            mTableRows = tableRows;
+        }
+
+        @Override
+        void run(int i) {
+            consume(mResolver.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI,
+                    mFirstProductId + randomRow(mTableRows)), null, null, null, null));
+        }
+    }
+
+    private class ProductStockQuery extends Operation {
+        private final int mHotRows;
+
+        ProductStockQuery(int tableRows) {
+            mHotRows = Math.min(HOT_ROWS, tableRows);
+        }
+
+        @Override
+        void run(int i) {
+            consume(mResolver.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI,
+                    mFirstProductId + randomRow(mHotRows)), STOCK_PROJECTION, null, null, null));
+        }
+    }
+
+    private class ProductPageQuery extends Operation {
+        private final int mTableRows;
+
+        ProductPageQuery(int tableRows) {
+            mTableRows = tableRows;
+        }
+
+        @Override
+        void run(int i) {
+            int after = randomRow(mTableRows);
+            consume(mResolver.query(KeysetPaging.buildPageUri(ProductEntry.CONTENT_URI, PAGE_SIZE,
+                    productName(after), mFirstProductId + after), null, null, null, null));
+        }
+    }
+
+    private class ProductSell extends Operation {
+        private final int mTableRows;
+
+        ProductSell(int tableRows) {
+            mTableRows = tableRows;
+        }
+
+        @Override
+        void run(int i) {
+            mResolver.update(ProductEntry.buildSellUri(mFirstProductId + randomRow(mTableRows), 1),
+                    new ContentValues(), null, null);
+        }
+    }
+
+    private class SaleInsert extends Operation {
+        private final int mTableRows;
+
+        SaleInsert(int tableRows) {
+            mTableRows = tableRows;
+        }
+
+        @Override
+        void run(int i) {
+            mResolver.insert(SaleEntry.CONTENT_URI, sale(mFirstProductId + randomRow(mTableRows), 1));
+        }
+    }
+
+    /** Deletes the oldest sales, so that the table keeps about the size it had when filled. */
+    private class SaleDelete extends Operation {
+        private long mNextId = mFirstSaleId;
+
+        @Override
+        void run(int i) {
+            mResolver.delete(ContentUris.withAppendedId(SaleEntry.CONTENT_URI, mNextId++), null, null);
+        }
+    }
+
+    private class SaleUpdate extends Operation {
+        private final int mTableRows;
+
+        SaleUpdate(int tableRows) {
+            mTableRows = tableRows;
+        }
+
+        @Override
+        void run(int i) {
+            ContentValues values = new ContentValues();
+            values.put(SaleEntry.COLUMN_SALE_QUANTITY, 1 + i % 5);
+            mResolver.update(ContentUris.withAppendedId(SaleEntry.CONTENT_URI,
+                    mFirstSaleId + randomRow(mTableRows)), values, null, null);
+        }
+    }
+
+    private class SaleItemQuery extends Operation {
+        private final int mTableRows;
+
+        SaleItemQuery(int tableRows) {
+            mTableRows = tableRows;
+        }
+
+        @Override
+        void run(int i) {
+            consume(mResolver.query(ContentUris.withAppendedId(SaleEntry.CONTENT_URI,
+                    mFirstSaleId + randomRow(mTableRows)), null, null, null, null));
+        }
+    }
+
+    private class SalePageQuery extends Operation {
+        private final int mTableRows;
+
+        SalePageQuery(int tableRows) {
+            mTableRows = tableRows;
+        }
+
+        @Override
+        void run(int i) {
+            consume(mResolver.query(KeysetPaging.buildPageUri(SaleEntry.CONTENT_URI, PAGE_SIZE, null,
+                    mFirstSaleId + randomRow(mTableRows)), null, null, null, null));
+        }
+    }
+
+    private class SaleSummaryQuery extends Operation {
+        private final int mTableRows;
+
+        SaleSummaryQuery(int tableRows) {
+            mTableRows = tableRows;
+        }
+
+        @Override
+        void run(int i) {
+            consume(mResolver.query(SaleSummaryEntry.PRODUCT_URI, null,
+                    SaleSummaryEntry.COLUMN_PRODUCT_ID + " = ?",
+                    new String[]{String.valueOf(mFirstProductId + randomRow(mTableRows))}, null));
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.android.inventoryapp;
+
+import android.app.Application;
+import android.content.Context;
+import android.os.StrictMode;
+
+import com.example.android.inventoryapp.data.SalesAndProductsDbHelper;
+
+/**
+ * The inventory app. It opens the database in the background as soon as the process starts, and
+ * measures the start through {@link StartupTimer}. In debug builds it reports disk access on the
+ * main thread, which should all go through
+ * {@link com.example.android.inventoryapp.data.DataOperationQueue} or a loader.
+ */
+public class InventoryApplication extends Application {
+
+    @Override
+    protected void attachBaseContext(Context base) {
+        super.attachBaseContext(base);
+        // The earliest point of the process the app can see, before the providers are created
+        StartupTimer.start();
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // Opened while the first activity is created, instead of in its first query
+        SalesAndProductsDbHelper.getInstance(this).warmUp();
+
+        if (BuildConfig.DEBUG) {
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectDiskReads()
+                    .detectDiskWrites()
+                    .penaltyLog()
+                    .build());
+        }
+    }
+}
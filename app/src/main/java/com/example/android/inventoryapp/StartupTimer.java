@@ -0,0 +1,105 @@
+package com.example.android.inventoryapp;
+
+import android.app.Activity;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * Measures the start of the app: the time from process start to the first frame of the product
+ * list, and to the first frame that shows its first page of products. Both are written to
+ * logcat under the {@link #LOG_TAG} tag; the second is also reported to the system as fully
+ * drawn, so that it shows up in {@code adb shell am start -W} and in the "Fully drawn" log line.
+ *
+ * Only the first launch after {@link #start()} is measured. Used on the main thread; the times
+ * can be read from any thread.
+ */
+public final class StartupTimer {
+
+    public static final String LOG_TAG = "Startup";
+
+    private static volatile long sStart = SystemClock.uptimeMillis();
+
+    private static volatile long sFirstFrame = -1;
+
+    private static volatile long sFullList = -1;
+
+    private StartupTimer() {}
+
+    /**
+     * Starts measuring, forgetting the times measured before.
+     */
+    public static void start() {
+        sStart = SystemClock.uptimeMillis();
+        sFirstFrame = -1;
+        sFullList = -1;
+    }
+
+    /**
+     * Records the time of the next frame of the activity as the first frame, unless one was
+     * recorded already.
+     */
+    public static void reportFirstFrame(Activity activity) {
+        if (sFirstFrame != -1) {
+            return;
+        }
+        onNextFrame(activity.getWindow().getDecorView(), new Runnable() {
+            @Override
+            public void run() {
+                if (sFirstFrame == -1) {
+                    sFirstFrame = SystemClock.uptimeMillis() - sStart;
+                    Log.i(LOG_TAG, "First frame after " + sFirstFrame + " ms");
+                }
+            }
+        });
+    }
+
+    /**
+     * Records the time of the next frame of the activity as the first frame of the full list,
+     * unless one was recorded already. Call it once the list has its first rows.
+     */
+    public static void reportFullList(final Activity activity) {
+        if (sFullList != -1) {
+            return;
+        }
+        onNextFrame(activity.getWindow().getDecorView(), new Runnable() {
+            @Override
+            public void run() {
+                if (sFullList == -1) {
+                    sFullList = SystemClock.uptimeMillis() - sStart;
+                    Log.i(LOG_TAG, "Full list after " + sFullList + " ms");
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                        activity.reportFullyDrawn();
+                    }
+                }
+            }
+        });
+    }
+
+    /** Returns the milliseconds from start to the first frame, or -1 if not drawn yet. */
+    public static long getFirstFrameMillis() {
+        return sFirstFrame;
+    }
+
+    /** Returns the milliseconds from start to the first frame of the list, or -1 if not drawn yet. */
+    public static long getFullListMillis() {
+        return sFullList;
+    }
+
+    /** Runs the action when the next frame of the view's window is about to be drawn. */
+    private static void onNextFrame(View view, final Runnable action) {
+        final ViewTreeObserver observer = view.getViewTreeObserver();
+        observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                if (observer.isAlive()) {
+                    observer.removeOnPreDrawListener(this);
+                }
+                action.run();
+                return true;
+            }
+        });
+    }
+}
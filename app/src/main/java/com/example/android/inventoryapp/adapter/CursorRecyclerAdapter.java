@@ -0,0 +1,143 @@
+package com.example.android.inventoryapp.adapter;
+
+import android.database.Cursor;
+import android.provider.BaseColumns;
+import android.support.v4.os.TraceCompat;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+
+import com.example.android.inventoryapp.data.RowSnapshot;
+
+/**
+ * {@link CursorRecyclerAdapter} is a base adapter for a {@link RecyclerView} that uses a
+ * {@link Cursor} as its data source. Items have stable ids, taken from the
+ * {@link BaseColumns#_ID} column.
+ *
+ * When a new cursor carries a {@link RowSnapshot} diffed against the cursor shown before, only
+ * the rows that changed are rebound. Any other cursor rebinds every visible row.
+ */
+public abstract class CursorRecyclerAdapter<VH extends RecyclerView.ViewHolder>
+        extends RecyclerView.Adapter<VH> {
+
+    private Cursor mCursor;
+
+    /** Snapshot of {@link #mCursor}, or null if it has none */
+    private RowSnapshot mSnapshot;
+
+    private int mIdColumn;
+
+    /** Number of cursors swapped in, which versions the rows of cursors without a snapshot */
+    private int mGeneration;
+
+    /** View shown instead of the list while it has no items */
+    private View mEmptyView;
+
+    protected CursorRecyclerAdapter() {
+        setHasStableIds(true);
+    }
+
+    /**
+     * Binds the row the cursor is moved to.
+     *
+     * @param version version of the row, as returned by {@link #getItemVersion(int)}
+     */
+    protected abstract void onBindViewHolder(VH holder, Cursor cursor, long id, int version);
+
+    /**
+     * Called when a new cursor is swapped in, before any of its rows are bound. Subclasses look
+     * up the columns they bind here, rather than for every row.
+     */
+    protected abstract void onCursorSwapped(Cursor newCursor);
+
+    @Override
+    public final void onBindViewHolder(VH holder, int position) {
+        long id = getItemId(position);
+        mCursor.moveToPosition(position);
+        onBindViewHolder(holder, mCursor, id, getItemVersion(position));
+    }
+
+    @Override
+    public int getItemCount() {
+        return mCursor == null ? 0 : mCursor.getCount();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        if (mSnapshot != null) {
+            return mSnapshot.getId(position);
+        }
+        mCursor.moveToPosition(position);
+        return mCursor.getLong(mIdColumn);
+    }
+
+    /**
+     * Returns a version of the row at the given position, which changes whenever the row does.
+     * Versions are only meaningful between rows with the same id.
+     */
+    public int getItemVersion(int position) {
+        return mSnapshot != null ? mSnapshot.getRowVersion(position) : mGeneration;
+    }
+
+    /**
+     * Returns the position of the row with the given id, or -1 if it is not in the list.
+     */
+    public int findPosition(long id) {
+        for (int position = 0; position < getItemCount(); position++) {
+            if (getItemId(position) == id) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    public Cursor getCursor() {
+        return mCursor;
+    }
+
+    /**
+     * Shows a new cursor. The old cursor is returned and not closed; the loader it came from
+     * owns it.
+     *
+     * @return the previous cursor, or null if it is the same as the new one
+     */
+    public Cursor swapCursor(Cursor newCursor) {
+        TraceCompat.beginSection("CursorRecyclerAdapter.swapCursor");
+        try {
+            if (newCursor == mCursor) {
+                return null;
+            }
+            Cursor oldCursor = mCursor;
+            RowSnapshot shown = mSnapshot;
+            mCursor = newCursor;
+            mSnapshot = newCursor instanceof RowSnapshot.Holder
+                    ? ((RowSnapshot.Holder) newCursor).getRowSnapshot() : null;
+            mGeneration++;
+            if (newCursor != null) {
+                mIdColumn = newCursor.getColumnIndexOrThrow(BaseColumns._ID);
+                onCursorSwapped(newCursor);
+            }
+
+            if (mSnapshot == null || !mSnapshot.dispatchUpdatesTo(this, shown)) {
+                notifyDataSetChanged();
+            }
+            updateEmptyView();
+            return oldCursor;
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * Sets the view shown instead of the list while it has no items.
+     */
+    public void setEmptyView(View emptyView) {
+        mEmptyView = emptyView;
+        updateEmptyView();
+    }
+
+    private void updateEmptyView() {
+        if (mEmptyView != null) {
+            mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
+        }
+    }
+}
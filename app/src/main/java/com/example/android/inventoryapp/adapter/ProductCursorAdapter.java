@@ -2,28 +2,58 @@ package com.example.android.inventoryapp.adapter;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.provider.BaseColumns;
-import android.renderscript.Sampler;
-import android.support.v4.widget.CursorAdapter;
-import android.text.TextUtils;
+import android.support.v4.os.TraceCompat;
+import android.support.v7.widget.RecyclerView;
+import android.util.LongSparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.example.android.inventoryapp.R;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
 
 /**
- * {@link ProductCursorAdapter} is an adapter for a list or grid view
+ * {@link ProductCursorAdapter} is an adapter for a {@link RecyclerView}
  * that uses a {@link Cursor} of product data as its data source. This adapter knows
  * how to create list items for each row of product data in the {@link Cursor}.
  */
-public class ProductCursorAdapter extends CursorAdapter {
+public class ProductCursorAdapter extends CursorRecyclerAdapter<ProductCursorAdapter.ViewHolder> {
+
+    /** Number of rows whose texts are kept, a few screens' worth */
+    private static final int CACHED_ROWS = 256;
+
+    /** Positions of the texts of a row in {@link #mTextCache} */
+    private static final int TEXT_NAME = 0;
+    private static final int TEXT_PRICE = 1;
+    private static final int TEXT_QUANTITY = 2;
+    private static final int TEXT_IMAGE = 3;
 
     OnProductInteractionListener listener;
 
+    private final LayoutInflater mInflater;
+
+    private final RowTextCache mTextCache = new RowTextCache( CACHED_ROWS, 4 );
+
+    private final ThumbnailLoader mThumbnails;
+
+    /** Side of the photo of a row in pixels, the size thumbnails are decoded at */
+    private final int mThumbnailSize;
+
+    /** Stock shown instead of the loaded one, for products sold since the cursor was loaded */
+    private final LongSparseArray<Integer> mShownQuantities = new LongSparseArray<>();
+
+    /** Products whose shown stock is final, and is dropped when the next cursor is swapped in */
+    private final LongSparseArray<Boolean> mSettledQuantities = new LongSparseArray<>();
+
+    /** Columns of product attributes that we're interested in, looked up once per cursor */
+    private int mNameColumnIndex;
+    private int mPriceColumnIndex;
+    private int mQuantityColumnIndex;
+    private int mImageColumnIndex;
+
     public OnProductInteractionListener getListener() {
         return listener;
     }
@@ -33,80 +63,178 @@ public class ProductCursorAdapter extends CursorAdapter {
     }
 
     /**
-     * Constructs a new {@link SaleCursorAdapter}.
+     * Constructs a new {@link ProductCursorAdapter}.
      *
      * @param context The context
      * @param c       The cursor from which to get the data.
      */
     public ProductCursorAdapter(Context context, Cursor c) {
-        super( context, c, 0 /* flags */ );
+        mInflater = LayoutInflater.from( context );
+        mThumbnails = ThumbnailLoader.getInstance( context );
+        mThumbnailSize = context.getResources().getDimensionPixelSize( R.dimen.product_thumbnail_size );
+        swapCursor( c );
     }
 
     /**
-     * Makes a new blank list item view. No data is set (or bound) to the views yet.
+     * Makes a new blank list item view, and finds the views that are bound for every row.
      *
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already
-     *                moved to the correct position.
-     * @param parent  The parent to which the new view is attached to
-     * @return the newly created list item view.
+     * @param parent   The parent to which the new view is attached to
+     * @param viewType The type of the new view; there is only one
+     * @return a holder of the newly created list item view.
      */
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         // Inflate a list item view using the layout specified in list_item.xml
-        return LayoutInflater.from( context ).inflate( R.layout.list_item, parent, false );
+        return new ViewHolder( mInflater.inflate( R.layout.list_item, parent, false ) );
+    }
+
+    @Override
+    protected void onCursorSwapped(Cursor newCursor) {
+        // Find the columns of product attributes that we're interested in
+        mNameColumnIndex = newCursor.getColumnIndex( ProductEntry.COLUMN_PRODUCT_NAME );
+        mPriceColumnIndex = newCursor.getColumnIndex( ProductEntry.COLUMN_PRODUCT_PRICE );
+        mQuantityColumnIndex = newCursor.getColumnIndex( ProductEntry.COLUMN_PRODUCT_QUANTITY );
+        mImageColumnIndex = newCursor.getColumnIndex( ProductEntry.COLUMN_PRODUCT_IMAGE );
+
+        // The new cursor was loaded after the settled sales were committed
+        for (int i = 0; i < mSettledQuantities.size(); i++) {
+            mShownQuantities.remove( mSettledQuantities.keyAt( i ) );
+        }
+        mSettledQuantities.clear();
+    }
+
+    /**
+     * Returns the stock shown for a product, or -1 if the product is not in the list.
+     */
+    public int getQuantity(long id) {
+        Integer shownQuantity = mShownQuantities.get( id );
+        if (shownQuantity != null) {
+            return shownQuantity;
+        }
+        int position = findPosition( id );
+        if (position < 0) {
+            return -1;
+        }
+        Cursor cursor = getCursor();
+        cursor.moveToPosition( position );
+        return cursor.getInt( mQuantityColumnIndex );
+    }
+
+    /**
+     * Shows a stock for a product in place of the loaded one, such as the stock expected once
+     * sales still being committed are done.
+     *
+     * @param settled whether the stock is final; it is then shown until the next cursor is
+     *                swapped in, and is otherwise shown until {@link #clearQuantity(long)}
+     */
+    public void showQuantity(long id, int quantity, boolean settled) {
+        mShownQuantities.put( id, quantity );
+        if (settled) {
+            mSettledQuantities.put( id, Boolean.TRUE );
+        } else {
+            mSettledQuantities.remove( id );
+        }
+        notifyProductChanged( id );
+    }
+
+    /**
+     * Shows the loaded stock of a product again.
+     */
+    public void clearQuantity(long id) {
+        mShownQuantities.remove( id );
+        mSettledQuantities.remove( id );
+        notifyProductChanged( id );
+    }
+
+    private void notifyProductChanged(long id) {
+        int position = findPosition( id );
+        if (position >= 0) {
+            notifyItemChanged( position );
+        }
     }
 
     /**
      * This method binds the product data (in the current row pointed to by cursor) to the given
-     * list item layout. For example, the name for the current product can be set on the name TextView
-     * in the list item layout.
+     * list item. For example, the name for the current product can be set on the name TextView
+     * in the list item layout. Rows bound before are shown from the text cache.
      *
-     * @param view    Existing view, returned earlier by newView() method
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already moved to the
-     *                correct row.
+     * @param holder Holder of the list item, returned earlier by onCreateViewHolder() method
+     * @param cursor The cursor from which to get the data. The cursor is already moved to the
+     *               correct row.
      */
     @Override
-    public void bindView(View view, Context context, Cursor cursor) {
-        // Find individual views that we want to modify in the list item layout
-        TextView nameTextView = (TextView) view.findViewById( R.id.name );
-        TextView priceTextView = (TextView) view.findViewById( R.id.price );
-        TextView quantityTextView = (TextView) view.findViewById( R.id.quantity );
-
-        // Find the columns of product attributes that we're interested in
-        int idIndex = cursor.getColumnIndex( ProductEntry._ID );
-        int nameColumnIndex = cursor.getColumnIndex( ProductEntry.COLUMN_PRODUCT_NAME );
-        int priceColumnIndex = cursor.getColumnIndex( ProductEntry.COLUMN_PRODUCT_PRICE );
-        int quantityColumnIndex = cursor.getColumnIndex( ProductEntry.COLUMN_PRODUCT_QUANTITY );
-
-        // Read the product attributes from the Cursor for the current product
-        final long id = cursor.getLong( idIndex );
-        String productProductName = cursor.getString( nameColumnIndex );
-        int productProductPrice = cursor.getInt( priceColumnIndex );
-        int productProductQuantity = cursor.getInt( quantityColumnIndex );
-
-
-        // Update the TextViews with the attributes for the current product
-        nameTextView.setText( productProductName );
-        priceTextView.setText( String.valueOf( productProductPrice ) );
-        quantityTextView.setText( String.valueOf( productProductQuantity ) );
-
-        view.setOnClickListener( new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                getListener().onItemClick( id );
+    protected void onBindViewHolder(ViewHolder holder, Cursor cursor, long id, int version) {
+        TraceCompat.beginSection( "ProductCursorAdapter.bind" );
+        try {
+            String[] texts = mTextCache.get( id, version );
+            if (texts == null) {
+                // Read the product attributes from the Cursor for the current product
+                texts = mTextCache.put( id, version );
+                texts[TEXT_NAME] = cursor.getString( mNameColumnIndex );
+                texts[TEXT_PRICE] = String.valueOf( cursor.getInt( mPriceColumnIndex ) );
+                texts[TEXT_QUANTITY] = String.valueOf( cursor.getInt( mQuantityColumnIndex ) );
+                texts[TEXT_IMAGE] = mImageColumnIndex < 0 ? null : cursor.getString( mImageColumnIndex );
             }
-        } );
 
-        Button saleButton = view.findViewById( R.id.sale_button );
-        saleButton.setOnClickListener( new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                getListener().onSaleButtonClick( id );
-            }
-        } );
+            // Update the TextViews with the attributes for the current product
+            holder.nameTextView.setText( texts[TEXT_NAME] );
+            holder.priceTextView.setText( texts[TEXT_PRICE] );
+            Integer shownQuantity = mShownQuantities.get( id );
+            holder.quantityTextView.setText( shownQuantity == null
+                    ? texts[TEXT_QUANTITY] : String.valueOf( shownQuantity ) );
+
+            // Shown from memory if it was shown recently, and decoded in the background otherwise
+            mThumbnails.load( holder.photoView, texts[TEXT_IMAGE], mThumbnailSize );
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * Drops the photo load of a row scrolled out of the list, so that a fling does not decode
+     * the photos of rows that are no longer shown.
+     */
+    @Override
+    public void onViewRecycled(ViewHolder holder) {
+        mThumbnails.cancel( holder.photoView );
+    }
 
+    /**
+     * Holds the views of a list item. The click listeners are set once, and look up the id of
+     * the product the item shows when clicked.
+     */
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        final TextView nameTextView;
+        final TextView priceTextView;
+        final TextView quantityTextView;
+        final ImageView photoView;
+        final Button saleButton;
+
+        ViewHolder(View itemView) {
+            super( itemView );
+            nameTextView = (TextView) itemView.findViewById( R.id.name );
+            priceTextView = (TextView) itemView.findViewById( R.id.price );
+            quantityTextView = (TextView) itemView.findViewById( R.id.quantity );
+            photoView = (ImageView) itemView.findViewById( R.id.photo );
+            saleButton = (Button) itemView.findViewById( R.id.sale_button );
+
+            itemView.setOnClickListener( this );
+            saleButton.setOnClickListener( this );
+        }
+
+        @Override
+        public void onClick(View v) {
+            // The item may be on its way out of the list
+            if (getAdapterPosition() == RecyclerView.NO_POSITION || getListener() == null) {
+                return;
+            }
+            if (v == saleButton) {
+                getListener().onSaleButtonClick( getItemId() );
+            } else {
+                getListener().onItemClick( getItemId() );
+            }
+        }
     }
 
     public interface OnProductInteractionListener {
@@ -0,0 +1,62 @@
+package com.example.android.inventoryapp.adapter;
+
+/**
+ * The texts shown for recently bound rows, so that binding a row seen before neither reads the
+ * cursor nor formats its values again.
+ *
+ * Rows are cached by id and version, in a fixed number of slots chosen by id. A row replaces the
+ * row that had its slot, so the cache never grows, and a lookup allocates nothing.
+ */
+final class RowTextCache {
+
+    private final int mMask;
+
+    private final long[] mIds;
+
+    private final int[] mVersions;
+
+    /** Whether a slot holds the texts of a row */
+    private final boolean[] mFilled;
+
+    private final String[][] mTexts;
+
+    /**
+     * @param capacity number of rows kept, rounded up to a power of two
+     * @param fields   number of texts shown for a row
+     */
+    RowTextCache(int capacity, int fields) {
+        int slots = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        mMask = slots - 1;
+        mIds = new long[slots];
+        mVersions = new int[slots];
+        mFilled = new boolean[slots];
+        mTexts = new String[slots][fields];
+    }
+
+    /**
+     * Returns the texts cached for a row, or null if they are not cached. The array belongs to
+     * the cache and must not be changed.
+     */
+    String[] get(long id, int version) {
+        int slot = slot(id);
+        if (mFilled[slot] && mIds[slot] == id && mVersions[slot] == version) {
+            return mTexts[slot];
+        }
+        return null;
+    }
+
+    /**
+     * Claims the slot of a row, and returns the array its texts are to be written to.
+     */
+    String[] put(long id, int version) {
+        int slot = slot(id);
+        mIds[slot] = id;
+        mVersions[slot] = version;
+        mFilled[slot] = true;
+        return mTexts[slot];
+    }
+
+    private int slot(long id) {
+        return (int) (id ^ (id >>> 32)) & mMask;
+    }
+}
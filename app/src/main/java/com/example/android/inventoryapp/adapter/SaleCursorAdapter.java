@@ -2,24 +2,49 @@ package com.example.android.inventoryapp.adapter;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.text.TextUtils;
+import android.support.v4.os.TraceCompat;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.Button;
-import android.widget.CursorAdapter;
 import android.widget.TextView;
 
 import com.example.android.inventoryapp.R;
 import com.example.android.inventoryapp.data.SaleContract.SaleEntry;
 
 /**
- * {@link SaleCursorAdapter} is an adapter for a list or grid view
- * that uses a {@link Cursor} of pet data as its data source. This adapter knows
- * how to create list items for each row of pet data in the {@link Cursor}.
+ * {@link SaleCursorAdapter} is an adapter for a {@link RecyclerView}
+ * that uses a {@link Cursor} of sale data as its data source. This adapter knows
+ * how to create list items for each row of sale data in the {@link Cursor}.
  */
-public class SaleCursorAdapter  extends CursorAdapter{
+public class SaleCursorAdapter extends CursorRecyclerAdapter<SaleCursorAdapter.ViewHolder> {
 
+    /** Number of rows whose texts are kept, a few screens' worth */
+    private static final int CACHED_ROWS = 256;
+
+    /** Positions of the texts of a row in {@link #mTextCache} */
+    private static final int TEXT_NAME = 0;
+    private static final int TEXT_PRICE = 1;
+    private static final int TEXT_QUANTITY = 2;
+
+    OnSaleInteractionListener listener;
+
+    private final LayoutInflater mInflater;
+
+    private final RowTextCache mTextCache = new RowTextCache(CACHED_ROWS, 3);
+
+    /** Columns of sale attributes that we're interested in, looked up once per cursor */
+    private int mNameColumnIndex;
+    private int mPriceColumnIndex;
+    private int mQuantityColumnIndex;
+
+    public OnSaleInteractionListener getListener() {
+        return listener;
+    }
+
+    public void setListener(OnSaleInteractionListener listener) {
+        this.listener = listener;
+    }
 
     /**
      * Constructs a new {@link SaleCursorAdapter}.
@@ -28,59 +53,94 @@ public class SaleCursorAdapter  extends CursorAdapter{
      * @param c       The cursor from which to get the data.
      */
     public SaleCursorAdapter(Context context, Cursor c) {
-        super(context, c, 0 /* flags */);
+        mInflater = LayoutInflater.from(context);
+        swapCursor(c);
     }
 
     /**
-     * Makes a new blank list item view. No data is set (or bound) to the views yet.
+     * Makes a new blank list item view, and finds the views that are bound for every row.
      *
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already
-     *                moved to the correct position.
-     * @param parent  The parent to which the new view is attached to
-     * @return the newly created list item view.
+     * @param parent   The parent to which the new view is attached to
+     * @param viewType The type of the new view; there is only one
+     * @return a holder of the newly created list item view.
      */
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         // Inflate a list item view using the layout specified in list_item.xml
-        return LayoutInflater.from(context).inflate( R.layout.list_item, parent, false);
+        return new ViewHolder(mInflater.inflate(R.layout.list_item, parent, false));
+    }
+
+    @Override
+    protected void onCursorSwapped(Cursor newCursor) {
+        // Find the columns of sale attributes that we're interested in
+        mNameColumnIndex = newCursor.getColumnIndex( SaleEntry.COLUMN_SALE_PRODUCT_NAME);
+        mPriceColumnIndex = newCursor.getColumnIndex( SaleEntry.COLUMN_SALE_PRICE);
+        mQuantityColumnIndex = newCursor.getColumnIndex( SaleEntry.COLUMN_SALE_QUANTITY);
     }
 
     /**
-     * This method binds the pet data (in the current row pointed to by cursor) to the given
-     * list item layout. For example, the name for the current pet can be set on the name TextView
-     * in the list item layout.
+     * This method binds the sale data (in the current row pointed to by cursor) to the given
+     * list item. For example, the name of the product sold can be set on the name TextView
+     * in the list item layout. Rows bound before are shown from the text cache.
      *
-     * @param view    Existing view, returned earlier by newView() method
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already moved to the
-     *                correct row.
+     * @param holder Holder of the list item, returned earlier by onCreateViewHolder() method
+     * @param cursor The cursor from which to get the data. The cursor is already moved to the
+     *               correct row.
      */
     @Override
-    public void bindView(View view, Context context, Cursor cursor) {
-        // Find individual views that we want to modify in the list item layout
-        TextView nameTextView = (TextView) view.findViewById(R.id.name);
-        TextView priceTextView = (TextView) view.findViewById(R.id.price);
-        TextView quantityTextView = (TextView) view.findViewById( R.id.quantity );
+    protected void onBindViewHolder(ViewHolder holder, Cursor cursor, long id, int version) {
+        TraceCompat.beginSection("SaleCursorAdapter.bind");
+        try {
+            String[] texts = mTextCache.get(id, version);
+            if (texts == null) {
+                // Read the sale attributes from the Cursor for the current sale
+                texts = mTextCache.put(id, version);
+                texts[TEXT_NAME] = cursor.getString(mNameColumnIndex);
+                texts[TEXT_PRICE] = String.valueOf(cursor.getInt(mPriceColumnIndex));
+                texts[TEXT_QUANTITY] = String.valueOf(cursor.getInt(mQuantityColumnIndex));
+            }
+
+            // Update the TextViews with the attributes for the current sale
+            holder.nameTextView.setText(texts[TEXT_NAME]);
+            holder.priceTextView.setText(texts[TEXT_PRICE]);
+            holder.quantityTextView.setText(texts[TEXT_QUANTITY]);
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
 
-        // Find the columns of product attributes that we're interested in
-        int nameColumnIndex = cursor.getColumnIndex( SaleEntry.COLUMN_SALE_PRODUCT_NAME);
-        int priceColumnIndex = cursor.getColumnIndex( SaleEntry.COLUMN_SALE_PRICE);
-        int quantityColumnIndex = cursor.getColumnIndex( SaleEntry.COLUMN_SALE_QUANTITY);
+    /**
+     * Holds the views of a list item. The click listener is set once, and looks up the id of
+     * the sale the item shows when clicked.
+     */
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
 
-        // Read the product attributes from the Cursor for the current product
-        String saleProductName = cursor.getString(nameColumnIndex);
-        int saleProductPrice = cursor.getInt(priceColumnIndex);
-        int saleProductQuantity = cursor.getInt(quantityColumnIndex);
+        final TextView nameTextView;
+        final TextView priceTextView;
+        final TextView quantityTextView;
 
+        ViewHolder(View itemView) {
+            super(itemView);
+            nameTextView = (TextView) itemView.findViewById(R.id.name);
+            priceTextView = (TextView) itemView.findViewById(R.id.price);
+            quantityTextView = (TextView) itemView.findViewById( R.id.quantity );
 
-        // Update the TextViews with the attributes for the current product
-        nameTextView.setText(saleProductName);
-        priceTextView.setText(String.valueOf( saleProductPrice ));
-        quantityTextView.setText(String.valueOf( saleProductQuantity ));
+            // Sales can't be sold again
+            itemView.findViewById( R.id.sale_button ).setVisibility( View.INVISIBLE );
+            itemView.setOnClickListener(this);
+        }
 
-        Button saleButton = (Button) view.findViewById( R.id.sale_button );
-        saleButton.setVisibility( View.INVISIBLE );
+        @Override
+        public void onClick(View v) {
+            // The item may be on its way out of the list
+            if (getAdapterPosition() == RecyclerView.NO_POSITION || getListener() == null) {
+                return;
+            }
+            getListener().onItemClick(getItemId());
+        }
+    }
 
+    public interface OnSaleInteractionListener {
+        void onItemClick(long id);
     }
 }
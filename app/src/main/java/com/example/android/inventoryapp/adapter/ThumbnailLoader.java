@@ -0,0 +1,382 @@
+package com.example.android.inventoryapp.adapter;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v4.os.TraceCompat;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.android.inventoryapp.data.ProductPhotos;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shows square thumbnails of product photos in image views, decoded off the main thread.
+ *
+ * A thumbnail is decoded once at the size of the view: the photo is subsampled by the largest
+ * power of two that keeps it at least that size, then scaled and cropped to it exactly. It is
+ * kept in a memory cache of recently shown thumbnails, bounded in bytes, and saved as a small
+ * JPEG in a disk cache in the cache directory, bounded by {@link #DISK_CACHE_BYTES}, so that it
+ * is not decoded again after the process restarts. Photo paths are never reused for another
+ * image, so thumbnails are keyed by path and size and never go stale.
+ *
+ * Loads run on {@link #THREADS} background threads, newest first, so the rows on screen come
+ * before those scrolled past. Loading another photo into a view, or cancelling it when its row
+ * is recycled, drops the load of the view before it is decoded. Used on the main thread only,
+ * apart from the loads themselves.
+ */
+public final class ThumbnailLoader {
+
+    private static final String LOG_TAG = ThumbnailLoader.class.getSimpleName();
+
+    /** Directory of the disk cache in the cache directory */
+    private static final String DIRECTORY = "thumbnails";
+
+    /** Bytes of thumbnails kept on disk; the least recently used ones are deleted above it */
+    private static final long DISK_CACHE_BYTES = 16L * 1024 * 1024;
+
+    /** Fraction of the app's heap limit the memory cache may take */
+    private static final int MEMORY_CACHE_SHARE = 8;
+
+    private static final int JPEG_QUALITY = 85;
+
+    private static final int THREADS = 2;
+
+    /** One loader per cache directory, so that tests with their own directory get their own */
+    private static final Map<String, ThumbnailLoader> sInstances = new HashMap<>();
+
+    private final File mDirectory;
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** The load of every view that has not shown its thumbnail yet */
+    private final Map<ImageView, Load> mLoads = new WeakHashMap<>();
+
+    /** Bytes of the disk cache, or -1 until it is first measured. Used by the loads only. */
+    private long mDiskBytes = -1;
+
+    ThumbnailLoader(File directory, int memoryCacheBytes) {
+        mDirectory = directory;
+        mMemoryCache = new LruCache<String, Bitmap>(memoryCacheBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+
+        // A deque taken from the front, so that the last load enqueued runs first
+        LinkedBlockingDeque<Runnable> queue = new LinkedBlockingDeque<Runnable>() {
+            @Override
+            public boolean offer(Runnable runnable) {
+                return offerFirst(runnable);
+            }
+        };
+        mExecutor = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.MILLISECONDS, queue,
+                new ThreadFactory() {
+                    private int mCount;
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, "thumbnail-" + mCount++);
+                    }
+                });
+    }
+
+    /**
+     * Returns the loader shared by the whole process, creating it on first use. Its memory
+     * cache is emptied when the system runs low on memory.
+     */
+    public static synchronized ThumbnailLoader getInstance(Context context) {
+        File directory = new File(context.getCacheDir(), DIRECTORY);
+        ThumbnailLoader loader = sInstances.get(directory.getPath());
+        if (loader == null) {
+            ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+            int memoryCacheBytes = activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CACHE_SHARE;
+            loader = new ThumbnailLoader(directory, memoryCacheBytes);
+            final ThumbnailLoader trimmed = loader;
+            context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+                @Override
+                public void onTrimMemory(int level) {
+                    trimmed.trimMemory(level);
+                }
+
+                @Override
+                public void onConfigurationChanged(Configuration configuration) {
+                }
+
+                @Override
+                public void onLowMemory() {
+                    trimmed.trimMemory(TRIM_MEMORY_COMPLETE);
+                }
+            });
+            sInstances.put(directory.getPath(), loader);
+        }
+        return loader;
+    }
+
+    /**
+     * Shows the thumbnail of a photo in a view, at once if it is in memory and otherwise once it
+     * is loaded. The view is empty until then, or for good if the photo cannot be read.
+     *
+     * @param path path of the photo, or null to show nothing
+     * @param size width and height of the thumbnail in pixels, usually those of the view
+     */
+    public void load(ImageView view, String path, int size) {
+        cancel(view);
+        if (path == null) {
+            view.setImageDrawable(null);
+            return;
+        }
+        String key = key(path, size);
+        Bitmap thumbnail = mMemoryCache.get(key);
+        if (thumbnail != null) {
+            view.setImageBitmap(thumbnail);
+            return;
+        }
+        view.setImageDrawable(null);
+        Load load = new Load(view, path, size, key);
+        mLoads.put(view, load);
+        mExecutor.execute(load);
+    }
+
+    /**
+     * Drops the load of a view, for instance because its row was recycled. The view keeps what
+     * it shows.
+     */
+    public void cancel(ImageView view) {
+        Load load = mLoads.remove(view);
+        if (load != null) {
+            load.mCancelled = true;
+            // A load still queued is removed; one being decoded finishes and fills the caches
+            mExecutor.remove(load);
+        }
+    }
+
+    private void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            mMemoryCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            mMemoryCache.trimToSize(mMemoryCache.maxSize() / 2);
+        }
+    }
+
+    private static String key(String path, int size) {
+        return size + ":" + path;
+    }
+
+    /** Returns the name of the disk cache file of a thumbnail: a digest of its key. */
+    private static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2 + 4);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.append(".jpg").toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // Both are required on every platform
+            throw new AssertionError(e);
+        }
+    }
+
+    /** Runs on a load thread. */
+    private Bitmap loadThumbnail(String path, int size, String key) {
+        File cached = new File(mDirectory, fileName(key));
+        if (cached.isFile()) {
+            Bitmap thumbnail = BitmapFactory.decodeFile(cached.getPath());
+            if (thumbnail != null) {
+                // Keeps it from being trimmed first
+                cached.setLastModified(System.currentTimeMillis());
+                return thumbnail;
+            }
+        }
+
+        Bitmap thumbnail = decode(path, size);
+        if (thumbnail != null) {
+            save(thumbnail, cached);
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Decodes a square thumbnail of the given size from a photo, or returns null if the photo
+     * cannot be read.
+     */
+    static Bitmap decode(String path, int size) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Log.w(LOG_TAG, "Not an image: " + path);
+            return null;
+        }
+        options.inSampleSize = ProductPhotos.sampleSize(options.outWidth, options.outHeight, size);
+        options.inJustDecodeBounds = false;
+        Bitmap sampled = BitmapFactory.decodeFile(path, options);
+        if (sampled == null) {
+            return null;
+        }
+
+        // Scale the center square to the size
+        int side = Math.min(sampled.getWidth(), sampled.getHeight());
+        Matrix matrix = new Matrix();
+        matrix.setScale(size / (float) side, size / (float) side);
+        Bitmap thumbnail = Bitmap.createBitmap(sampled, (sampled.getWidth() - side) / 2,
+                (sampled.getHeight() - side) / 2, side, side, matrix, true);
+        if (thumbnail != sampled) {
+            sampled.recycle();
+        }
+        return thumbnail;
+    }
+
+    /** Writes a thumbnail to the disk cache, and trims the cache if it grew too large. */
+    private synchronized void save(Bitmap thumbnail, File file) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(LOG_TAG, "Could not create " + mDirectory);
+            return;
+        }
+        if (mDiskBytes < 0) {
+            mDiskBytes = 0;
+            File[] files = mDirectory.listFiles();
+            if (files != null) {
+                for (File cached : files) {
+                    mDiskBytes += cached.length();
+                }
+            }
+        }
+
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            thumbnail.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Could not save thumbnail " + file, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        mDiskBytes += file.length();
+        if (mDiskBytes > DISK_CACHE_BYTES) {
+            trimDisk();
+        }
+    }
+
+    /** Deletes the least recently used thumbnails until the cache is at three quarters of its bound. */
+    private void trimDisk() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long[] lastModified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return lastModified[a] < lastModified[b] ? -1 : lastModified[a] == lastModified[b] ? 0 : 1;
+            }
+        });
+        long bytes = mDiskBytes;
+        int deleted = 0;
+        for (int i = 0; i < order.length && bytes > DISK_CACHE_BYTES * 3 / 4; i++) {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete()) {
+                bytes -= length;
+                deleted++;
+            }
+        }
+        Log.d(LOG_TAG, String.format(Locale.US, "Trimmed %d thumbnails, %d KiB left",
+                deleted, bytes / 1024));
+        mDiskBytes = bytes;
+    }
+
+    /** The load of one thumbnail into one view. */
+    private final class Load implements Runnable {
+
+        private final ImageView mView;
+        private final String mPath;
+        private final int mSize;
+        private final String mKey;
+
+        volatile boolean mCancelled;
+
+        Load(ImageView view, String path, int size, String key) {
+            mView = view;
+            mPath = path;
+            mSize = size;
+            mKey = key;
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            TraceCompat.beginSection("ThumbnailLoader.load");
+            final Bitmap thumbnail;
+            try {
+                thumbnail = loadThumbnail(mPath, mSize, mKey);
+            } finally {
+                TraceCompat.endSection();
+            }
+            if (thumbnail != null) {
+                mMemoryCache.put(mKey, thumbnail);
+            }
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // The view may have been given another photo meanwhile
+                    if (mCancelled || mLoads.get(mView) != Load.this) {
+                        return;
+                    }
+                    mLoads.remove(mView);
+                    if (thumbnail != null) {
+                        mView.setImageBitmap(thumbnail);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.android.inventoryapp.data;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Reads the records of a CSV file one at a time, as spreadsheets write them: fields separated by
+ * commas, optionally quoted, with doubled quotes inside quoted fields, and records ending with
+ * LF or CRLF. Quoted fields may span lines. A byte order mark at the start is skipped.
+ *
+ * Only the current record is held in memory, whatever the size of the file.
+ */
+final class CsvReader {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final Reader mReader;
+
+    private final char[] mBuffer = new char[BUFFER_SIZE];
+    private int mPosition;
+    private int mLimit;
+
+    private final StringBuilder mField = new StringBuilder();
+
+    /** Line the next record starts on, counting from 1 */
+    private int mLine = 1;
+
+    /** Line the last record read started on */
+    private int mRecordLine;
+
+    private boolean mStarted;
+
+    CsvReader(Reader reader) {
+        mReader = reader;
+    }
+
+    /**
+     * Reads the next record into the given list, in place of its content. Blank lines are
+     * skipped.
+     *
+     * @return false at the end of the file, in which case the list is left empty
+     */
+    boolean readRecord(List<String> fields) throws IOException {
+        fields.clear();
+        int c = read();
+        if (!mStarted) {
+            mStarted = true;
+            if (c == '\uFEFF') {
+                c = read();
+            }
+        }
+        // Skip blank lines
+        while (c == '\r' || c == '\n') {
+            if (c == '\n') {
+                mLine++;
+            }
+            c = read();
+        }
+        if (c < 0) {
+            return false;
+        }
+        mRecordLine = mLine;
+
+        mField.setLength(0);
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c < 0) {
+                    throw new IOException("Quoted field not closed, started on line " + mRecordLine);
+                }
+                if (c == '"') {
+                    c = read();
+                    if (c != '"') {
+                        // The closing quote, the field goes on until the separator
+                        quoted = false;
+                        continue;
+                    }
+                } else if (c == '\n') {
+                    mLine++;
+                }
+                mField.append((char) c);
+            } else if (c == ',') {
+                fields.add(mField.toString());
+                mField.setLength(0);
+            } else if (c == '\n' || c < 0) {
+                if (c == '\n') {
+                    mLine++;
+                }
+                int end = mField.length();
+                if (end > 0 && mField.charAt(end - 1) == '\r') {
+                    mField.setLength(end - 1);
+                }
+                fields.add(mField.toString());
+                return true;
+            } else if (c == '"' && mField.length() == 0) {
+                quoted = true;
+            } else {
+                mField.append((char) c);
+            }
+            c = read();
+        }
+    }
+
+    /** Returns the line the last record read started on, counting from 1. */
+    int getRecordLine() {
+        return mRecordLine;
+    }
+
+    private int read() throws IOException {
+        if (mPosition == mLimit) {
+            mLimit = mReader.read(mBuffer, 0, mBuffer.length);
+            mPosition = 0;
+            if (mLimit <= 0) {
+                mLimit = 0;
+                return -1;
+            }
+        }
+        return mBuffer[mPosition++];
+    }
+}
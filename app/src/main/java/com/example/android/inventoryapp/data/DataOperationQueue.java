@@ -0,0 +1,158 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs the content resolver calls started from the UI on background threads, so that a slow
+ * write never blocks input.
+ *
+ * Every operation names the entity it works on, usually the content URI of a product or sale.
+ * Operations on the same entity run one after the other in the order they were enqueued;
+ * operations on different entities may run at the same time. Results are delivered on the main
+ * thread.
+ */
+public final class DataOperationQueue {
+
+    private static final String LOG_TAG = DataOperationQueue.class.getSimpleName();
+
+    /** Number of threads. Writes to the database are serialized anyway, so a few are enough */
+    private static final int STRIPES = 3;
+
+    private static DataOperationQueue sInstance;
+
+    /** A content resolver call, run on a background thread. */
+    public interface Operation<T> {
+        T run(ContentResolver resolver);
+    }
+
+    /** Receives the result of an operation, on the main thread. */
+    public interface Callback<T> {
+        /**
+         * @param result value returned by the operation, or null if it failed: the provider
+         *               rejected it, or the database or another part of the call threw. A
+         *               {@link FailureCallback} is told about failures separately.
+         */
+        void onComplete(T result);
+    }
+
+    /** A callback that tells an operation that failed apart from one that returned null. */
+    public interface FailureCallback<T> extends Callback<T> {
+        /**
+         * Called instead of {@link #onComplete} when the operation threw.
+         *
+         * @param error an {@link IllegalArgumentException} if the provider rejected the
+         *              operation, or the error of the database or another part of the call
+         */
+        void onFailure(RuntimeException error);
+    }
+
+    private final ContentResolver mResolver;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Single threaded executors; an entity always goes to the same one */
+    private final ExecutorService[] mStripes = new ExecutorService[STRIPES];
+
+    private DataOperationQueue(Context context) {
+        mResolver = context.getContentResolver();
+        for (int i = 0; i < STRIPES; i++) {
+            mStripes[i] = Executors.newSingleThreadExecutor(new StripeThreadFactory(i));
+        }
+    }
+
+    /**
+     * Returns the queue shared by the whole process, creating it on first use.
+     */
+    public static synchronized DataOperationQueue getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DataOperationQueue(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Runs an operation after the operations enqueued before on the same entity.
+     *
+     * @param entity   URI of the row or table the operation works on
+     * @param callback receives the result on the main thread, or null if it is not needed
+     */
+    public <T> void enqueue(Uri entity, final Operation<T> operation, final Callback<T> callback) {
+        mStripes[stripe(entity)].execute(new Runnable() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public void run() {
+                T result = null;
+                RuntimeException error = null;
+                try {
+                    result = operation.run(mResolver);
+                } catch (IllegalArgumentException e) {
+                    // The providers reject invalid values this way
+                    Log.e(LOG_TAG, "Operation rejected by the provider", e);
+                    error = e;
+                } catch (RuntimeException e) {
+                    // Such as a full disk or a locked database. Thrown here it would kill the
+                    // stripe's thread and the app, and the caller would never hear back.
+                    Log.e(LOG_TAG, "Operation failed", e);
+                    error = e;
+                }
+                if (error != null && callback instanceof FailureCallback) {
+                    deliverFailure((FailureCallback<T>) callback, error);
+                } else if (callback != null) {
+                    deliver(callback, result);
+                }
+            }
+        });
+    }
+
+    private <T> void deliver(final Callback<T> callback, final T result) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onComplete(result);
+            }
+        });
+    }
+
+    private void deliverFailure(final FailureCallback<?> callback, final RuntimeException error) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onFailure(error);
+            }
+        });
+    }
+
+    private static int stripe(Uri entity) {
+        return (entity.hashCode() & Integer.MAX_VALUE) % STRIPES;
+    }
+
+    private static final class StripeThreadFactory implements ThreadFactory {
+
+        private final int mStripe;
+
+        StripeThreadFactory(int stripe) {
+            mStripe = stripe;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "data-operation-" + mStripe);
+        }
+    }
+}
@@ -0,0 +1,595 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.SaleContract.SaleEntry;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Writes every product and sale to a compact backup file, and replaces them with the content of
+ * one, for {@link ProductContract#METHOD_BACKUP} and {@link ProductContract#METHOD_RESTORE}.
+ *
+ * A backup starts with {@link #MAGIC} and {@link #FORMAT_VERSION}, then holds the products and
+ * then the sales in blocks of up to {@link #BLOCK_ROWS} rows, each section ending with an empty
+ * block, and ends with the CRC-32 of everything before it. A block stores its rows column by
+ * column as varints: ids, foreign ids and dates as the difference from the row before, other
+ * numbers zigzag encoded so that small negative values stay short. Texts are stored once, in a
+ * dictionary that every block extends with its new texts, and referred to by their index. The
+ * search index and the sales totals are not stored: a restore rebuilds them. Backups of format
+ * 1, written before products had photos, and of format 2, written before products had SKUs,
+ * are still restored.
+ *
+ * Tables are read in pages of {@link #BLOCK_ROWS} in id order, so a backup holds one block and
+ * the dictionary in memory whatever the number of sales. A restore maps the file instead of
+ * reading it, checks it before touching the database, then loads the tables in one transaction
+ * with their indexes and triggers dropped, and creates them again once the rows are in.
+ */
+final class InventoryBackup {
+
+    /** Written first, so that files of another format are not restored */
+    static final int MAGIC = 0x494e5642;
+
+    static final int FORMAT_VERSION = 3;
+
+    /** Rows per block, and per query when backing up */
+    static final int BLOCK_ROWS = 4096;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String SQL_PRODUCTS_PAGE = "SELECT "
+            + ProductEntry._ID + ", "
+            + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+            + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+            + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+            + ProductEntry.COLUMN_SUPPLIER_NAME + ", "
+            + ProductEntry.COLUMN_SUPPLIER_PHONE + ", "
+            + ProductEntry.COLUMN_PRODUCT_IMAGE + ", "
+            + ProductEntry.COLUMN_PRODUCT_SKU
+            + " FROM " + ProductEntry.TABLE_NAME
+            + " WHERE " + ProductEntry._ID + " > ?"
+            + " ORDER BY " + ProductEntry._ID
+            + " LIMIT " + BLOCK_ROWS;
+
+    private static final String SQL_SALES_PAGE = "SELECT "
+            + SaleEntry._ID + ", "
+            + SaleEntry.COLUMN_SALE_PRODUCT_ID + ", "
+            + SaleEntry.COLUMN_SALE_PRICE + ", "
+            + SaleEntry.COLUMN_SALE_QUANTITY + ", "
+            + SaleEntry.COLUMN_SALE_DATE
+            + " FROM " + SaleEntry.TABLE_NAME
+            + " WHERE " + SaleEntry._ID + " > ?"
+            + " ORDER BY " + SaleEntry._ID
+            + " LIMIT " + BLOCK_ROWS;
+
+    private static final String SQL_INSERT_PRODUCT = "INSERT INTO " + ProductEntry.TABLE_NAME + " ("
+            + ProductEntry._ID + ", "
+            + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+            + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+            + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+            + ProductEntry.COLUMN_SUPPLIER_NAME + ", "
+            + ProductEntry.COLUMN_SUPPLIER_PHONE + ", "
+            + ProductEntry.COLUMN_PRODUCT_IMAGE + ", "
+            + ProductEntry.COLUMN_PRODUCT_SKU + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SQL_INSERT_SALE = "INSERT INTO " + SaleEntry.TABLE_NAME + " ("
+            + SaleEntry._ID + ", "
+            + SaleEntry.COLUMN_SALE_PRODUCT_ID + ", "
+            + SaleEntry.COLUMN_SALE_PRICE + ", "
+            + SaleEntry.COLUMN_SALE_QUANTITY + ", "
+            + SaleEntry.COLUMN_SALE_DATE + ") VALUES (?, ?, ?, ?, ?)";
+
+    /** Indexes and triggers of the tables, dropped while a restore loads them */
+    private static final String SQL_SCHEMA = "SELECT type, name, sql FROM sqlite_master"
+            + " WHERE type IN ('index', 'trigger') AND sql IS NOT NULL"
+            + " AND tbl_name IN ('" + ProductEntry.TABLE_NAME + "', '" + SaleEntry.TABLE_NAME + "')";
+
+    /** Columns of a block, filled from a page when backing up and from the file when restoring */
+    private final long[] mIds = new long[BLOCK_ROWS];
+    private final long[] mForeignIds = new long[BLOCK_ROWS];
+    private final long[] mPrices = new long[BLOCK_ROWS];
+    private final long[] mQuantities = new long[BLOCK_ROWS];
+    private final long[] mSuppliers = new long[BLOCK_ROWS];
+    private final long[] mDates = new long[BLOCK_ROWS];
+    private final boolean[] mHasDate = new boolean[BLOCK_ROWS];
+    private final int[] mNames = new int[BLOCK_ROWS];
+    private final int[] mPhones = new int[BLOCK_ROWS];
+    /** Index of the photo path in the dictionary plus one, or 0 for a product without photo */
+    private final int[] mImages = new int[BLOCK_ROWS];
+    /** Index of the SKU in the dictionary plus one, or 0 for a product without SKU */
+    private final int[] mSkus = new int[BLOCK_ROWS];
+
+    /** Format of the backup being restored */
+    private int mVersion;
+
+    private int mProducts;
+    private int mSales;
+
+    /** Returns the number of products written or restored. */
+    int getProducts() {
+        return mProducts;
+    }
+
+    /** Returns the number of sales written or restored. */
+    int getSales() {
+        return mSales;
+    }
+
+    /**
+     * Writes every product and sale, as they are when the backup starts, and flushes the stream
+     * without closing it. Writes to the database wait until the backup is written.
+     */
+    void write(SQLiteDatabase database, OutputStream out) throws IOException {
+        Output output = new Output(out);
+        output.writeInt(MAGIC);
+        output.writeInt(FORMAT_VERSION);
+
+        database.beginTransactionNonExclusive();
+        try {
+            writeProducts(database, output);
+            writeSales(database, output);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        output.writeInt((int) output.crc());
+        output.flush();
+    }
+
+    private void writeProducts(SQLiteDatabase database, Output output) throws IOException {
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<String> newTexts = new ArrayList<>();
+        String[] afterId = {"0"};
+        long lastId = 0;
+        while (true) {
+            newTexts.clear();
+            Cursor page = database.rawQuery(SQL_PRODUCTS_PAGE, afterId);
+            int rows = 0;
+            try {
+                while (page.moveToNext()) {
+                    mIds[rows] = page.getLong(0);
+                    mNames[rows] = textIndex(dictionary, newTexts, page.getString(1));
+                    mPrices[rows] = page.getLong(2);
+                    mQuantities[rows] = page.getLong(3);
+                    mSuppliers[rows] = page.getLong(4);
+                    mPhones[rows] = textIndex(dictionary, newTexts, page.getString(5));
+                    mImages[rows] = page.isNull(6) ? 0 : textIndex(dictionary, newTexts, page.getString(6)) + 1;
+                    mSkus[rows] = page.isNull(7) ? 0 : textIndex(dictionary, newTexts, page.getString(7)) + 1;
+                    rows++;
+                }
+            } finally {
+                page.close();
+            }
+
+            output.writeVarint(rows);
+            if (rows == 0) {
+                return;
+            }
+            output.writeVarint(newTexts.size());
+            for (String text : newTexts) {
+                output.writeText(text);
+            }
+            for (int i = 0; i < rows; i++) {
+                output.writeVarint(mIds[i] - lastId);
+                lastId = mIds[i];
+            }
+            for (int i = 0; i < rows; i++) {
+                output.writeVarint(mNames[i]);
+            }
+            writeSigned(output, mPrices, rows);
+            writeSigned(output, mQuantities, rows);
+            writeSigned(output, mSuppliers, rows);
+            for (int i = 0; i < rows; i++) {
+                output.writeVarint(mPhones[i]);
+            }
+            for (int i = 0; i < rows; i++) {
+                output.writeVarint(mImages[i]);
+            }
+            for (int i = 0; i < rows; i++) {
+                output.writeVarint(mSkus[i]);
+            }
+            mProducts += rows;
+            afterId[0] = String.valueOf(lastId);
+        }
+    }
+
+    private void writeSales(SQLiteDatabase database, Output output) throws IOException {
+        String[] afterId = {"0"};
+        long lastId = 0;
+        long lastProductId = 0;
+        long lastDate = 0;
+        while (true) {
+            Cursor page = database.rawQuery(SQL_SALES_PAGE, afterId);
+            int rows = 0;
+            try {
+                while (page.moveToNext()) {
+                    mIds[rows] = page.getLong(0);
+                    mForeignIds[rows] = page.getLong(1);
+                    mPrices[rows] = page.getLong(2);
+                    mQuantities[rows] = page.getLong(3);
+                    mHasDate[rows] = !page.isNull(4);
+                    mDates[rows] = mHasDate[rows] ? page.getLong(4) : 0;
+                    rows++;
+                }
+            } finally {
+                page.close();
+            }
+
+            output.writeVarint(rows);
+            if (rows == 0) {
+                return;
+            }
+            for (int i = 0; i < rows; i++) {
+                output.writeVarint(mIds[i] - lastId);
+                lastId = mIds[i];
+            }
+            for (int i = 0; i < rows; i++) {
+                output.writeVarint(zigzag(mForeignIds[i] - lastProductId));
+                lastProductId = mForeignIds[i];
+            }
+            writeSigned(output, mPrices, rows);
+            writeSigned(output, mQuantities, rows);
+            // 0 for a sale without a time, so that the differences of the others start at 1
+            for (int i = 0; i < rows; i++) {
+                if (mHasDate[i]) {
+                    output.writeVarint(zigzag(mDates[i] - lastDate) + 1);
+                    lastDate = mDates[i];
+                } else {
+                    output.writeVarint(0);
+                }
+            }
+            mSales += rows;
+            afterId[0] = String.valueOf(lastId);
+        }
+    }
+
+    private static int textIndex(Map<String, Integer> dictionary, List<String> newTexts, String text) {
+        Integer index = dictionary.get(text);
+        if (index == null) {
+            index = dictionary.size();
+            dictionary.put(text, index);
+            newTexts.add(text);
+        }
+        return index;
+    }
+
+    private static void writeSigned(Output output, long[] column, int rows) throws IOException {
+        for (int i = 0; i < rows; i++) {
+            output.writeVarint(zigzag(column[i]));
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Replaces every product and sale with those of a backup, and rebuilds the search index and
+     * the sales totals. Nothing is changed if the file is not a whole backup of this format.
+     *
+     * @throws IOException if the file cannot be read or is not a backup
+     */
+    void restore(SQLiteDatabase database, File file) throws IOException {
+        MappedByteBuffer buffer;
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size < 12 || size > Integer.MAX_VALUE) {
+                throw new IOException("Not an inventory backup: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            // The mapping stays valid once the file is closed
+            in.close();
+        }
+        check(buffer, file);
+        mVersion = buffer.getInt(4);
+
+        database.beginTransaction();
+        try {
+            List<String> schema = dropSchema(database);
+            database.execSQL("DELETE FROM " + SaleEntry.TABLE_NAME);
+            database.execSQL("DELETE FROM " + ProductEntry.TABLE_NAME);
+            database.execSQL("DELETE FROM " + SalesAndProductsDbHelper.TABLE_PRODUCT_SEARCH);
+            database.execSQL("DELETE FROM " + SalesAndProductsDbHelper.TABLE_SALES_BY_PRODUCT);
+            database.execSQL("DELETE FROM " + SalesAndProductsDbHelper.TABLE_SALES_BY_SUPPLIER);
+            database.execSQL("DELETE FROM " + SalesAndProductsDbHelper.TABLE_SALES_BY_DAY);
+            // The ids go on from the last one restored, as they would have in the backed up tables
+            database.execSQL("DELETE FROM sqlite_sequence WHERE name IN ('"
+                    + ProductEntry.TABLE_NAME + "', '" + SaleEntry.TABLE_NAME + "')");
+
+            buffer.position(8);
+            try {
+                readProducts(database, buffer);
+                readSales(database, buffer);
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Backup ends in the middle of a block: " + file, e);
+            }
+            if (buffer.position() != buffer.limit() - 4) {
+                throw new IOException("Backup has data after its sales: " + file);
+            }
+
+            for (String sql : schema) {
+                database.execSQL(sql);
+            }
+            SalesAndProductsDbHelper.fillProductSearch(database);
+            SalesAndProductsDbHelper.fillSalesTotals(database);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /** Checks the header and the checksum of a mapped backup. */
+    private static void check(MappedByteBuffer buffer, File file) throws IOException {
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not an inventory backup: " + file);
+        }
+        if (buffer.getInt(4) < 1 || buffer.getInt(4) > FORMAT_VERSION) {
+            throw new IOException("Backup format " + buffer.getInt(4) + " is not supported: " + file);
+        }
+        int end = buffer.limit() - 4;
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[BUFFER_SIZE];
+        buffer.position(0);
+        while (buffer.position() < end) {
+            int length = Math.min(chunk.length, end - buffer.position());
+            buffer.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        if (buffer.getInt(end) != (int) crc.getValue()) {
+            throw new IOException("Backup is damaged: " + file);
+        }
+    }
+
+    /**
+     * Drops the indexes and triggers of the products and sales tables, so that loading them
+     * only appends rows, and returns the statements creating them again.
+     */
+    private static List<String> dropSchema(SQLiteDatabase database) {
+        List<String> drops = new ArrayList<>();
+        List<String> creates = new ArrayList<>();
+        Cursor cursor = database.rawQuery(SQL_SCHEMA, null);
+        try {
+            while (cursor.moveToNext()) {
+                drops.add("DROP " + cursor.getString(0) + " " + cursor.getString(1));
+                creates.add(cursor.getString(2));
+            }
+        } finally {
+            cursor.close();
+        }
+        for (String sql : drops) {
+            database.execSQL(sql);
+        }
+        return creates;
+    }
+
+    private void readProducts(SQLiteDatabase database, MappedByteBuffer buffer) throws IOException {
+        List<String> dictionary = new ArrayList<>();
+        byte[] scratch = new byte[256];
+        SQLiteStatement insert = database.compileStatement(SQL_INSERT_PRODUCT);
+        try {
+            long lastId = 0;
+            int rows;
+            while ((rows = readRows(buffer)) > 0) {
+                long newTexts = readVarint(buffer);
+                for (long i = 0; i < newTexts; i++) {
+                    int length = (int) readVarint(buffer);
+                    if (length > scratch.length) {
+                        scratch = new byte[Math.max(length, scratch.length * 2)];
+                    }
+                    buffer.get(scratch, 0, length);
+                    dictionary.add(new String(scratch, 0, length, UTF_8));
+                }
+                for (int i = 0; i < rows; i++) {
+                    lastId += readVarint(buffer);
+                    mIds[i] = lastId;
+                }
+                readTextIndexes(buffer, mNames, rows, dictionary.size());
+                readSigned(buffer, mPrices, rows);
+                readSigned(buffer, mQuantities, rows);
+                readSigned(buffer, mSuppliers, rows);
+                readTextIndexes(buffer, mPhones, rows, dictionary.size());
+                if (mVersion >= 2) {
+                    readTextIndexes(buffer, mImages, rows, dictionary.size() + 1);
+                }
+                if (mVersion >= 3) {
+                    readTextIndexes(buffer, mSkus, rows, dictionary.size() + 1);
+                }
+
+                for (int i = 0; i < rows; i++) {
+                    insert.bindLong(1, mIds[i]);
+                    insert.bindString(2, dictionary.get(mNames[i]));
+                    insert.bindLong(3, mPrices[i]);
+                    insert.bindLong(4, mQuantities[i]);
+                    insert.bindLong(5, mSuppliers[i]);
+                    insert.bindString(6, dictionary.get(mPhones[i]));
+                    if (mVersion >= 2 && mImages[i] > 0) {
+                        insert.bindString(7, dictionary.get(mImages[i] - 1));
+                    } else {
+                        insert.bindNull(7);
+                    }
+                    if (mVersion >= 3 && mSkus[i] > 0) {
+                        insert.bindString(8, dictionary.get(mSkus[i] - 1));
+                    } else {
+                        insert.bindNull(8);
+                    }
+                    insert.executeInsert();
+                }
+                mProducts += rows;
+            }
+        } finally {
+            insert.close();
+        }
+    }
+
+    private void readSales(SQLiteDatabase database, MappedByteBuffer buffer) throws IOException {
+        SQLiteStatement insert = database.compileStatement(SQL_INSERT_SALE);
+        try {
+            long lastId = 0;
+            long lastProductId = 0;
+            long lastDate = 0;
+            int rows;
+            while ((rows = readRows(buffer)) > 0) {
+                for (int i = 0; i < rows; i++) {
+                    lastId += readVarint(buffer);
+                    mIds[i] = lastId;
+                }
+                for (int i = 0; i < rows; i++) {
+                    lastProductId += unzigzag(readVarint(buffer));
+                    mForeignIds[i] = lastProductId;
+                }
+                readSigned(buffer, mPrices, rows);
+                readSigned(buffer, mQuantities, rows);
+                for (int i = 0; i < rows; i++) {
+                    long date = readVarint(buffer);
+                    mHasDate[i] = date != 0;
+                    if (mHasDate[i]) {
+                        lastDate += unzigzag(date - 1);
+                        mDates[i] = lastDate;
+                    }
+                }
+
+                for (int i = 0; i < rows; i++) {
+                    insert.bindLong(1, mIds[i]);
+                    insert.bindLong(2, mForeignIds[i]);
+                    insert.bindLong(3, mPrices[i]);
+                    insert.bindLong(4, mQuantities[i]);
+                    if (mHasDate[i]) {
+                        insert.bindLong(5, mDates[i]);
+                    } else {
+                        insert.bindNull(5);
+                    }
+                    insert.executeInsert();
+                }
+                mSales += rows;
+            }
+        } finally {
+            insert.close();
+        }
+    }
+
+    private static int readRows(MappedByteBuffer buffer) throws IOException {
+        long rows = readVarint(buffer);
+        if (rows > BLOCK_ROWS) {
+            throw new IOException("Backup block of " + rows + " rows, at most " + BLOCK_ROWS + " expected");
+        }
+        return (int) rows;
+    }
+
+    private static void readTextIndexes(MappedByteBuffer buffer, int[] column, int rows, int texts)
+            throws IOException {
+        for (int i = 0; i < rows; i++) {
+            long index = readVarint(buffer);
+            if (index >= texts) {
+                throw new IOException("Backup refers to text " + index + " of " + texts);
+            }
+            column[i] = (int) index;
+        }
+    }
+
+    private static void readSigned(MappedByteBuffer buffer, long[] column, int rows) throws IOException {
+        for (int i = 0; i < rows; i++) {
+            column[i] = unzigzag(readVarint(buffer));
+        }
+    }
+
+    private static long readVarint(MappedByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Backup holds a number longer than 64 bits");
+    }
+
+    /** Buffers the bytes of a backup and keeps their checksum. */
+    private static final class Output {
+
+        private final OutputStream mOut;
+
+        private final byte[] mBuffer = new byte[BUFFER_SIZE];
+        private int mPosition;
+
+        private final CRC32 mCrc = new CRC32();
+
+        Output(OutputStream out) {
+            mOut = out;
+        }
+
+        void writeInt(int value) throws IOException {
+            ensure(4);
+            mBuffer[mPosition++] = (byte) (value >>> 24);
+            mBuffer[mPosition++] = (byte) (value >>> 16);
+            mBuffer[mPosition++] = (byte) (value >>> 8);
+            mBuffer[mPosition++] = (byte) value;
+        }
+
+        /** Writes an unsigned number 7 bits at a time, low bits first. */
+        void writeVarint(long value) throws IOException {
+            ensure(10);
+            while ((value & ~0x7fL) != 0) {
+                mBuffer[mPosition++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            mBuffer[mPosition++] = (byte) value;
+        }
+
+        void writeText(String text) throws IOException {
+            byte[] bytes = text.getBytes(UTF_8);
+            writeVarint(bytes.length);
+            flushBuffer();
+            mCrc.update(bytes, 0, bytes.length);
+            mOut.write(bytes);
+        }
+
+        /** Returns the checksum of the bytes written so far. */
+        long crc() throws IOException {
+            flushBuffer();
+            return mCrc.getValue();
+        }
+
+        void flush() throws IOException {
+            flushBuffer();
+            mOut.flush();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (mPosition + bytes > mBuffer.length) {
+                flushBuffer();
+            }
+        }
+
+        private void flushBuffer() throws IOException {
+            mCrc.update(mBuffer, 0, mPosition);
+            mOut.write(mBuffer, 0, mPosition);
+            mPosition = 0;
+        }
+    }
+}
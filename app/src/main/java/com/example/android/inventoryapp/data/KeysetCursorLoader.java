@@ -0,0 +1,940 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.AsyncTaskLoader;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.AbstractCursor;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.BaseColumns;
+import android.support.v4.os.TraceCompat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Loads a product or sale list one page at a time through {@link KeysetPaging}.
+ *
+ * The first load reads one page. Every {@link #loadNextPage()} reads the page after the last
+ * loaded row and delivers a cursor over all pages loaded so far, without reading the earlier
+ * pages again. Rows are only read as the user scrolls to them, so the size of the table does not
+ * matter.
+ *
+ * Only the pages around the rows the list shows, given by {@link #setVisibleRange}, and the
+ * first page are kept. The others are evicted: the result keeps their ids and sort keys, so the
+ * list keeps its length and each row its place, but their cursors are closed and their rows read
+ * as null apart from the id. When the list comes back to them they are read again, from the
+ * sort key of the row before.
+ *
+ * When a single row changes, the provider notifies its {@link RowChanges} URI and the loader
+ * reads that row alone, then delivers a cursor over the rows loaded before with the row replaced,
+ * inserted at its place in the sort order, or removed. Changes to any number of rows are notified
+ * on the collection URI, and the rows loaded so far are then read again from the start, so the
+ * list keeps its length and position.
+ *
+ * Every result carries a {@link RowSnapshot} of its rows, diffed against the result delivered
+ * before on the loader's thread.
+ *
+ * The pages belong to the loader: closing a delivered cursor does not close them.
+ */
+public class KeysetCursorLoader extends AsyncTaskLoader<Cursor> {
+
+    /**
+     * Most cursors a result may be made of. Each changed row read on its own is one more, so
+     * past this the rows loaded so far are read again as one page.
+     */
+    private static final int MAX_PIECES = 64;
+
+    /** Pages kept on each side of the visible rows */
+    private static final int WINDOW_MARGIN_PAGES = 2;
+
+    /** Kinds of load */
+    private static final int LOAD_ALL = 0;
+    private static final int LOAD_NEXT_PAGE = 1;
+    private static final int LOAD_CHANGED_ROWS = 2;
+    private static final int LOAD_WINDOW = 3;
+
+    private final ContentObserver mObserver = new ContentObserver(new Handler(Looper.getMainLooper())) {
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            onRowsChanged(uri);
+        }
+    };
+
+    private final Uri mUri;
+
+    private final String[] mProjection;
+
+    /** Column of the sort key, or null if rows are sorted by id alone */
+    private final String mKeyColumn;
+
+    private final int mPageSize;
+
+    /** Result delivered last */
+    private PageCursor mCursor;
+
+    /** Whether the last page has been loaded */
+    private boolean mExhausted;
+
+    /** Sort key and id of the last loaded row, where the next page starts */
+    private String mAfterKey;
+    private long mAfterId = -1;
+
+    /** Positions of the first and last rows the list shows */
+    private int mFirstVisible;
+    private int mLastVisible;
+
+    /** Rows whose pages the running load keeps, from the first to the one after the last */
+    private int mWindowStart;
+    private int mWindowEnd;
+
+    /** Kind of the running load */
+    private int mLoadMode;
+
+    /** Change URIs of the rows the running load reads again */
+    private List<Uri> mLoadingChanges;
+
+    /** Whether a load has been started and not delivered or canceled yet */
+    private boolean mLoading;
+
+    /** Change URIs of the rows changed since the running load was started */
+    private final List<Uri> mChangedRows = new ArrayList<>();
+
+    /** Whether every loaded row must be read again */
+    private boolean mReloadPending;
+
+    /** Whether the observer has been registered */
+    private boolean mObserving;
+
+    /**
+     * @param uri       collection URI of the list
+     * @param projection columns to load, including {@link BaseColumns#_ID} and the key column
+     * @param keyColumn column the provider sorts pages by before the id, or null for the id alone
+     * @param pageSize  number of rows of a page
+     */
+    public KeysetCursorLoader(Context context, Uri uri, String[] projection, String keyColumn,
+                              int pageSize) {
+        super(context);
+        mUri = uri;
+        mProjection = projection;
+        mKeyColumn = keyColumn;
+        mPageSize = pageSize;
+    }
+
+    /**
+     * Starts loading the page after the last loaded row, unless every row has been loaded or a
+     * load is running already. Must be called on the main thread.
+     */
+    public void loadNextPage() {
+        if (mExhausted || mLoading || mCursor == null) {
+            return;
+        }
+        startLoad(LOAD_NEXT_PAGE);
+    }
+
+    /**
+     * Tells the loader which rows the list shows, so that it keeps the pages around them and
+     * reads the evicted ones among them again. Must be called on the main thread.
+     */
+    public void setVisibleRange(int first, int last) {
+        mFirstVisible = Math.max(0, first);
+        mLastVisible = Math.max(mFirstVisible, last);
+        loadWindow();
+    }
+
+    /** Starts reading the evicted rows around the visible ones, unless a load is running. */
+    private void loadWindow() {
+        if (mLoading || mCursor == null || !isStarted()) {
+            return;
+        }
+        int start = windowStart();
+        int end = Math.min(windowEnd(), mCursor.getCount());
+        for (int i = start; i < end; i++) {
+            if (mCursor.mRows.pieces[i] == Rows.EVICTED) {
+                startLoad(LOAD_WINDOW);
+                return;
+            }
+        }
+    }
+
+    private int windowStart() {
+        return Math.max(0, (mFirstVisible / mPageSize - WINDOW_MARGIN_PAGES) * mPageSize);
+    }
+
+    private int windowEnd() {
+        return (mLastVisible / mPageSize + 1 + WINDOW_MARGIN_PAGES) * mPageSize;
+    }
+
+    private void startLoad(int mode) {
+        mLoadMode = mode;
+        mWindowStart = windowStart();
+        mWindowEnd = windowEnd();
+        forceLoad();
+    }
+
+    @Override
+    protected void onForceLoad() {
+        mLoading = true;
+        super.onForceLoad();
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        TraceCompat.beginSection("KeysetCursorLoader.load");
+        try {
+            // The fields below are written on the main thread before the load is started
+            PageCursor shown = mCursor;
+            if (shown == null || mLoadMode == LOAD_ALL) {
+                return loadAll(shown);
+            }
+            if (mLoadMode == LOAD_NEXT_PAGE) {
+                return loadNextPage(shown);
+            }
+            if (mLoadMode == LOAD_WINDOW) {
+                return loadWindow(shown);
+            }
+            if (shown.mPieces.size() >= MAX_PIECES) {
+                return loadAll(shown);
+            }
+            return loadChangedRows(shown, mLoadingChanges);
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * Reads every row shown so far again, a page at a time. Only the pages in the window are
+     * kept; the others are read for their ids and sort keys.
+     */
+    private PageCursor loadAll(PageCursor shown) {
+        int limit = shown == null ? mPageSize : Math.max(mPageSize, shown.getCount());
+        Rows rows = new Rows(limit);
+        List<Cursor> pieces = new ArrayList<>();
+        String[] columns = null;
+        boolean exhausted = false;
+        while (rows.size < limit) {
+            int start = rows.size;
+            Cursor page = query(KeysetPaging.buildPageUri(mUri, mPageSize,
+                    start == 0 ? null : rows.keys[start - 1], start == 0 ? -1 : rows.ids[start - 1]));
+            if (page == null) {
+                closePiecesNotIn(pieces, new ArrayList<Cursor>());
+                return null;
+            }
+            columns = page.getColumnNames();
+            // Fill the cursor window here rather than on the main thread
+            int count = fill(page);
+            if (isInWindow(start, start + count)) {
+                readRows(page, pieces.size(), rows);
+                pieces.add(page);
+            } else {
+                readRows(page, Rows.EVICTED, rows);
+                page.close();
+            }
+            if (count < mPageSize) {
+                exhausted = true;
+                break;
+            }
+        }
+        return new PageCursor(columns, pieces, rows, exhausted, false,
+                snapshot(rows, shown), new ArrayList<>(pieces));
+    }
+
+    /** Reads the page after the last loaded row. */
+    private PageCursor loadNextPage(PageCursor shown) {
+        Cursor page = query(KeysetPaging.buildPageUri(mUri, mPageSize, mAfterKey, mAfterId));
+        if (page == null) {
+            return null;
+        }
+        int count = fill(page);
+        Rows rows = shown.mRows.copy(count);
+        List<Cursor> pieces = new ArrayList<>(shown.mPieces);
+        readRows(page, pieces.size(), rows);
+        pieces.add(page);
+
+        List<Cursor> newPieces = new ArrayList<>();
+        newPieces.add(page);
+        List<Cursor> kept = keepWindow(rows, pieces, newPieces);
+        return new PageCursor(shown.mColumns, kept, rows, count < mPageSize, false,
+                snapshot(rows, shown), newPieces);
+    }
+
+    /**
+     * Reads the evicted pages of the window again. Each page is read from the sort key of the
+     * row before it, and must bring back the rows it held; if it does not, the rows changed
+     * without a notification being handled yet, and the result asks for a full reload.
+     */
+    private PageCursor loadWindow(PageCursor shown) {
+        Rows rows = shown.mRows.copy(0);
+        List<Cursor> pieces = new ArrayList<>(shown.mPieces);
+        List<Cursor> newPieces = new ArrayList<>();
+        boolean stale = false;
+
+        int end = Math.min(mWindowEnd, rows.size);
+        for (int start = mWindowStart - mWindowStart % mPageSize; start < end && !stale; start += mPageSize) {
+            int limit = Math.min(mPageSize, rows.size - start);
+            if (!hasEvicted(rows, start, start + limit)) {
+                continue;
+            }
+            Cursor page = query(KeysetPaging.buildPageUri(mUri, limit,
+                    start == 0 ? null : rows.keys[start - 1], start == 0 ? -1 : rows.ids[start - 1]));
+            if (page == null) {
+                stale = true;
+                break;
+            }
+            int count = fill(page);
+            stale = count < limit || !readRowsAt(page, pieces.size(), rows, start);
+            pieces.add(page);
+            newPieces.add(page);
+        }
+
+        List<Cursor> kept = keepWindow(rows, pieces, newPieces);
+        return new PageCursor(shown.mColumns, kept, rows, shown.mExhausted, stale,
+                snapshot(rows, shown), newPieces);
+    }
+
+    private static boolean hasEvicted(Rows rows, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (rows.pieces[i] == Rows.EVICTED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Whether any of the given rows is in the window of the running load, or the first page. */
+    private boolean isInWindow(int start, int end) {
+        return start < mPageSize || (start < mWindowEnd && end > mWindowStart);
+    }
+
+    /**
+     * Evicts the rows outside the window of the running load, and returns the pieces some row
+     * is still read from. The new pieces that are not kept are closed.
+     */
+    private List<Cursor> keepWindow(Rows rows, List<Cursor> pieces, List<Cursor> newPieces) {
+        for (int i = 0; i < rows.size; i++) {
+            if (!isInWindow(i, i + 1)) {
+                rows.pieces[i] = Rows.EVICTED;
+            }
+        }
+
+        int[] remap = new int[pieces.size()];
+        for (int i = 0; i < remap.length; i++) {
+            remap[i] = -1;
+        }
+        List<Cursor> kept = new ArrayList<>();
+        for (int i = 0; i < rows.size; i++) {
+            int piece = rows.pieces[i];
+            if (piece == Rows.EVICTED) {
+                continue;
+            }
+            if (remap[piece] == -1) {
+                remap[piece] = kept.size();
+                kept.add(pieces.get(piece));
+            }
+            rows.pieces[i] = remap[piece];
+        }
+        for (int i = newPieces.size() - 1; i >= 0; i--) {
+            if (!kept.contains(newPieces.get(i))) {
+                newPieces.remove(i).close();
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Reads the changed rows alone, and puts them in place of the rows shown. Rows that sort
+     * after the last loaded row are left out until their page is loaded.
+     */
+    private PageCursor loadChangedRows(PageCursor shown, List<Uri> changes) {
+        Rows rows = shown.mRows.copy(changes.size());
+        List<Cursor> pieces = new ArrayList<>(shown.mPieces);
+        List<Cursor> newPieces = new ArrayList<>();
+
+        for (Uri change : changes) {
+            long id = RowChanges.getChangedId(mUri, change);
+            int index = rows.indexOf(id);
+            Cursor row = RowChanges.CHANGE_DELETE.equals(RowChanges.getChange(change)) ? null : readRow(id);
+            if (row == null) {
+                // The row is gone
+                if (index != -1) {
+                    rows.remove(index);
+                }
+                continue;
+            }
+
+            String key = mKeyColumn == null ? null : row.getString(row.getColumnIndexOrThrow(mKeyColumn));
+            int hash = RowSnapshot.hashRow(row, row.getColumnCount());
+            if (index != -1 && compareKeys(key, rows.keys[index]) == 0) {
+                rows.set(index, id, hash, key, pieces.size(), 0);
+            } else {
+                if (index != -1) {
+                    rows.remove(index);
+                }
+                int at = rows.insertionPoint(key, id);
+                if (at == rows.size && !shown.mExhausted) {
+                    row.close();
+                    continue;
+                }
+                rows.insert(at, id, hash, key, pieces.size(), 0);
+            }
+            pieces.add(row);
+            newPieces.add(row);
+        }
+
+        // Keep only the cursors some row in the window is read from
+        List<Cursor> kept = keepWindow(rows, pieces, newPieces);
+        return new PageCursor(shown.mColumns, kept, rows, shown.mExhausted, false,
+                snapshot(rows, shown), newPieces);
+    }
+
+    private Cursor query(Uri uri) {
+        return getContext().getContentResolver().query(uri, mProjection, null, null, null);
+    }
+
+    /** Fills the window of a page, and returns the number of rows. */
+    private static int fill(Cursor page) {
+        TraceCompat.beginSection("KeysetCursorLoader.fill");
+        try {
+            return page.getCount();
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * Reads one row through the URI of the row, and copies it so that no database cursor is kept
+     * open for it. Returns null if the row does not exist.
+     */
+    private Cursor readRow(long id) {
+        TraceCompat.beginSection("KeysetCursorLoader.readRow");
+        try {
+            Cursor cursor = query(ContentUris.withAppendedId(mUri, id));
+            if (cursor == null) {
+                return null;
+            }
+            try {
+                if (!cursor.moveToFirst()) {
+                    return null;
+                }
+                int columns = cursor.getColumnCount();
+                Object[] values = new Object[columns];
+                for (int i = 0; i < columns; i++) {
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_NULL:
+                            values[i] = null;
+                            break;
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            values[i] = cursor.getLong(i);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            values[i] = cursor.getDouble(i);
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            values[i] = cursor.getBlob(i);
+                            break;
+                        default:
+                            values[i] = cursor.getString(i);
+                            break;
+                    }
+                }
+                MatrixCursor row = new MatrixCursor(cursor.getColumnNames(), 1);
+                row.addRow(values);
+                row.moveToFirst();
+                return row;
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    /** Appends the rows of a page, read from the given piece of the result. */
+    private void readRows(Cursor page, int piece, Rows rows) {
+        TraceCompat.beginSection("KeysetCursorLoader.hashRows");
+        try {
+            int idColumn = page.getColumnIndexOrThrow(BaseColumns._ID);
+            int keyColumn = mKeyColumn == null ? -1 : page.getColumnIndexOrThrow(mKeyColumn);
+            int columns = page.getColumnCount();
+            page.moveToPosition(-1);
+            for (int position = 0; page.moveToNext(); position++) {
+                rows.insert(rows.size, page.getLong(idColumn), RowSnapshot.hashRow(page, columns),
+                        keyColumn == -1 ? null : page.getString(keyColumn), piece, position);
+            }
+            page.moveToPosition(-1);
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * Replaces the rows of a page read again, from the given row on. Returns false if the page
+     * does not hold the same rows.
+     */
+    private boolean readRowsAt(Cursor page, int piece, Rows rows, int start) {
+        TraceCompat.beginSection("KeysetCursorLoader.hashRows");
+        try {
+            int idColumn = page.getColumnIndexOrThrow(BaseColumns._ID);
+            int keyColumn = mKeyColumn == null ? -1 : page.getColumnIndexOrThrow(mKeyColumn);
+            int columns = page.getColumnCount();
+            page.moveToPosition(-1);
+            for (int position = 0; page.moveToNext(); position++) {
+                long id = page.getLong(idColumn);
+                if (rows.ids[start + position] != id) {
+                    return false;
+                }
+                rows.set(start + position, id, RowSnapshot.hashRow(page, columns),
+                        keyColumn == -1 ? null : page.getString(keyColumn), piece, position);
+            }
+            return true;
+        } finally {
+            page.moveToPosition(-1);
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * Diffs the rows against the result shown before. An evicted row is given another hash than
+     * when it is loaded, so that the list rebinds it once its page is read again.
+     */
+    private static RowSnapshot snapshot(Rows rows, PageCursor shown) {
+        TraceCompat.beginSection("KeysetCursorLoader.diff");
+        try {
+            int[] hashes = new int[rows.size];
+            for (int i = 0; i < rows.size; i++) {
+                hashes[i] = rows.pieces[i] == Rows.EVICTED ? ~rows.hashes[i] : rows.hashes[i];
+            }
+            return RowSnapshot.of(rows.ids, hashes, rows.size)
+                    .diffFrom(shown == null ? null : shown.mSnapshot);
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    @Override
+    public void deliverResult(Cursor data) {
+        mLoading = false;
+        mLoadingChanges = null;
+        if (isReset()) {
+            releaseNewPieces(data);
+            return;
+        }
+        if (data != null) {
+            PageCursor cursor = (PageCursor) data;
+            List<Cursor> oldPieces = mCursor == null ? new ArrayList<Cursor>() : mCursor.mPieces;
+            mCursor = cursor;
+            mExhausted = cursor.mExhausted;
+            rememberLastRow(cursor.mRows);
+            closePiecesNotIn(oldPieces, cursor.mPieces);
+            if (cursor.mStale) {
+                mReloadPending = true;
+            }
+
+            if (isStarted()) {
+                super.deliverResult(data);
+            }
+        }
+        if (isStarted()) {
+            loadPendingChanges();
+            loadWindow();
+        }
+    }
+
+    @Override
+    public void onCanceled(Cursor data) {
+        // A load replacing this one may be pending already, so the flags are left alone
+        releaseNewPieces(data);
+    }
+
+    @Override
+    public void onContentChanged() {
+        onRowsChanged(null);
+    }
+
+    /**
+     * Called on the main thread when the provider notifies a change.
+     *
+     * @param uri URI notified, or null if it is not known
+     */
+    private void onRowsChanged(Uri uri) {
+        if (RowChanges.getChangedId(mUri, uri) == -1 || mChangedRows.size() >= MAX_PIECES) {
+            // Changed rows may be anywhere in the loaded pages, so read them all again
+            mReloadPending = true;
+            mChangedRows.clear();
+        } else if (!mReloadPending) {
+            mChangedRows.add(uri);
+        }
+        if (isStarted()) {
+            loadPendingChanges();
+        }
+    }
+
+    /** Starts loading the rows changed since the last load, unless a load is running. */
+    private void loadPendingChanges() {
+        if (mLoading || mCursor == null) {
+            return;
+        }
+        if (mReloadPending) {
+            mReloadPending = false;
+            startLoad(LOAD_ALL);
+        } else if (!mChangedRows.isEmpty()) {
+            mLoadingChanges = new ArrayList<>(mChangedRows);
+            mChangedRows.clear();
+            startLoad(LOAD_CHANGED_ROWS);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserving) {
+            getContext().getContentResolver().registerContentObserver(mUri, true, mObserver);
+            mObserving = true;
+        }
+        if (mCursor == null) {
+            startLoad(LOAD_ALL);
+            return;
+        }
+        super.deliverResult(mCursor);
+        loadPendingChanges();
+        loadWindow();
+    }
+
+    @Override
+    protected void onStopLoading() {
+        // The changes a canceled load was reading are read again on the next start, and the
+        // pages of the window are checked again then
+        if (mLoading && mLoadMode != LOAD_NEXT_PAGE && mLoadMode != LOAD_WINDOW) {
+            mReloadPending = true;
+        }
+        cancelLoad();
+        mLoading = false;
+        mLoadingChanges = null;
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (mObserving) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserving = false;
+        }
+        if (mCursor != null) {
+            closePiecesNotIn(mCursor.mPieces, new ArrayList<Cursor>());
+        }
+        mCursor = null;
+        mExhausted = false;
+        mAfterKey = null;
+        mAfterId = -1;
+        mFirstVisible = 0;
+        mLastVisible = 0;
+        mReloadPending = false;
+        mChangedRows.clear();
+    }
+
+    /** Remembers where the next page starts. */
+    private void rememberLastRow(Rows rows) {
+        if (rows.size == 0) {
+            mAfterId = -1;
+            mAfterKey = null;
+            return;
+        }
+        mAfterId = rows.ids[rows.size - 1];
+        mAfterKey = rows.keys[rows.size - 1];
+    }
+
+    private static void releaseNewPieces(Cursor data) {
+        if (data != null) {
+            for (Cursor piece : ((PageCursor) data).mNewPieces) {
+                piece.close();
+            }
+        }
+    }
+
+    private static void closePiecesNotIn(List<Cursor> pieces, List<Cursor> keep) {
+        for (Cursor piece : pieces) {
+            if (!keep.contains(piece)) {
+                piece.close();
+            }
+        }
+    }
+
+    /**
+     * Compares sort keys the way SQLite's default collation does, by code point, with null first.
+     */
+    static int compareKeys(String a, String b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int ca = a.codePointAt(i);
+            int cb = b.codePointAt(j);
+            if (ca != cb) {
+                return ca < cb ? -1 : 1;
+            }
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return i < a.length() ? 1 : (j < b.length() ? -1 : 0);
+    }
+
+    /**
+     * The rows of a result in list order: their ids, hashes and sort keys, and where each is read
+     * from. Once a result is delivered its rows are not changed anymore, so that the loader's
+     * thread can read them while the main thread reads the result; loads change a copy.
+     */
+    private static final class Rows {
+
+        /** Piece of an evicted row */
+        static final int EVICTED = -1;
+
+        long[] ids;
+        int[] hashes;
+        String[] keys;
+
+        /**
+         * Index of the cursor of each row in the result's pieces, or {@link #EVICTED}, and its
+         * position there
+         */
+        int[] pieces;
+        int[] positions;
+
+        int size;
+
+        Rows(int capacity) {
+            ids = new long[capacity];
+            hashes = new int[capacity];
+            keys = new String[capacity];
+            pieces = new int[capacity];
+            positions = new int[capacity];
+        }
+
+        /** Returns a copy with room for the given number of rows more. */
+        Rows copy(int extra) {
+            Rows copy = new Rows(size + extra);
+            System.arraycopy(ids, 0, copy.ids, 0, size);
+            System.arraycopy(hashes, 0, copy.hashes, 0, size);
+            System.arraycopy(keys, 0, copy.keys, 0, size);
+            System.arraycopy(pieces, 0, copy.pieces, 0, size);
+            System.arraycopy(positions, 0, copy.positions, 0, size);
+            copy.size = size;
+            return copy;
+        }
+
+        int indexOf(long id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /** Returns the index of the first row sorting after the given key and id. */
+        int insertionPoint(String key, long id) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                int compare = compareKeys(keys[middle], key);
+                if (compare < 0 || (compare == 0 && ids[middle] < id)) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        void set(int index, long id, int hash, String key, int piece, int position) {
+            ids[index] = id;
+            hashes[index] = hash;
+            keys[index] = key;
+            pieces[index] = piece;
+            positions[index] = position;
+        }
+
+        void insert(int index, long id, int hash, String key, int piece, int position) {
+            if (size == ids.length) {
+                grow();
+            }
+            int moved = size - index;
+            System.arraycopy(ids, index, ids, index + 1, moved);
+            System.arraycopy(hashes, index, hashes, index + 1, moved);
+            System.arraycopy(keys, index, keys, index + 1, moved);
+            System.arraycopy(pieces, index, pieces, index + 1, moved);
+            System.arraycopy(positions, index, positions, index + 1, moved);
+            size++;
+            set(index, id, hash, key, piece, position);
+        }
+
+        void remove(int index) {
+            int moved = size - index - 1;
+            System.arraycopy(ids, index + 1, ids, index, moved);
+            System.arraycopy(hashes, index + 1, hashes, index, moved);
+            System.arraycopy(keys, index + 1, keys, index, moved);
+            System.arraycopy(pieces, index + 1, pieces, index, moved);
+            System.arraycopy(positions, index + 1, positions, index, moved);
+            size--;
+            keys[size] = null;
+        }
+
+        private void grow() {
+            Rows grown = copy(Math.max(8, size));
+            ids = grown.ids;
+            hashes = grown.hashes;
+            keys = grown.keys;
+            pieces = grown.pieces;
+            positions = grown.positions;
+        }
+    }
+
+    /**
+     * A cursor over the rows loaded so far, each read from the page or changed row it came
+     * from. The pieces are shared with the following results, so closing it leaves them open;
+     * the loader closes them once no result uses them. Evicted rows read as null, apart from
+     * their id.
+     */
+    private static final class PageCursor extends AbstractCursor implements RowSnapshot.Holder {
+
+        final String[] mColumns;
+
+        final List<Cursor> mPieces;
+
+        final Rows mRows;
+
+        /** Whether the last page has been loaded */
+        final boolean mExhausted;
+
+        /** Whether a page read again did not hold the rows it held before */
+        final boolean mStale;
+
+        final RowSnapshot mSnapshot;
+
+        /** Pieces read by the load that created this cursor */
+        final List<Cursor> mNewPieces;
+
+        private final int mIdColumn;
+
+        /** Piece the current row is read from, or null if the row is evicted */
+        private Cursor mCurrent;
+
+        private boolean mReleased;
+
+        PageCursor(String[] columns, List<Cursor> pieces, Rows rows, boolean exhausted,
+                   boolean stale, RowSnapshot snapshot, List<Cursor> newPieces) {
+            mColumns = columns;
+            mPieces = pieces;
+            mRows = rows;
+            mExhausted = exhausted;
+            mStale = stale;
+            mSnapshot = snapshot;
+            mNewPieces = newPieces;
+            mIdColumn = Arrays.asList(columns).indexOf(BaseColumns._ID);
+        }
+
+        @Override
+        public RowSnapshot getRowSnapshot() {
+            return mSnapshot;
+        }
+
+        @Override
+        public int getCount() {
+            return mRows.size;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mColumns;
+        }
+
+        @Override
+        public boolean onMove(int oldPosition, int newPosition) {
+            int piece = mRows.pieces[newPosition];
+            if (piece == Rows.EVICTED) {
+                mCurrent = null;
+                return true;
+            }
+            mCurrent = mPieces.get(piece);
+            return mCurrent.moveToPosition(mRows.positions[newPosition]);
+        }
+
+        /** Returns the id of the current row if the column is the id column, and 0 otherwise. */
+        private long evictedValue(int column) {
+            return column == mIdColumn ? mRows.ids[getPosition()] : 0;
+        }
+
+        @Override
+        public String getString(int column) {
+            if (mCurrent == null) {
+                return column == mIdColumn ? String.valueOf(evictedValue(column)) : null;
+            }
+            return mCurrent.getString(column);
+        }
+
+        @Override
+        public short getShort(int column) {
+            return mCurrent == null ? (short) evictedValue(column) : mCurrent.getShort(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return mCurrent == null ? (int) evictedValue(column) : mCurrent.getInt(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            return mCurrent == null ? evictedValue(column) : mCurrent.getLong(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return mCurrent == null ? evictedValue(column) : mCurrent.getFloat(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return mCurrent == null ? evictedValue(column) : mCurrent.getDouble(column);
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            return mCurrent == null ? null : mCurrent.getBlob(column);
+        }
+
+        @Override
+        public int getType(int column) {
+            if (mCurrent == null) {
+                return column == mIdColumn ? Cursor.FIELD_TYPE_INTEGER : Cursor.FIELD_TYPE_NULL;
+            }
+            return mCurrent.getType(column);
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return mCurrent == null ? column != mIdColumn : mCurrent.isNull(column);
+        }
+
+        @Override
+        public void close() {
+            mReleased = true;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return mReleased;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.android.inventoryapp.data;
+
+import android.net.Uri;
+
+/**
+ * Query parameters for reading the product and sale lists one page at a time.
+ *
+ * A page starts right after the last row of the previous page, given by its sort key and id,
+ * instead of at an offset. The query seeks straight to it through an index, so every page costs
+ * the same no matter how deep into the table it is.
+ *
+ * Products are paged in name order, for instance
+ * content://com.example.android.products/products?limit=50&after_key=Boots&after_id=12
+ * Sales are paged in id order, so they only take {@link #QUERY_PARAMETER_AFTER_ID}.
+ */
+public final class KeysetPaging {
+
+    private KeysetPaging() {}
+
+    /** Query parameter holding the maximum number of rows of a page. */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /** Query parameter holding the id of the last row of the previous page. */
+    public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+    /** Query parameter holding the sort key of the last row of the previous page. */
+    public static final String QUERY_PARAMETER_AFTER_KEY = "after_key";
+
+    /**
+     * Builds the URI of a page of the given collection URI.
+     *
+     * @param uri      collection URI, such as {@link ProductContract.ProductEntry#CONTENT_URI}
+     * @param limit    maximum number of rows
+     * @param afterKey sort key of the last row of the previous page, or null for none
+     * @param afterId  id of the last row of the previous page, or -1 for the first page
+     */
+    public static Uri buildPageUri(Uri uri, int limit, String afterKey, long afterId) {
+        Uri.Builder builder = uri.buildUpon()
+                .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit));
+        if (afterId != -1) {
+            if (afterKey != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_AFTER_KEY, afterKey);
+            }
+            builder.appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the page size of the URI as the LIMIT clause of a query, or null if the URI does
+     * not ask for a page.
+     */
+    static String getLimit(Uri uri) {
+        String limit = uri.getQueryParameter(QUERY_PARAMETER_LIMIT);
+        if (limit == null) {
+            return null;
+        }
+        try {
+            if (Integer.parseInt(limit) > 0) {
+                return limit;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Page requires a positive limit " + uri);
+    }
+
+    /**
+     * Returns the id the page starts after, or null if it is the first page.
+     */
+    static String getAfterId(Uri uri) {
+        String afterId = uri.getQueryParameter(QUERY_PARAMETER_AFTER_ID);
+        if (afterId == null) {
+            return null;
+        }
+        try {
+            Long.parseLong(afterId);
+            return afterId;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Page requires a valid id to start after " + uri);
+        }
+    }
+
+    /**
+     * Returns the sort key the page starts after, or null if it is the first page.
+     */
+    static String getAfterKey(Uri uri) {
+        return uri.getQueryParameter(QUERY_PARAMETER_AFTER_KEY);
+    }
+
+    /**
+     * Combines the caller's selection with the selection of a page.
+     */
+    static String appendSelection(String selection, String pageSelection) {
+        if (selection == null || selection.isEmpty()) {
+            return pageSelection;
+        }
+        return "(" + selection + ") AND (" + pageSelection + ")";
+    }
+
+    /**
+     * Appends the arguments of a page selection to the caller's selection arguments.
+     */
+    static String[] appendArgs(String[] selectionArgs, String... pageArgs) {
+        if (selectionArgs == null || selectionArgs.length == 0) {
+            return pageArgs;
+        }
+        String[] args = new String[selectionArgs.length + pageArgs.length];
+        System.arraycopy(selectionArgs, 0, args, 0, selectionArgs.length);
+        System.arraycopy(pageArgs, 0, args, selectionArgs.length, pageArgs.length);
+        return args;
+    }
+}
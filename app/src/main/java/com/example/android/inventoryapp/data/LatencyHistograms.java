@@ -0,0 +1,206 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms of a provider, one per operation and URI pattern, read through the metrics
+ * URI of the provider and through {@code adb shell dumpsys activity provider}.
+ *
+ * Latencies are counted in microseconds, in buckets eight to a power of two, so a percentile is
+ * known within an eighth of its value whatever the range. Every histogram is a fixed slice of
+ * one {@link AtomicLongArray}: recording a latency takes a few atomic adds, without a lock or an
+ * allocation, and can be done from any thread.
+ */
+public final class LatencyHistograms {
+
+    /** Operations of a provider */
+    public static final int OPERATION_QUERY = 0;
+    public static final int OPERATION_INSERT = 1;
+    public static final int OPERATION_UPDATE = 2;
+    public static final int OPERATION_DELETE = 3;
+    public static final int OPERATION_BULK_INSERT = 4;
+
+    private static final String[] OPERATIONS = {"query", "insert", "update", "delete", "bulkInsert"};
+
+    /** Columns of the metrics URIs, one row per operation and URI pattern called at least once */
+    public static final String COLUMN_OPERATION = "operation";
+    public static final String COLUMN_URI = "uri";
+    public static final String COLUMN_COUNT = "count";
+    public static final String COLUMN_MEAN_MICROS = "mean_us";
+    public static final String COLUMN_P50_MICROS = "p50_us";
+    public static final String COLUMN_P99_MICROS = "p99_us";
+    public static final String COLUMN_P999_MICROS = "p999_us";
+    public static final String COLUMN_MAX_MICROS = "max_us";
+
+    private static final String[] COLUMNS = {COLUMN_OPERATION, COLUMN_URI, COLUMN_COUNT,
+            COLUMN_MEAN_MICROS, COLUMN_P50_MICROS, COLUMN_P99_MICROS, COLUMN_P999_MICROS,
+            COLUMN_MAX_MICROS};
+
+    /** Buckets per power of two, as a number of bits */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Latencies are capped at 2^32 microseconds, more than an hour */
+    private static final int MAX_EXPONENT = 32;
+
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    /** Slots of a histogram after its buckets: the sum and the largest latency */
+    private static final int SLOT_SUM = BUCKETS;
+    private static final int SLOT_MAX = BUCKETS + 1;
+
+    private static final int STRIDE = BUCKETS + 2;
+
+    private final String[] mPatterns;
+
+    private final AtomicLongArray mSlots;
+
+    /**
+     * @param patterns names of the URI patterns of the provider, by pattern index
+     */
+    public LatencyHistograms(String[] patterns) {
+        mPatterns = patterns.clone();
+        mSlots = new AtomicLongArray(OPERATIONS.length * patterns.length * STRIDE);
+    }
+
+    /** Returns the start time to pass to {@link #record}. */
+    public static long start() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Counts an operation on a URI pattern that started at the given time.
+     */
+    public void record(int operation, int pattern, long startNanos) {
+        long micros = (SystemClock.elapsedRealtimeNanos() - startNanos) / 1000;
+        if (micros < 0) {
+            micros = 0;
+        }
+        int base = (operation * mPatterns.length + pattern) * STRIDE;
+        mSlots.incrementAndGet(base + bucketOf(micros));
+        mSlots.addAndGet(base + SLOT_SUM, micros);
+        long max = mSlots.get(base + SLOT_MAX);
+        while (micros > max && !mSlots.compareAndSet(base + SLOT_MAX, max, micros)) {
+            max = mSlots.get(base + SLOT_MAX);
+        }
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(micros), MAX_EXPONENT);
+        int subBucket = exponent == MAX_EXPONENT
+                ? SUB_BUCKETS - 1 : (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /** Returns the largest latency counted in a bucket. */
+    static long bucketCeiling(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+    }
+
+    /**
+     * Returns the number of operations counted.
+     */
+    public long getCount(int operation, int pattern) {
+        return read(operation, pattern).count;
+    }
+
+    /**
+     * Returns the latency under which the given fraction of the operations completed, in
+     * microseconds, or 0 if none was counted.
+     */
+    public long getPercentile(int operation, int pattern, double fraction) {
+        return read(operation, pattern).percentile(fraction);
+    }
+
+    private Snapshot read(int operation, int pattern) {
+        int base = (operation * mPatterns.length + pattern) * STRIDE;
+        Snapshot snapshot = new Snapshot();
+        snapshot.buckets = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = mSlots.get(base + i);
+            snapshot.buckets[i] = count;
+            snapshot.count += count;
+        }
+        snapshot.sum = mSlots.get(base + SLOT_SUM);
+        snapshot.max = mSlots.get(base + SLOT_MAX);
+        return snapshot;
+    }
+
+    /**
+     * Returns the histograms called at least once, in the columns above.
+     */
+    public Cursor query() {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (int operation = 0; operation < OPERATIONS.length; operation++) {
+            for (int pattern = 0; pattern < mPatterns.length; pattern++) {
+                Snapshot snapshot = read(operation, pattern);
+                if (snapshot.count == 0) {
+                    continue;
+                }
+                cursor.addRow(new Object[]{OPERATIONS[operation], mPatterns[pattern], snapshot.count,
+                        snapshot.sum / snapshot.count, snapshot.percentile(0.5),
+                        snapshot.percentile(0.99), snapshot.percentile(0.999), snapshot.max});
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Writes the histograms called at least once, one line each.
+     */
+    public void dump(PrintWriter writer) {
+        writer.println("Latency per operation and URI, in microseconds:");
+        Cursor cursor = query();
+        try {
+            if (cursor.getCount() == 0) {
+                writer.println("  (no calls yet)");
+            }
+            while (cursor.moveToNext()) {
+                writer.println(String.format(Locale.US,
+                        "  %-10s %-20s count=%d mean=%d p50=%d p99=%d p999=%d max=%d",
+                        cursor.getString(0), cursor.getString(1), cursor.getLong(2), cursor.getLong(3),
+                        cursor.getLong(4), cursor.getLong(5), cursor.getLong(6), cursor.getLong(7)));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** The counts of one histogram, read one slot at a time while recording goes on. */
+    private static final class Snapshot {
+        long[] buckets;
+        long count;
+        long sum;
+        long max;
+
+        long percentile(double fraction) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(bucketCeiling(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.MatrixCursor;
+import android.os.AsyncTask;
+import android.os.StrictMode;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The first rows of a list, saved to a small file in the cache directory when the list is left,
+ * so that the next launch can show them before its loader has queried the database. The rows
+ * are replaced by the live ones as soon as the loader delivers them.
+ *
+ * The file holds the column names followed by the rows, every value tagged with its type. It
+ * takes a few kilobytes whatever the size of the table, so reading it on the main thread costs
+ * about as much as inflating a layout. Writes are encoded on the calling thread and written in
+ * the background.
+ */
+public final class ListSnapshotFile {
+
+    private static final String LOG_TAG = ListSnapshotFile.class.getSimpleName();
+
+    /** Written first, so that files of another format are not read as snapshots */
+    private static final int MAGIC = 0x4c534e50;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_LONG = 1;
+    private static final byte TYPE_DOUBLE = 2;
+    private static final byte TYPE_STRING = 3;
+
+    private final AtomicFile mFile;
+
+    /**
+     * @param name name of the file in the cache directory
+     */
+    public ListSnapshotFile(Context context, String name) {
+        mFile = new AtomicFile(new File(context.getCacheDir(), name));
+    }
+
+    /**
+     * Returns the saved rows, or null if none were saved, or they were saved with other columns
+     * than the given ones. The cursor carries the {@link RowSnapshot} of its rows. Meant to be
+     * called on the main thread.
+     *
+     * @param projection columns the list is loaded with
+     */
+    public Cursor read(String[] projection) {
+        // The file is a few kilobytes, read before the first frame on purpose
+        StrictMode.ThreadPolicy policy = StrictMode.allowThreadDiskReads();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(mFile.openRead());
+            return readRows(in, projection);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Ignoring unreadable list snapshot", e);
+            return null;
+        } finally {
+            closeQuietly(in);
+            StrictMode.setThreadPolicy(policy);
+        }
+    }
+
+    private static Cursor readRows(DataInputStream in, String[] projection) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+            return null;
+        }
+        String[] columns = new String[in.readInt()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = in.readUTF();
+        }
+        if (!Arrays.equals(columns, projection)) {
+            return null;
+        }
+
+        int rows = in.readInt();
+        MatrixCursor cursor = new MatrixCursor(columns, rows);
+        Object[] values = new Object[columns.length];
+        for (int row = 0; row < rows; row++) {
+            for (int i = 0; i < columns.length; i++) {
+                switch (in.readByte()) {
+                    case TYPE_NULL:
+                        values[i] = null;
+                        break;
+                    case TYPE_LONG:
+                        values[i] = in.readLong();
+                        break;
+                    case TYPE_DOUBLE:
+                        values[i] = in.readDouble();
+                        break;
+                    case TYPE_STRING:
+                        values[i] = in.readUTF();
+                        break;
+                    default:
+                        throw new IOException("Unknown value type");
+                }
+            }
+            cursor.addRow(values);
+        }
+        return new SnapshotCursor(cursor);
+    }
+
+    /**
+     * Saves the first rows of a cursor, in place of the rows saved before. The rows are copied
+     * right away, the file is written in the background. The position of the cursor is not
+     * kept.
+     *
+     * @param maxRows number of rows to save, enough to fill the screen
+     */
+    public void save(Cursor cursor, int maxRows) {
+        final byte[] bytes;
+        try {
+            bytes = encode(cursor, maxRows);
+        } catch (IOException e) {
+            // Only thrown by the file streams, not by an array
+            throw new IllegalStateException(e);
+        }
+
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                FileOutputStream out = null;
+                try {
+                    out = mFile.startWrite();
+                    out.write(bytes);
+                    mFile.finishWrite(out);
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Could not save list snapshot", e);
+                    if (out != null) {
+                        mFile.failWrite(out);
+                    }
+                }
+            }
+        });
+    }
+
+    private static byte[] encode(Cursor cursor, int maxRows) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+
+        int columns = cursor.getColumnCount();
+        out.writeInt(columns);
+        for (int i = 0; i < columns; i++) {
+            out.writeUTF(cursor.getColumnName(i));
+        }
+
+        int rows = Math.min(cursor.getCount(), maxRows);
+        out.writeInt(rows);
+        for (int row = 0; row < rows; row++) {
+            cursor.moveToPosition(row);
+            for (int i = 0; i < columns; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        out.writeByte(TYPE_LONG);
+                        out.writeLong(cursor.getLong(i));
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        out.writeByte(TYPE_DOUBLE);
+                        out.writeDouble(cursor.getDouble(i));
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        out.writeByte(TYPE_STRING);
+                        out.writeUTF(cursor.getString(i));
+                        break;
+                    default:
+                        // Lists show no blobs
+                        out.writeByte(TYPE_NULL);
+                        break;
+                }
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void closeQuietly(DataInputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Saved rows together with their {@link RowSnapshot}.
+     */
+    private static final class SnapshotCursor extends CursorWrapper implements RowSnapshot.Holder {
+
+        private final RowSnapshot mSnapshot;
+
+        SnapshotCursor(Cursor rows) {
+            super(rows);
+            mSnapshot = RowSnapshot.read(rows, null);
+        }
+
+        @Override
+        public RowSnapshot getRowSnapshot() {
+            return mSnapshot;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.example.android.inventoryapp.data;
 
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -36,6 +37,106 @@ public final class ProductContract {
      */
     public static final String PATH_PRODUCTS = "products";
 
+    /**
+     * Path of the latency histograms of the provider, for instance
+     * content://com.example.android.products/metrics. Rows have the columns of {@link LatencyHistograms}.
+     */
+    public static final String PATH_METRICS = "metrics";
+
+    /** The content URI of the latency histograms of the provider */
+    public static final Uri METRICS_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_METRICS);
+
+    /**
+     * Path of the statements of both providers that took longer than the slow query threshold,
+     * for instance content://com.example.android.products/slow_queries. Rows have the columns
+     * of {@link SlowQueryLog}.
+     */
+    public static final String PATH_SLOW_QUERIES = "slow_queries";
+
+    /** The content URI of the slow statements of both providers */
+    public static final Uri SLOW_QUERIES_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SLOW_QUERIES);
+
+    /**
+     * Path appended to a single product URI to sell units of that product, for instance
+     * content://com.example.android.products/products/3/sell?qty=2. An update on it returns
+     * the remaining stock rather than a number of rows, see {@link ProductEntry#SELL_REJECTED}.
+     */
+    public static final String PATH_SELL = "sell";
+
+    /**
+     * Query parameter of a sell URI holding the number of units sold. Defaults to 1.
+     */
+    public static final String QUERY_PARAMETER_QUANTITY = "qty";
+
+    /**
+     * Path appended to the products URI to search products by name and supplier, for instance
+     * content://com.example.android.products/products/search?q=nike+bo
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path appended to the products URI to find a product by its SKU, for instance
+     * content://com.example.android.products/products/sku/4006381333931. Appending
+     * {@link #PATH_SELL} sells units of that product, as a sell URI does.
+     */
+    public static final String PATH_SKU = "sku";
+
+    /**
+     * Query parameter of a search URI holding the text to search for. Every word of it matches
+     * as a prefix.
+     */
+    public static final String QUERY_PARAMETER_SEARCH = "q";
+
+    /**
+     * Query parameter of the products URI limiting a delete to the products without sales, so
+     * that it deletes those rather than being rejected, see {@link ProductEntry#UNSOLD_URI}.
+     */
+    public static final String QUERY_PARAMETER_UNSOLD = "unsold";
+
+    /**
+     * Method of {@link ContentResolver#call} returning the hit rate and memory use of the
+     * provider's in-memory table of product stock, as a Bundle with the keys below.
+     */
+    public static final String METHOD_STOCK_TABLE_STATS = "stock_table_stats";
+
+    /** Number of reads answered from memory, a long. */
+    public static final String KEY_STOCK_TABLE_HITS = "hits";
+
+    /** Number of reads that went to the database, a long. */
+    public static final String KEY_STOCK_TABLE_MISSES = "misses";
+
+    /** Number of products held, an int. */
+    public static final String KEY_STOCK_TABLE_ROWS = "rows";
+
+    /** Estimated memory held, in bytes, a long. */
+    public static final String KEY_STOCK_TABLE_BYTES = "bytes";
+
+    /**
+     * Method of {@link ContentResolver#call} setting the time in milliseconds, given as the
+     * argument, above which statements are written to {@link #SLOW_QUERIES_URI}.
+     */
+    public static final String METHOD_SET_SLOW_QUERY_THRESHOLD = "set_slow_query_threshold";
+
+    /**
+     * Method of {@link ContentResolver#call} writing every product and sale to a compact backup
+     * file, whose absolute path is given as the argument. The file is replaced only once the
+     * backup is whole. Returns a Bundle with the keys below. Must not be called on the main thread.
+     */
+    public static final String METHOD_BACKUP = "backup";
+
+    /**
+     * Method of {@link ContentResolver#call} replacing every product and sale with those of the
+     * backup file whose absolute path is given as the argument. Nothing changes if the file is
+     * not a whole backup. Returns a Bundle with the keys below. Must not be called on the main thread.
+     */
+    public static final String METHOD_RESTORE = "restore";
+
+    /** Number of products backed up or restored, an int. */
+    public static final String KEY_BACKUP_PRODUCTS = "products";
+
+    /** Number of sales backed up or restored, an int. */
+    public static final String KEY_BACKUP_SALES = "sales";
+
     /**
      * Inner class that defines constant values for the store database table.
      * Each entry in the table represents a single pet.
@@ -45,6 +146,13 @@ public final class ProductContract {
         /** The content URI to access the pet data in the provider */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PRODUCTS);
 
+        /**
+         * The products without sales. Deleting them keeps the products that have sales, which
+         * cannot be deleted.
+         */
+        public static final Uri UNSOLD_URI = CONTENT_URI.buildUpon()
+                .appendQueryParameter(QUERY_PARAMETER_UNSOLD, "true").build();
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of products.
          */
@@ -57,6 +165,16 @@ public final class ProductContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PRODUCTS;
 
+        /**
+         * Returned by an update on a sell URI when the product does not exist or does not have
+         * enough units in stock. Nothing is written in that case.
+         *
+         * An update on a sell URI does not return a number of rows like other updates: it
+         * returns the stock left after the sale. A sale that takes the last units returns 0,
+         * which means the sale was made, so only this value means that nothing was sold.
+         */
+        public static final int SELL_REJECTED = -1;
+
         /** Name of database table for products */
         public final static String TABLE_NAME = "products";
 
@@ -107,6 +225,22 @@ public final class ProductContract {
          */
         public final static String COLUMN_SUPPLIER_PHONE ="supplierPhone";
 
+        /**
+         * Absolute path of the product photo, a file written by {@link ProductPhotos}, or null
+         * if the product has none.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_PRODUCT_IMAGE = "image";
+
+        /**
+         * Stock keeping unit of the product, the code printed on its barcode, or null if the
+         * product has none. No two products have the same SKU.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_PRODUCT_SKU = "sku";
+
 
         /**
          * Possible value for the supplier.
@@ -132,5 +266,51 @@ public final class ProductContract {
             return false;
         }
 
+        /**
+         * Builds the URI that searches products for the given text. Products whose name matches
+         * every word come first, followed by those matching on name and supplier together.
+         */
+        public static Uri buildSearchUri(String text) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SEARCH)
+                    .appendQueryParameter(QUERY_PARAMETER_SEARCH, text)
+                    .build();
+        }
+
+        /**
+         * Builds the URI that reads the product with the given SKU.
+         */
+        public static Uri buildSkuUri(String sku) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SKU)
+                    .appendPath(sku)
+                    .build();
+        }
+
+        /**
+         * Builds the URI that sells the given quantity of the product with the given SKU, as
+         * scanned at the checkout. Updating it finds the product, decrements the stock and
+         * records the sale in one transaction, and returns the remaining stock or
+         * {@link #SELL_REJECTED}, also when no product has that SKU.
+         */
+        public static Uri buildSkuSellUri(String sku, int quantity) {
+            return buildSkuUri(sku).buildUpon()
+                    .appendPath(PATH_SELL)
+                    .appendQueryParameter(QUERY_PARAMETER_QUANTITY, String.valueOf(quantity))
+                    .build();
+        }
+
+        /**
+         * Builds the URI that sells the given quantity of the product with the given id.
+         * Updating it decrements the stock and records the sale in one transaction, and returns
+         * the remaining stock or {@link #SELL_REJECTED}.
+         */
+        public static Uri buildSellUri(long id, int quantity) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_SELL)
+                    .appendQueryParameter(QUERY_PARAMETER_QUANTITY, String.valueOf(quantity))
+                    .build();
+        }
+
     }
 }
@@ -0,0 +1,343 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.support.v4.os.TraceCompat;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Imports products from a CSV file, such as a supplier spreadsheet saved as CSV. The first
+ * record names the columns, in any order: {@code name}, {@code price}, {@code quantity} and
+ * {@code supplier} are required, {@code supplier_phone} is optional. Suppliers are given by
+ * number or by name, for instance 4 or NIKE.
+ *
+ * The file is streamed: only the current record and one chunk of rows are held, whatever its
+ * size. Rows are checked as they are read, and valid ones are inserted {@link #CHUNK_ROWS} at a
+ * time through {@link ContentResolver#bulkInsert}, which writes a chunk in one transaction.
+ * Invalid rows are skipped and reported with their line, up to {@link #MAX_REPORTED_ERRORS} of
+ * them. Cancelling stops the import before the next chunk; chunks inserted before stay.
+ *
+ * An import runs on the thread that calls {@link #importFrom}, which must not be the main one.
+ */
+public final class ProductCsvImporter {
+
+    /** Rows inserted per transaction */
+    static final int CHUNK_ROWS = 2000;
+
+    /** Rows rejected with their line and reason; further ones are only counted */
+    public static final int MAX_REPORTED_ERRORS = 100;
+
+    /** Header names of the columns */
+    public static final String HEADER_NAME = "name";
+    public static final String HEADER_PRICE = "price";
+    public static final String HEADER_QUANTITY = "quantity";
+    public static final String HEADER_SUPPLIER = "supplier";
+    public static final String HEADER_SUPPLIER_PHONE = "supplier_phone";
+
+    /** Names of the suppliers, by their value in {@link ProductEntry#COLUMN_SUPPLIER_NAME} */
+    private static final String[] SUPPLIER_NAMES = new String[ProductEntry.FORSCLASS + 1];
+
+    static {
+        SUPPLIER_NAMES[ProductEntry.UNKNOWN] = "UNKNOWN";
+        SUPPLIER_NAMES[ProductEntry.KAMUEL] = "KAMUEL";
+        SUPPLIER_NAMES[ProductEntry.WALKAIR] = "WALKAIR";
+        SUPPLIER_NAMES[ProductEntry.DEPEDRO] = "DEPEDRO";
+        SUPPLIER_NAMES[ProductEntry.NIKE] = "NIKE";
+        SUPPLIER_NAMES[ProductEntry.FOREX] = "FOREX";
+        SUPPLIER_NAMES[ProductEntry.FORSCLASS] = "FORSCLASS";
+    }
+
+    private static final int NO_COLUMN = -1;
+
+    /** Receives the progress of an import, on the importing thread. */
+    public interface ProgressListener {
+        /**
+         * Called after every chunk.
+         *
+         * @param bytesRead  bytes of the file read so far
+         * @param rowsImported rows inserted so far
+         */
+        void onProgress(long bytesRead, int rowsImported);
+    }
+
+    /** A row that was not imported. */
+    public static final class RowError {
+        /** Line of the file the row starts on, counting from 1 */
+        public final int line;
+        public final String message;
+
+        RowError(int line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+    }
+
+    /** The outcome of an import. */
+    public static final class Report {
+        /** Rows inserted */
+        public int rowsImported;
+        /** Rows of the file that were not inserted, including those of {@link #errors} */
+        public int rowsRejected;
+        /**
+         * The first rows rejected, in the order of the file, or the reason nothing was read if
+         * the file has no header
+         */
+        public final List<RowError> errors = new ArrayList<>();
+        /** Whether the import was cancelled before the end of the file */
+        public boolean cancelled;
+
+        void reject(int line, String message) {
+            rowsRejected++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(new RowError(line, message));
+            }
+        }
+
+        void fail(String message) {
+            errors.add(new RowError(1, message));
+        }
+    }
+
+    private final ContentResolver mResolver;
+
+    private volatile boolean mCancelled;
+
+    public ProductCsvImporter(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Stops the import before its next chunk. Can be called from any thread.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Imports the products of a CSV file in UTF-8. The stream is closed at the end.
+     *
+     * @param listener receives the progress after every chunk, or null
+     */
+    public Report importFrom(InputStream in, ProgressListener listener) throws IOException {
+        CountingInputStream counted = new CountingInputStream(in);
+        try {
+            return importRecords(new CsvReader(new InputStreamReader(counted, Charset.forName("UTF-8"))),
+                    counted, listener);
+        } finally {
+            counted.close();
+        }
+    }
+
+    private Report importRecords(CsvReader reader, CountingInputStream counted, ProgressListener listener)
+            throws IOException {
+        Report report = new Report();
+        List<String> fields = new ArrayList<>();
+        if (!reader.readRecord(fields)) {
+            report.fail("The file is empty");
+            return report;
+        }
+
+        // Find the columns by their header
+        int nameColumn = NO_COLUMN;
+        int priceColumn = NO_COLUMN;
+        int quantityColumn = NO_COLUMN;
+        int supplierColumn = NO_COLUMN;
+        int phoneColumn = NO_COLUMN;
+        for (int i = 0; i < fields.size(); i++) {
+            String header = fields.get(i).trim().toLowerCase(Locale.US);
+            if (header.equals(HEADER_NAME)) {
+                nameColumn = i;
+            } else if (header.equals(HEADER_PRICE)) {
+                priceColumn = i;
+            } else if (header.equals(HEADER_QUANTITY)) {
+                quantityColumn = i;
+            } else if (header.equals(HEADER_SUPPLIER)) {
+                supplierColumn = i;
+            } else if (header.equals(HEADER_SUPPLIER_PHONE)) {
+                phoneColumn = i;
+            }
+        }
+        if (nameColumn == NO_COLUMN || priceColumn == NO_COLUMN || quantityColumn == NO_COLUMN
+                || supplierColumn == NO_COLUMN) {
+            report.fail("The first line must name the columns " + HEADER_NAME + ", " + HEADER_PRICE
+                    + ", " + HEADER_QUANTITY + " and " + HEADER_SUPPLIER);
+            return report;
+        }
+        int requiredFields = Math.max(Math.max(nameColumn, priceColumn),
+                Math.max(quantityColumn, supplierColumn)) + 1;
+
+        // The values of a chunk are reused by the next one
+        ContentValues[] chunk = new ContentValues[CHUNK_ROWS];
+        int[] chunkLines = new int[CHUNK_ROWS];
+        int rows = 0;
+        while (reader.readRecord(fields)) {
+            if (mCancelled) {
+                report.cancelled = true;
+                return report;
+            }
+            int line = reader.getRecordLine();
+            if (fields.size() < requiredFields) {
+                report.reject(line, "Expected at least " + requiredFields + " fields, found " + fields.size());
+                continue;
+            }
+
+            String name = fields.get(nameColumn).trim();
+            if (name.isEmpty()) {
+                report.reject(line, "Product requires a name");
+                continue;
+            }
+            long price = parseNumber(fields.get(priceColumn));
+            if (price < 0 || price > Integer.MAX_VALUE) {
+                report.reject(line, "Product requires valid price: " + fields.get(priceColumn));
+                continue;
+            }
+            long quantity = parseNumber(fields.get(quantityColumn));
+            if (quantity < 0 || quantity > Integer.MAX_VALUE) {
+                report.reject(line, "Product requires valid quantity: " + fields.get(quantityColumn));
+                continue;
+            }
+            int supplier = parseSupplier(fields.get(supplierColumn));
+            if (!ProductEntry.isValidSupplier(supplier)) {
+                report.reject(line, "Product requires valid supplier: " + fields.get(supplierColumn));
+                continue;
+            }
+
+            ContentValues values = chunk[rows];
+            if (values == null) {
+                values = new ContentValues();
+                chunk[rows] = values;
+            } else {
+                values.clear();
+            }
+            values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+            values.put(ProductEntry.COLUMN_PRODUCT_PRICE, (int) price);
+            values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, (int) quantity);
+            values.put(ProductEntry.COLUMN_SUPPLIER_NAME, supplier);
+            if (phoneColumn != NO_COLUMN && phoneColumn < fields.size()) {
+                String phone = fields.get(phoneColumn).trim();
+                if (!phone.isEmpty()) {
+                    values.put(ProductEntry.COLUMN_SUPPLIER_PHONE, phone);
+                }
+            }
+            chunkLines[rows] = line;
+            rows++;
+
+            if (rows == CHUNK_ROWS) {
+                insertChunk(chunk, chunkLines, rows, report);
+                rows = 0;
+                if (listener != null) {
+                    listener.onProgress(counted.getCount(), report.rowsImported);
+                }
+            }
+        }
+        if (rows > 0 && !mCancelled) {
+            insertChunk(Arrays.copyOf(chunk, rows), chunkLines, rows, report);
+        }
+        report.cancelled = mCancelled;
+        if (listener != null) {
+            listener.onProgress(counted.getCount(), report.rowsImported);
+        }
+        return report;
+    }
+
+    private void insertChunk(ContentValues[] chunk, int[] lines, int rows, Report report) {
+        TraceCompat.beginSection("ProductCsvImporter.insertChunk");
+        try {
+            report.rowsImported += mResolver.bulkInsert(ProductEntry.CONTENT_URI, chunk);
+        } catch (IllegalArgumentException e) {
+            // The rows were checked as the provider checks them, so this is not expected;
+            // the provider inserts all of a chunk or nothing
+            for (int i = 0; i < rows; i++) {
+                report.reject(lines[i], "Chunk rejected by the provider: " + e.getMessage());
+            }
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * Returns the value of a whole number field, or -1 if it is not one.
+     */
+    private static long parseNumber(String field) {
+        String text = field.trim();
+        if (text.isEmpty() || text.length() > 10) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Returns the supplier given by number or by name, or -1 if it is neither.
+     */
+    private static int parseSupplier(String field) {
+        long number = parseNumber(field);
+        if (number >= 0) {
+            return number <= Integer.MAX_VALUE ? (int) number : -1;
+        }
+        String name = field.trim();
+        for (int supplier = 0; supplier < SUPPLIER_NAMES.length; supplier++) {
+            if (name.equalsIgnoreCase(SUPPLIER_NAMES[supplier])) {
+                return supplier;
+            }
+        }
+        return -1;
+    }
+
+    /** Counts the bytes read from a stream, for the progress of an import. */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private volatile long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * Copies the photos picked for products into the app's private storage, so that they stay
+ * readable once the app that shared them revokes its grant. The path of the copy is what
+ * {@link ProductContract.ProductEntry#COLUMN_PRODUCT_IMAGE} holds.
+ *
+ * Camera photos are several megabytes and thousands of pixels wide, so a copy is decoded at the
+ * largest power of two fraction of its size whose shorter side still has {@link #MAX_SIDE}
+ * pixels, and saved as JPEG. Every copy gets a new file, so a path always names the same image
+ * and caches keyed by path never show a stale photo.
+ *
+ * A copy belongs to the one product that holds its path, so it is deleted once no product
+ * holds it anymore, or once the editor that copied it is left without saving.
+ */
+public final class ProductPhotos {
+
+    private static final String LOG_TAG = ProductPhotos.class.getSimpleName();
+
+    /** Directory of the photos in the files directory */
+    private static final String DIRECTORY = "photos";
+
+    /** Pixels kept on the shorter side of a photo, enough for a full screen preview */
+    static final int MAX_SIDE = 1080;
+
+    private static final int JPEG_QUALITY = 90;
+
+    private ProductPhotos() {
+    }
+
+    /**
+     * Copies the image at the given URI and returns the path of the copy. Decodes the image, so
+     * it must not be called on the main thread.
+     *
+     * @throws IOException if the image cannot be read or is not an image
+     */
+    public static String importPhoto(Context context, Uri uri) throws IOException {
+        ContentResolver resolver = context.getContentResolver();
+
+        // Read the size first, to decode no more pixels than are kept
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decode(resolver, uri, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Not an image: " + uri);
+        }
+        options.inSampleSize = sampleSize(options.outWidth, options.outHeight, MAX_SIDE);
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap = decode(resolver, uri, options);
+        if (bitmap == null) {
+            throw new IOException("Not an image: " + uri);
+        }
+
+        File directory = new File(context.getFilesDir(), DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        File file = new File(directory, UUID.randomUUID() + ".jpg");
+        boolean written = false;
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            written = bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+        } finally {
+            out.close();
+            bitmap.recycle();
+            if (!written) {
+                file.delete();
+            }
+        }
+        if (!written) {
+            throw new IOException("Could not write " + file);
+        }
+        return file.getPath();
+    }
+
+    /**
+     * Deletes the copies at the given paths. Paths outside the photos directory are left alone,
+     * as they were not copied here.
+     */
+    public static void deletePhotos(Context context, Collection<String> paths) {
+        File directory = new File(context.getFilesDir(), DIRECTORY).getAbsoluteFile();
+        for (String path : paths) {
+            File file = new File(path).getAbsoluteFile();
+            if (directory.equals(file.getParentFile()) && !file.delete() && file.exists()) {
+                Log.w(LOG_TAG, "Could not delete " + file);
+            }
+        }
+    }
+
+    private static Bitmap decode(ContentResolver resolver, Uri uri, BitmapFactory.Options options)
+            throws IOException {
+        InputStream in = resolver.openInputStream(uri);
+        if (in == null) {
+            throw new FileNotFoundException("No image at " + uri);
+        }
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the largest power of two by which an image can be subsampled while both its sides
+     * keep at least the given number of pixels, or 1 if the image is smaller already.
+     */
+    public static int sampleSize(int width, int height, int side) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= side && height / (sampleSize * 2) >= side) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
@@ -1,17 +1,42 @@
 package com.example.android.inventoryapp.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.support.v4.os.TraceCompat;
+import android.text.TextUtils;
+import android.util.AtomicFile;
 import android.util.Log;
 import android.widget.Toast;
 
 import com.example.android.inventoryapp.R;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.SaleContract.SaleEntry;
+import com.example.android.inventoryapp.data.SaleContract.SaleSummaryEntry;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class ProductProvider extends ContentProvider {
 
@@ -30,6 +55,44 @@ public class ProductProvider extends ContentProvider {
      */
     private static final int PRODUCT_ID = 101;
 
+    /**
+     * URI matcher code for the content URI that sells units of a single product
+     */
+    private static final int PRODUCT_SELL = 102;
+
+    /**
+     * URI matcher code for the content URI that searches products by name and supplier
+     */
+    private static final int PRODUCT_SEARCH = 103;
+
+    /**
+     * URI matcher code for the content URI of the latency histograms of the provider
+     */
+    private static final int METRICS = 104;
+
+    /**
+     * URI matcher code for the slow statements of both providers
+     */
+    private static final int SLOW_QUERIES = 105;
+
+    /**
+     * URI matcher code for the content URI for the product with a given SKU
+     */
+    private static final int PRODUCT_SKU = 106;
+
+    /**
+     * URI matcher code for the content URI that sells units of the product with a given SKU
+     */
+    private static final int PRODUCT_SKU_SELL = 107;
+
+    /**
+     * Names of the URI patterns the latencies are recorded for, by {@link #patternOf} index.
+     * URIs that match no pattern are recorded under "unknown".
+     */
+    private static final String[] PATTERNS = {
+            "products", "products/#", "products/#/sell", "products/search", "metrics", "slow_queries",
+            "products/sku/*", "products/sku/*/sell", "unknown"};
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -56,37 +119,236 @@ public class ProductProvider extends ContentProvider {
         // For example, "content://com.example.android.pets/pets/3" matches, but
         // "content://com.example.android.pets/pets" (without a number at the end) doesn't match.
         sUriMatcher.addURI( ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_PRODUCTS + "/#", PRODUCT_ID );
+
+        // The content URI of the form "content://com.example.android.products/products/#/sell"
+        // will map to the integer code {@link #PRODUCT_SELL}. It is only used with update().
+        sUriMatcher.addURI( ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/#/" + ProductContract.PATH_SELL, PRODUCT_SELL );
+
+        // The content URI of the form "content://com.example.android.products/products/search"
+        // will map to the integer code {@link #PRODUCT_SEARCH}. It is only used with query().
+        sUriMatcher.addURI( ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_SEARCH, PRODUCT_SEARCH );
+
+        // The content URI "content://com.example.android.products/metrics" will map to the
+        // integer code {@link #METRICS}. It is only used with query().
+        sUriMatcher.addURI( ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_METRICS, METRICS );
+
+        // The content URI "content://com.example.android.products/slow_queries" will map to the
+        // integer code {@link #SLOW_QUERIES}. It is only used with query().
+        sUriMatcher.addURI( ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_SLOW_QUERIES, SLOW_QUERIES );
+
+        // The content URI of the form "content://com.example.android.products/products/sku/*"
+        // will map to the integer code {@link #PRODUCT_SKU}. It is only used with query().
+        sUriMatcher.addURI( ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_SKU + "/*", PRODUCT_SKU );
+
+        // The content URI of the form "content://com.example.android.products/products/sku/*/sell"
+        // will map to the integer code {@link #PRODUCT_SKU_SELL}. It is only used with update().
+        sUriMatcher.addURI( ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_SKU + "/*/" + ProductContract.PATH_SELL,
+                PRODUCT_SKU_SELL );
     }
 
     /**
-     * Database helper object
+     * Products matching a full-text query, joined with their search index rows. The first
+     * argument is the query on every column of the index.
+     */
+    private static final String SEARCH_TABLES = ProductEntry.TABLE_NAME + " JOIN (SELECT docid FROM "
+            + SalesAndProductsDbHelper.TABLE_PRODUCT_SEARCH + " WHERE "
+            + SalesAndProductsDbHelper.TABLE_PRODUCT_SEARCH + " MATCH ?) AS search_hit ON "
+            + ProductEntry.TABLE_NAME + "." + ProductEntry._ID + " = search_hit.docid";
+
+    /**
+     * Order of the search results: products matching on the name alone first, then by name.
+     * The argument is the query on the name column of the index.
+     */
+    private static final String SEARCH_ORDER = ProductEntry.TABLE_NAME + "." + ProductEntry._ID
+            + " NOT IN (SELECT docid FROM " + SalesAndProductsDbHelper.TABLE_PRODUCT_SEARCH + " WHERE "
+            + SalesAndProductsDbHelper.TABLE_PRODUCT_SEARCH + " MATCH ?), "
+            + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.TABLE_NAME + "." + ProductEntry._ID;
+
+    /**
+     * Number of search results returned when the search URI has no limit.
+     */
+    private static final String SEARCH_LIMIT = "50";
+
+    /**
+     * Decrements the stock of one product, but only if enough units are left.
+     */
+    private static final String SQL_DECREMENT_STOCK = "UPDATE " + ProductEntry.TABLE_NAME
+            + " SET " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " = " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " - ?"
+            + " WHERE " + ProductEntry._ID + " = ? AND " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " >= ?";
+
+    /**
+     * Records a sale of one product at its current price and at the given time.
+     */
+    private static final String SQL_RECORD_SALE = "INSERT INTO " + SaleEntry.TABLE_NAME + " ("
+            + SaleEntry.COLUMN_SALE_PRODUCT_ID + ", "
+            + SaleEntry.COLUMN_SALE_PRICE + ", "
+            + SaleEntry.COLUMN_SALE_QUANTITY + ", "
+            + SaleEntry.COLUMN_SALE_DATE + ")"
+            + " SELECT " + ProductEntry._ID + ", "
+            + ProductEntry.COLUMN_PRODUCT_PRICE + ", ?, ?"
+            + " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = ?";
+
+    /**
+     * Finds the product with a SKU, through the unique index on the SKU.
+     */
+    private static final String SQL_SELECT_ID_BY_SKU = "SELECT " + ProductEntry._ID
+            + " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry.COLUMN_PRODUCT_SKU + " = ?";
+
+    /**
+     * Products that have sales, which cannot be deleted: sales show the name and supplier of
+     * their product, so deleting it would blank them on every past sale. A product has sales
+     * exactly when it has a row in the sales totals.
      */
-    private SalesAndProductsDbHelper mDbHelper;
+    private static final String SQL_PRODUCTS_WITH_SALES = ProductEntry._ID + " IN (SELECT "
+            + SaleSummaryEntry.COLUMN_PRODUCT_ID + " FROM " + SalesAndProductsDbHelper.TABLE_SALES_BY_PRODUCT + ")";
+
+    /**
+     * Reads the stock of one product.
+     */
+    private static final String SQL_SELECT_STOCK = "SELECT " + ProductEntry.COLUMN_PRODUCT_QUANTITY
+            + " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = ?";
+
+    /**
+     * Inserts one product with every column bound, reused for all rows of a {@link #bulkInsert}.
+     */
+    private static final String SQL_INSERT_PRODUCT = "INSERT INTO " + ProductEntry.TABLE_NAME + " ("
+            + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+            + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+            + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+            + ProductEntry.COLUMN_SUPPLIER_NAME + ", "
+            + ProductEntry.COLUMN_SUPPLIER_PHONE + ", "
+            + ProductEntry.COLUMN_PRODUCT_IMAGE + ", "
+            + ProductEntry.COLUMN_PRODUCT_SKU + ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Value returned by {@link #readLong} for a missing or malformed number.
+     */
+    private static final long INVALID_NUMBER = Long.MIN_VALUE;
+
+    /**
+     * Database helper object, looked up on first use
+     */
+    private volatile SalesAndProductsDbHelper mDbHelper;
+
+    /**
+     * Products read lately, which answer reads of a single product without the database
+     */
+    private final ProductStockTable mStockTable = new ProductStockTable();
+
+    /** Latency of every call, per operation and URI pattern */
+    private final LatencyHistograms mLatencies = new LatencyHistograms( PATTERNS );
+
+    /**
+     * Log of the slow statements, shared with the sale provider and looked up on first use
+     */
+    private volatile SlowQueryLog mSlowQueries;
+
+    /**
+     * The tables changed by the {@link #applyBatch} running on the current thread, or null if
+     * the thread is not running a batch. Notifications are held back until the batch commits.
+     */
+    private final ThreadLocal<BatchChanges> mBatchChanges = new ThreadLocal<>();
+
+    /**
+     * Tables changed while a batch is being applied.
+     */
+    private static final class BatchChanges {
+        boolean products;
+        boolean sales;
+        /** Photos no product holds anymore, deleted once the batch commits */
+        final List<String> photos = new ArrayList<>();
+    }
 
     @Override
     public boolean onCreate() {
-        mDbHelper = new SalesAndProductsDbHelper( getContext() );
+        // The helper is looked up on first use: finding the database path may touch the disk,
+        // and providers are created on the main thread before the app starts
         return true;
     }
 
+    /**
+     * Return the database helper, looking it up on first use.
+     */
+    private SalesAndProductsDbHelper getDbHelper() {
+        SalesAndProductsDbHelper helper = mDbHelper;
+        if (helper == null) {
+            helper = SalesAndProductsDbHelper.getInstance( getContext() );
+            mDbHelper = helper;
+        }
+        return helper;
+    }
+
+    /**
+     * Return the slow query log, looking it up on first use.
+     */
+    private SlowQueryLog getSlowQueries() {
+        SlowQueryLog log = mSlowQueries;
+        if (log == null) {
+            log = SlowQueryLog.getInstance( getContext() );
+            mSlowQueries = log;
+        }
+        return log;
+    }
+
 
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        long start = LatencyHistograms.start();
+        int match = UriMatcher.NO_MATCH;
+        TraceCompat.beginSection( "ProductProvider.query" );
+        try {
+            match = matchUri( uri );
+            return queryProducts( uri, match, projection, selection, selectionArgs, sortOrder );
+        } finally {
+            TraceCompat.endSection();
+            mLatencies.record( LatencyHistograms.OPERATION_QUERY, patternOf( match ), start );
+        }
+    }
+
+    private Cursor queryProducts(Uri uri, int match, String[] projection, String selection,
+                                 String[] selectionArgs, String sortOrder) {
         // Get readable database
-        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        SQLiteDatabase database = getDbHelper().getReadableDatabase();
 
         // This cursor will hold the result of the query
         Cursor cursor;
 
-        // Figure out if the URI matcher can match the URI to a specific code
-        int match = sUriMatcher.match( uri );
+        // The URI matcher matched the URI to a specific code
         switch (match) {
             case PRODUCTS:
                 // For the PRODUCTS code, query the sales table directly with the given
                 // projection, selection, selection arguments, and sort order. The cursor
                 // could contain multiple rows of the pets table.
-                cursor = database.query( ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder );
+                String limit = KeysetPaging.getLimit( uri );
+                if (limit != null) {
+                    // A page of products in name order, starting after the given name and id
+                    if (sortOrder != null) {
+                        throw new IllegalArgumentException( "Pages of products are sorted by name " + uri );
+                    }
+                    sortOrder = ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry._ID;
+                    String afterId = KeysetPaging.getAfterId( uri );
+                    String afterName = KeysetPaging.getAfterKey( uri );
+                    if (afterId != null && afterName != null) {
+                        // The first term lets the name index seek to the start of the page
+                        selection = KeysetPaging.appendSelection( selection,
+                                ProductEntry.COLUMN_PRODUCT_NAME + " >= ? AND ("
+                                        + ProductEntry.COLUMN_PRODUCT_NAME + " > ? OR "
+                                        + ProductEntry._ID + " > ?)" );
+                        selectionArgs = KeysetPaging.appendArgs( selectionArgs, afterName, afterName, afterId );
+                    } else if (afterId != null || afterName != null) {
+                        throw new IllegalArgumentException( "Pages of products start after a name and an id " + uri );
+                    }
+                }
+                TraceCompat.beginSection( "ProductProvider.sqlite" );
+                try {
+                    cursor = queryTable( database, projection, selection, selectionArgs, sortOrder, limit );
+                } finally {
+                    TraceCompat.endSection();
+                }
                 break;
             case PRODUCT_ID:
                 // For the PRODUCT_ID code, extract out the ID from the URI.
@@ -97,14 +359,55 @@ public class ProductProvider extends ContentProvider {
                 // For every "?" in the selection, we need to have an element in the selection
                 // arguments that will fill in the "?". Since we have 1 question mark in the
                 // selection, we have 1 String in the selection arguments' String array.
+                if (selection == null && sortOrder == null && ProductStockTable.covers( projection )) {
+                    TraceCompat.beginSection( "ProductProvider.stockTable" );
+                    try {
+                        cursor = queryStock( database, ContentUris.parseId( uri ), projection );
+                    } finally {
+                        TraceCompat.endSection();
+                    }
+                    break;
+                }
                 selection = ProductEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf( ContentUris.parseId( uri ) )};
 
                 // This will perform a query on the pets table where the _id equals 3 to return a
                 // Cursor containing that row of the table.
-                cursor = database.query( ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder );
+                TraceCompat.beginSection( "ProductProvider.sqlite" );
+                try {
+                    cursor = queryTable( database, projection, selection, selectionArgs, sortOrder, null );
+                } finally {
+                    TraceCompat.endSection();
+                }
                 break;
+            case PRODUCT_SEARCH:
+                // Results change with any product, not only with the search URI
+                TraceCompat.beginSection( "ProductProvider.sqlite" );
+                try {
+                    cursor = searchProducts( database, uri, projection, selection, selectionArgs );
+                } finally {
+                    TraceCompat.endSection();
+                }
+                cursor.setNotificationUri( getContext().getContentResolver(), ProductEntry.CONTENT_URI );
+                return cursor;
+            case PRODUCT_SKU:
+                // For the PRODUCT_SKU code, the selection is the SKU in the URI, which the
+                // unique index finds without reading the table
+                selection = ProductEntry.COLUMN_PRODUCT_SKU + "=?";
+                selectionArgs = new String[]{uri.getPathSegments().get( 2 )};
+                TraceCompat.beginSection( "ProductProvider.sqlite" );
+                try {
+                    cursor = queryTable( database, projection, selection, selectionArgs, null, null );
+                } finally {
+                    TraceCompat.endSection();
+                }
+                // The product changes under its id, not under its SKU
+                cursor.setNotificationUri( getContext().getContentResolver(), ProductEntry.CONTENT_URI );
+                return cursor;
+            case METRICS:
+                return mLatencies.query();
+            case SLOW_QUERIES:
+                return getSlowQueries().query();
             default:
                 throw new IllegalArgumentException( "Cannot query unknown URI " + uri );
         }
@@ -119,15 +422,162 @@ public class ProductProvider extends ContentProvider {
 
     }
 
+    /**
+     * Query the products table. The first rows are read right away, so that the time and the
+     * row count include running the statement, and the query is logged if it was slow.
+     */
+    private Cursor queryTable(SQLiteDatabase database, String[] projection, String selection,
+                              String[] selectionArgs, String sortOrder, String limit) {
+        long start = SlowQueryLog.start();
+        Cursor cursor = database.query( ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
+                null, null, sortOrder, limit );
+        int rows = cursor.getCount();
+        SlowQueryLog slowQueries = getSlowQueries();
+        if (slowQueries.isSlow( start )) {
+            String sql = SQLiteQueryBuilder.buildQueryString( false, ProductEntry.TABLE_NAME, projection,
+                    selection, null, null, sortOrder, limit );
+            slowQueries.log( database, sql, sql, selection, selectionArgs, rows, start );
+        }
+        return cursor;
+    }
+
+    /**
+     * Log a change of the products table if it was slow, with the plan of selecting the
+     * changed rows.
+     *
+     * @param values the values of an update, or null for a delete
+     */
+    private void logSlowChange(SQLiteDatabase database, ContentValues values, String selection,
+                               String[] selectionArgs, int rows, long start) {
+        SlowQueryLog slowQueries = getSlowQueries();
+        if (!slowQueries.isSlow( start )) {
+            return;
+        }
+        String statement = values == null ? "DELETE FROM " + ProductEntry.TABLE_NAME
+                : "UPDATE " + ProductEntry.TABLE_NAME + " SET " + TextUtils.join( "=?, ", values.keySet() ) + "=?";
+        String where = TextUtils.isEmpty( selection ) ? "" : " WHERE " + selection;
+        slowQueries.log( database, statement + where, "SELECT rowid FROM " + ProductEntry.TABLE_NAME + where,
+                selection, selectionArgs, rows, start );
+    }
+
+
+    /**
+     * Read the columns of a single product held by the stock table. Products missing from the
+     * table are read from the database and kept for the next read.
+     */
+    private Cursor queryStock(SQLiteDatabase database, long id, String[] projection) {
+        Cursor cursor = mStockTable.query( id, projection );
+        if (cursor != null) {
+            return cursor;
+        }
+
+        long generation = mStockTable.getGeneration();
+        Cursor row = database.query( ProductEntry.TABLE_NAME, ProductStockTable.COLUMNS,
+                ProductEntry._ID + "=?", new String[]{String.valueOf( id )}, null, null, null );
+        try {
+            if (!row.moveToFirst()) {
+                return new MatrixCursor( projection, 0 );
+            }
+            String name = row.getString( 1 );
+            int price = row.getInt( 2 );
+            int quantity = row.getInt( 3 );
+            int supplier = row.getInt( 4 );
+            mStockTable.put( generation, id, name, price, quantity, supplier );
+            return new ProductStockTable.RowCursor( projection, id, name, price, quantity, supplier );
+        } finally {
+            row.close();
+        }
+    }
+
+    /**
+     * Search products through the full-text index. Every word of the search text must start a
+     * word of the product name or supplier name. Products matching on their name alone come
+     * first, so typing part of a name finds it before products of a matching supplier.
+     */
+    private Cursor searchProducts(SQLiteDatabase database, Uri uri, String[] projection,
+                                  String selection, String[] selectionArgs) {
+        String text = uri.getQueryParameter( ProductContract.QUERY_PARAMETER_SEARCH );
+        String limit = KeysetPaging.getLimit( uri );
+        if (limit == null) {
+            limit = SEARCH_LIMIT;
+        }
+
+        List<String> prefixes = searchPrefixes( text );
+        if (prefixes.isEmpty()) {
+            // Nothing to search for, so nothing matches
+            return database.query( ProductEntry.TABLE_NAME, projection, "0", null, null, null, null );
+        }
+        StringBuilder anyColumn = new StringBuilder();
+        StringBuilder nameColumn = new StringBuilder();
+        for (String prefix : prefixes) {
+            anyColumn.append( prefix ).append( "* " );
+            nameColumn.append( SalesAndProductsDbHelper.COLUMN_SEARCH_NAME ).append( ':' )
+                    .append( prefix ).append( "* " );
+        }
+
+        // The arguments are bound in the order they appear: the join, the selection, the order
+        String[] args = KeysetPaging.appendArgs( new String[]{anyColumn.toString().trim()},
+                selectionArgs == null ? new String[0] : selectionArgs );
+        args = KeysetPaging.appendArgs( args, nameColumn.toString().trim() );
+
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables( SEARCH_TABLES );
+        String sql = builder.buildQuery( projection, selection, null, null, SEARCH_ORDER, limit );
+        long start = SlowQueryLog.start();
+        Cursor cursor = database.rawQuery( sql, args );
+        int rows = cursor.getCount();
+        SlowQueryLog slowQueries = getSlowQueries();
+        if (slowQueries.isSlow( start )) {
+            slowQueries.log( database, sql, sql, selection, args, rows, start );
+        }
+        return cursor;
+    }
+
+    /**
+     * Split the search text into lower case words of letters and digits. Anything else is
+     * dropped, so the text can never inject full-text query syntax.
+     */
+    static List<String> searchPrefixes(String text) {
+        List<String> prefixes = new ArrayList<>();
+        if (text == null) {
+            return prefixes;
+        }
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt( i ) : ' ';
+            if (Character.isLetterOrDigit( c )) {
+                word.append( Character.toLowerCase( c ) );
+            } else if (word.length() > 0) {
+                prefixes.add( word.toString() );
+                word.setLength( 0 );
+            }
+        }
+        return prefixes;
+    }
 
     @Override
     public String getType(Uri uri) {
-        final int match = sUriMatcher.match( uri );
+        final int match = matchUri( uri );
         switch (match) {
             case PRODUCTS:
-                return SaleContract.SaleEntry.CONTENT_LIST_TYPE;
+            case PRODUCT_SEARCH:
+                return ProductEntry.CONTENT_LIST_TYPE;
             case PRODUCT_ID:
-                return SaleContract.SaleEntry.CONTENT_ITEM_TYPE;
+                return ProductEntry.CONTENT_ITEM_TYPE;
+            case PRODUCT_SELL:
+                // A sell URI names the single product it sells
+                return ProductEntry.CONTENT_ITEM_TYPE;
+            case PRODUCT_SKU:
+                return ProductEntry.CONTENT_ITEM_TYPE;
+            case PRODUCT_SKU_SELL:
+                // A scan URI names the single product its SKU finds
+                return ProductEntry.CONTENT_ITEM_TYPE;
+            case METRICS:
+                return ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + ProductContract.CONTENT_AUTHORITY
+                        + "/" + ProductContract.PATH_METRICS;
+            case SLOW_QUERIES:
+                return ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + ProductContract.CONTENT_AUTHORITY
+                        + "/" + ProductContract.PATH_SLOW_QUERIES;
             default:
                 throw new IllegalStateException( "Unknown URI " + uri + " with match " + match );
         }
@@ -136,12 +586,20 @@ public class ProductProvider extends ContentProvider {
 
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
-        final int match = sUriMatcher.match( uri );
-        switch (match) {
-            case PRODUCTS:
-                return insertProduct( uri, contentValues );
-            default:
-                throw new IllegalArgumentException( "Insertion is not supported for " + uri );
+        long start = LatencyHistograms.start();
+        int match = UriMatcher.NO_MATCH;
+        TraceCompat.beginSection( "ProductProvider.insert" );
+        try {
+            match = matchUri( uri );
+            switch (match) {
+                case PRODUCTS:
+                    return insertProduct( uri, contentValues );
+                default:
+                    throw new IllegalArgumentException( "Insertion is not supported for " + uri );
+            }
+        } finally {
+            TraceCompat.endSection();
+            mLatencies.record( LatencyHistograms.OPERATION_INSERT, patternOf( match ), start );
         }
     }
 
@@ -150,43 +608,59 @@ public class ProductProvider extends ContentProvider {
      * for that specific row in the database.
      */
     private Uri insertProduct(Uri uri, ContentValues values) {
-        // Check that the name is not null
-        String name = values.getAsString( ProductEntry.COLUMN_PRODUCT_NAME );
-        if (name == null) {
-            throw new IllegalArgumentException( "Sale requires a product name" );
-        }
+        TraceCompat.beginSection( "ProductProvider.validate" );
+        try {
+            // Check that the name is not null
+            String name = values.getAsString( ProductEntry.COLUMN_PRODUCT_NAME );
+            if (name == null) {
+                throw new IllegalArgumentException( "Sale requires a product name" );
+            }
 
-        // Check that the price is valid
-        Integer price = values.getAsInteger( ProductEntry.COLUMN_PRODUCT_PRICE );
-        if (price == null && price < 0) {
-            throw new IllegalArgumentException( "Sale requires a price" );
-        }
+            // Check that the price is valid
+            Integer price = values.getAsInteger( ProductEntry.COLUMN_PRODUCT_PRICE );
+            if (price == null && price < 0) {
+                throw new IllegalArgumentException( "Sale requires a price" );
+            }
 
-        // If the quantity is provided, check that it's greater than or equal to 0 kg
-        Integer quantity = values.getAsInteger( ProductEntry.COLUMN_PRODUCT_QUANTITY );
-        if (quantity != null && quantity < 0) {
-            throw new IllegalArgumentException( "Sale requires valid quantity" );
-        }
+            // If the quantity is provided, check that it's greater than or equal to 0 kg
+            Integer quantity = values.getAsInteger( ProductEntry.COLUMN_PRODUCT_QUANTITY );
+            if (quantity != null && quantity < 0) {
+                throw new IllegalArgumentException( "Sale requires valid quantity" );
+            }
 
-        // Check that the supplier name is valid
-        Integer supplier = values.getAsInteger( ProductEntry.COLUMN_SUPPLIER_NAME );
-        if (supplier == null || !ProductEntry.isValidSupplier( supplier )) {
-            throw new IllegalArgumentException( "Product requires valid supplier" );
+            // Check that the supplier name is valid
+            Integer supplier = values.getAsInteger( ProductEntry.COLUMN_SUPPLIER_NAME );
+            if (supplier == null || !ProductEntry.isValidSupplier( supplier )) {
+                throw new IllegalArgumentException( "Product requires valid supplier" );
+            }
+
+            // If the SKU is provided, check that it is not empty
+            checkSku( values );
+        } finally {
+            TraceCompat.endSection();
         }
 
         // Get writable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        SQLiteDatabase database = getDbHelper().getWritableDatabase();
 
         // Insert the new pet with the given values
-        long id = database.insert( ProductEntry.TABLE_NAME, null, values );
+        long id;
+        TraceCompat.beginSection( "ProductProvider.sqlite" );
+        try {
+            id = database.insertOrThrow( ProductEntry.TABLE_NAME, null, values );
+        } catch (SQLiteConstraintException e) {
+            throw constraintFailed( database, values, false, null, null, uri, e );
+        } finally {
+            TraceCompat.endSection();
+        }
         // If the ID is -1, then the insertion failed. Log an error and return null.
         if (id == -1) {
             Log.e( LOG_TAG, "Failed to insert row for " + uri );
             return null;
         }
 
-        // Notify all listeners that the data has changed for the sale content URI
-        getContext().getContentResolver().notifyChange( uri, null );
+        // Notify all listeners that the new row has been inserted
+        notifyProductsChanged( RowChanges.buildChangeUri( ProductEntry.CONTENT_URI, id, RowChanges.CHANGE_INSERT ) );
 
         // Return the new URI with the ID (of the newly inserted row) appended at the end
         return ContentUris.withAppendedId( uri, id );
@@ -195,32 +669,75 @@ public class ProductProvider extends ContentProvider {
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        long start = LatencyHistograms.start();
+        int match = UriMatcher.NO_MATCH;
+        TraceCompat.beginSection( "ProductProvider.delete" );
+        try {
+            match = matchUri( uri );
+            return deleteProducts( uri, match, selection, selectionArgs );
+        } finally {
+            TraceCompat.endSection();
+            mLatencies.record( LatencyHistograms.OPERATION_DELETE, patternOf( match ), start );
+        }
+    }
+
+    private int deleteProducts(Uri uri, int match, String selection, String[] selectionArgs) {
         // Get writeable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        SQLiteDatabase database = getDbHelper().getWritableDatabase();
 
         // Track the number of rows that were deleted
         int rowsDeleted;
+        List<String> unusedPhotos;
 
-        final int match = sUriMatcher.match( uri );
         switch (match) {
             case PRODUCTS:
                 // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete( ProductEntry.TABLE_NAME, selection, selectionArgs );
+                if (uri.getBooleanQueryParameter( ProductContract.QUERY_PARAMETER_UNSOLD, false )) {
+                    String unsold = "NOT (" + SQL_PRODUCTS_WITH_SALES + ")";
+                    selection = TextUtils.isEmpty( selection ) ? unsold : "(" + selection + ") AND " + unsold;
+                }
                 break;
             case PRODUCT_ID:
                 // Delete a single row given by the ID in the URI
                 selection = ProductEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf( ContentUris.parseId( uri ) )};
-                rowsDeleted = database.delete( ProductEntry.TABLE_NAME, selection, selectionArgs );
                 break;
             default:
                 throw new IllegalArgumentException( "Deletion is not supported for " + uri );
         }
 
+        long start = SlowQueryLog.start();
+        TraceCompat.beginSection( "ProductProvider.sqlite" );
+        try {
+            // Checked in the same transaction, so that no sale is recorded in between
+            database.beginTransaction();
+            try {
+                String withSales = TextUtils.isEmpty( selection ) ? SQL_PRODUCTS_WITH_SALES
+                        : "(" + selection + ") AND " + SQL_PRODUCTS_WITH_SALES;
+                if (DatabaseUtils.queryNumEntries( database, ProductEntry.TABLE_NAME, withSales, selectionArgs ) != 0) {
+                    throw new IllegalArgumentException( "Products with sales cannot be deleted " + uri );
+                }
+                List<String> photos = readPhotos( database, selection, selectionArgs );
+                rowsDeleted = database.delete( ProductEntry.TABLE_NAME, selection, selectionArgs );
+                unusedPhotos = unusedPhotos( database, photos );
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            logSlowChange( database, null, selection, selectionArgs, rowsDeleted, start );
+        } finally {
+            TraceCompat.endSection();
+        }
+
+        // Forget the deleted products, committed unless a batch is running
+        forgetStock( uri, match );
+        deletePhotos( unusedPhotos );
+
         // If 1 or more rows were deleted, then notify all listeners that the data at the
         // given URI has changed
+        // No sale shows a deleted product, so sales have not changed
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange( uri, null );
+            notifyProductsChanged( rowChangeUri( uri, match, RowChanges.CHANGE_DELETE ) );
         }
 
         // Return the number of rows deleted
@@ -229,7 +746,20 @@ public class ProductProvider extends ContentProvider {
 
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
-        final int match = sUriMatcher.match( uri );
+        long start = LatencyHistograms.start();
+        int match = UriMatcher.NO_MATCH;
+        TraceCompat.beginSection( "ProductProvider.update" );
+        try {
+            match = matchUri( uri );
+            return updateUri( uri, match, contentValues, selection, selectionArgs );
+        } finally {
+            TraceCompat.endSection();
+            mLatencies.record( LatencyHistograms.OPERATION_UPDATE, patternOf( match ), start );
+        }
+    }
+
+    private int updateUri(Uri uri, int match, ContentValues contentValues, String selection,
+                          String[] selectionArgs) {
         switch (match) {
             case PRODUCTS:
                 return updateProduct( uri, contentValues, selection, selectionArgs );
@@ -240,6 +770,12 @@ public class ProductProvider extends ContentProvider {
                 selection = ProductEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf( ContentUris.parseId( uri ) )};
                 return updateProduct( uri, contentValues, selection, selectionArgs );
+            case PRODUCT_SELL:
+                // The content values are ignored, the quantity comes from the URI.
+                return sellProduct( uri );
+            case PRODUCT_SKU_SELL:
+                // The content values are ignored, the product and quantity come from the URI.
+                return sellScannedProduct( uri );
             default:
                 throw new IllegalArgumentException( "Update is not supported for " + uri );
         }
@@ -251,42 +787,51 @@ public class ProductProvider extends ContentProvider {
      * Return the number of rows that were successfully updated.
      */
     private int updateProduct(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        // If the {@link ProductEntry#COLUMN_PRODUCT_NAME} key is present,
-        // check that the name value is not null.
-        if (values.containsKey( ProductEntry.COLUMN_PRODUCT_NAME )) {
-            String name = values.getAsString( ProductEntry.COLUMN_PRODUCT_NAME );
-            if (name == null) {
-                throw new IllegalArgumentException( "Sale requires a product name" );
+        TraceCompat.beginSection( "ProductProvider.validate" );
+        try {
+            // If the {@link ProductEntry#COLUMN_PRODUCT_NAME} key is present,
+            // check that the name value is not null.
+            if (values.containsKey( ProductEntry.COLUMN_PRODUCT_NAME )) {
+                String name = values.getAsString( ProductEntry.COLUMN_PRODUCT_NAME );
+                if (name == null) {
+                    throw new IllegalArgumentException( "Sale requires a product name" );
+                }
             }
-        }
 
-        // If the {@link ProductEntry#COLUMN_PRODUCT_PRICE} key is present,
-        // check that the gender value is valid.
-        if (values.containsKey( ProductEntry.COLUMN_PRODUCT_PRICE )) {
-            Integer price = values.getAsInteger( ProductEntry.COLUMN_PRODUCT_PRICE );
-            if (price == null) {
-                throw new IllegalArgumentException( "Sale requires valid price" );
+            // If the {@link ProductEntry#COLUMN_PRODUCT_PRICE} key is present,
+            // check that the gender value is valid.
+            if (values.containsKey( ProductEntry.COLUMN_PRODUCT_PRICE )) {
+                Integer price = values.getAsInteger( ProductEntry.COLUMN_PRODUCT_PRICE );
+                if (price == null) {
+                    throw new IllegalArgumentException( "Sale requires valid price" );
+                }
             }
-        }
 
-        // If the {@link ProductEntry#COLUMN_PRODUCT_QUANTITY} key is present,
-        // check that the weight value is valid.
-        if (values.containsKey( ProductEntry.COLUMN_PRODUCT_QUANTITY )) {
-            // Check that the weight is greater than or equal to 0 kg
-            Integer quantity = values.getAsInteger( ProductEntry.COLUMN_PRODUCT_QUANTITY );
-            if (quantity == null && quantity < 0) {
-                throw new IllegalArgumentException( "Sale requires valid quantity" );
+            // If the {@link ProductEntry#COLUMN_PRODUCT_QUANTITY} key is present,
+            // check that the weight value is valid.
+            if (values.containsKey( ProductEntry.COLUMN_PRODUCT_QUANTITY )) {
+                // Check that the weight is greater than or equal to 0 kg
+                Integer quantity = values.getAsInteger( ProductEntry.COLUMN_PRODUCT_QUANTITY );
+                if (quantity == null && quantity < 0) {
+                    throw new IllegalArgumentException( "Sale requires valid quantity" );
+                }
             }
-        }
 
-        // If the {@link ProductEntry#COLUMN_SUPPLIER_NAME} key is present,
-        // check that the weight value is valid.
-        if (values.containsKey( ProductEntry.COLUMN_SUPPLIER_NAME )) {
-            // Check that the weight is greater than or equal to 0 kg
-            Integer supplier = values.getAsInteger( ProductEntry.COLUMN_SUPPLIER_NAME );
-            if (supplier == null || !ProductEntry.isValidSupplier( supplier )) {
-                throw new IllegalArgumentException( "Product requires valid supplier" );
+            // If the {@link ProductEntry#COLUMN_SUPPLIER_NAME} key is present,
+            // check that the weight value is valid.
+            if (values.containsKey( ProductEntry.COLUMN_SUPPLIER_NAME )) {
+                // Check that the weight is greater than or equal to 0 kg
+                Integer supplier = values.getAsInteger( ProductEntry.COLUMN_SUPPLIER_NAME );
+                if (supplier == null || !ProductEntry.isValidSupplier( supplier )) {
+                    throw new IllegalArgumentException( "Product requires valid supplier" );
+                }
             }
+
+            // If the {@link ProductEntry#COLUMN_PRODUCT_SKU} key is present,
+            // check that the SKU is null or not empty.
+            checkSku( values );
+        } finally {
+            TraceCompat.endSection();
         }
         // If there are no values to update, then don't try to update the database
         if (values.size() == 0) {
@@ -294,18 +839,671 @@ public class ProductProvider extends ContentProvider {
         }
 
         // Otherwise, get writable database to update the data
-        SQLiteDatabase databaseForWriting = mDbHelper.getWritableDatabase();
+        SQLiteDatabase databaseForWriting = getDbHelper().getWritableDatabase();
 
         // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = databaseForWriting.update( ProductEntry.TABLE_NAME, values, selection, selectionArgs );
+        int rowsUpdated;
+        List<String> unusedPhotos = Collections.emptyList();
+        TraceCompat.beginSection( "ProductProvider.sqlite" );
+        try {
+            long start = SlowQueryLog.start();
+            // The photos replaced are read in the same transaction, so none is taken in between
+            databaseForWriting.beginTransaction();
+            try {
+                List<String> photos = values.containsKey( ProductEntry.COLUMN_PRODUCT_IMAGE )
+                        ? readPhotos( databaseForWriting, selection, selectionArgs )
+                        : Collections.<String>emptyList();
+                try {
+                    rowsUpdated = databaseForWriting.update( ProductEntry.TABLE_NAME, values, selection, selectionArgs );
+                } catch (SQLiteConstraintException e) {
+                    throw constraintFailed( databaseForWriting, values, true, selection, selectionArgs, uri, e );
+                }
+                unusedPhotos = unusedPhotos( databaseForWriting, photos );
+                databaseForWriting.setTransactionSuccessful();
+            } finally {
+                databaseForWriting.endTransaction();
+            }
+            logSlowChange( databaseForWriting, values, selection, selectionArgs, rowsUpdated, start );
+        } finally {
+            TraceCompat.endSection();
+        }
+        forgetStock( uri, matchUri( uri ) );
+        deletePhotos( unusedPhotos );
 
         // If 1 or more rows were updated, then notify all listeners that the data at the
         // given URI has changed
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange( uri, null );
+            notifyProductsChanged( rowChangeUri( uri, matchUri( uri ), RowChanges.CHANGE_UPDATE ) );
+            // Sales show the name and supplier of their product, but not its price or stock
+            if (values.containsKey( ProductEntry.COLUMN_PRODUCT_NAME )
+                    || values.containsKey( ProductEntry.COLUMN_SUPPLIER_NAME )) {
+                notifySalesChanged( SaleEntry.CONTENT_URI );
+            }
         }
 
         // Return the number of rows updated
         return rowsUpdated;
     }
+
+    /**
+     * Sell units of the product given by the URI.
+     * Return the remaining stock, or {@link ProductEntry#SELL_REJECTED} if nothing was sold.
+     */
+    private int sellProduct(Uri uri) {
+        long id = Long.parseLong( uri.getPathSegments().get( 1 ) );
+        int quantity = readSellQuantity( uri );
+
+        // A product known to be short of stock is rejected without the database
+        int stock = mStockTable.getQuantity( id );
+        if (stock != ProductStockTable.MISSING && stock < quantity) {
+            return ProductEntry.SELL_REJECTED;
+        }
+        return sell( null, id, quantity );
+    }
+
+    /**
+     * Sell units of the product whose SKU is given by the URI, as scanned at the checkout.
+     * Return the remaining stock, or {@link ProductEntry#SELL_REJECTED} if no product has that
+     * SKU or nothing was sold.
+     */
+    private int sellScannedProduct(Uri uri) {
+        String sku = uri.getPathSegments().get( 2 );
+        int quantity = readSellQuantity( uri );
+        return sell( sku, 0, quantity );
+    }
+
+    /**
+     * Return the quantity of a sell URI, one unit if none is given.
+     */
+    private static int readSellQuantity(Uri uri) {
+        // Check that the quantity is valid, selling one unit if none is given
+        int quantity = 1;
+        TraceCompat.beginSection( "ProductProvider.validate" );
+        try {
+            String quantityParameter = uri.getQueryParameter( ProductContract.QUERY_PARAMETER_QUANTITY );
+            if (quantityParameter != null) {
+                try {
+                    quantity = Integer.parseInt( quantityParameter );
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException( "Sale requires valid quantity" );
+                }
+            }
+            if (quantity < 1) {
+                throw new IllegalArgumentException( "Sale requires valid quantity" );
+            }
+        } finally {
+            TraceCompat.endSection();
+        }
+        return quantity;
+    }
+
+    /**
+     * Sell units of a product, given by its SKU if the SKU is not null and by its id otherwise.
+     * The product is looked up by its SKU, the stock is decremented with a single conditional
+     * update and the matching sale row is written all in one transaction, so two quick taps or
+     * scans can never lose a decrement or sell more than is in stock.
+     * Return the remaining stock, or {@link ProductEntry#SELL_REJECTED} if nothing was sold.
+     */
+    private int sell(String sku, long productId, int quantity) {
+        // Get writable database
+        SQLiteDatabase database = getDbHelper().getWritableDatabase();
+
+        long id = productId;
+        boolean sold = false;
+        long remaining;
+        long saleId;
+        TraceCompat.beginSection( "ProductProvider.sqlite" );
+        try {
+            database.beginTransaction();
+            try {
+                if (sku != null) {
+                    SQLiteStatement selectId = database.compileStatement( SQL_SELECT_ID_BY_SKU );
+                    try {
+                        selectId.bindString( 1, sku );
+                        id = selectId.simpleQueryForLong();
+                    } catch (SQLiteDoneException e) {
+                        // No product has that SKU, so nothing is written
+                        database.setTransactionSuccessful();
+                        return ProductEntry.SELL_REJECTED;
+                    } finally {
+                        selectId.close();
+                    }
+                }
+
+                SQLiteStatement decrement = database.compileStatement( SQL_DECREMENT_STOCK );
+                try {
+                    decrement.bindLong( 1, quantity );
+                    decrement.bindLong( 2, id );
+                    decrement.bindLong( 3, quantity );
+                    // If no row was updated, the product is missing or short of stock. Nothing was
+                    // written, so still end the transaction successfully: a rejected sale must not
+                    // roll back the rest of a batch it is part of.
+                    if (decrement.executeUpdateDelete() == 0) {
+                        database.setTransactionSuccessful();
+                        return ProductEntry.SELL_REJECTED;
+                    }
+                } finally {
+                    decrement.close();
+                }
+                // Readers must not see the new stock before it is committed
+                sold = true;
+                mStockTable.remove( id );
+
+                SQLiteStatement recordSale = database.compileStatement( SQL_RECORD_SALE );
+                try {
+                    recordSale.bindLong( 1, quantity );
+                    recordSale.bindLong( 2, System.currentTimeMillis() );
+                    recordSale.bindLong( 3, id );
+                    saleId = recordSale.executeInsert();
+                } finally {
+                    recordSale.close();
+                }
+
+                SQLiteStatement selectStock = database.compileStatement( SQL_SELECT_STOCK );
+                try {
+                    selectStock.bindLong( 1, id );
+                    remaining = selectStock.simpleQueryForLong();
+                } finally {
+                    selectStock.close();
+                }
+
+                database.setTransactionSuccessful();
+            } finally {
+                try {
+                    database.endTransaction();
+                } finally {
+                    // A read that missed before the commit may have kept the stock before the sale
+                    if (sold) {
+                        mStockTable.remove( id );
+                    }
+                }
+            }
+        } finally {
+            TraceCompat.endSection();
+        }
+
+        // Notify all listeners that the product has changed and a sale has been inserted
+        notifyProductsChanged( RowChanges.buildChangeUri( ProductEntry.CONTENT_URI, id, RowChanges.CHANGE_UPDATE ) );
+        notifySalesChanged( RowChanges.buildChangeUri( SaleEntry.CONTENT_URI, saleId, RowChanges.CHANGE_INSERT ) );
+
+        return (int) remaining;
+    }
+
+    /**
+     * Insert many products in a single transaction. Every row is validated and bound to one
+     * compiled insert statement, and listeners are notified once after the commit.
+     * If any row is invalid, nothing is inserted.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        long start = LatencyHistograms.start();
+        int match = UriMatcher.NO_MATCH;
+        try {
+            match = matchUri( uri );
+            return bulkInsertProducts( uri, match, values );
+        } finally {
+            mLatencies.record( LatencyHistograms.OPERATION_BULK_INSERT, patternOf( match ), start );
+        }
+    }
+
+    private int bulkInsertProducts(Uri uri, int match, ContentValues[] values) {
+        if (match != PRODUCTS) {
+            throw new IllegalArgumentException( "Insertion is not supported for " + uri );
+        }
+
+        // Get writable database
+        SQLiteDatabase database = getDbHelper().getWritableDatabase();
+
+        int rowsInserted = 0;
+        TraceCompat.beginSection( "ProductProvider.sqlite" );
+        try {
+            database.beginTransaction();
+            try {
+                SQLiteStatement insert = database.compileStatement( SQL_INSERT_PRODUCT );
+                try {
+                    for (ContentValues row : values) {
+                        bindProduct( insert, row );
+                        try {
+                            insert.executeInsert();
+                        } catch (SQLiteConstraintException e) {
+                            throw constraintFailed( database, row, false, null, null, uri, e );
+                        }
+                        rowsInserted++;
+                    }
+                } finally {
+                    insert.close();
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        } finally {
+            TraceCompat.endSection();
+        }
+
+        if (rowsInserted != 0) {
+            notifyProductsChanged( uri );
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Apply the operations in a single transaction, and notify listeners once after the commit
+     * instead of once per operation. If any operation fails, none of them is applied.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase database = getDbHelper().getWritableDatabase();
+
+        BatchChanges changes = new BatchChanges();
+        ContentProviderResult[] results;
+        database.beginTransaction();
+        mBatchChanges.set( changes );
+        try {
+            results = super.applyBatch( operations );
+            database.setTransactionSuccessful();
+        } finally {
+            mBatchChanges.remove();
+            database.endTransaction();
+            // Rows forgotten inside the batch may have been read again before it committed,
+            // and a failed batch may leave stock written through that was rolled back
+            if (changes.products) {
+                mStockTable.clear();
+            }
+        }
+
+        // Only reached once the batch committed; a later operation may have taken a photo back
+        deletePhotos( unusedPhotos( database, changes.photos ) );
+        if (changes.products) {
+            notifyProductsChanged( ProductEntry.CONTENT_URI );
+        }
+        if (changes.sales) {
+            notifySalesChanged( SaleEntry.CONTENT_URI );
+        }
+        return results;
+    }
+
+    /**
+     * Write the latency histograms and the slow statements, for
+     * {@code adb shell dumpsys activity provider}.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mLatencies.dump( writer );
+        writer.println();
+        getSlowQueries().dump( writer );
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (ProductContract.METHOD_STOCK_TABLE_STATS.equals( method )) {
+            return mStockTable.getStats();
+        }
+        if (ProductContract.METHOD_SET_SLOW_QUERY_THRESHOLD.equals( method )) {
+            try {
+                getSlowQueries().setThresholdMillis( Long.parseLong( arg ) );
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException( "Slow query threshold must be a number of milliseconds " + arg );
+            }
+            return null;
+        }
+        if (ProductContract.METHOD_BACKUP.equals( method )) {
+            return backup( arg );
+        }
+        if (ProductContract.METHOD_RESTORE.equals( method )) {
+            return restore( arg );
+        }
+        return super.call( method, arg, extras );
+    }
+
+    /**
+     * Write every product and sale to the backup file at the given path, replacing it once the
+     * backup is whole.
+     */
+    private Bundle backup(String path) {
+        if (TextUtils.isEmpty( path )) {
+            throw new IllegalArgumentException( "Backup requires the path of a file" );
+        }
+        InventoryBackup backup = new InventoryBackup();
+        AtomicFile file = new AtomicFile( new File( path ) );
+        FileOutputStream out = null;
+        TraceCompat.beginSection( "ProductProvider.backup" );
+        try {
+            out = file.startWrite();
+            backup.write( getDbHelper().getWritableDatabase(), out );
+            file.finishWrite( out );
+        } catch (IOException e) {
+            if (out != null) {
+                file.failWrite( out );
+            }
+            throw new IllegalArgumentException( "Could not back up to " + path, e );
+        } catch (RuntimeException e) {
+            // A failed read of the database must not leave a partial backup either
+            if (out != null) {
+                file.failWrite( out );
+            }
+            throw e;
+        } finally {
+            TraceCompat.endSection();
+        }
+        return backupResult( backup );
+    }
+
+    /**
+     * Replace every product and sale with those of the backup file at the given path.
+     */
+    private Bundle restore(String path) {
+        if (TextUtils.isEmpty( path )) {
+            throw new IllegalArgumentException( "Restore requires the path of a file" );
+        }
+        InventoryBackup backup = new InventoryBackup();
+        SQLiteDatabase database = getDbHelper().getWritableDatabase();
+        List<String> unusedPhotos;
+        TraceCompat.beginSection( "ProductProvider.restore" );
+        try {
+            // Photos of products the backup does not have are not needed anymore
+            List<String> photos = readPhotos( database, null, null );
+            backup.restore( database, new File( path ) );
+            unusedPhotos = unusedPhotos( database, photos );
+        } catch (IOException e) {
+            throw new IllegalArgumentException( "Could not restore " + path, e );
+        } finally {
+            TraceCompat.endSection();
+        }
+        Log.i( LOG_TAG, "Restored " + backup.getProducts() + " products and " + backup.getSales()
+                + " sales from " + path );
+
+        mStockTable.clear();
+        deletePhotos( unusedPhotos );
+        notifyProductsChanged( ProductEntry.CONTENT_URI );
+        notifySalesChanged( SaleEntry.CONTENT_URI );
+        return backupResult( backup );
+    }
+
+    private static Bundle backupResult(InventoryBackup backup) {
+        Bundle result = new Bundle();
+        result.putInt( ProductContract.KEY_BACKUP_PRODUCTS, backup.getProducts() );
+        result.putInt( ProductContract.KEY_BACKUP_SALES, backup.getSales() );
+        return result;
+    }
+
+    /**
+     * Return the index in {@link #PATTERNS} of a URI matcher code.
+     */
+    private static int patternOf(int match) {
+        switch (match) {
+            case PRODUCTS:
+                return 0;
+            case PRODUCT_ID:
+                return 1;
+            case PRODUCT_SELL:
+                return 2;
+            case PRODUCT_SEARCH:
+                return 3;
+            case METRICS:
+                return 4;
+            case SLOW_QUERIES:
+                return 5;
+            case PRODUCT_SKU:
+                return 6;
+            case PRODUCT_SKU_SELL:
+                return 7;
+            default:
+                return 8;
+        }
+    }
+
+    /**
+     * Match a URI against the URIs of the provider.
+     */
+    private static int matchUri(Uri uri) {
+        TraceCompat.beginSection( "ProductProvider.match" );
+        try {
+            return sUriMatcher.match( uri );
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * Forget the products changed through the given URI in the stock table: the product of a
+     * {@link #PRODUCT_ID} URI, or every product when any number of them may have changed.
+     */
+    private void forgetStock(Uri uri, int match) {
+        if (match == PRODUCT_ID) {
+            mStockTable.remove( ContentUris.parseId( uri ) );
+        } else {
+            mStockTable.clear();
+        }
+    }
+
+    /**
+     * Validate one row of a {@link #bulkInsert} and bind it to the insert statement.
+     * Numbers are read with {@link #readLong}, so they may be any Number or a numeric String.
+     */
+    private static void bindProduct(SQLiteStatement insert, ContentValues values) {
+        // Check that the name is not null
+        String name = values.getAsString( ProductEntry.COLUMN_PRODUCT_NAME );
+        if (name == null) {
+            throw new IllegalArgumentException( "Product requires a name" );
+        }
+
+        // Check that the price is valid
+        long price = readLong( values, ProductEntry.COLUMN_PRODUCT_PRICE );
+        if (price == INVALID_NUMBER || price < 0) {
+            throw new IllegalArgumentException( "Product requires valid price" );
+        }
+
+        // Check that the quantity is valid. The column has no default, so it is required here.
+        long quantity = readLong( values, ProductEntry.COLUMN_PRODUCT_QUANTITY );
+        if (quantity == INVALID_NUMBER || quantity < 0) {
+            throw new IllegalArgumentException( "Product requires valid quantity" );
+        }
+
+        // Check that the supplier name is valid
+        long supplier = readLong( values, ProductEntry.COLUMN_SUPPLIER_NAME );
+        if (supplier != (int) supplier || !ProductEntry.isValidSupplier( (int) supplier )) {
+            throw new IllegalArgumentException( "Product requires valid supplier" );
+        }
+
+        // The supplier phone is optional, bind the column default if it is missing
+        String supplierPhone = values.getAsString( ProductEntry.COLUMN_SUPPLIER_PHONE );
+
+        insert.clearBindings();
+        insert.bindString( 1, name );
+        insert.bindLong( 2, price );
+        insert.bindLong( 3, quantity );
+        insert.bindLong( 4, supplier );
+        insert.bindString( 5, supplierPhone != null ? supplierPhone : "0" );
+
+        // The photo is optional, and left null if missing
+        String image = values.getAsString( ProductEntry.COLUMN_PRODUCT_IMAGE );
+        if (image != null) {
+            insert.bindString( 6, image );
+        }
+
+        // The SKU is optional too, and left null if missing
+        checkSku( values );
+        String sku = values.getAsString( ProductEntry.COLUMN_PRODUCT_SKU );
+        if (sku != null) {
+            insert.bindString( 7, sku );
+        }
+    }
+
+    /**
+     * Check that the SKU of the content values, if any, is null or not empty. An empty SKU would
+     * be taken by the first product saved with it, where null is allowed for any number of them.
+     */
+    private static void checkSku(ContentValues values) {
+        if (values.containsKey( ProductEntry.COLUMN_PRODUCT_SKU )) {
+            String sku = values.getAsString( ProductEntry.COLUMN_PRODUCT_SKU );
+            if (sku != null && sku.trim().isEmpty()) {
+                throw new IllegalArgumentException( "Product SKU must not be empty" );
+            }
+        }
+    }
+
+    /**
+     * Return the error for a write of the content values that broke a constraint of the products
+     * table. It is reported as a used SKU only when the SKU written is held by another product,
+     * or would be by several of the updated ones; any other constraint is reported as such.
+     *
+     * @param update whether the rows of the selection were updated, rather than a row inserted
+     */
+    private static IllegalArgumentException constraintFailed(SQLiteDatabase database, ContentValues values,
+                                                             boolean update, String selection,
+                                                             String[] selectionArgs, Uri uri,
+                                                             SQLiteConstraintException e) {
+        String sku = values.getAsString( ProductEntry.COLUMN_PRODUCT_SKU );
+        if (sku != null && isSkuUsed( database, sku, update, selection, selectionArgs )) {
+            return new IllegalArgumentException( "Product SKU is already used " + sku, e );
+        }
+        return new IllegalArgumentException( "Product breaks a constraint of the table " + uri, e );
+    }
+
+    /**
+     * Return whether the SKU is held by a product other than the rows of the selection, or
+     * whether it would be held by several rows once they are updated.
+     */
+    private static boolean isSkuUsed(SQLiteDatabase database, String sku, boolean update,
+                                     String selection, String[] selectionArgs) {
+        if (!update) {
+            return DatabaseUtils.queryNumEntries( database, ProductEntry.TABLE_NAME,
+                    ProductEntry.COLUMN_PRODUCT_SKU + " = ?", new String[]{sku} ) != 0;
+        }
+        if (DatabaseUtils.queryNumEntries( database, ProductEntry.TABLE_NAME, selection, selectionArgs ) > 1) {
+            return true;
+        }
+        if (TextUtils.isEmpty( selection )) {
+            return false;
+        }
+        int argCount = selectionArgs == null ? 0 : selectionArgs.length;
+        String[] args = new String[argCount + 1];
+        args[0] = sku;
+        if (argCount != 0) {
+            System.arraycopy( selectionArgs, 0, args, 1, argCount );
+        }
+        return DatabaseUtils.queryNumEntries( database, ProductEntry.TABLE_NAME,
+                ProductEntry.COLUMN_PRODUCT_SKU + " = ? AND " + ProductEntry._ID + " NOT IN (SELECT "
+                        + ProductEntry._ID + " FROM " + ProductEntry.TABLE_NAME + " WHERE " + selection + ")",
+                args ) != 0;
+    }
+
+    /**
+     * Read a number from the content values. Numbers may be stored as any {@link Number} or as
+     * a String, the way the editor puts them.
+     * Return {@link #INVALID_NUMBER} if the value is missing or is not a number.
+     */
+    private static long readLong(ContentValues values, String key) {
+        Object value = values.get( key );
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Long.parseLong( ((String) value).trim() );
+            } catch (NumberFormatException e) {
+                return INVALID_NUMBER;
+            }
+        }
+        return INVALID_NUMBER;
+    }
+
+    /**
+     * Return the URI to notify for a change made through the given URI: the change URI of the
+     * row for a {@link #PRODUCT_ID} URI, or the collection URI when any number of rows may
+     * have changed.
+     */
+    private static Uri rowChangeUri(Uri uri, int match, String change) {
+        if (match == PRODUCT_ID) {
+            return RowChanges.buildChangeUri( ProductEntry.CONTENT_URI, ContentUris.parseId( uri ), change );
+        }
+        return ProductEntry.CONTENT_URI;
+    }
+
+    /**
+     * Return the photos held by the products matching the selection.
+     */
+    private static List<String> readPhotos(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        String withPhoto = ProductEntry.COLUMN_PRODUCT_IMAGE + " IS NOT NULL";
+        if (!TextUtils.isEmpty( selection )) {
+            withPhoto = "(" + selection + ") AND " + withPhoto;
+        }
+        List<String> photos = new ArrayList<>();
+        Cursor cursor = database.query( true, ProductEntry.TABLE_NAME, new String[]{ProductEntry.COLUMN_PRODUCT_IMAGE},
+                withPhoto, selectionArgs, null, null, null, null );
+        try {
+            while (cursor.moveToNext()) {
+                photos.add( cursor.getString( 0 ) );
+            }
+        } finally {
+            cursor.close();
+        }
+        return photos;
+    }
+
+    /**
+     * Return the given photos that no product holds anymore.
+     */
+    private static List<String> unusedPhotos(SQLiteDatabase database, List<String> photos) {
+        List<String> unused = new ArrayList<>();
+        for (String photo : photos) {
+            if (DatabaseUtils.queryNumEntries( database, ProductEntry.TABLE_NAME,
+                    ProductEntry.COLUMN_PRODUCT_IMAGE + " = ?", new String[]{photo} ) == 0) {
+                unused.add( photo );
+            }
+        }
+        return unused;
+    }
+
+    /**
+     * Delete the files of photos no product holds anymore, or remember them until the current
+     * batch commits: a batch that fails puts the photos back in its products.
+     */
+    private void deletePhotos(List<String> photos) {
+        if (photos.isEmpty()) {
+            return;
+        }
+        BatchChanges batch = mBatchChanges.get();
+        if (batch != null) {
+            batch.photos.addAll( photos );
+            return;
+        }
+        ProductPhotos.deletePhotos( getContext(), photos );
+    }
+
+    /**
+     * Notify listeners that products have changed, or remember it until the current batch commits.
+     */
+    private void notifyProductsChanged(Uri uri) {
+        BatchChanges batch = mBatchChanges.get();
+        if (batch != null) {
+            batch.products = true;
+            return;
+        }
+        TraceCompat.beginSection( "ProductProvider.notify" );
+        try {
+            getContext().getContentResolver().notifyChange( uri, null );
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * Notify listeners that sales have changed, or remember it until the current batch commits.
+     */
+    private void notifySalesChanged(Uri uri) {
+        BatchChanges batch = mBatchChanges.get();
+        if (batch != null) {
+            batch.sales = true;
+            return;
+        }
+        TraceCompat.beginSection( "ProductProvider.notify" );
+        try {
+            getContext().getContentResolver().notifyChange( uri, null );
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
 }
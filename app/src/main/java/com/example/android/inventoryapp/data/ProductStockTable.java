@@ -0,0 +1,383 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.util.Arrays;
+
+/**
+ * The name, price, stock and supplier of the products read lately, kept in memory by
+ * {@link ProductProvider} so that reads of a single product do not go through SQLite.
+ *
+ * Rows are kept in parallel primitive arrays indexed by open addressing on the product id, so
+ * an entry costs a few dozen bytes and a lookup allocates nothing. The provider fills the table
+ * on a miss and keeps it in step with every write, by removing the rows it changes or clearing
+ * the table once the write is committed. Sells also remove their product before they commit,
+ * so that no reader sees stock that may still be rolled back.
+ *
+ * A read that misses takes the {@link #getGeneration() generation} before it queries the
+ * database, and its row is only kept if no write happened in between. A read that misses while
+ * a write is open sees the row before the write, and is forgotten when the write commits, so a
+ * read racing a write never leaves a stale row behind.
+ *
+ * All methods are thread safe.
+ */
+final class ProductStockTable {
+
+    /** Columns a read must be limited to for the table to answer it */
+    static final String[] COLUMNS = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_SUPPLIER_NAME};
+
+    /** Returned by {@link #getQuantity} for a product that is not in the table */
+    static final int MISSING = -1;
+
+    /** Id of an empty slot. SQLite never assigns it */
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    /** Most slots; when they fill up the table starts over */
+    private static final int MAX_CAPACITY = 1 << 16;
+
+    /** Bytes per slot: the id, price, stock, supplier and the name reference */
+    private static final int SLOT_BYTES = 8 + 4 + 4 + 1 + 4;
+
+    /** Bytes of a name besides its characters */
+    private static final int NAME_OVERHEAD_BYTES = 40;
+
+    private long[] mIds;
+    private int[] mPrices;
+    private int[] mQuantities;
+    private byte[] mSuppliers;
+    private String[] mNames;
+
+    private int mSize;
+
+    /** Bytes of the names in the table */
+    private long mNameBytes;
+
+    /** Incremented by every write, see {@link #put} */
+    private long mGeneration;
+
+    private long mHits;
+    private long mMisses;
+
+    ProductStockTable() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Returns whether the table holds every column of a projection.
+     */
+    static boolean covers(String[] projection) {
+        if (projection == null || projection.length == 0) {
+            return false;
+        }
+        for (String column : projection) {
+            if (columnOf(column) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int columnOf(String name) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a cursor over the given product with the columns of the projection, or null if
+     * the product is not in the table.
+     *
+     * @param projection columns {@link #covers covered} by the table
+     */
+    synchronized Cursor query(long id, String[] projection) {
+        int slot = find(id);
+        if (slot == -1) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return new RowCursor(projection, id, mNames[slot], mPrices[slot], mQuantities[slot], mSuppliers[slot]);
+    }
+
+    /**
+     * Returns the stock of a product, or {@link #MISSING} if the product is not in the table.
+     */
+    synchronized int getQuantity(long id) {
+        int slot = find(id);
+        if (slot == -1) {
+            mMisses++;
+            return MISSING;
+        }
+        mHits++;
+        return mQuantities[slot];
+    }
+
+    /**
+     * Returns the generation to pass to {@link #put} for a row about to be read from the database.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Keeps a row read from the database, unless the table was written to since the given
+     * generation.
+     */
+    synchronized void put(long generation, long id, String name, int price, int quantity, int supplier) {
+        if (generation != mGeneration) {
+            return;
+        }
+        int slot = find(id);
+        if (slot == -1) {
+            if ((mSize + 1) * 4 > mIds.length * 3) {
+                if (mIds.length == MAX_CAPACITY) {
+                    allocate(MAX_CAPACITY);
+                } else {
+                    rehash(mIds.length * 2);
+                }
+            }
+            slot = emptySlotFor(id);
+            mIds[slot] = id;
+            mSize++;
+        } else {
+            mNameBytes -= nameBytes(mNames[slot]);
+        }
+        mNames[slot] = name;
+        mNameBytes += nameBytes(name);
+        mPrices[slot] = price;
+        mQuantities[slot] = quantity;
+        mSuppliers[slot] = (byte) supplier;
+    }
+
+    /**
+     * Forgets a product that was changed or deleted.
+     */
+    synchronized void remove(long id) {
+        mGeneration++;
+        int slot = find(id);
+        if (slot == -1) {
+            return;
+        }
+        mNameBytes -= nameBytes(mNames[slot]);
+        mSize--;
+
+        // Shift the following rows of the probe sequence back, so that lookups never stop early
+        int mask = mIds.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (mIds[next] != EMPTY) {
+            int home = slotOf(mIds[next], mask);
+            // Move the row into the hole unless its home slot lies between the hole and the row
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                copySlot(next, hole);
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        mIds[hole] = EMPTY;
+        mNames[hole] = null;
+    }
+
+    /**
+     * Forgets every product, after writes to any number of them.
+     */
+    synchronized void clear() {
+        mGeneration++;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Returns the hit rate and memory use of the table, under the keys of
+     * {@link ProductContract#METHOD_STOCK_TABLE_STATS}.
+     */
+    synchronized Bundle getStats() {
+        Bundle stats = new Bundle();
+        stats.putLong(ProductContract.KEY_STOCK_TABLE_HITS, mHits);
+        stats.putLong(ProductContract.KEY_STOCK_TABLE_MISSES, mMisses);
+        stats.putInt(ProductContract.KEY_STOCK_TABLE_ROWS, mSize);
+        stats.putLong(ProductContract.KEY_STOCK_TABLE_BYTES, (long) mIds.length * SLOT_BYTES + mNameBytes);
+        return stats;
+    }
+
+    private int find(long id) {
+        int mask = mIds.length - 1;
+        for (int slot = slotOf(id, mask); ; slot = (slot + 1) & mask) {
+            long slotId = mIds[slot];
+            if (slotId == id) {
+                return slot;
+            }
+            if (slotId == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    private int emptySlotFor(long id) {
+        int mask = mIds.length - 1;
+        int slot = slotOf(id, mask);
+        while (mIds[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int slotOf(long id, int mask) {
+        // Ids are mostly consecutive, so spread them over the table
+        long hash = id * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void copySlot(int from, int to) {
+        mIds[to] = mIds[from];
+        mNames[to] = mNames[from];
+        mPrices[to] = mPrices[from];
+        mQuantities[to] = mQuantities[from];
+        mSuppliers[to] = mSuppliers[from];
+    }
+
+    private void allocate(int capacity) {
+        mIds = new long[capacity];
+        Arrays.fill(mIds, EMPTY);
+        mPrices = new int[capacity];
+        mQuantities = new int[capacity];
+        mSuppliers = new byte[capacity];
+        mNames = new String[capacity];
+        mSize = 0;
+        mNameBytes = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] ids = mIds;
+        int[] prices = mPrices;
+        int[] quantities = mQuantities;
+        byte[] suppliers = mSuppliers;
+        String[] names = mNames;
+        long nameBytes = mNameBytes;
+
+        allocate(capacity);
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] != EMPTY) {
+                int slot = emptySlotFor(ids[i]);
+                mIds[slot] = ids[i];
+                mNames[slot] = names[i];
+                mPrices[slot] = prices[i];
+                mQuantities[slot] = quantities[i];
+                mSuppliers[slot] = suppliers[i];
+                mSize++;
+            }
+        }
+        mNameBytes = nameBytes;
+    }
+
+    private static long nameBytes(String name) {
+        return name == null ? 0 : NAME_OVERHEAD_BYTES + 2L * name.length();
+    }
+
+    /**
+     * A cursor over one product, holding its columns as primitives.
+     */
+    static final class RowCursor extends AbstractCursor {
+
+        private final String[] mColumns;
+
+        /** Index in {@link ProductStockTable#COLUMNS} of every column of the cursor */
+        private final int[] mSources;
+
+        private final long mId;
+        private final String mName;
+        private final int mPrice;
+        private final int mQuantity;
+        private final int mSupplier;
+
+        /**
+         * @param projection columns {@link #covers covered} by the table
+         */
+        RowCursor(String[] projection, long id, String name, int price, int quantity, int supplier) {
+            mColumns = projection;
+            mSources = new int[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                mSources[i] = columnOf(projection[i]);
+            }
+            mId = id;
+            mName = name;
+            mPrice = price;
+            mQuantity = quantity;
+            mSupplier = supplier;
+        }
+
+        @Override
+        public int getCount() {
+            return 1;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mColumns;
+        }
+
+        @Override
+        public long getLong(int column) {
+            switch (mSources[column]) {
+                case 0:
+                    return mId;
+                case 2:
+                    return mPrice;
+                case 3:
+                    return mQuantity;
+                case 4:
+                    return mSupplier;
+                default:
+                    return Long.parseLong(mName);
+            }
+        }
+
+        @Override
+        public String getString(int column) {
+            return mSources[column] == 1 ? mName : String.valueOf(getLong(column));
+        }
+
+        @Override
+        public int getType(int column) {
+            return mSources[column] == 1 ? FIELD_TYPE_STRING : FIELD_TYPE_INTEGER;
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return getLong(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return getLong(column);
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return mSources[column] == 1 && mName == null;
+        }
+    }
+}
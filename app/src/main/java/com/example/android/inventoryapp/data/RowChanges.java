@@ -0,0 +1,81 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentUris;
+import android.net.Uri;
+
+import java.util.List;
+
+/**
+ * The URIs the providers notify when a single row changes.
+ *
+ * A change to one row is notified on the URI of the row, with the kind of change as a query
+ * parameter, for instance
+ * content://com.example.android.products/products/12?change=update
+ * Observers of the collection URI receive it as well, so a list can read the one row again
+ * instead of all of its rows. Changes to many rows at once, such as bulk inserts and batches,
+ * are still notified on the collection URI.
+ */
+public final class RowChanges {
+
+    private RowChanges() {}
+
+    /** Query parameter holding the kind of change. */
+    public static final String QUERY_PARAMETER_CHANGE = "change";
+
+    /** The row was inserted. */
+    public static final String CHANGE_INSERT = "insert";
+
+    /** The row was updated. */
+    public static final String CHANGE_UPDATE = "update";
+
+    /** The row was deleted. */
+    public static final String CHANGE_DELETE = "delete";
+
+    /**
+     * Builds the URI notified for a change to one row.
+     *
+     * @param uri    collection URI, such as {@link ProductContract.ProductEntry#CONTENT_URI}
+     * @param id     id of the row
+     * @param change one of {@link #CHANGE_INSERT}, {@link #CHANGE_UPDATE} or {@link #CHANGE_DELETE}
+     */
+    public static Uri buildChangeUri(Uri uri, long id, String change) {
+        return ContentUris.withAppendedId(uri, id).buildUpon()
+                .appendQueryParameter(QUERY_PARAMETER_CHANGE, change)
+                .build();
+    }
+
+    /**
+     * Returns the id of the row a notified URI names, or -1 if the URI is not the change URI of
+     * a row of the given collection.
+     *
+     * @param collectionUri collection URI the observer is registered for
+     * @param changeUri     URI received by the observer
+     */
+    public static long getChangedId(Uri collectionUri, Uri changeUri) {
+        if (changeUri == null || getChange(changeUri) == null
+                || !collectionUri.getAuthority().equals(changeUri.getAuthority())) {
+            return -1;
+        }
+        List<String> collection = collectionUri.getPathSegments();
+        List<String> row = changeUri.getPathSegments();
+        if (row.size() != collection.size() + 1 || !row.subList(0, collection.size()).equals(collection)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(row.get(collection.size()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the kind of change a notified URI names, or null if it does not name one.
+     */
+    public static String getChange(Uri changeUri) {
+        String change = changeUri.getQueryParameter(QUERY_PARAMETER_CHANGE);
+        if (CHANGE_INSERT.equals(change) || CHANGE_UPDATE.equals(change) || CHANGE_DELETE.equals(change)) {
+            return change;
+        }
+        return null;
+    }
+}
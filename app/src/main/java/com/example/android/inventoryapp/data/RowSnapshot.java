@@ -0,0 +1,172 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.provider.BaseColumns;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The id and a hash of the contents of every row of a list, in order.
+ *
+ * Loaders read the snapshot on their background thread together with the rows, and diff it
+ * against the snapshot of the result they delivered before. The list then only rebinds the rows
+ * that were inserted, removed or changed, and the main thread never compares rows.
+ */
+public final class RowSnapshot {
+
+    /** A cursor that carries the snapshot of its rows. */
+    public interface Holder {
+        RowSnapshot getRowSnapshot();
+    }
+
+    private static final AtomicLong sVersions = new AtomicLong();
+
+    /** Identifies the snapshot, so that a diff can name the snapshot it starts from */
+    private final long mVersion = sVersions.incrementAndGet();
+
+    private final long[] mIds;
+
+    private final int[] mHashes;
+
+    private final int mSize;
+
+    /** Version of the snapshot {@link #mDiff} goes from, or -1 if there is no diff */
+    private final long mPreviousVersion;
+
+    private final DiffUtil.DiffResult mDiff;
+
+    private RowSnapshot(long[] ids, int[] hashes, int size, long previousVersion,
+                        DiffUtil.DiffResult diff) {
+        mIds = ids;
+        mHashes = hashes;
+        mSize = size;
+        mPreviousVersion = previousVersion;
+        mDiff = diff;
+    }
+
+    /**
+     * Reads the snapshot of every row of a cursor. The cursor is left before its first row.
+     *
+     * @param cursor cursor with a {@link BaseColumns#_ID} column
+     * @param prefix snapshot of the rows before the cursor's, or null if there are none
+     */
+    static RowSnapshot read(Cursor cursor, RowSnapshot prefix) {
+        int start = prefix == null ? 0 : prefix.mSize;
+        int size = start + cursor.getCount();
+        long[] ids = new long[size];
+        int[] hashes = new int[size];
+        if (prefix != null) {
+            System.arraycopy(prefix.mIds, 0, ids, 0, start);
+            System.arraycopy(prefix.mHashes, 0, hashes, 0, start);
+        }
+
+        int idColumn = cursor.getColumnIndexOrThrow(BaseColumns._ID);
+        int columns = cursor.getColumnCount();
+        cursor.moveToPosition(-1);
+        for (int row = start; cursor.moveToNext(); row++) {
+            ids[row] = cursor.getLong(idColumn);
+            hashes[row] = hashRow(cursor, columns);
+        }
+        cursor.moveToPosition(-1);
+        return new RowSnapshot(ids, hashes, size, -1, null);
+    }
+
+    /**
+     * Returns the snapshot of rows whose ids and hashes are already known. The arrays are kept,
+     * so they must not be changed afterwards.
+     */
+    static RowSnapshot of(long[] ids, int[] hashes, int size) {
+        return new RowSnapshot(ids, hashes, size, -1, null);
+    }
+
+    /**
+     * Returns the hash of the contents of the current row of a cursor.
+     */
+    static int hashRow(Cursor cursor, int columns) {
+        int hash = 1;
+        for (int i = 0; i < columns; i++) {
+            int value;
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    value = 0;
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    value = Arrays.hashCode(cursor.getBlob(i));
+                    break;
+                default:
+                    value = cursor.getString(i).hashCode();
+                    break;
+            }
+            hash = 31 * hash + value;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns this snapshot together with the changes from an earlier one. Rows are matched by
+     * id, and rows with the same id and hash are taken as unchanged. Lists keep their sort
+     * order, so moves are not detected; a row that moves is removed and inserted again.
+     *
+     * @param previous snapshot of the rows shown before, or null if there are none
+     */
+    RowSnapshot diffFrom(final RowSnapshot previous) {
+        if (previous == null) {
+            return this;
+        }
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return previous.mSize;
+            }
+
+            @Override
+            public int getNewListSize() {
+                return mSize;
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return previous.mIds[oldPosition] == mIds[newPosition];
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                return previous.mHashes[oldPosition] == mHashes[newPosition];
+            }
+        }, false);
+        return new RowSnapshot(mIds, mHashes, mSize, previous.mVersion, diff);
+    }
+
+    /**
+     * Notifies an adapter of the changes from the snapshot it shows to this one.
+     *
+     * @param shown snapshot the adapter shows, or null if it shows rows without a snapshot
+     * @return false if this snapshot has no diff from {@code shown}; the adapter must then be
+     * notified that every row changed
+     */
+    public boolean dispatchUpdatesTo(RecyclerView.Adapter adapter, RowSnapshot shown) {
+        if (mDiff == null || shown == null || shown.mVersion != mPreviousVersion) {
+            return false;
+        }
+        mDiff.dispatchUpdatesTo(adapter);
+        return true;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getId(int position) {
+        return mIds[position];
+    }
+
+    /**
+     * Returns the version of a row: the hash of its contents, which changes whenever the row does.
+     */
+    public int getRowVersion(int position) {
+        return mHashes[position];
+    }
+}
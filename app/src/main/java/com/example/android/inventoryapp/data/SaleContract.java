@@ -33,6 +33,47 @@ public final class SaleContract {
      */
     public static final String PATH_SALES = "sales";
 
+    /**
+     * Path of the latency histograms of the provider, for instance
+     * content://com.example.android.sales/metrics. Rows have the columns of {@link LatencyHistograms}.
+     */
+    public static final String PATH_METRICS = "metrics";
+
+    /** The content URI of the latency histograms of the provider */
+    public static final Uri METRICS_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_METRICS);
+
+    /**
+     * Path appended to the sales URI for the sale totals, for instance
+     * content://com.example.android.sales/sales/summary/product
+     */
+    public static final String PATH_SUMMARY = "summary";
+
+    /** Paths appended to the summary path for the totals per product, supplier and day */
+    public static final String PATH_SUMMARY_PRODUCT = "product";
+    public static final String PATH_SUMMARY_SUPPLIER = "supplier";
+    public static final String PATH_SUMMARY_DAY = "day";
+
+    /**
+     * Path of the exports of every sale, followed by the file name, for instance
+     * content://com.example.android.sales/export/sales.csv. Opening one with
+     * {@link ContentResolver#openInputStream} streams the sales as they are read, oldest first;
+     * querying one gives its display name. Other apps can read them when the URI is granted to
+     * them, as by a share intent.
+     */
+    public static final String PATH_EXPORT = "export";
+
+    /** Sales as CSV with a header line: id, date, product_id, product, supplier, quantity, price */
+    public static final Uri EXPORT_CSV_URI = BASE_CONTENT_URI.buildUpon()
+            .appendPath(PATH_EXPORT).appendPath("sales.csv").build();
+
+    /** Sales as JSON lines, one object per sale with the fields of {@link #EXPORT_CSV_URI} */
+    public static final Uri EXPORT_JSON_LINES_URI = BASE_CONTENT_URI.buildUpon()
+            .appendPath(PATH_EXPORT).appendPath("sales.jsonl").build();
+
+    /** MIME types of the exports */
+    public static final String EXPORT_CSV_TYPE = "text/csv";
+    public static final String EXPORT_JSON_LINES_TYPE = "application/x-ndjson";
+
     /**
      * Inner class that defines constant values for the store database table.
      * Each entry in the table represents a single pet.
@@ -65,7 +106,17 @@ public final class SaleContract {
         public final static String SALE_ID = BaseColumns._ID;
 
         /**
-         * Name of the sold product.
+         * Unique ID number of the sold product in the products table.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SALE_PRODUCT_ID = "product_id";
+
+        /**
+         * Name of the sold product. It is stored with the product and joined in when sales are
+         * queried. When inserting or updating a sale, it may be given instead of
+         * {@link #COLUMN_SALE_PRODUCT_ID}; a product with no stock is created if no product
+         * has that name yet.
          *
          * Type: TEXT
          */
@@ -86,7 +137,8 @@ public final class SaleContract {
         public final static String COLUMN_SALE_QUANTITY = "quantity";
 
         /**
-         * Supplier name of the sold product(s).
+         * Supplier name of the sold product(s). It is stored with the product and joined in
+         * when sales are queried. It is only used on insert or update to create a missing product.
          *
          * The only possible values are {@link #KAMUEL}, {@link #WALKAIR},
          * {@link #NIKE}, {@link #FOREX}, {@link #FORSCLASS},
@@ -97,12 +149,21 @@ public final class SaleContract {
         public final static String COLUMN_SALE_SUPPLIER_NAME = "supplierName";
 
         /**
-         * Supplier phone of the sold product(s).
+         * Supplier phone of the sold product(s). It is stored with the product and joined in
+         * when sales are queried. It is only used on insert or update to create a missing product.
          *
          * Type: TEXT
          */
         public final static String COLUMN_SALE_SUPPLIER_PHONE = "supplierPhone";
 
+        /**
+         * Time of the sale, in milliseconds since the epoch. Set to the time of the insert when
+         * not given. It is null for sales recorded before the time was kept.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SALE_DATE = "date";
+
         /**
          * Possible values for the supplier.
          */
@@ -129,4 +190,82 @@ public final class SaleContract {
 
     }
 
+    /**
+     * Totals of the sales, per product, per supplier and per day. They are kept up to date as
+     * sales change, so reading them never scans the sales table. They are read-only.
+     */
+    public static final class SaleSummaryEntry {
+
+        private SaleSummaryEntry() {}
+
+        /** The content URI of the totals per product, one row per sold product */
+        public static final Uri PRODUCT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_SALES).appendPath(PATH_SUMMARY).appendPath(PATH_SUMMARY_PRODUCT).build();
+
+        /** The content URI of the totals per supplier, one row per supplier with sales */
+        public static final Uri SUPPLIER_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_SALES).appendPath(PATH_SUMMARY).appendPath(PATH_SUMMARY_SUPPLIER).build();
+
+        /** The content URI of the totals per day, one row per day with sales */
+        public static final Uri DAY_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_SALES).appendPath(PATH_SUMMARY).appendPath(PATH_SUMMARY_DAY).build();
+
+        /**
+         * The MIME type of the summary URIs.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUMMARY;
+
+        /**
+         * ID of the product, in the totals per product.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_ID = "product_id";
+
+        /**
+         * Name of the product, in the totals per product. Null if the product has been deleted.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_PRODUCT_NAME = "name";
+
+        /**
+         * Supplier, in the totals per supplier. One of the supplier values of {@link SaleEntry}.
+         * Sales count for the supplier their product has now.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SUPPLIER = "supplier";
+
+        /**
+         * Local day of the sales as YYYY-MM-DD, in the totals per day. Empty for sales
+         * recorded before their time was kept.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_DAY = "day";
+
+        /**
+         * Number of units sold.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_UNITS = "units";
+
+        /**
+         * Sum of the price times the quantity of every sale.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_REVENUE = "revenue";
+
+        /**
+         * Number of sales.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SALE_COUNT = "sale_count";
+    }
+
 }
@@ -1,19 +1,46 @@
 package com.example.android.inventoryapp.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.os.SystemClock;
+import android.provider.OpenableColumns;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.v4.os.TraceCompat;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.example.android.inventoryapp.data.SaleContract.SaleEntry;
+import com.example.android.inventoryapp.data.SaleContract.SaleSummaryEntry;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
 
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+
 public class SaleProvider extends ContentProvider {
 
     /** Tag for the log messages */
@@ -25,6 +52,24 @@ public class SaleProvider extends ContentProvider {
     /** URI matcher code for the content URI for a single pet in the pets table */
     private static final int SALE_ID = 101;
 
+    /** URI matcher codes for the content URIs of the sale totals */
+    private static final int SUMMARY_PRODUCT = 102;
+    private static final int SUMMARY_SUPPLIER = 103;
+    private static final int SUMMARY_DAY = 104;
+
+    /** URI matcher code for the content URI of the latency histograms of the provider */
+    private static final int METRICS = 105;
+
+    /** URI matcher code for the content URIs of the exports of the sales */
+    private static final int EXPORT = 106;
+
+    /**
+     * Names of the URI patterns the latencies are recorded for, by {@link #patternOf} index.
+     * URIs that match no pattern are recorded under "unknown".
+     */
+    private static final String[] PATTERNS = {
+            "sales", "sales/#", "sales/summary/*", "metrics", "export/*", "unknown"};
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -51,35 +96,217 @@ public class SaleProvider extends ContentProvider {
         // For example, "content://com.example.android.pets/pets/3" matches, but
         // "content://com.example.android.pets/pets" (without a number at the end) doesn't match.
         sUriMatcher.addURI(SaleContract.CONTENT_AUTHORITY, SaleContract.PATH_SALES + "/#", SALE_ID);
+
+        // The content URIs of the form "content://com.example.android.sales/sales/summary/product"
+        // and so on map to the totals. They are only used with query().
+        String summary = SaleContract.PATH_SALES + "/" + SaleContract.PATH_SUMMARY + "/";
+        sUriMatcher.addURI(SaleContract.CONTENT_AUTHORITY,
+                summary + SaleContract.PATH_SUMMARY_PRODUCT, SUMMARY_PRODUCT);
+        sUriMatcher.addURI(SaleContract.CONTENT_AUTHORITY,
+                summary + SaleContract.PATH_SUMMARY_SUPPLIER, SUMMARY_SUPPLIER);
+        sUriMatcher.addURI(SaleContract.CONTENT_AUTHORITY,
+                summary + SaleContract.PATH_SUMMARY_DAY, SUMMARY_DAY);
+
+        // The content URI "content://com.example.android.sales/metrics" maps to the latency
+        // histograms. It is only used with query().
+        sUriMatcher.addURI(SaleContract.CONTENT_AUTHORITY, SaleContract.PATH_METRICS, METRICS);
+
+        // The content URIs of the form "content://com.example.android.sales/export/sales.csv"
+        // map to the exports. They are opened with openFile(), and queried for their name.
+        sUriMatcher.addURI(SaleContract.CONTENT_AUTHORITY, SaleContract.PATH_EXPORT + "/*", EXPORT);
+    }
+
+    /** Sales joined with the product each one refers to. */
+    private static final String SALES_WITH_PRODUCTS = SaleEntry.TABLE_NAME
+            + " LEFT JOIN " + ProductEntry.TABLE_NAME + " ON "
+            + SaleEntry.TABLE_NAME + "." + SaleEntry.COLUMN_SALE_PRODUCT_ID + " = "
+            + ProductEntry.TABLE_NAME + "." + ProductEntry._ID;
+
+    /**
+     * Maps every column of a sale to its table in {@link #SALES_WITH_PRODUCTS}. The product
+     * name and supplier are read from the products table.
+     */
+    private static final HashMap<String, String> sSalesProjectionMap = new HashMap<>();
+
+    static {
+        mapColumn(SaleEntry.TABLE_NAME, SaleEntry._ID, SaleEntry._ID);
+        mapColumn(SaleEntry.TABLE_NAME, SaleEntry.COLUMN_SALE_PRODUCT_ID, SaleEntry.COLUMN_SALE_PRODUCT_ID);
+        mapColumn(SaleEntry.TABLE_NAME, SaleEntry.COLUMN_SALE_PRICE, SaleEntry.COLUMN_SALE_PRICE);
+        mapColumn(SaleEntry.TABLE_NAME, SaleEntry.COLUMN_SALE_QUANTITY, SaleEntry.COLUMN_SALE_QUANTITY);
+        mapColumn(SaleEntry.TABLE_NAME, SaleEntry.COLUMN_SALE_DATE, SaleEntry.COLUMN_SALE_DATE);
+        mapColumn(ProductEntry.TABLE_NAME, ProductEntry.COLUMN_PRODUCT_NAME,
+                SaleEntry.COLUMN_SALE_PRODUCT_NAME);
+        mapColumn(ProductEntry.TABLE_NAME, ProductEntry.COLUMN_SUPPLIER_NAME,
+                SaleEntry.COLUMN_SALE_SUPPLIER_NAME);
+        mapColumn(ProductEntry.TABLE_NAME, ProductEntry.COLUMN_SUPPLIER_PHONE,
+                SaleEntry.COLUMN_SALE_SUPPLIER_PHONE);
+    }
+
+    /** Totals per product joined with the product they belong to. */
+    private static final String PRODUCT_TOTALS_WITH_PRODUCTS = SalesAndProductsDbHelper.TABLE_SALES_BY_PRODUCT
+            + " LEFT JOIN " + ProductEntry.TABLE_NAME + " ON "
+            + SalesAndProductsDbHelper.TABLE_SALES_BY_PRODUCT + "." + SaleSummaryEntry.COLUMN_PRODUCT_ID + " = "
+            + ProductEntry.TABLE_NAME + "." + ProductEntry._ID;
+
+    /** Maps every column of the totals per product to its table. */
+    private static final HashMap<String, String> sProductTotalsProjectionMap = new HashMap<>();
+
+    static {
+        String totals = SalesAndProductsDbHelper.TABLE_SALES_BY_PRODUCT;
+        mapColumn(sProductTotalsProjectionMap, totals, SaleSummaryEntry.COLUMN_PRODUCT_ID,
+                SaleSummaryEntry.COLUMN_PRODUCT_ID);
+        mapColumn(sProductTotalsProjectionMap, ProductEntry.TABLE_NAME, ProductEntry.COLUMN_PRODUCT_NAME,
+                SaleSummaryEntry.COLUMN_PRODUCT_NAME);
+        mapColumn(sProductTotalsProjectionMap, totals, SaleSummaryEntry.COLUMN_UNITS,
+                SaleSummaryEntry.COLUMN_UNITS);
+        mapColumn(sProductTotalsProjectionMap, totals, SaleSummaryEntry.COLUMN_REVENUE,
+                SaleSummaryEntry.COLUMN_REVENUE);
+        mapColumn(sProductTotalsProjectionMap, totals, SaleSummaryEntry.COLUMN_SALE_COUNT,
+                SaleSummaryEntry.COLUMN_SALE_COUNT);
     }
 
-    /** Database helper object */
-    private SalesAndProductsDbHelper mDbHelper;
+    private static void mapColumn(String table, String tableColumn, String column) {
+        mapColumn(sSalesProjectionMap, table, tableColumn, column);
+    }
+
+    private static void mapColumn(HashMap<String, String> map, String table, String tableColumn, String column) {
+        map.put(column, table + "." + tableColumn + " AS " + column);
+    }
+
+    /** Inserts one sale with every column bound, reused for all rows of a {@link #bulkInsert}. */
+    private static final String SQL_INSERT_SALE = "INSERT INTO " + SaleEntry.TABLE_NAME + " ("
+            + SaleEntry.COLUMN_SALE_PRODUCT_ID + ", "
+            + SaleEntry.COLUMN_SALE_PRICE + ", "
+            + SaleEntry.COLUMN_SALE_QUANTITY + ", "
+            + SaleEntry.COLUMN_SALE_DATE + ") VALUES (?, ?, ?, ?)";
+
+    /** Checks that a product exists. */
+    private static final String SQL_SELECT_PRODUCT_BY_ID = "SELECT " + ProductEntry._ID
+            + " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = ?";
+
+    /** Finds the oldest product with a name. */
+    private static final String SQL_SELECT_PRODUCT_BY_NAME = "SELECT " + ProductEntry._ID
+            + " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry.COLUMN_PRODUCT_NAME + " = ?"
+            + " ORDER BY " + ProductEntry._ID + " LIMIT 1";
+
+    /** Adds a product with no stock for a sale of a name that is not in the catalog. */
+    private static final String SQL_INSERT_EMPTY_PRODUCT = "INSERT INTO " + ProductEntry.TABLE_NAME + " ("
+            + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+            + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+            + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+            + ProductEntry.COLUMN_SUPPLIER_NAME + ", "
+            + ProductEntry.COLUMN_SUPPLIER_PHONE + ") VALUES (?, ?, 0, ?, ?)";
+
+    /** Value returned by {@link #readLong} for a missing or malformed number. */
+    private static final long INVALID_NUMBER = Long.MIN_VALUE;
+
+    /** Database helper object, looked up on first use */
+    private volatile SalesAndProductsDbHelper mDbHelper;
+
+    /**
+     * The changes made by the {@link #applyBatch} running on the current thread, or null if
+     * the thread is not running a batch. Notifications are held back until the batch commits.
+     */
+    private final ThreadLocal<BatchChanges> mBatchChanges = new ThreadLocal<>();
+
+    /** Latency of every call, per operation and URI pattern */
+    private final LatencyHistograms mLatencies = new LatencyHistograms(PATTERNS);
+
+    /** Log of the slow statements, shared with the product provider and looked up on first use */
+    private volatile SlowQueryLog mSlowQueries;
+
+    /** Changes made while a batch is being applied. */
+    private static final class BatchChanges {
+        boolean products;
+        boolean sales;
+    }
 
     @Override
     public boolean onCreate() {
-        mDbHelper = new SalesAndProductsDbHelper(getContext());
+        // The helper is looked up on first use: finding the database path may touch the disk,
+        // and providers are created on the main thread before the app starts
         return true;
     }
 
+    /**
+     * Return the database helper, looking it up on first use.
+     */
+    private SalesAndProductsDbHelper getDbHelper() {
+        SalesAndProductsDbHelper helper = mDbHelper;
+        if (helper == null) {
+            helper = SalesAndProductsDbHelper.getInstance(getContext());
+            mDbHelper = helper;
+        }
+        return helper;
+    }
+
+    /**
+     * Return the slow query log, looking it up on first use.
+     */
+    private SlowQueryLog getSlowQueries() {
+        SlowQueryLog log = mSlowQueries;
+        if (log == null) {
+            log = SlowQueryLog.getInstance(getContext());
+            mSlowQueries = log;
+        }
+        return log;
+    }
+
 
     @Override
     public Cursor query( Uri uri,  String[] projection,  String selection,  String[] selectionArgs,  String sortOrder) {
+        long start = LatencyHistograms.start();
+        int match = UriMatcher.NO_MATCH;
+        TraceCompat.beginSection("SaleProvider.query");
+        try {
+            match = matchUri(uri);
+            return querySales(uri, match, projection, selection, selectionArgs, sortOrder);
+        } finally {
+            TraceCompat.endSection();
+            mLatencies.record(LatencyHistograms.OPERATION_QUERY, patternOf(match), start);
+        }
+    }
+
+    private Cursor querySales(Uri uri, int match, String[] projection, String selection,
+                              String[] selectionArgs, String sortOrder) {
         // Get readable database
-        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        SQLiteDatabase database = getDbHelper().getReadableDatabase();
+
+        // Sales are read together with the name and supplier of their product
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(SALES_WITH_PRODUCTS);
+        builder.setProjectionMap(sSalesProjectionMap);
 
         // This cursor will hold the result of the query
         Cursor cursor;
 
-        // Figure out if the URI matcher can match the URI to a specific code
-        int match = sUriMatcher.match(uri);
+        // The URI matcher matched the URI to a specific code
         switch (match) {
             case SALES:
-                // For the SALES code, query the sales table directly with the given
+                // For the SALES code, query the sales with the given
                 // projection, selection, selection arguments, and sort order. The cursor
                 // could contain multiple rows of the pets table.
-                cursor = database.query(SaleEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                String limit = KeysetPaging.getLimit(uri);
+                if (limit != null) {
+                    // A page of sales in id order, starting after the given id
+                    if (sortOrder != null) {
+                        throw new IllegalArgumentException("Pages of sales are sorted by id " + uri);
+                    }
+                    sortOrder = SaleEntry.TABLE_NAME + "." + SaleEntry._ID;
+                    String afterId = KeysetPaging.getAfterId(uri);
+                    if (afterId != null) {
+                        selection = KeysetPaging.appendSelection(selection,
+                                SaleEntry.TABLE_NAME + "." + SaleEntry._ID + " > ?");
+                        selectionArgs = KeysetPaging.appendArgs(selectionArgs, afterId);
+                    }
+                }
+                TraceCompat.beginSection("SaleProvider.sqlite");
+                try {
+                    cursor = queryBuilder(builder, database, projection, selection, selectionArgs,
+                            sortOrder, limit);
+                } finally {
+                    TraceCompat.endSection();
+                }
                 break;
             case SALE_ID:
                 // For the SALE_ID code, extract out the ID from the URI.
@@ -90,14 +317,33 @@ public class SaleProvider extends ContentProvider {
                 // For every "?" in the selection, we need to have an element in the selection
                 // arguments that will fill in the "?". Since we have 1 question mark in the
                 // selection, we have 1 String in the selection arguments' String array.
-                selection = SaleEntry._ID + "=?";
+                selection = SaleEntry.TABLE_NAME + "." + SaleEntry._ID + "=?";
                 selectionArgs = new String[] { String.valueOf( ContentUris.parseId(uri)) };
 
                 // This will perform a query on the pets table where the _id equals 3 to return a
                 // Cursor containing that row of the table.
-                cursor = database.query(SaleEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                TraceCompat.beginSection("SaleProvider.sqlite");
+                try {
+                    cursor = queryBuilder(builder, database, projection, selection, selectionArgs,
+                            sortOrder, null);
+                } finally {
+                    TraceCompat.endSection();
+                }
                 break;
+            case SUMMARY_PRODUCT:
+                builder.setTables(PRODUCT_TOTALS_WITH_PRODUCTS);
+                builder.setProjectionMap(sProductTotalsProjectionMap);
+                return querySummary(builder, database, projection, selection, selectionArgs, sortOrder);
+            case SUMMARY_SUPPLIER:
+                return querySummary(summaryBuilder(SalesAndProductsDbHelper.TABLE_SALES_BY_SUPPLIER),
+                        database, projection, selection, selectionArgs, sortOrder);
+            case SUMMARY_DAY:
+                return querySummary(summaryBuilder(SalesAndProductsDbHelper.TABLE_SALES_BY_DAY),
+                        database, projection, selection, selectionArgs, sortOrder);
+            case METRICS:
+                return mLatencies.query();
+            case EXPORT:
+                return queryExport(uri, projection);
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
@@ -113,14 +359,225 @@ public class SaleProvider extends ContentProvider {
     }
 
 
+    /**
+     * Return the index in {@link #PATTERNS} of a URI matcher code.
+     */
+    private static int patternOf(int match) {
+        switch (match) {
+            case SALES:
+                return 0;
+            case SALE_ID:
+                return 1;
+            case SUMMARY_PRODUCT:
+            case SUMMARY_SUPPLIER:
+            case SUMMARY_DAY:
+                return 2;
+            case METRICS:
+                return 3;
+            case EXPORT:
+                return 4;
+            default:
+                return 5;
+        }
+    }
+
+    /**
+     * Match a URI against the URIs of the provider.
+     */
+    private static int matchUri(Uri uri) {
+        TraceCompat.beginSection("SaleProvider.match");
+        try {
+            return sUriMatcher.match(uri);
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * Run the query of a builder. The first rows are read right away, so that the time and the
+     * row count include running the statement, and the query is logged if it was slow.
+     */
+    private Cursor queryBuilder(SQLiteQueryBuilder builder, SQLiteDatabase database, String[] projection,
+                                String selection, String[] selectionArgs, String sortOrder, String limit) {
+        long start = SlowQueryLog.start();
+        Cursor cursor = builder.query(database, projection, selection, selectionArgs,
+                null, null, sortOrder, limit);
+        int rows = cursor.getCount();
+        SlowQueryLog slowQueries = getSlowQueries();
+        if (slowQueries.isSlow(start)) {
+            String sql = builder.buildQuery(projection, selection, null, null, sortOrder, limit);
+            slowQueries.log(database, sql, sql, selection, selectionArgs, rows, start);
+        }
+        return cursor;
+    }
+
+    /**
+     * Log a change of the sales table if it was slow, with the plan of selecting the changed
+     * rows.
+     *
+     * @param values the values of an update, or null for a delete
+     */
+    private void logSlowChange(SQLiteDatabase database, ContentValues values, String selection,
+                               String[] selectionArgs, int rows, long start) {
+        SlowQueryLog slowQueries = getSlowQueries();
+        if (!slowQueries.isSlow(start)) {
+            return;
+        }
+        String statement = values == null ? "DELETE FROM " + SaleEntry.TABLE_NAME
+                : "UPDATE " + SaleEntry.TABLE_NAME + " SET " + TextUtils.join("=?, ", values.keySet()) + "=?";
+        String where = TextUtils.isEmpty(selection) ? "" : " WHERE " + selection;
+        slowQueries.log(database, statement + where, "SELECT rowid FROM " + SaleEntry.TABLE_NAME + where,
+                selection, selectionArgs, rows, start);
+    }
+
+    /**
+     * Return the format of an export URI, from the extension of its file name, or -1 if it has
+     * none of the known ones.
+     */
+    private static int exportFormat(Uri uri) {
+        String name = uri.getLastPathSegment();
+        if (name.endsWith(".csv")) {
+            return SalesExport.FORMAT_CSV;
+        }
+        if (name.endsWith(".jsonl")) {
+            return SalesExport.FORMAT_JSON_LINES;
+        }
+        return -1;
+    }
+
+    /**
+     * Describe an export for the apps it is shared with. Its size is unknown until it is read.
+     */
+    private Cursor queryExport(Uri uri, String[] projection) {
+        if (exportFormat(uri) < 0) {
+            throw new IllegalArgumentException("Cannot query unknown URI " + uri);
+        }
+        if (projection == null) {
+            projection = new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE};
+        }
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            if (OpenableColumns.DISPLAY_NAME.equals(projection[i])) {
+                row[i] = uri.getLastPathSegment();
+            }
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    /**
+     * Open an export of the sales for reading. The sales are written to a pipe by a thread of
+     * their own as they are read, so the reader gets the first ones right away and the table is
+     * never held in memory. The export stops early if the reader closes its end. If it fails,
+     * the pipe is closed with an error from KitKat on, so that the reader can tell it from a
+     * complete export.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        final int format = matchUri(uri) == EXPORT ? exportFormat(uri) : -1;
+        if (format < 0) {
+            throw new FileNotFoundException("No file at " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Exports can only be read " + uri);
+        }
+
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                    ? ParcelFileDescriptor.createReliablePipe() : ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            FileNotFoundException notOpened = new FileNotFoundException("Could not open a pipe for " + uri);
+            notOpened.initCause(e);
+            throw notOpened;
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                writeExport(format, pipe[1]);
+            }
+        }, "sales-export").start();
+        return pipe[0];
+    }
+
+    private void writeExport(int format, ParcelFileDescriptor output) {
+        long start = SystemClock.elapsedRealtime();
+        // The descriptor is closed below, with an error if the export fails
+        OutputStream out = new FileOutputStream(output.getFileDescriptor());
+        String error = null;
+        TraceCompat.beginSection("SaleProvider.export");
+        try {
+            long rows = new SalesExport(format, out).write(getDbHelper().getReadableDatabase());
+            Log.i(LOG_TAG, String.format(Locale.US, "Exported %d sales in %d ms",
+                    rows, SystemClock.elapsedRealtime() - start));
+        } catch (IOException e) {
+            // The reader closed its end before the last sale
+            Log.w(LOG_TAG, "Sales export stopped", e);
+        } catch (RuntimeException e) {
+            // Such as a failed read of the database. Thrown on this thread it would kill the app.
+            Log.e(LOG_TAG, "Sales export failed", e);
+            error = "Sales export failed: " + e.getMessage();
+        } finally {
+            TraceCompat.endSection();
+            try {
+                if (error != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    output.closeWithError(error);
+                } else {
+                    output.close();
+                }
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static SQLiteQueryBuilder summaryBuilder(String table) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(table);
+        return builder;
+    }
+
+    /**
+     * Read totals. They change with any sale, so the cursor is notified of changes to any sale.
+     */
+    private Cursor querySummary(SQLiteQueryBuilder builder, SQLiteDatabase database, String[] projection,
+                                String selection, String[] selectionArgs, String sortOrder) {
+        Cursor cursor;
+        TraceCompat.beginSection("SaleProvider.sqlite");
+        try {
+            cursor = queryBuilder(builder, database, projection, selection, selectionArgs,
+                    sortOrder, null);
+        } finally {
+            TraceCompat.endSection();
+        }
+        cursor.setNotificationUri(getContext().getContentResolver(), SaleEntry.CONTENT_URI);
+        return cursor;
+    }
+
     @Override
     public String getType( Uri uri) {
-        final int match = sUriMatcher.match(uri);
+        final int match = matchUri(uri);
         switch (match) {
             case SALES:
                 return SaleContract.SaleEntry.CONTENT_LIST_TYPE;
             case SALE_ID:
                 return SaleContract.SaleEntry.CONTENT_ITEM_TYPE;
+            case SUMMARY_PRODUCT:
+            case SUMMARY_SUPPLIER:
+            case SUMMARY_DAY:
+                return SaleSummaryEntry.CONTENT_LIST_TYPE;
+            case METRICS:
+                return ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + SaleContract.CONTENT_AUTHORITY
+                        + "/" + SaleContract.PATH_METRICS;
+            case EXPORT:
+                if (exportFormat(uri) == SalesExport.FORMAT_CSV) {
+                    return SaleContract.EXPORT_CSV_TYPE;
+                }
+                if (exportFormat(uri) == SalesExport.FORMAT_JSON_LINES) {
+                    return SaleContract.EXPORT_JSON_LINES_TYPE;
+                }
+                return null;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
@@ -129,12 +586,20 @@ public class SaleProvider extends ContentProvider {
 
     @Override
     public Uri insert( Uri uri,  ContentValues contentValues) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case SALES:
-                return insertSale(uri, contentValues);
-            default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        long start = LatencyHistograms.start();
+        int match = UriMatcher.NO_MATCH;
+        TraceCompat.beginSection("SaleProvider.insert");
+        try {
+            match = matchUri(uri);
+            switch (match) {
+                case SALES:
+                    return insertSale(uri, contentValues);
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+        } finally {
+            TraceCompat.endSection();
+            mLatencies.record(LatencyHistograms.OPERATION_INSERT, patternOf(match), start);
         }
     }
 
@@ -143,41 +608,55 @@ public class SaleProvider extends ContentProvider {
      * for that specific row in the database.
      */
     private Uri insertSale(Uri uri, ContentValues values) {
-        // Check that the name is not null
-        String saleProductName = values.getAsString(SaleEntry.COLUMN_SALE_PRODUCT_NAME);
-        if (saleProductName == null) {
-            throw new IllegalArgumentException("Sale requires a product name");
-        }
-
-        // Check that the price is valid
-        Integer saleProductPrice = values.getAsInteger(SaleEntry.COLUMN_SALE_PRICE);
-        if (saleProductPrice == null && saleProductPrice < 0) {
-            throw new IllegalArgumentException("Sale requires a price");
-        }
+        TraceCompat.beginSection("SaleProvider.validate");
+        try {
+            // Check that the price is valid
+            Integer saleProductPrice = values.getAsInteger(SaleEntry.COLUMN_SALE_PRICE);
+            if (saleProductPrice == null || saleProductPrice < 0) {
+                throw new IllegalArgumentException("Sale requires a price");
+            }
 
-        // If the quantity is provided, check that it's greater than or equal to 0 kg
-        Integer saleProductQuantity = values.getAsInteger(SaleEntry.COLUMN_SALE_QUANTITY);
-        if (saleProductQuantity != null && saleProductQuantity < 0) {
-            throw new IllegalArgumentException("Sale requires valid quantity");
+            // If the quantity is provided, check that it's greater than or equal to 0 kg
+            Integer saleProductQuantity = values.getAsInteger(SaleEntry.COLUMN_SALE_QUANTITY);
+            if (saleProductQuantity != null && saleProductQuantity < 0) {
+                throw new IllegalArgumentException("Sale requires valid quantity");
+            }
+        } finally {
+            TraceCompat.endSection();
         }
 
-        // Check that the supplier name is valid
-        Integer supplierName = values.getAsInteger(SaleEntry.COLUMN_SALE_SUPPLIER_NAME);
-        if (supplierName == null || !SaleEntry.isValidSupplier(supplierName)) {
-            throw new IllegalArgumentException("Sale requires valid supplier name");
-        }
+        // Get writable database
+        SQLiteDatabase database = getDbHelper().getWritableDatabase();
 
-        // Check that the supplier name is valid
-        String supplierPhone = values.getAsString(SaleEntry.COLUMN_SALE_SUPPLIER_PHONE);
-        if (supplierPhone == null) {
-            throw new IllegalArgumentException("Sale requires valid supplier phone");
+        // Find or create the product and insert the sale in one transaction
+        long id;
+        boolean createdProduct;
+        TraceCompat.beginSection("SaleProvider.sqlite");
+        try {
+            database.beginTransaction();
+            try {
+                ProductLookup lookup = new ProductLookup(database);
+                try {
+                    ContentValues row = toSaleRow(values);
+                    row.put(SaleEntry.COLUMN_SALE_PRODUCT_ID, lookup.resolve(values));
+                    if (!row.containsKey(SaleEntry.COLUMN_SALE_DATE)) {
+                        row.put(SaleEntry.COLUMN_SALE_DATE, System.currentTimeMillis());
+                    }
+                    id = database.insert(SaleEntry.TABLE_NAME, null, row);
+                    createdProduct = lookup.createdProducts;
+                } finally {
+                    lookup.close();
+                }
+                if (id != -1) {
+                    database.setTransactionSuccessful();
+                }
+            } finally {
+                database.endTransaction();
+            }
+        } finally {
+            TraceCompat.endSection();
         }
 
-        // Get writable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
-
-        // Insert the new pet with the given values
-        long id = database.insert(SaleEntry.TABLE_NAME, null, values);
         // If the ID is -1, then the insertion failed. Log an error and return null.
         if (id == -1) {
             Log.e(LOG_TAG, "Failed to insert row for " + uri);
@@ -185,7 +664,10 @@ public class SaleProvider extends ContentProvider {
         }
 
         // Notify all listeners that the data has changed for the sale content URI
-        getContext().getContentResolver().notifyChange( uri, null );
+        if (createdProduct) {
+            notifyProductsChanged();
+        }
+        notifySalesChanged(RowChanges.buildChangeUri(SaleEntry.CONTENT_URI, id, RowChanges.CHANGE_INSERT));
 
         // Return the new URI with the ID (of the newly inserted row) appended at the end
         return ContentUris.withAppendedId(uri, id);
@@ -194,32 +676,51 @@ public class SaleProvider extends ContentProvider {
 
     @Override
     public int delete( Uri uri,  String selection,  String[] selectionArgs) {
+        long start = LatencyHistograms.start();
+        int match = UriMatcher.NO_MATCH;
+        TraceCompat.beginSection("SaleProvider.delete");
+        try {
+            match = matchUri(uri);
+            return deleteSales(uri, match, selection, selectionArgs);
+        } finally {
+            TraceCompat.endSection();
+            mLatencies.record(LatencyHistograms.OPERATION_DELETE, patternOf(match), start);
+        }
+    }
+
+    private int deleteSales(Uri uri, int match, String selection, String[] selectionArgs) {
         // Get writeable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        SQLiteDatabase database = getDbHelper().getWritableDatabase();
 
         // Track the number of rows that were deleted
         int rowsDeleted;
 
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case SALES:
-                // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(SaleEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            case SALE_ID:
-                // Delete a single row given by the ID in the URI
-                selection = SaleEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                rowsDeleted = database.delete(SaleEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            default:
-                throw new IllegalArgumentException("Deletion is not supported for " + uri);
+        long start = SlowQueryLog.start();
+        TraceCompat.beginSection("SaleProvider.sqlite");
+        try {
+            switch (match) {
+                case SALES:
+                    // Delete all rows that match the selection and selection args
+                    rowsDeleted = database.delete(SaleEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                case SALE_ID:
+                    // Delete a single row given by the ID in the URI
+                    selection = SaleEntry._ID + "=?";
+                    selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                    rowsDeleted = database.delete(SaleEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Deletion is not supported for " + uri);
+            }
+            logSlowChange(database, null, selection, selectionArgs, rowsDeleted, start);
+        } finally {
+            TraceCompat.endSection();
         }
 
         // If 1 or more rows were deleted, then notify all listeners that the data at the
         // given URI has changed
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifySalesChanged(rowChangeUri(uri, match, RowChanges.CHANGE_DELETE));
         }
 
         // Return the number of rows deleted
@@ -228,7 +729,20 @@ public class SaleProvider extends ContentProvider {
 
     @Override
     public int update( Uri uri,  ContentValues contentValues,  String selection,  String[] selectionArgs) {
-        final int match = sUriMatcher.match(uri);
+        long start = LatencyHistograms.start();
+        int match = UriMatcher.NO_MATCH;
+        TraceCompat.beginSection("SaleProvider.update");
+        try {
+            match = matchUri(uri);
+            return updateUri(uri, match, contentValues, selection, selectionArgs);
+        } finally {
+            TraceCompat.endSection();
+            mLatencies.record(LatencyHistograms.OPERATION_UPDATE, patternOf(match), start);
+        }
+    }
+
+    private int updateUri(Uri uri, int match, ContentValues contentValues, String selection,
+                          String[] selectionArgs) {
         switch (match) {
             case SALES:
                 return updateSale(uri, contentValues, selection, selectionArgs);
@@ -250,52 +764,57 @@ public class SaleProvider extends ContentProvider {
      * Return the number of rows that were successfully updated.
      */
     private int updateSale(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        // If the {@link SaleEntry#COLUMN_SALE_PRODUCT_NAME} key is present,
-        // check that the name value is not null.
-        if (values.containsKey(SaleEntry.COLUMN_SALE_PRODUCT_NAME)) {
-            String name = values.getAsString(SaleEntry.COLUMN_SALE_PRODUCT_NAME);
-            if (name == null) {
-                throw new IllegalArgumentException("Sale requires a product name");
+        TraceCompat.beginSection("SaleProvider.validate");
+        try {
+            // If the {@link SaleEntry#COLUMN_SALE_PRODUCT_NAME} key is present,
+            // check that the name value is not null.
+            if (values.containsKey(SaleEntry.COLUMN_SALE_PRODUCT_NAME)) {
+                String name = values.getAsString(SaleEntry.COLUMN_SALE_PRODUCT_NAME);
+                if (name == null) {
+                    throw new IllegalArgumentException("Sale requires a product name");
+                }
             }
-        }
 
-        // If the {@link SaleEntry#COLUMN_PET_GENDER} key is present,
-        // check that the price value is valid.
-        if (values.containsKey(SaleEntry.COLUMN_SALE_PRICE)) {
-            Integer price = values.getAsInteger(SaleEntry.COLUMN_SALE_PRICE);
-            if (price == null) {
-                throw new IllegalArgumentException("Sale requires valid price");
+            // If the {@link SaleEntry#COLUMN_PET_GENDER} key is present,
+            // check that the price value is valid.
+            if (values.containsKey(SaleEntry.COLUMN_SALE_PRICE)) {
+                Integer price = values.getAsInteger(SaleEntry.COLUMN_SALE_PRICE);
+                if (price == null) {
+                    throw new IllegalArgumentException("Sale requires valid price");
+                }
             }
-        }
 
-        // If the {@link SaleEntry#COLUMN_SALE_QUANTITY} key is present,
-        // check that the quantity value is valid.
-        if (values.containsKey(SaleEntry.COLUMN_SALE_QUANTITY)) {
-            // Check that the weight is greater than or equal to 0 kg
-            Integer quantity = values.getAsInteger(SaleEntry.COLUMN_SALE_QUANTITY);
-            if (quantity != null && quantity < 0) {
-                throw new IllegalArgumentException("Sale requires valid quantity");
+            // If the {@link SaleEntry#COLUMN_SALE_QUANTITY} key is present,
+            // check that the quantity value is valid.
+            if (values.containsKey(SaleEntry.COLUMN_SALE_QUANTITY)) {
+                // Check that the weight is greater than or equal to 0 kg
+                Integer quantity = values.getAsInteger(SaleEntry.COLUMN_SALE_QUANTITY);
+                if (quantity != null && quantity < 0) {
+                    throw new IllegalArgumentException("Sale requires valid quantity");
+                }
             }
-        }
 
-        // If the {@link SaleEntry#COLUMN_SALE_SUPPLIER_NAME} key is present,
-        // check that the supplier name value is valid.
-        if (values.containsKey(SaleEntry.COLUMN_SALE_SUPPLIER_NAME)) {
-            // Check that the weight is greater than or equal to 0 kg
-            Integer supplierName = values.getAsInteger(SaleEntry.COLUMN_SALE_SUPPLIER_NAME);
-            if (supplierName == null || !SaleEntry.isValidSupplier(supplierName)) {
-                throw new IllegalArgumentException("Sale requires valid supplier name");
+            // If the {@link SaleEntry#COLUMN_SALE_SUPPLIER_NAME} key is present,
+            // check that the supplier name value is valid.
+            if (values.containsKey(SaleEntry.COLUMN_SALE_SUPPLIER_NAME)) {
+                // Check that the weight is greater than or equal to 0 kg
+                Integer supplierName = values.getAsInteger(SaleEntry.COLUMN_SALE_SUPPLIER_NAME);
+                if (supplierName == null || !SaleEntry.isValidSupplier(supplierName)) {
+                    throw new IllegalArgumentException("Sale requires valid supplier name");
+                }
             }
-        }
 
-        // If the {@link SaleEntry#COLUMN_SALE_SUPPLIER_PHONE} key is present,
-        // check that the supplier phone value is valid.
-        if (values.containsKey(SaleEntry.COLUMN_SALE_SUPPLIER_PHONE)) {
-            // Check that the weight is greater than or equal to 0 kg
-            String supplierPhone = values.getAsString(SaleEntry.COLUMN_SALE_SUPPLIER_PHONE);
-            if (supplierPhone == null ) {
-                throw new IllegalArgumentException("Sale requires valid supplier phone");
+            // If the {@link SaleEntry#COLUMN_SALE_SUPPLIER_PHONE} key is present,
+            // check that the supplier phone value is valid.
+            if (values.containsKey(SaleEntry.COLUMN_SALE_SUPPLIER_PHONE)) {
+                // Check that the weight is greater than or equal to 0 kg
+                String supplierPhone = values.getAsString(SaleEntry.COLUMN_SALE_SUPPLIER_PHONE);
+                if (supplierPhone == null ) {
+                    throw new IllegalArgumentException("Sale requires valid supplier phone");
+                }
             }
+        } finally {
+            TraceCompat.endSection();
         }
 
         // If there are no values to update, then don't try to update the database
@@ -304,23 +823,393 @@ public class SaleProvider extends ContentProvider {
         }
 
         // Otherwise, get writable database to update the data
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        SQLiteDatabase database = getDbHelper().getWritableDatabase();
 
-        int rowsUpdated = database.update(
-                SaleEntry.TABLE_NAME,
-                values,
-                selection,
-                selectionArgs);
+        // A new product name or id moves the sales to that product, which is created if needed
+        int rowsUpdated = 0;
+        boolean createdProduct = false;
+        TraceCompat.beginSection("SaleProvider.sqlite");
+        try {
+            database.beginTransaction();
+            try {
+                ContentValues row = toSaleRow(values);
+                if (values.containsKey(SaleEntry.COLUMN_SALE_PRODUCT_ID)
+                        || values.containsKey(SaleEntry.COLUMN_SALE_PRODUCT_NAME)) {
+                    ProductLookup lookup = new ProductLookup(database);
+                    try {
+                        row.put(SaleEntry.COLUMN_SALE_PRODUCT_ID, lookup.resolve(values));
+                        createdProduct = lookup.createdProducts;
+                    } finally {
+                        lookup.close();
+                    }
+                }
+                // The supplier belongs to the product, so it only describes a product this
+                // update creates. Otherwise it must be the one the product already has, rather
+                // than an edit that would be silently lost.
+                if (!createdProduct && !isProductSupplier(database,
+                        row.getAsLong(SaleEntry.COLUMN_SALE_PRODUCT_ID), values)) {
+                    throw new IllegalArgumentException("Sale supplier can only be changed on its product");
+                }
+                if (row.size() != 0) {
+                    long start = SlowQueryLog.start();
+                    rowsUpdated = database.update(
+                            SaleEntry.TABLE_NAME,
+                            row,
+                            selection,
+                            selectionArgs);
+                    logSlowChange(database, row, selection, selectionArgs, rowsUpdated, start);
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        } finally {
+            TraceCompat.endSection();
+        }
+
+        if (createdProduct) {
+            notifyProductsChanged();
+        }
 
         // If 1 or more rows were updated, then notify all listeners that the data at the
         // given URI has changed
         if (rowsUpdated != 0) {
             // Notify all listeners that the data has changed for the sale content URI
-            getContext().getContentResolver().notifyChange( uri, null );
+            notifySalesChanged(rowChangeUri(uri, matchUri(uri), RowChanges.CHANGE_UPDATE));
         }
 
         // Return the number of rows updated
         return rowsUpdated;
     }
 
+    /**
+     * Insert many sales in a single transaction. Every row is validated and bound to one
+     * compiled insert statement, and listeners are notified once after the commit.
+     * If any row is invalid, nothing is inserted.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        long start = LatencyHistograms.start();
+        int match = UriMatcher.NO_MATCH;
+        try {
+            match = matchUri(uri);
+            return bulkInsertSales(uri, match, values);
+        } finally {
+            mLatencies.record(LatencyHistograms.OPERATION_BULK_INSERT, patternOf(match), start);
+        }
+    }
+
+    private int bulkInsertSales(Uri uri, int match, ContentValues[] values) {
+        if (match != SALES) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+
+        // Get writable database
+        SQLiteDatabase database = getDbHelper().getWritableDatabase();
+
+        int rowsInserted = 0;
+        boolean createdProducts;
+        TraceCompat.beginSection("SaleProvider.sqlite");
+        try {
+            database.beginTransaction();
+            try {
+                SQLiteStatement insert = database.compileStatement(SQL_INSERT_SALE);
+                ProductLookup lookup = new ProductLookup(database);
+                long now = System.currentTimeMillis();
+                try {
+                    for (ContentValues row : values) {
+                        bindSale(insert, lookup, row, now);
+                        insert.executeInsert();
+                        rowsInserted++;
+                    }
+                    createdProducts = lookup.createdProducts;
+                } finally {
+                    lookup.close();
+                    insert.close();
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        } finally {
+            TraceCompat.endSection();
+        }
+
+        if (createdProducts) {
+            notifyProductsChanged();
+        }
+        if (rowsInserted != 0) {
+            notifySalesChanged(SaleEntry.CONTENT_URI);
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Write the latency histograms and the slow statements, for
+     * {@code adb shell dumpsys activity provider}.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mLatencies.dump(writer);
+        writer.println();
+        getSlowQueries().dump(writer);
+    }
+
+    /**
+     * Apply the operations in a single transaction, and notify listeners once after the commit
+     * instead of once per operation. If any operation fails, none of them is applied.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase database = getDbHelper().getWritableDatabase();
+
+        BatchChanges changes = new BatchChanges();
+        ContentProviderResult[] results;
+        database.beginTransaction();
+        mBatchChanges.set(changes);
+        try {
+            results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+        } finally {
+            mBatchChanges.remove();
+            database.endTransaction();
+        }
+
+        if (changes.products) {
+            notifyProductsChanged();
+        }
+        if (changes.sales) {
+            notifySalesChanged(SaleEntry.CONTENT_URI);
+        }
+        return results;
+    }
+
+    /**
+     * Validate one row of a {@link #bulkInsert} and bind it to the insert statement.
+     * Numbers are read with {@link #readLong}, so they may be any Number or a numeric String.
+     * Sales without a time are recorded at the given time.
+     */
+    private static void bindSale(SQLiteStatement insert, ProductLookup lookup, ContentValues values,
+                                 long now) {
+        // Check that the price is valid
+        long saleProductPrice = readLong(values, SaleEntry.COLUMN_SALE_PRICE);
+        if (saleProductPrice == INVALID_NUMBER || saleProductPrice < 0) {
+            throw new IllegalArgumentException("Sale requires a price");
+        }
+
+        // Check that the quantity is valid. The column has no default, so it is required here.
+        long saleProductQuantity = readLong(values, SaleEntry.COLUMN_SALE_QUANTITY);
+        if (saleProductQuantity == INVALID_NUMBER || saleProductQuantity < 0) {
+            throw new IllegalArgumentException("Sale requires valid quantity");
+        }
+
+        insert.clearBindings();
+        insert.bindLong(1, lookup.resolve(values));
+        insert.bindLong(2, saleProductPrice);
+        insert.bindLong(3, saleProductQuantity);
+
+        long date = readLong(values, SaleEntry.COLUMN_SALE_DATE);
+        insert.bindLong(4, date == INVALID_NUMBER ? now : date);
+    }
+
+    /**
+     * Whether the supplier keys of the given values, if any, are those of the product with the
+     * given id. Without a product id, the sales may belong to several products, so only values
+     * without supplier keys are accepted.
+     */
+    private static boolean isProductSupplier(SQLiteDatabase database, Long productId, ContentValues values) {
+        boolean hasName = values.containsKey(SaleEntry.COLUMN_SALE_SUPPLIER_NAME);
+        boolean hasPhone = values.containsKey(SaleEntry.COLUMN_SALE_SUPPLIER_PHONE);
+        if (!hasName && !hasPhone) {
+            return true;
+        }
+        if (productId == null) {
+            return false;
+        }
+        StringBuilder selection = new StringBuilder(ProductEntry._ID + " = ?");
+        ArrayList<String> args = new ArrayList<>();
+        args.add(String.valueOf(productId));
+        if (hasName) {
+            selection.append(" AND " + ProductEntry.COLUMN_SUPPLIER_NAME + " = ?");
+            args.add(String.valueOf(readLong(values, SaleEntry.COLUMN_SALE_SUPPLIER_NAME)));
+        }
+        if (hasPhone) {
+            String supplierPhone = values.getAsString(SaleEntry.COLUMN_SALE_SUPPLIER_PHONE);
+            if (supplierPhone == null) {
+                return false;
+            }
+            selection.append(" AND " + ProductEntry.COLUMN_SUPPLIER_PHONE + " = ?");
+            args.add(supplierPhone);
+        }
+        return DatabaseUtils.queryNumEntries(database, ProductEntry.TABLE_NAME, selection.toString(),
+                args.toArray(new String[args.size()])) != 0;
+    }
+
+    /**
+     * Copy the columns of the sales table from the given values. The product name and
+     * supplier belong to the product, so they are left out.
+     */
+    private static ContentValues toSaleRow(ContentValues values) {
+        ContentValues row = new ContentValues(values);
+        row.remove(SaleEntry.COLUMN_SALE_PRODUCT_NAME);
+        row.remove(SaleEntry.COLUMN_SALE_SUPPLIER_NAME);
+        row.remove(SaleEntry.COLUMN_SALE_SUPPLIER_PHONE);
+        return row;
+    }
+
+    /**
+     * Read a number from the content values. Numbers may be stored as any {@link Number} or as
+     * a String, the way the editor puts them.
+     * Return {@link #INVALID_NUMBER} if the value is missing or is not a number.
+     */
+    private static long readLong(ContentValues values, String key) {
+        Object value = values.get(key);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Long.parseLong(((String) value).trim());
+            } catch (NumberFormatException e) {
+                return INVALID_NUMBER;
+            }
+        }
+        return INVALID_NUMBER;
+    }
+
+    /**
+     * Return the URI to notify for a change made through the given URI: the change URI of the
+     * row for a {@link #SALE_ID} URI, or the collection URI when any number of rows may have
+     * changed.
+     */
+    private static Uri rowChangeUri(Uri uri, int match, String change) {
+        if (match == SALE_ID) {
+            return RowChanges.buildChangeUri(SaleEntry.CONTENT_URI, ContentUris.parseId(uri), change);
+        }
+        return SaleEntry.CONTENT_URI;
+    }
+
+    /**
+     * Notify listeners that products have been added for sales of new names, or remember it
+     * until the current batch commits.
+     */
+    private void notifyProductsChanged() {
+        BatchChanges batch = mBatchChanges.get();
+        if (batch != null) {
+            batch.products = true;
+            return;
+        }
+        TraceCompat.beginSection("SaleProvider.notify");
+        try {
+            getContext().getContentResolver().notifyChange(ProductEntry.CONTENT_URI, null);
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * Notify listeners that sales have changed, or remember it until the current batch commits.
+     */
+    private void notifySalesChanged(Uri uri) {
+        BatchChanges batch = mBatchChanges.get();
+        if (batch != null) {
+            batch.sales = true;
+            return;
+        }
+        TraceCompat.beginSection("SaleProvider.notify");
+        try {
+            getContext().getContentResolver().notifyChange(uri, null);
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * Finds the product a sale refers to, by {@link SaleEntry#COLUMN_SALE_PRODUCT_ID} or by
+     * {@link SaleEntry#COLUMN_SALE_PRODUCT_NAME}. A name that is not in the catalog yet gets a
+     * product with no stock, priced like the sale. The statements are compiled once, so one
+     * lookup can serve every row of a batch. It must be used inside a transaction.
+     */
+    private static final class ProductLookup {
+
+        private final SQLiteDatabase mDatabase;
+
+        private final SQLiteStatement mSelectById;
+
+        private final SQLiteStatement mSelectByName;
+
+        /** Compiled when the first product is created */
+        private SQLiteStatement mInsertProduct;
+
+        /** Whether any product has been created */
+        boolean createdProducts;
+
+        ProductLookup(SQLiteDatabase database) {
+            mDatabase = database;
+            mSelectById = database.compileStatement(SQL_SELECT_PRODUCT_BY_ID);
+            mSelectByName = database.compileStatement(SQL_SELECT_PRODUCT_BY_NAME);
+        }
+
+        /** Return the id of the product of the sale given by the values. */
+        long resolve(ContentValues values) {
+            // Check that a product id refers to an existing product
+            if (values.containsKey(SaleEntry.COLUMN_SALE_PRODUCT_ID)) {
+                long productId = readLong(values, SaleEntry.COLUMN_SALE_PRODUCT_ID);
+                if (productId == INVALID_NUMBER) {
+                    throw new IllegalArgumentException("Sale requires valid product id");
+                }
+                mSelectById.bindLong(1, productId);
+                try {
+                    return mSelectById.simpleQueryForLong();
+                } catch (SQLiteDoneException e) {
+                    throw new IllegalArgumentException("Sale requires an existing product");
+                }
+            }
+
+            // Check that the name is not null
+            String name = values.getAsString(SaleEntry.COLUMN_SALE_PRODUCT_NAME);
+            if (name == null) {
+                throw new IllegalArgumentException("Sale requires a product name");
+            }
+            mSelectByName.bindString(1, name);
+            try {
+                return mSelectByName.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                // No product has this name yet
+            }
+
+            // Check that the supplier name is valid
+            long supplierName = readLong(values, SaleEntry.COLUMN_SALE_SUPPLIER_NAME);
+            if (supplierName != (int) supplierName || !SaleEntry.isValidSupplier((int) supplierName)) {
+                throw new IllegalArgumentException("Sale requires valid supplier name");
+            }
+
+            // Check that the supplier phone is valid
+            String supplierPhone = values.getAsString(SaleEntry.COLUMN_SALE_SUPPLIER_PHONE);
+            if (supplierPhone == null) {
+                throw new IllegalArgumentException("Sale requires valid supplier phone");
+            }
+
+            long price = readLong(values, SaleEntry.COLUMN_SALE_PRICE);
+            if (mInsertProduct == null) {
+                mInsertProduct = mDatabase.compileStatement(SQL_INSERT_EMPTY_PRODUCT);
+            }
+            mInsertProduct.bindString(1, name);
+            mInsertProduct.bindLong(2, price < 0 ? 0 : price);
+            mInsertProduct.bindLong(3, supplierName);
+            mInsertProduct.bindString(4, supplierPhone);
+            createdProducts = true;
+            return mInsertProduct.executeInsert();
+        }
+
+        void close() {
+            mSelectById.close();
+            mSelectByName.close();
+            if (mInsertProduct != null) {
+                mInsertProduct.close();
+            }
+        }
+    }
+
 }
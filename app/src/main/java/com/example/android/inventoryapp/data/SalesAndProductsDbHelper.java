@@ -1,11 +1,20 @@
 package com.example.android.inventoryapp.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
 
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
 import com.example.android.inventoryapp.data.SaleContract.SaleEntry;
+import com.example.android.inventoryapp.data.SaleContract.SaleSummaryEntry;
+
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Database helper for Inventory app. Manages database creation and version management.
@@ -20,22 +29,183 @@ public class SalesAndProductsDbHelper extends SQLiteOpenHelper {
     /**
      * Database version. If you change the database schema, you must increment the database version.
      */
-    private static final int DATABASE_VERSION = 1;
+    static final int DATABASE_VERSION = 8;
+
+    /** Index on the product name, used by name lookups and by sorting on the name */
+    private static final String INDEX_PRODUCT_NAME = "products_name_index";
+
+    /** Index on the product supplier, used by supplier filters */
+    private static final String INDEX_PRODUCT_SUPPLIER = "products_supplier_index";
+
+    /**
+     * Unique index on the product SKU, from version 7. Scans look products up by it, and it
+     * rejects a second product with the same code. Products without a SKU hold null, which
+     * the index allows any number of times.
+     */
+    private static final String INDEX_PRODUCT_SKU = "products_sku_index";
+
+    /** Index on the product a sale refers to by name, up to version 2 */
+    private static final String INDEX_SALE_PRODUCT_NAME = "sales_name_index";
+
+    /** Index on the product a sale refers to by id, from version 3 */
+    private static final String INDEX_SALE_PRODUCT_ID = "sales_product_index";
+
+    /**
+     * Full-text index of the product name and supplier name, from version 4. Its docid is the
+     * product id. Triggers on the products table keep it in sync.
+     */
+    static final String TABLE_PRODUCT_SEARCH = "products_fts";
+
+    /** Columns of {@link #TABLE_PRODUCT_SEARCH} */
+    static final String COLUMN_SEARCH_NAME = "name";
+    static final String COLUMN_SEARCH_SUPPLIER = "supplier";
+
+    /**
+     * Totals of the sales per product, per supplier and per day, from version 5. Triggers on
+     * the sales and products tables keep them in sync. Their columns are named as in
+     * {@link SaleContract.SaleSummaryEntry}.
+     */
+    static final String TABLE_SALES_BY_PRODUCT = "sales_by_product";
+    static final String TABLE_SALES_BY_SUPPLIER = "sales_by_supplier";
+    static final String TABLE_SALES_BY_DAY = "sales_by_day";
+
+    /**
+     * Local day of the sale, as counted in {@link #TABLE_SALES_BY_DAY}, from version 8. It is set
+     * when the sale is added or its time changes, so that the sale is taken out of the same day
+     * it was added to even if the time zone has changed since. Sales without a time hold an
+     * empty string.
+     */
+    static final String COLUMN_SALE_DAY = "day";
+
+    /** Pages kept in the page cache of the writing connection, in KiB when negative (8 MiB) */
+    private static final int PAGE_CACHE_SIZE = -8192;
+
+    /** Bytes of the database file read through memory mapping instead of read() calls */
+    private static final long MMAP_SIZE = 32L * 1024 * 1024;
+
+    /** Rows read by {@link #warmUp()}: the first page of the product list */
+    private static final int WARM_UP_ROWS = 50;
+
+    /**
+     * The helpers shared by the whole process, one per database file. Both providers work on
+     * the same file, so they must share one connection pool and one set of locks.
+     */
+    private static final Map<String, SalesAndProductsDbHelper> sInstances = new HashMap<>();
+
+    /**
+     * Returns the helper shared by the whole process for the database file of the given context,
+     * creating it on first use.
+     *
+     * @param context of the app. The helper keeps it, so it must live as long as the process.
+     */
+    public static synchronized SalesAndProductsDbHelper getInstance(Context context) {
+        String path = context.getDatabasePath(DATABASE_NAME).getPath();
+        SalesAndProductsDbHelper helper = sInstances.get(path);
+        if (helper == null) {
+            helper = new SalesAndProductsDbHelper(context);
+            sInstances.put(path, helper);
+        }
+        return helper;
+    }
 
     /**
      * Constructs a new instance of {@link SalesAndProductsDbHelper}.
+     * Use {@link #getInstance(Context)} instead, so that the database is opened only once.
      *
      * @param context of the app
      */
-    public SalesAndProductsDbHelper(Context context) {
+    private SalesAndProductsDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
 
     /**
-     * This is called when the database is created for the first time.
+     * This is called when the database connection is being configured, before it is created
+     * or upgraded.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+
+        // With write-ahead logging, the loaders keep reading the last commit on their own
+        // connections while the sale button writes, instead of waiting for the write lock.
+        db.enableWriteAheadLogging();
+
+        // In WAL mode a NORMAL commit is still atomic and durable against app crashes; only
+        // checkpoints wait for fsync. This must come after enabling WAL, which resets it.
+        db.execSQL("PRAGMA synchronous = NORMAL");
+        db.execSQL("PRAGMA cache_size = " + PAGE_CACHE_SIZE);
+
+        // Memory mapped I/O needs SQLite 3.7.17, which ships with Lollipop and newer.
+        // The pragma returns the new size, so it has to be run as a query. Builds of SQLite
+        // without memory mapping return no row at all.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            Cursor cursor = db.rawQuery("PRAGMA mmap_size = " + MMAP_SIZE, null);
+            try {
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Opens the database on a new thread and reads the first page of the product list, so that
+     * the first query of the list finds the database open, the schema checked and upgraded, and
+     * the pages it needs cached. Called once at process start; a query that comes first waits
+     * for the open instead of repeating it.
+     */
+    public void warmUp() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.elapsedRealtime();
+                try {
+                    // A read runs on a pooled read connection, which the list query reuses
+                    Cursor cursor = getReadableDatabase().query(ProductEntry.TABLE_NAME,
+                            new String[]{ProductEntry._ID, ProductEntry.COLUMN_PRODUCT_NAME,
+                                    ProductEntry.COLUMN_PRODUCT_PRICE, ProductEntry.COLUMN_PRODUCT_QUANTITY},
+                            null, null, null, null,
+                            ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry._ID,
+                            String.valueOf(WARM_UP_ROWS));
+                    try {
+                        cursor.getCount();
+                    } finally {
+                        cursor.close();
+                    }
+                } catch (SQLiteException e) {
+                    // The first query fails the same way and reports it
+                    Log.e(LOG_TAG, "Failed to warm up the database", e);
+                    return;
+                }
+                Log.d(LOG_TAG, "Warmed up the database in " + (SystemClock.elapsedRealtime() - start) + " ms");
+            }
+        }, "database-warm-up").start();
+    }
+
+    /**
+     * This is called when the database is created for the first time. The version 1 schema is
+     * created and then every migration is run on it, so that new and upgraded installs always
+     * end up with exactly the same schema.
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
+        createVersion1(db);
+        migrate(db, 1, DATABASE_VERSION);
+    }
+
+    /**
+     * This is called when the database needs to be upgraded. Existing data is kept: the
+     * migrations from the old version up to the new one are run in order.
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        migrate(db, oldVersion, newVersion);
+    }
+
+    /**
+     * Create the tables as they were in version 1 of the database.
+     */
+    static void createVersion1(SQLiteDatabase db) {
         // Create a String that contains the SQL statement to create the store table
         String SQL_CREATE_STORE_TABLE =  "CREATE TABLE " + ProductEntry.TABLE_NAME + " ("
                 + ProductEntry.PRODUCT_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
@@ -59,20 +229,442 @@ public class SalesAndProductsDbHelper extends SQLiteOpenHelper {
 
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_SALES_TABLE);
+    }
 
+    /**
+     * Run the migrations that take the database from one version to a newer one, in order.
+     * Each step runs in its own transaction. If a step fails, the exception rolls back the
+     * whole upgrade and the database stays at its old version.
+     */
+    static void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.toVersion <= fromVersion || migration.toVersion > toVersion) {
+                continue;
+            }
 
+            long start = SystemClock.elapsedRealtime();
+            db.beginTransaction();
+            try {
+                migration.migrate(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            Log.i(LOG_TAG, "Migrated to version " + migration.toVersion + " in "
+                    + (SystemClock.elapsedRealtime() - start) + " ms");
+        }
     }
 
     /**
-     * This is called when the database needs to be upgraded.
+     * One step of the schema history. It upgrades a database at version {@code toVersion - 1}
+     * to version {@code toVersion}. Steps must never be changed once released; change the
+     * schema by adding a new step and incrementing {@link #DATABASE_VERSION}.
      */
-    @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + ProductEntry.TABLE_NAME );
+    private abstract static class Migration {
+
+        final int toVersion;
 
-        db.execSQL("DROP TABLE IF EXISTS " + SaleEntry.TABLE_NAME );
+        Migration(int toVersion) {
+            this.toVersion = toVersion;
+        }
 
-        onCreate(db);
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    /**
+     * Every migration, ordered by version.
+     */
+    private static final Migration[] MIGRATIONS = {
+            // Version 2: index the columns used for name lookups and supplier filters, and the
+            // column sales use to refer to their product.
+            new Migration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX " + INDEX_PRODUCT_NAME + " ON "
+                            + ProductEntry.TABLE_NAME + " (" + ProductEntry.COLUMN_PRODUCT_NAME + ")");
+                    db.execSQL("CREATE INDEX " + INDEX_PRODUCT_SUPPLIER + " ON "
+                            + ProductEntry.TABLE_NAME + " (" + ProductEntry.COLUMN_SUPPLIER_NAME + ")");
+                    db.execSQL("CREATE INDEX " + INDEX_SALE_PRODUCT_NAME + " ON "
+                            + SaleEntry.TABLE_NAME + " (" + SaleEntry.COLUMN_SALE_PRODUCT_NAME + ")");
+                }
+            },
+
+            // Version 3: sales refer to their product by id instead of copying its name, supplier
+            // name and supplier phone. SQLite cannot drop columns, so the table is rebuilt.
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Give every name sold but missing from the catalog a product with no stock,
+                    // so that no sale loses its name.
+                    db.execSQL("INSERT INTO " + ProductEntry.TABLE_NAME + " ("
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                            + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                            + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+                            + ProductEntry.COLUMN_SUPPLIER_NAME + ", "
+                            + ProductEntry.COLUMN_SUPPLIER_PHONE + ")"
+                            + " SELECT " + SaleEntry.COLUMN_SALE_PRODUCT_NAME + ", "
+                            + SaleEntry.COLUMN_SALE_PRICE + ", 0, "
+                            + "CAST(" + SaleEntry.COLUMN_SALE_SUPPLIER_NAME + " AS INTEGER), "
+                            + SaleEntry.COLUMN_SALE_SUPPLIER_PHONE
+                            + " FROM " + SaleEntry.TABLE_NAME
+                            + " WHERE " + SaleEntry.COLUMN_SALE_PRODUCT_NAME + " NOT IN (SELECT "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + " FROM " + ProductEntry.TABLE_NAME + ")"
+                            + " GROUP BY " + SaleEntry.COLUMN_SALE_PRODUCT_NAME);
+
+                    db.execSQL("CREATE TABLE sales_v3 ("
+                            + SaleEntry.SALE_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + SaleEntry.COLUMN_SALE_PRODUCT_ID + " INTEGER NOT NULL REFERENCES "
+                            + ProductEntry.TABLE_NAME + "(" + ProductEntry._ID + "), "
+                            + SaleEntry.COLUMN_SALE_PRICE + " INTEGER NOT NULL, "
+                            + SaleEntry.COLUMN_SALE_QUANTITY + " INTEGER NOT NULL);");
+
+                    // Backfill the product ids through the name index. When several products
+                    // share a name, the oldest one is used.
+                    db.execSQL("INSERT INTO sales_v3 ("
+                            + SaleEntry.SALE_ID + ", "
+                            + SaleEntry.COLUMN_SALE_PRODUCT_ID + ", "
+                            + SaleEntry.COLUMN_SALE_PRICE + ", "
+                            + SaleEntry.COLUMN_SALE_QUANTITY + ")"
+                            + " SELECT " + SaleEntry.SALE_ID + ", (SELECT MIN(" + ProductEntry._ID + ") FROM "
+                            + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry.TABLE_NAME + "."
+                            + ProductEntry.COLUMN_PRODUCT_NAME + " = " + SaleEntry.TABLE_NAME + "."
+                            + SaleEntry.COLUMN_SALE_PRODUCT_NAME + "), "
+                            + SaleEntry.COLUMN_SALE_PRICE + ", "
+                            + SaleEntry.COLUMN_SALE_QUANTITY
+                            + " FROM " + SaleEntry.TABLE_NAME);
+
+                    // Dropping the old table drops its name index as well
+                    db.execSQL("DROP TABLE " + SaleEntry.TABLE_NAME);
+                    db.execSQL("ALTER TABLE sales_v3 RENAME TO " + SaleEntry.TABLE_NAME);
+                    db.execSQL("CREATE INDEX " + INDEX_SALE_PRODUCT_ID + " ON "
+                            + SaleEntry.TABLE_NAME + " (" + SaleEntry.COLUMN_SALE_PRODUCT_ID + ")");
+                }
+            },
+
+            // Version 4: full-text index of the product name and supplier, so that products can
+            // be found by word prefixes without scanning the table.
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // The prefix option adds indexes of the first 2 and 3 letters of every word,
+                    // so that short prefix queries do not scan every term of the index.
+                    db.execSQL("CREATE VIRTUAL TABLE " + TABLE_PRODUCT_SEARCH + " USING fts4("
+                            + COLUMN_SEARCH_NAME + ", " + COLUMN_SEARCH_SUPPLIER + ", prefix=\"2,3\")");
+
+                    String insertNew = "INSERT INTO " + TABLE_PRODUCT_SEARCH + " (docid, "
+                            + COLUMN_SEARCH_NAME + ", " + COLUMN_SEARCH_SUPPLIER + ") VALUES (new."
+                            + ProductEntry._ID + ", new." + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                            + supplierNameSql("new." + ProductEntry.COLUMN_SUPPLIER_NAME) + ");";
+                    String deleteOld = "DELETE FROM " + TABLE_PRODUCT_SEARCH
+                            + " WHERE docid = old." + ProductEntry._ID + ";";
+
+                    db.execSQL("CREATE TRIGGER products_fts_insert AFTER INSERT ON "
+                            + ProductEntry.TABLE_NAME + " BEGIN " + insertNew + " END");
+                    // Stock changes do not touch the index
+                    db.execSQL("CREATE TRIGGER products_fts_update AFTER UPDATE OF "
+                            + ProductEntry._ID + ", "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                            + ProductEntry.COLUMN_SUPPLIER_NAME + " ON "
+                            + ProductEntry.TABLE_NAME + " BEGIN " + deleteOld + " " + insertNew + " END");
+                    db.execSQL("CREATE TRIGGER products_fts_delete AFTER DELETE ON "
+                            + ProductEntry.TABLE_NAME + " BEGIN " + deleteOld + " END");
+
+                    db.execSQL("INSERT INTO " + TABLE_PRODUCT_SEARCH + " (docid, "
+                            + COLUMN_SEARCH_NAME + ", " + COLUMN_SEARCH_SUPPLIER + ")"
+                            + " SELECT " + ProductEntry._ID + ", " + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                            + supplierNameSql(ProductEntry.COLUMN_SUPPLIER_NAME)
+                            + " FROM " + ProductEntry.TABLE_NAME);
+                }
+            },
+
+            // Version 5: sales get a time, and totals per product, supplier and day are kept
+            // by triggers, so that reading them does not scan the sales.
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Older sales have no time, and count for an unknown day
+                    db.execSQL("ALTER TABLE " + SaleEntry.TABLE_NAME + " ADD COLUMN "
+                            + SaleEntry.COLUMN_SALE_DATE + " INTEGER");
+
+                    db.execSQL("CREATE TABLE " + TABLE_SALES_BY_PRODUCT + " ("
+                            + SaleSummaryEntry.COLUMN_PRODUCT_ID + " INTEGER PRIMARY KEY, "
+                            + SUMMARY_COLUMNS_SQL + ")");
+                    db.execSQL("CREATE TABLE " + TABLE_SALES_BY_SUPPLIER + " ("
+                            + SaleSummaryEntry.COLUMN_SUPPLIER + " INTEGER PRIMARY KEY, "
+                            + SUMMARY_COLUMNS_SQL + ")");
+                    db.execSQL("CREATE TABLE " + TABLE_SALES_BY_DAY + " ("
+                            + SaleSummaryEntry.COLUMN_DAY + " TEXT NOT NULL PRIMARY KEY, "
+                            + SUMMARY_COLUMNS_SQL + ")");
+
+                    // Fill the totals with one pass over the sales each
+                    String totals = "SUM(" + SaleEntry.TABLE_NAME + "." + SaleEntry.COLUMN_SALE_QUANTITY
+                            + "), SUM(" + SaleEntry.TABLE_NAME + "." + SaleEntry.COLUMN_SALE_PRICE + " * "
+                            + SaleEntry.TABLE_NAME + "." + SaleEntry.COLUMN_SALE_QUANTITY + "), COUNT(*)";
+                    db.execSQL("INSERT INTO " + TABLE_SALES_BY_PRODUCT
+                            + " SELECT " + SaleEntry.COLUMN_SALE_PRODUCT_ID + ", " + totals
+                            + " FROM " + SaleEntry.TABLE_NAME
+                            + " GROUP BY " + SaleEntry.COLUMN_SALE_PRODUCT_ID);
+                    db.execSQL("INSERT INTO " + TABLE_SALES_BY_SUPPLIER
+                            + " SELECT IFNULL(" + ProductEntry.TABLE_NAME + "." + ProductEntry.COLUMN_SUPPLIER_NAME
+                            + ", " + ProductEntry.UNKNOWN + "), " + totals
+                            + " FROM " + SaleEntry.TABLE_NAME + " LEFT JOIN " + ProductEntry.TABLE_NAME
+                            + " ON " + ProductEntry.TABLE_NAME + "." + ProductEntry._ID + " = "
+                            + SaleEntry.TABLE_NAME + "." + SaleEntry.COLUMN_SALE_PRODUCT_ID
+                            + " GROUP BY 1");
+                    db.execSQL("INSERT INTO " + TABLE_SALES_BY_DAY
+                            + " SELECT " + daySql(SaleEntry.TABLE_NAME) + ", " + totals
+                            + " FROM " + SaleEntry.TABLE_NAME
+                            + " GROUP BY 1");
+
+                    // Every change of a sale takes its old values out of the totals and adds its
+                    // new values in
+                    db.execSQL("CREATE TRIGGER sales_summary_insert AFTER INSERT ON "
+                            + SaleEntry.TABLE_NAME + " BEGIN "
+                            + addSaleSql("new", daySql("new"), true) + " END");
+                    db.execSQL("CREATE TRIGGER sales_summary_delete AFTER DELETE ON "
+                            + SaleEntry.TABLE_NAME + " BEGIN "
+                            + addSaleSql("old", daySql("old"), false) + " END");
+                    db.execSQL("CREATE TRIGGER sales_summary_update AFTER UPDATE OF "
+                            + SaleEntry.COLUMN_SALE_PRODUCT_ID + ", "
+                            + SaleEntry.COLUMN_SALE_PRICE + ", "
+                            + SaleEntry.COLUMN_SALE_QUANTITY + ", "
+                            + SaleEntry.COLUMN_SALE_DATE + " ON " + SaleEntry.TABLE_NAME + " BEGIN "
+                            + addSaleSql("old", daySql("old"), false) + " "
+                            + addSaleSql("new", daySql("new"), true) + " END");
+
+                    // Sales count for the supplier their product has now, or for the unknown
+                    // supplier once the product is deleted
+                    db.execSQL("CREATE TRIGGER sales_summary_product_supplier AFTER UPDATE OF "
+                            + ProductEntry.COLUMN_SUPPLIER_NAME + " ON " + ProductEntry.TABLE_NAME
+                            + " WHEN old." + ProductEntry.COLUMN_SUPPLIER_NAME + " IS NOT new."
+                            + ProductEntry.COLUMN_SUPPLIER_NAME
+                            + " AND " + productHasSalesSql("new." + ProductEntry._ID) + " BEGIN "
+                            + moveSupplierTotalsSql("new." + ProductEntry._ID,
+                                    "old." + ProductEntry.COLUMN_SUPPLIER_NAME,
+                                    "new." + ProductEntry.COLUMN_SUPPLIER_NAME) + " END");
+                    db.execSQL("CREATE TRIGGER sales_summary_product_delete AFTER DELETE ON "
+                            + ProductEntry.TABLE_NAME
+                            + " WHEN old." + ProductEntry.COLUMN_SUPPLIER_NAME + " IS NOT "
+                            + ProductEntry.UNKNOWN
+                            + " AND " + productHasSalesSql("old." + ProductEntry._ID) + " BEGIN "
+                            + moveSupplierTotalsSql("old." + ProductEntry._ID,
+                                    "old." + ProductEntry.COLUMN_SUPPLIER_NAME,
+                                    String.valueOf(ProductEntry.UNKNOWN)) + " END");
+                }
+            },
+
+            // Version 6: products may have a photo, stored as a file outside the database
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN "
+                            + ProductEntry.COLUMN_PRODUCT_IMAGE + " TEXT");
+                }
+            },
+
+            // Version 7: products may have a SKU, the code on their barcode, unique when set
+            new Migration(7) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN "
+                            + ProductEntry.COLUMN_PRODUCT_SKU + " TEXT");
+                    db.execSQL("CREATE UNIQUE INDEX " + INDEX_PRODUCT_SKU + " ON "
+                            + ProductEntry.TABLE_NAME + " (" + ProductEntry.COLUMN_PRODUCT_SKU + ")");
+                }
+            },
+
+            // Version 8: the day totals are keyed by the day stored on the sale when it is added,
+            // rather than worked out in the time zone of each change. Otherwise a sale added in
+            // one zone and deleted in another is taken out of the wrong day.
+            new Migration(8) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + SaleEntry.TABLE_NAME + " ADD COLUMN "
+                            + COLUMN_SALE_DAY + " TEXT");
+                    db.execSQL("UPDATE " + SaleEntry.TABLE_NAME + " SET " + COLUMN_SALE_DAY + " = "
+                            + daySql(SaleEntry.TABLE_NAME));
+
+                    // The days the sales were counted for before are not known, so they are
+                    // counted again for the days stored now
+                    String totals = "SUM(" + SaleEntry.COLUMN_SALE_QUANTITY + "), SUM("
+                            + SaleEntry.COLUMN_SALE_PRICE + " * " + SaleEntry.COLUMN_SALE_QUANTITY + "), COUNT(*)";
+                    db.execSQL("DELETE FROM " + TABLE_SALES_BY_DAY);
+                    db.execSQL("INSERT INTO " + TABLE_SALES_BY_DAY
+                            + " SELECT " + COLUMN_SALE_DAY + ", " + totals
+                            + " FROM " + SaleEntry.TABLE_NAME
+                            + " GROUP BY 1");
+
+                    // The inserted row is read again for its day, since the trigger's row does
+                    // not see the update that sets it
+                    String storedDay = "(SELECT " + COLUMN_SALE_DAY + " FROM " + SaleEntry.TABLE_NAME
+                            + " WHERE " + SaleEntry._ID + " = new." + SaleEntry._ID + ")";
+                    String setDay = "UPDATE " + SaleEntry.TABLE_NAME + " SET " + COLUMN_SALE_DAY + " = ";
+                    String ofNewRow = " WHERE " + SaleEntry._ID + " = new." + SaleEntry._ID + ";";
+
+                    db.execSQL("DROP TRIGGER sales_summary_insert");
+                    db.execSQL("DROP TRIGGER sales_summary_delete");
+                    db.execSQL("DROP TRIGGER sales_summary_update");
+                    db.execSQL("CREATE TRIGGER sales_summary_insert AFTER INSERT ON "
+                            + SaleEntry.TABLE_NAME + " BEGIN "
+                            + setDay + daySql("new") + ofNewRow + " "
+                            + addSaleSql("new", storedDay, true) + " END");
+                    db.execSQL("CREATE TRIGGER sales_summary_delete AFTER DELETE ON "
+                            + SaleEntry.TABLE_NAME + " BEGIN "
+                            + addSaleSql("old", "old." + COLUMN_SALE_DAY, false) + " END");
+                    // Setting the day does not fire this trigger again, as the day is not one of
+                    // the columns it watches
+                    db.execSQL("CREATE TRIGGER sales_summary_update AFTER UPDATE OF "
+                            + SaleEntry.COLUMN_SALE_PRODUCT_ID + ", "
+                            + SaleEntry.COLUMN_SALE_PRICE + ", "
+                            + SaleEntry.COLUMN_SALE_QUANTITY + ", "
+                            + SaleEntry.COLUMN_SALE_DATE + " ON " + SaleEntry.TABLE_NAME + " BEGIN "
+                            + addSaleSql("old", "old." + COLUMN_SALE_DAY, false) + " "
+                            + setDay + "CASE WHEN new." + SaleEntry.COLUMN_SALE_DATE + " IS old."
+                            + SaleEntry.COLUMN_SALE_DATE + " THEN old." + COLUMN_SALE_DAY
+                            + " ELSE " + daySql("new") + " END" + ofNewRow + " "
+                            + addSaleSql("new", storedDay, true) + " END");
+                }
+            },
+    };
+
+    /**
+     * Fills the search index from the products. The index must be empty. Used by restores, which
+     * load the products with the triggers that keep the index dropped. It follows the current
+     * schema, while the migrations keep the statements they were released with.
+     */
+    static void fillProductSearch(SQLiteDatabase db) {
+        db.execSQL("INSERT INTO " + TABLE_PRODUCT_SEARCH + " (docid, "
+                + COLUMN_SEARCH_NAME + ", " + COLUMN_SEARCH_SUPPLIER + ")"
+                + " SELECT " + ProductEntry._ID + ", " + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                + supplierNameSql(ProductEntry.COLUMN_SUPPLIER_NAME)
+                + " FROM " + ProductEntry.TABLE_NAME);
+    }
+
+    /**
+     * Fills the sales totals from the sales. The totals must be empty. Used by restores, which
+     * load the sales with the triggers that keep the totals dropped. The backup does not hold
+     * the day of each sale, so it is set from its time in the current time zone.
+     */
+    static void fillSalesTotals(SQLiteDatabase db) {
+        db.execSQL("UPDATE " + SaleEntry.TABLE_NAME + " SET " + COLUMN_SALE_DAY + " = "
+                + daySql(SaleEntry.TABLE_NAME));
+
+        // Fill the totals with one pass over the sales each
+        String totals = "SUM(" + SaleEntry.TABLE_NAME + "." + SaleEntry.COLUMN_SALE_QUANTITY
+                + "), SUM(" + SaleEntry.TABLE_NAME + "." + SaleEntry.COLUMN_SALE_PRICE + " * "
+                + SaleEntry.TABLE_NAME + "." + SaleEntry.COLUMN_SALE_QUANTITY + "), COUNT(*)";
+        db.execSQL("INSERT INTO " + TABLE_SALES_BY_PRODUCT
+                + " SELECT " + SaleEntry.COLUMN_SALE_PRODUCT_ID + ", " + totals
+                + " FROM " + SaleEntry.TABLE_NAME
+                + " GROUP BY " + SaleEntry.COLUMN_SALE_PRODUCT_ID);
+        db.execSQL("INSERT INTO " + TABLE_SALES_BY_SUPPLIER
+                + " SELECT IFNULL(" + ProductEntry.TABLE_NAME + "." + ProductEntry.COLUMN_SUPPLIER_NAME
+                + ", " + ProductEntry.UNKNOWN + "), " + totals
+                + " FROM " + SaleEntry.TABLE_NAME + " LEFT JOIN " + ProductEntry.TABLE_NAME
+                + " ON " + ProductEntry.TABLE_NAME + "." + ProductEntry._ID + " = "
+                + SaleEntry.TABLE_NAME + "." + SaleEntry.COLUMN_SALE_PRODUCT_ID
+                + " GROUP BY 1");
+        db.execSQL("INSERT INTO " + TABLE_SALES_BY_DAY
+                + " SELECT " + COLUMN_SALE_DAY + ", " + totals
+                + " FROM " + SaleEntry.TABLE_NAME
+                + " GROUP BY 1");
+    }
+
+    /** Total columns shared by the summary tables */
+    private static final String SUMMARY_COLUMNS_SQL =
+            SaleSummaryEntry.COLUMN_UNITS + " INTEGER NOT NULL, "
+            + SaleSummaryEntry.COLUMN_REVENUE + " INTEGER NOT NULL, "
+            + SaleSummaryEntry.COLUMN_SALE_COUNT + " INTEGER NOT NULL";
+
+    /**
+     * Returns the statements of a trigger adding the given sale row ("new" or "old") to the
+     * totals, or taking it out of them. Totals left without sales are deleted.
+     *
+     * @param day SQL expression of the day the sale counts for
+     */
+    private static String addSaleSql(String row, String day, boolean add) {
+        String supplier = "IFNULL((SELECT " + ProductEntry.COLUMN_SUPPLIER_NAME + " FROM "
+                + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = "
+                + row + "." + SaleEntry.COLUMN_SALE_PRODUCT_ID + "), " + ProductEntry.UNKNOWN + ")";
+        String units = row + "." + SaleEntry.COLUMN_SALE_QUANTITY;
+        String revenue = row + "." + SaleEntry.COLUMN_SALE_PRICE + " * " + units;
+        return addTotalsSql(TABLE_SALES_BY_PRODUCT, SaleSummaryEntry.COLUMN_PRODUCT_ID,
+                row + "." + SaleEntry.COLUMN_SALE_PRODUCT_ID, units, revenue, "1", add)
+                + addTotalsSql(TABLE_SALES_BY_SUPPLIER, SaleSummaryEntry.COLUMN_SUPPLIER,
+                supplier, units, revenue, "1", add)
+                + addTotalsSql(TABLE_SALES_BY_DAY, SaleSummaryEntry.COLUMN_DAY,
+                day, units, revenue, "1", add);
+    }
+
+    /**
+     * Returns the trigger statements moving the totals of one product from one supplier to
+     * another. The product must have sales, see {@link #productHasSalesSql}.
+     */
+    private static String moveSupplierTotalsSql(String productId, String fromSupplier, String toSupplier) {
+        String product = " FROM " + TABLE_SALES_BY_PRODUCT + " WHERE "
+                + SaleSummaryEntry.COLUMN_PRODUCT_ID + " = " + productId + ")";
+        String units = "(SELECT " + SaleSummaryEntry.COLUMN_UNITS + product;
+        String revenue = "(SELECT " + SaleSummaryEntry.COLUMN_REVENUE + product;
+        String count = "(SELECT " + SaleSummaryEntry.COLUMN_SALE_COUNT + product;
+        return addTotalsSql(TABLE_SALES_BY_SUPPLIER, SaleSummaryEntry.COLUMN_SUPPLIER,
+                fromSupplier, units, revenue, count, false)
+                + addTotalsSql(TABLE_SALES_BY_SUPPLIER, SaleSummaryEntry.COLUMN_SUPPLIER,
+                toSupplier, units, revenue, count, true);
+    }
+
+    /**
+     * Returns an SQL condition that is true if the given product has any sales.
+     */
+    private static String productHasSalesSql(String productId) {
+        return "EXISTS (SELECT 1 FROM " + TABLE_SALES_BY_PRODUCT + " WHERE "
+                + SaleSummaryEntry.COLUMN_PRODUCT_ID + " = " + productId + ")";
+    }
+
+    /**
+     * Returns the trigger statements adding amounts to the totals of one key, or taking them
+     * out. Rows are created on first use and deleted once no sale counts for them.
+     */
+    private static String addTotalsSql(String table, String keyColumn, String key, String units,
+                                       String revenue, String count, boolean add) {
+        String sign = add ? " + " : " - ";
+        String update = "UPDATE " + table + " SET "
+                + SaleSummaryEntry.COLUMN_UNITS + " = " + SaleSummaryEntry.COLUMN_UNITS + sign + units + ", "
+                + SaleSummaryEntry.COLUMN_REVENUE + " = " + SaleSummaryEntry.COLUMN_REVENUE + sign + revenue + ", "
+                + SaleSummaryEntry.COLUMN_SALE_COUNT + " = " + SaleSummaryEntry.COLUMN_SALE_COUNT + sign + count
+                + " WHERE " + keyColumn + " = " + key + ";";
+        if (add) {
+            return "INSERT OR IGNORE INTO " + table + " (" + keyColumn + ", "
+                    + SaleSummaryEntry.COLUMN_UNITS + ", "
+                    + SaleSummaryEntry.COLUMN_REVENUE + ", "
+                    + SaleSummaryEntry.COLUMN_SALE_COUNT + ") VALUES (" + key + ", 0, 0, 0);"
+                    + " " + update + " ";
+        }
+        return update + " DELETE FROM " + table + " WHERE " + keyColumn + " = " + key
+                + " AND " + SaleSummaryEntry.COLUMN_SALE_COUNT + " = 0; ";
+    }
+
+    /**
+     * Returns an SQL expression for the local day of the sale in the given row or table, in the
+     * time zone it is evaluated in, or an empty string if the sale has no time.
+     */
+    private static String daySql(String row) {
+        return "IFNULL(date(" + row + "." + SaleEntry.COLUMN_SALE_DATE
+                + " / 1000, 'unixepoch', 'localtime'), '')";
+    }
+
+    /**
+     * Returns an SQL expression turning the supplier number in the given column into the
+     * supplier name, so that suppliers can be searched by name.
+     */
+    private static String supplierNameSql(String column) {
+        return "CASE " + column
+                + " WHEN " + ProductEntry.KAMUEL + " THEN 'KAMUEL'"
+                + " WHEN " + ProductEntry.WALKAIR + " THEN 'WALKAIR'"
+                + " WHEN " + ProductEntry.DEPEDRO + " THEN 'DEPEDRO'"
+                + " WHEN " + ProductEntry.NIKE + " THEN 'NIKE'"
+                + " WHEN " + ProductEntry.FOREX + " THEN 'FOREX'"
+                + " WHEN " + ProductEntry.FORSCLASS + " THEN 'FORSCLASS'"
+                + " ELSE '' END";
     }
 
 }
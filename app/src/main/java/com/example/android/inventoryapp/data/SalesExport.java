@@ -0,0 +1,223 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.SaleContract.SaleEntry;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Writes every sale to a stream, as CSV or as JSON lines, for {@link SaleProvider#openFile}.
+ *
+ * The sales are read in pages of {@link #PAGE_ROWS} in id order, each page starting after the
+ * last id of the one before, so only one page and the output buffer are held in memory whatever
+ * the size of the table, and the first rows are written before the last ones are read. Sales
+ * added while the export runs are written if their page has not been read yet.
+ */
+final class SalesExport {
+
+    /** Formats of an export */
+    static final int FORMAT_CSV = 0;
+    static final int FORMAT_JSON_LINES = 1;
+
+    /** Sales read per query */
+    static final int PAGE_ROWS = 1000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Names of the exported fields, in the order of the columns of {@link #SQL_PAGE} */
+    private static final String[] FIELDS = {
+            "id", "date", "product_id", "product", "supplier", "quantity", "price"};
+
+    private static final String SQL_PAGE = "SELECT "
+            + SaleEntry.TABLE_NAME + "." + SaleEntry._ID + ", "
+            + SaleEntry.TABLE_NAME + "." + SaleEntry.COLUMN_SALE_DATE + ", "
+            + SaleEntry.TABLE_NAME + "." + SaleEntry.COLUMN_SALE_PRODUCT_ID + ", "
+            + ProductEntry.TABLE_NAME + "." + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+            + ProductEntry.TABLE_NAME + "." + ProductEntry.COLUMN_SUPPLIER_NAME + ", "
+            + SaleEntry.TABLE_NAME + "." + SaleEntry.COLUMN_SALE_QUANTITY + ", "
+            + SaleEntry.TABLE_NAME + "." + SaleEntry.COLUMN_SALE_PRICE
+            + " FROM " + SaleEntry.TABLE_NAME + " LEFT JOIN " + ProductEntry.TABLE_NAME + " ON "
+            + SaleEntry.TABLE_NAME + "." + SaleEntry.COLUMN_SALE_PRODUCT_ID + " = "
+            + ProductEntry.TABLE_NAME + "." + ProductEntry._ID
+            + " WHERE " + SaleEntry.TABLE_NAME + "." + SaleEntry._ID + " > ?"
+            + " ORDER BY " + SaleEntry.TABLE_NAME + "." + SaleEntry._ID
+            + " LIMIT " + PAGE_ROWS;
+
+    /** Indexes of the columns of {@link #SQL_PAGE} */
+    private static final int COLUMN_ID = 0;
+    private static final int COLUMN_DATE = 1;
+    private static final int COLUMN_PRODUCT_ID = 2;
+    private static final int COLUMN_PRODUCT = 3;
+    private static final int COLUMN_SUPPLIER = 4;
+    private static final int COLUMN_QUANTITY = 5;
+    private static final int COLUMN_PRICE = 6;
+
+    private final int mFormat;
+
+    private final Writer mOut;
+
+    /** Dates are written in UTC, as 2018-05-31T14:02:11Z */
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+
+    private final Date mDate = new Date();
+
+    private final StringBuilder mLine = new StringBuilder();
+
+    private long mRows;
+
+    SalesExport(int format, OutputStream out) {
+        mFormat = format;
+        mOut = new BufferedWriter(new OutputStreamWriter(out, Charset.forName("UTF-8")), BUFFER_SIZE);
+        mDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * Writes every sale and flushes the stream, without closing it.
+     *
+     * @return the number of sales written
+     */
+    long write(SQLiteDatabase database) throws IOException {
+        if (mFormat == FORMAT_CSV) {
+            for (int i = 0; i < FIELDS.length; i++) {
+                mLine.append(i == 0 ? "" : ",").append(FIELDS[i]);
+            }
+            mLine.append('\n');
+            mOut.append(mLine);
+        }
+
+        String[] afterId = {"0"};
+        int pageRows;
+        do {
+            Cursor page = database.rawQuery(SQL_PAGE, afterId);
+            try {
+                pageRows = 0;
+                long lastId = 0;
+                while (page.moveToNext()) {
+                    lastId = page.getLong(COLUMN_ID);
+                    writeRow(page);
+                    pageRows++;
+                }
+                afterId[0] = String.valueOf(lastId);
+            } finally {
+                page.close();
+            }
+            mRows += pageRows;
+        } while (pageRows == PAGE_ROWS);
+
+        mOut.flush();
+        return mRows;
+    }
+
+    private void writeRow(Cursor page) throws IOException {
+        mLine.setLength(0);
+        String date = null;
+        if (!page.isNull(COLUMN_DATE)) {
+            mDate.setTime(page.getLong(COLUMN_DATE));
+            date = mDateFormat.format(mDate);
+        }
+        if (mFormat == FORMAT_CSV) {
+            mLine.append(page.getLong(COLUMN_ID)).append(',');
+            if (date != null) {
+                mLine.append(date);
+            }
+            mLine.append(',').append(page.getLong(COLUMN_PRODUCT_ID)).append(',');
+            appendCsv(page.getString(COLUMN_PRODUCT));
+            mLine.append(',');
+            if (!page.isNull(COLUMN_SUPPLIER)) {
+                mLine.append(page.getInt(COLUMN_SUPPLIER));
+            }
+            mLine.append(',').append(page.getLong(COLUMN_QUANTITY))
+                    .append(',').append(page.getLong(COLUMN_PRICE)).append('\n');
+        } else {
+            mLine.append("{\"").append(FIELDS[COLUMN_ID]).append("\":").append(page.getLong(COLUMN_ID));
+            mLine.append(",\"").append(FIELDS[COLUMN_DATE]).append("\":");
+            appendJson(date);
+            mLine.append(",\"").append(FIELDS[COLUMN_PRODUCT_ID]).append("\":").append(page.getLong(COLUMN_PRODUCT_ID));
+            mLine.append(",\"").append(FIELDS[COLUMN_PRODUCT]).append("\":");
+            appendJson(page.getString(COLUMN_PRODUCT));
+            mLine.append(",\"").append(FIELDS[COLUMN_SUPPLIER]).append("\":");
+            if (page.isNull(COLUMN_SUPPLIER)) {
+                mLine.append("null");
+            } else {
+                mLine.append(page.getInt(COLUMN_SUPPLIER));
+            }
+            mLine.append(",\"").append(FIELDS[COLUMN_QUANTITY]).append("\":").append(page.getLong(COLUMN_QUANTITY));
+            mLine.append(",\"").append(FIELDS[COLUMN_PRICE]).append("\":").append(page.getLong(COLUMN_PRICE));
+            mLine.append("}\n");
+        }
+        mOut.append(mLine);
+    }
+
+    /** Appends a CSV field, quoted if it holds a separator, a quote or a line break. */
+    private void appendCsv(String value) {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            mLine.append(value);
+            return;
+        }
+        mLine.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                mLine.append('"');
+            }
+            mLine.append(c);
+        }
+        mLine.append('"');
+    }
+
+    /** Appends a JSON string, or null. */
+    private void appendJson(String value) {
+        if (value == null) {
+            mLine.append("null");
+            return;
+        }
+        mLine.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    mLine.append("\\\"");
+                    break;
+                case '\\':
+                    mLine.append("\\\\");
+                    break;
+                case '\n':
+                    mLine.append("\\n");
+                    break;
+                case '\r':
+                    mLine.append("\\r");
+                    break;
+                case '\t':
+                    mLine.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        mLine.append(String.format(Locale.US, "\\u%04x", (int) c));
+                    } else {
+                        mLine.append(c);
+                    }
+            }
+        }
+        mLine.append('"');
+    }
+}
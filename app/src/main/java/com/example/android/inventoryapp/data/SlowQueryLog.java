@@ -0,0 +1,353 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The last statements of the providers that took longer than a threshold, each with its
+ * selection, number of arguments, number of rows and the output of {@code EXPLAIN QUERY PLAN},
+ * so that a slow list reported in the field can be traced to a full scan of a table. Read
+ * through {@link ProductContract#SLOW_QUERIES_URI} and {@code adb shell dumpsys activity provider}.
+ *
+ * The log keeps the last {@link #CAPACITY} statements and is saved to a small file after every
+ * new one, so it survives restarts. The threshold is saved with it, and is set through
+ * {@link ProductContract#METHOD_SET_SLOW_QUERY_THRESHOLD}. Checking a statement costs a clock
+ * read; the plan is only asked for once a statement turned out to be slow, and the file is read
+ * and written in the background.
+ */
+public final class SlowQueryLog {
+
+    private static final String LOG_TAG = SlowQueryLog.class.getSimpleName();
+
+    /** Statements kept, the oldest being dropped first */
+    static final int CAPACITY = 64;
+
+    public static final long DEFAULT_THRESHOLD_MILLIS = 100;
+
+    private static final String FILE_NAME = "slow_queries.log";
+
+    /** Written first, so that files of another format are not read as logs */
+    private static final int MAGIC = 0x53514c47;
+
+    private static final int FORMAT_VERSION = 1;
+
+    /** Columns of {@link ProductContract#SLOW_QUERIES_URI}, one row per statement, oldest first */
+    public static final String COLUMN_TIME = "time";
+    public static final String COLUMN_MILLIS = "millis";
+    public static final String COLUMN_STATEMENT = "statement";
+    public static final String COLUMN_SELECTION = "selection";
+    public static final String COLUMN_ARGUMENTS = "arguments";
+    public static final String COLUMN_ROWS = "rows";
+    public static final String COLUMN_PLAN = "plan";
+
+    private static final String[] COLUMNS = {COLUMN_TIME, COLUMN_MILLIS, COLUMN_STATEMENT,
+            COLUMN_SELECTION, COLUMN_ARGUMENTS, COLUMN_ROWS, COLUMN_PLAN};
+
+    /** One log per file, so that tests with their own files directory get their own log */
+    private static final Map<String, SlowQueryLog> sInstances = new HashMap<>();
+
+    private final AtomicFile mFile;
+
+    private volatile long mThresholdNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_THRESHOLD_MILLIS);
+
+    /** Whether the threshold was set before the file was read, and the saved one is stale */
+    private volatile boolean mThresholdSet;
+
+    /** Ring of the last statements; mNext is the slot of the next one. Guarded by this. */
+    private final Entry[] mEntries = new Entry[CAPACITY];
+    private int mNext;
+    private int mSize;
+
+    SlowQueryLog(File file) {
+        mFile = new AtomicFile(file);
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    /**
+     * Returns the log shared by both providers, creating it on first use.
+     */
+    public static synchronized SlowQueryLog getInstance(Context context) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        SlowQueryLog log = sInstances.get(file.getPath());
+        if (log == null) {
+            log = new SlowQueryLog(file);
+            sInstances.put(file.getPath(), log);
+        }
+        return log;
+    }
+
+    /** Returns the start time to pass to {@link #isSlow} and {@link #log}. */
+    public static long start() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Returns whether a statement that started at the given time has run for longer than the
+     * threshold.
+     */
+    public boolean isSlow(long startNanos) {
+        return SystemClock.elapsedRealtimeNanos() - startNanos >= mThresholdNanos;
+    }
+
+    public long getThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mThresholdNanos);
+    }
+
+    /**
+     * Sets the time above which statements are logged, and saves it with the log.
+     */
+    public void setThresholdMillis(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Slow query threshold must not be negative " + millis);
+        }
+        mThresholdNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        mThresholdSet = true;
+        save();
+    }
+
+    /**
+     * Logs a statement that started at the given time, together with the plan of a query that
+     * reads the same rows. Meant to be called once {@link #isSlow} returned true.
+     *
+     * @param statement the statement that ran
+     * @param planQuery a query that selects the rows the statement worked on, for which SQLite
+     *                  can explain its plan; the statement itself for a query
+     * @param args      arguments bound to the placeholders of the query to explain
+     * @param rows      number of rows returned or changed
+     */
+    public void log(SQLiteDatabase database, String statement, String planQuery, String selection,
+                    String[] args, int rows, long startNanos) {
+        long micros = (SystemClock.elapsedRealtimeNanos() - startNanos) / 1000;
+        Entry entry = new Entry();
+        entry.time = System.currentTimeMillis();
+        entry.micros = micros;
+        entry.statement = statement;
+        entry.selection = selection;
+        entry.arguments = args == null ? 0 : args.length;
+        entry.rows = rows;
+        entry.plan = explain(database, planQuery, args);
+        Log.w(LOG_TAG, String.format(Locale.US, "%d ms, %d rows: %s%n%s",
+                micros / 1000, rows, statement, entry.plan));
+
+        synchronized (this) {
+            add(entry);
+        }
+        save();
+    }
+
+    private static String explain(SQLiteDatabase database, String query, String[] args) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = null;
+        try {
+            cursor = database.rawQuery("EXPLAIN QUERY PLAN " + query, args);
+            // The detail column is the last one whatever the version of SQLite
+            int detail = cursor.getColumnIndex("detail");
+            if (detail < 0) {
+                detail = cursor.getColumnCount() - 1;
+            }
+            while (cursor.moveToNext()) {
+                if (plan.length() > 0) {
+                    plan.append('\n');
+                }
+                plan.append(cursor.getString(detail));
+            }
+        } catch (SQLiteException e) {
+            return "(no plan: " + e.getMessage() + ")";
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return plan.toString();
+    }
+
+    private void add(Entry entry) {
+        mEntries[mNext] = entry;
+        mNext = (mNext + 1) % CAPACITY;
+        mSize = Math.min(mSize + 1, CAPACITY);
+    }
+
+    private synchronized List<Entry> entries() {
+        List<Entry> entries = new ArrayList<>(mSize);
+        for (int i = 0; i < mSize; i++) {
+            entries.add(mEntries[(mNext - mSize + i + CAPACITY) % CAPACITY]);
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the logged statements, oldest first, in the columns above.
+     */
+    public Cursor query() {
+        List<Entry> entries = entries();
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, entries.size());
+        for (Entry entry : entries) {
+            cursor.addRow(new Object[]{entry.time, entry.micros / 1000.0, entry.statement,
+                    entry.selection, entry.arguments, entry.rows, entry.plan});
+        }
+        return cursor;
+    }
+
+    /**
+     * Writes the threshold and the logged statements, oldest first.
+     */
+    public void dump(PrintWriter writer) {
+        List<Entry> entries = entries();
+        writer.println("Statements slower than " + getThresholdMillis() + " ms:");
+        if (entries.isEmpty()) {
+            writer.println("  (none yet)");
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        for (Entry entry : entries) {
+            writer.println(String.format(Locale.US, "  %s %.1f ms, %d rows, %d args: %s",
+                    format.format(new Date(entry.time)), entry.micros / 1000.0, entry.rows,
+                    entry.arguments, entry.statement));
+            for (String line : entry.plan.split("\n")) {
+                writer.println("      " + line);
+            }
+        }
+    }
+
+    /** Reads the saved threshold and statements, in front of any logged since the start. */
+    private void load() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(mFile.openRead());
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return;
+            }
+            long thresholdNanos = in.readLong();
+            List<Entry> saved = new ArrayList<>();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                saved.add(Entry.read(in));
+            }
+            if (!mThresholdSet) {
+                mThresholdNanos = thresholdNanos;
+            }
+            synchronized (this) {
+                List<Entry> logged = entries();
+                mNext = 0;
+                mSize = 0;
+                for (Entry entry : saved) {
+                    add(entry);
+                }
+                for (Entry entry : logged) {
+                    add(entry);
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing logged yet
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Ignoring unreadable slow query log", e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /** Writes the threshold and the statements in the background, after the load. */
+    private void save() {
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                FileOutputStream out = null;
+                try {
+                    byte[] bytes = encode();
+                    out = mFile.startWrite();
+                    out.write(bytes);
+                    mFile.finishWrite(out);
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Could not save slow query log", e);
+                    if (out != null) {
+                        mFile.failWrite(out);
+                    }
+                }
+            }
+        });
+    }
+
+    private byte[] encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(mThresholdNanos);
+        List<Entry> entries = entries();
+        out.writeInt(entries.size());
+        for (Entry entry : entries) {
+            entry.write(out);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /** One slow statement. */
+    private static final class Entry {
+        long time;
+        long micros;
+        String statement;
+        String selection;
+        int arguments;
+        int rows;
+        String plan;
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(time);
+            out.writeLong(micros);
+            out.writeUTF(statement);
+            out.writeBoolean(selection != null);
+            if (selection != null) {
+                out.writeUTF(selection);
+            }
+            out.writeInt(arguments);
+            out.writeInt(rows);
+            out.writeUTF(plan);
+        }
+
+        static Entry read(DataInputStream in) throws IOException {
+            Entry entry = new Entry();
+            entry.time = in.readLong();
+            entry.micros = in.readLong();
+            entry.statement = in.readUTF();
+            entry.selection = in.readBoolean() ? in.readUTF() : null;
+            entry.arguments = in.readInt();
+            entry.rows = in.readInt();
+            entry.plan = in.readUTF();
+            return entry;
+        }
+    }
+}
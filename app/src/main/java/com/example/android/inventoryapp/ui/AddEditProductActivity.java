@@ -1,8 +1,10 @@
 package com.example.android.inventoryapp.ui;
 
 import android.app.AlertDialog;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -10,6 +12,7 @@ import android.content.Loader;
 import android.app.LoaderManager;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
@@ -21,12 +24,19 @@ import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.EditText;
+import android.widget.ImageView;
 import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import com.example.android.inventoryapp.R;
+import com.example.android.inventoryapp.adapter.ThumbnailLoader;
+import com.example.android.inventoryapp.data.DataOperationQueue;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductPhotos;
+
+import java.io.IOException;
+import java.util.Collections;
 
 import org.w3c.dom.Text;
 
@@ -39,6 +49,15 @@ public class AddEditProductActivity extends AppCompatActivity implements
     /** Identifier for the pet data loader */
     private static final int EXISTING_PRODUCT_LOADER = 0;
 
+    /** Request code of the photo picker */
+    private static final int REQUEST_PHOTO = 1;
+
+    /** Key of {@link #mImagePath} in the saved instance state */
+    private static final String STATE_IMAGE_PATH = "image_path";
+
+    /** Key of {@link #mUnsavedImagePath} in the saved instance state */
+    private static final String STATE_UNSAVED_IMAGE_PATH = "unsaved_image_path";
+
     /** Content URI for the existing pet (null if it's a new product) */
     private Uri mCurrentProductUri;
 
@@ -47,6 +66,11 @@ public class AddEditProductActivity extends AppCompatActivity implements
      */
     private EditText mNameEditText;
 
+    /**
+     * EditText field to enter the product's SKU, typed or scanned
+     */
+    private EditText mSkuEditText;
+
     /**
      * EditText field to enter the product's price
      */
@@ -68,6 +92,20 @@ public class AddEditProductActivity extends AppCompatActivity implements
      */
     private EditText mSupplierPhone;
 
+    /**
+     * ImageView showing the product's photo, which picks a new one when tapped
+     */
+    private ImageView mPhotoView;
+
+    /** Path of the product's photo, copied by {@link ProductPhotos}, or null if it has none */
+    private String mImagePath;
+
+    /**
+     * Path of a photo copied since the editor opened and not saved yet, deleted if the editor
+     * is left without saving, or null if there is none
+     */
+    private String mUnsavedImagePath;
+
     /**
      * Supplier name. The possible valid values are in the ProductContract.java file:
      * The only possible values are {KAMUEL}, {WALKAIR},
@@ -123,21 +161,47 @@ public class AddEditProductActivity extends AppCompatActivity implements
 
         // Find all relevant views that we will need to read user input from
         mNameEditText = (EditText) findViewById( R.id.add_name );
+        mSkuEditText = (EditText) findViewById( R.id.add_sku );
         mPriceEditText = (EditText) findViewById( R.id.add_price);
         mQuantityTextView = (TextView) findViewById( R.id.add_quantity );
         mSupplierNameSpinner = (Spinner) findViewById( R.id.spinner_supplier );
         mSupplierPhone = (EditText) findViewById( R.id.add_supplier_phone );
+        mPhotoView = (ImageView) findViewById( R.id.add_photo );
 
         // Setup OnTouchListeners on all the input fields, so we can determine if the user
         // has touched or modified them. This will let us know if there are unsaved changes
         // or not, if the user tries to leave the editor without saving.
         mNameEditText.setOnTouchListener(mTouchListener);
+        mSkuEditText.setOnTouchListener(mTouchListener);
         mPriceEditText.setOnTouchListener(mTouchListener);
         mQuantityTextView.setOnTouchListener(mTouchListener);
         mSupplierNameSpinner.setOnTouchListener(mTouchListener);
         mSupplierPhone.setOnTouchListener(mTouchListener);
 
         setupSpinner();
+
+        if (savedInstanceState != null) {
+            mImagePath = savedInstanceState.getString( STATE_IMAGE_PATH );
+            mUnsavedImagePath = savedInstanceState.getString( STATE_UNSAVED_IMAGE_PATH );
+            showPhoto();
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState( outState );
+        outState.putString( STATE_IMAGE_PATH, mImagePath );
+        outState.putString( STATE_UNSAVED_IMAGE_PATH, mUnsavedImagePath );
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Left without saving, by discarding the changes or deleting the product
+        if (isFinishing()) {
+            deleteUnsavedPhoto( mUnsavedImagePath );
+            mUnsavedImagePath = null;
+        }
     }
 
     /**
@@ -216,6 +280,135 @@ public class AddEditProductActivity extends AppCompatActivity implements
     }
 
 
+    /**
+     * Let the user pick a photo of the product.
+     */
+    public void pickPhoto(View view) {
+        Intent intent;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            intent = new Intent( Intent.ACTION_OPEN_DOCUMENT );
+        } else {
+            intent = new Intent( Intent.ACTION_GET_CONTENT );
+        }
+        intent.setType( "image/*" );
+        intent.addCategory( Intent.CATEGORY_OPENABLE );
+        startActivityForResult( Intent.createChooser( intent, getString( R.string.choose_photo_title ) ),
+                REQUEST_PHOTO );
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_PHOTO) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                importPhoto( data.getData() );
+            }
+            return;
+        }
+        super.onActivityResult( requestCode, resultCode, data );
+    }
+
+    /**
+     * Copy the picked photo into the app's storage in the background, and show it once copied.
+     * The copy is only kept in the product once it is saved.
+     */
+    private void importPhoto(final Uri uri) {
+        final Context appContext = getApplicationContext();
+        DataOperationQueue.getInstance( this ).enqueue( ProductEntry.CONTENT_URI,
+                new DataOperationQueue.Operation<String>() {
+                    @Override
+                    public String run(ContentResolver resolver) {
+                        try {
+                            return ProductPhotos.importPhoto( appContext, uri );
+                        } catch (IOException e) {
+                            return null;
+                        }
+                    }
+                },
+                new DataOperationQueue.Callback<String>() {
+                    @Override
+                    public void onComplete(String path) {
+                        if (path == null) {
+                            Toast.makeText( appContext, appContext.getString( R.string.photo_failed ),
+                                    Toast.LENGTH_SHORT ).show();
+                            return;
+                        }
+                        if (isFinishing()) {
+                            deleteUnsavedPhoto( path );
+                            return;
+                        }
+                        // A copy picked before this one was never saved
+                        deleteUnsavedPhoto( mUnsavedImagePath );
+                        mUnsavedImagePath = path;
+                        mImagePath = path;
+                        mProductHasChanged = true;
+                        showPhoto();
+                    }
+                } );
+    }
+
+    /**
+     * Tell the user that the product was not saved: because another product holds its SKU if
+     * the SKU finds one, or with the given message otherwise. The SKU is looked up in the
+     * background, after this activity has finished, so only the app context is used.
+     *
+     * @param productId the product that was updated, or -1 if it was inserted
+     */
+    private static void showSaveFailed(final Context appContext, final String sku, final long productId,
+                                       final int failedMessage) {
+        if (TextUtils.isEmpty( sku )) {
+            Toast.makeText( appContext, appContext.getString( failedMessage ), Toast.LENGTH_SHORT ).show();
+            return;
+        }
+        final Uri skuUri = ProductEntry.buildSkuUri( sku );
+        DataOperationQueue.getInstance( appContext ).enqueue( skuUri,
+                new DataOperationQueue.Operation<Boolean>() {
+                    @Override
+                    public Boolean run(ContentResolver resolver) {
+                        Cursor cursor = resolver.query( skuUri, new String[]{ProductEntry._ID}, null, null, null );
+                        if (cursor == null) {
+                            return false;
+                        }
+                        try {
+                            return cursor.moveToFirst() && cursor.getLong( 0 ) != productId;
+                        } finally {
+                            cursor.close();
+                        }
+                    }
+                },
+                new DataOperationQueue.Callback<Boolean>() {
+                    @Override
+                    public void onComplete(Boolean skuUsed) {
+                        String message = skuUsed != null && skuUsed
+                                ? appContext.getString( R.string.editor_sku_used, sku )
+                                : appContext.getString( failedMessage );
+                        Toast.makeText( appContext, message, Toast.LENGTH_SHORT ).show();
+                    }
+                } );
+    }
+
+    /**
+     * Delete a copied photo that no product holds, in the background.
+     */
+    private void deleteUnsavedPhoto(final String path) {
+        if (path == null) {
+            return;
+        }
+        final Context appContext = getApplicationContext();
+        DataOperationQueue.getInstance( this ).enqueue( ProductEntry.CONTENT_URI,
+                new DataOperationQueue.Operation<Void>() {
+                    @Override
+                    public Void run(ContentResolver resolver) {
+                        ProductPhotos.deletePhotos( appContext, Collections.singletonList( path ) );
+                        return null;
+                    }
+                }, null );
+    }
+
+    private void showPhoto() {
+        ThumbnailLoader.getInstance( this ).load( mPhotoView, mImagePath,
+                getResources().getDimensionPixelSize( R.dimen.product_photo_size ) );
+    }
+
     public void orderMore(View view) {
         Toast.makeText( AddEditProductActivity.this, "You pressed ORDER button.", Toast.LENGTH_SHORT ).show();
 
@@ -224,19 +417,40 @@ public class AddEditProductActivity extends AppCompatActivity implements
         // {@link ProductEntry#CONTENT_URI}.
         // For example, the URI would be "content://com.example.android.inventoryapp/prodcuts/2"
         // if the product with ID 2 was clicked on.
-        Uri currentProductUri = mCurrentProductUri;
-
-        //specify the columns to be fetched
-        String[] projection = {ProductEntry.COLUMN_SUPPLIER_PHONE,};
-        Cursor cursorPoductInTable = getContentResolver().query( currentProductUri, projection, null, null, null );
-        // for current quantity in product table
-        cursorPoductInTable.moveToFirst();
-        int indexForSupplierPhoneInProductTable = cursorPoductInTable.getColumnIndex( ProductEntry.COLUMN_SUPPLIER_PHONE );
-        String supplierPhoneInProductTable = cursorPoductInTable.getString( indexForSupplierPhoneInProductTable );
-
-        Intent intent = new Intent(Intent.ACTION_DIAL);
-        intent.setData(Uri.parse("tel:" + supplierPhoneInProductTable));
-        startActivity(intent);
+        final Uri currentProductUri = mCurrentProductUri;
+
+        DataOperationQueue.getInstance( this ).enqueue( currentProductUri,
+                new DataOperationQueue.Operation<String>() {
+                    @Override
+                    public String run(ContentResolver resolver) {
+                        //specify the columns to be fetched
+                        String[] projection = {ProductEntry.COLUMN_SUPPLIER_PHONE,};
+                        Cursor cursorPoductInTable = resolver.query( currentProductUri, projection, null, null, null );
+                        try {
+                            // for current quantity in product table
+                            if (cursorPoductInTable == null || !cursorPoductInTable.moveToFirst()) {
+                                return null;
+                            }
+                            int indexForSupplierPhoneInProductTable = cursorPoductInTable.getColumnIndex( ProductEntry.COLUMN_SUPPLIER_PHONE );
+                            return cursorPoductInTable.getString( indexForSupplierPhoneInProductTable );
+                        } finally {
+                            if (cursorPoductInTable != null) {
+                                cursorPoductInTable.close();
+                            }
+                        }
+                    }
+                },
+                new DataOperationQueue.Callback<String>() {
+                    @Override
+                    public void onComplete(String supplierPhoneInProductTable) {
+                        if (supplierPhoneInProductTable == null || isFinishing()) {
+                            return;
+                        }
+                        Intent intent = new Intent( Intent.ACTION_DIAL );
+                        intent.setData( Uri.parse( "tel:" + supplierPhoneInProductTable ) );
+                        startActivity( intent );
+                    }
+                } );
     }
 
     /**
@@ -249,6 +463,7 @@ public class AddEditProductActivity extends AppCompatActivity implements
         String priceString = mPriceEditText.getText().toString().trim();
         String quantityString = mQuantityTextView.getText().toString().trim();
         String supplierPhoneString = mSupplierPhone.getText().toString().trim();
+        final String skuString = mSkuEditText.getText().toString().trim();
 
         // Check if this is supposed to be a new pet
         // and check if all the fields in the editor are blank
@@ -274,46 +489,81 @@ public class AddEditProductActivity extends AppCompatActivity implements
 
         // Create a ContentValues object where column names are the keys,
         // and pet attributes from the editor are the values.
-        ContentValues values = new ContentValues();
+        final ContentValues values = new ContentValues();
         values.put( ProductEntry.COLUMN_PRODUCT_NAME, nameString );
         values.put( ProductEntry.COLUMN_PRODUCT_PRICE, priceString );
         values.put( ProductEntry.COLUMN_PRODUCT_QUANTITY, quantityString );
         values.put( ProductEntry.COLUMN_SUPPLIER_NAME, mSupplierName );
         values.put( ProductEntry.COLUMN_SUPPLIER_PHONE, supplierPhoneString );
+        if (mImagePath != null) {
+            values.put( ProductEntry.COLUMN_PRODUCT_IMAGE, mImagePath );
+        }
+        // A product without SKU holds null, as any number of products may
+        if (!TextUtils.isEmpty( skuString )) {
+            values.put( ProductEntry.COLUMN_PRODUCT_SKU, skuString );
+        } else if (mCurrentProductUri != null) {
+            values.putNull( ProductEntry.COLUMN_PRODUCT_SKU );
+        }
+
+        // The toasts are shown after this activity has finished, so they use the app context
+        final Context appContext = getApplicationContext();
+        DataOperationQueue queue = DataOperationQueue.getInstance( this );
+
+        // The save now owns the copied photo, and deletes it if the product is not saved
+        final String unsavedImagePath = mUnsavedImagePath;
+        mUnsavedImagePath = null;
 
         // Determine if this is a new or existing pet by checking if mCurrentProductUri is null or not
         if (mCurrentProductUri == null) {
             // This is a NEW pet, so insert a new pet into the provider,
             // returning the content URI for the new pet.
-            Uri newUri = getContentResolver().insert(ProductEntry.CONTENT_URI, values);
-
-            // Show a toast message depending on whether or not the insertion was successful.
-            if (newUri == null) {
-                // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText(this, getString(R.string.editor_insert_product_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_insert_product_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            queue.enqueue( ProductEntry.CONTENT_URI, new DataOperationQueue.Operation<Uri>() {
+                @Override
+                public Uri run(ContentResolver resolver) {
+                    return resolver.insert( ProductEntry.CONTENT_URI, values );
+                }
+            }, new DataOperationQueue.Callback<Uri>() {
+                @Override
+                public void onComplete(Uri newUri) {
+                    // Show a toast message depending on whether or not the insertion was successful.
+                    if (newUri == null) {
+                        // If the new content URI is null, then there was an error with insertion.
+                        deleteUnsavedPhoto( unsavedImagePath );
+                        showSaveFailed( appContext, skuString, -1, R.string.editor_insert_product_failed );
+                    } else {
+                        // Otherwise, the insertion was successful and we can display a toast.
+                        Toast.makeText( appContext, appContext.getString( R.string.editor_insert_product_successful ),
+                                Toast.LENGTH_SHORT ).show();
+                    }
+                }
+            } );
         } else {
             // Otherwise this is an EXISTING product, so update the product with content URI: mCurrentProductUri
             // and pass in the new ContentValues. Pass in null for the selection and selection args
             // because mCurrentProductUri will already identify the correct row in the database that
             // we want to modify.
-            int rowsAffected = getContentResolver().update(mCurrentProductUri, values, null, null);
-
-            // Show a toast message depending on whether or not the update was successful.
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error with the update.
-                Toast.makeText(this, getString(R.string.editor_update_product_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the update was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_update_product_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            final Uri currentProductUri = mCurrentProductUri;
+            queue.enqueue( currentProductUri, new DataOperationQueue.Operation<Integer>() {
+                @Override
+                public Integer run(ContentResolver resolver) {
+                    return resolver.update( currentProductUri, values, null, null );
+                }
+            }, new DataOperationQueue.Callback<Integer>() {
+                @Override
+                public void onComplete(Integer rowsAffected) {
+                    // Show a toast message depending on whether or not the update was successful.
+                    if (rowsAffected == null || rowsAffected == 0) {
+                        // If no rows were affected, then there was an error with the update.
+                        deleteUnsavedPhoto( unsavedImagePath );
+                        showSaveFailed( appContext, skuString, ContentUris.parseId( currentProductUri ),
+                                R.string.editor_update_product_failed );
+                    } else {
+                        // Otherwise, the update was successful and we can display a toast.
+                        Toast.makeText( appContext, appContext.getString( R.string.editor_update_product_successful ),
+                                Toast.LENGTH_SHORT ).show();
+                    }
+                }
+            } );
         }
         return true;
     }
@@ -424,7 +674,9 @@ public class AddEditProductActivity extends AppCompatActivity implements
                 ProductEntry.COLUMN_PRODUCT_PRICE,
                 ProductEntry.COLUMN_PRODUCT_QUANTITY,
                 ProductEntry.COLUMN_SUPPLIER_NAME,
-                ProductEntry.COLUMN_SUPPLIER_PHONE };
+                ProductEntry.COLUMN_SUPPLIER_PHONE,
+                ProductEntry.COLUMN_PRODUCT_IMAGE,
+                ProductEntry.COLUMN_PRODUCT_SKU };
 
         // This loader will execute the ContentProvider's query method on a background thread
         return new CursorLoader(this,   // Parent activity context
@@ -451,6 +703,8 @@ public class AddEditProductActivity extends AppCompatActivity implements
             int quantityColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY);
             int supplierNameColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_SUPPLIER_NAME);
             int supplierPhoneColumnIndex = cursor.getColumnIndex( ProductEntry.COLUMN_SUPPLIER_PHONE );
+            int imageColumnIndex = cursor.getColumnIndex( ProductEntry.COLUMN_PRODUCT_IMAGE );
+            int skuColumnIndex = cursor.getColumnIndex( ProductEntry.COLUMN_PRODUCT_SKU );
 
             // Extract out the value from the Cursor for the given column index
             String name = cursor.getString(nameColumnIndex);
@@ -464,6 +718,13 @@ public class AddEditProductActivity extends AppCompatActivity implements
             mPriceEditText.setText(Integer.toString( price ));
             mQuantityTextView.setText(Integer.toString( quantity ));
             mSupplierPhone.setText(supplierPhone);
+            mSkuEditText.setText(cursor.getString( skuColumnIndex ));
+
+            // A photo picked since the editor opened is kept over the saved one
+            if (mImagePath == null) {
+                mImagePath = cursor.getString( imageColumnIndex );
+                showPhoto();
+            }
 
             // Supplier is a dropdown spinner, so map the constant value from the database
             // into one of the dropdown options (0 is Unknown, 1 KAMUEL, 2 is WALKAIR, 3 is DEPEDRO and so on).
@@ -502,6 +763,7 @@ public class AddEditProductActivity extends AppCompatActivity implements
         mQuantityTextView.setText("");
         mSupplierNameSpinner.setSelection( 0 ); // Select 'UNKNOWN' supplier
         mSupplierPhone.setText("");
+        mSkuEditText.setText("");
 
     }
 
@@ -572,18 +834,38 @@ public class AddEditProductActivity extends AppCompatActivity implements
             // Call the ContentResolver to delete the pet at the given content URI.
             // Pass in null for the selection and selection args because the mCurrentProductUri
             // content URI already identifies the pet that we want.
-            int rowsDeleted = getContentResolver().delete(mCurrentProductUri, null, null);
-
-            // Show a toast message depending on whether or not the delete was successful.
-            if (rowsDeleted == 0) {
-                // If no rows were deleted, then there was an error with the delete.
-                Toast.makeText(this, getString(R.string.editor_delete_product_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_delete_product_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            final Uri currentProductUri = mCurrentProductUri;
+            final Context appContext = getApplicationContext();
+            DataOperationQueue.getInstance( this ).enqueue( currentProductUri,
+                    new DataOperationQueue.Operation<Integer>() {
+                        @Override
+                        public Integer run(ContentResolver resolver) {
+                            return resolver.delete( currentProductUri, null, null );
+                        }
+                    },
+                    new DataOperationQueue.FailureCallback<Integer>() {
+                        @Override
+                        public void onFailure(RuntimeException error) {
+                            // The provider keeps products that have sales
+                            int message = error instanceof IllegalArgumentException
+                                    ? R.string.delete_products_with_sales : R.string.editor_delete_product_failed;
+                            Toast.makeText( appContext, appContext.getString( message ), Toast.LENGTH_SHORT ).show();
+                        }
+
+                        @Override
+                        public void onComplete(Integer rowsDeleted) {
+                            // Show a toast message depending on whether or not the delete was successful.
+                            if (rowsDeleted == 0) {
+                                // If no rows were deleted, then there was an error with the delete.
+                                Toast.makeText( appContext, appContext.getString( R.string.editor_delete_product_failed ),
+                                        Toast.LENGTH_SHORT ).show();
+                            } else {
+                                // Otherwise, the delete was successful and we can display a toast.
+                                Toast.makeText( appContext, appContext.getString( R.string.editor_delete_product_successful ),
+                                        Toast.LENGTH_SHORT ).show();
+                            }
+                        }
+                    } );
         }
 
         // Close the activity
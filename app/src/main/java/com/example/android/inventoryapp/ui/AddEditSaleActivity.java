@@ -1,8 +1,10 @@
 package com.example.android.inventoryapp.ui;
 
 import android.app.AlertDialog;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -26,6 +28,7 @@ import android.widget.Toast;
 import android.app.LoaderManager;
 
 import com.example.android.inventoryapp.R;
+import com.example.android.inventoryapp.data.DataOperationQueue;
 import com.example.android.inventoryapp.data.ProductContract;
 import com.example.android.inventoryapp.data.ProductProvider;
 import com.example.android.inventoryapp.data.SaleContract.SaleEntry;
@@ -82,6 +85,13 @@ public class AddEditSaleActivity extends AppCompatActivity implements
      */
     private EditText mSupplierPhoneEditText;
 
+    /**
+     * Product name and supplier of the sale being edited, as loaded. The supplier belongs to
+     * the product, so it can only be given for a sale that is moved to another product.
+     */
+    private String mLoadedName;
+    private int mLoadedSupplierName;
+    private String mLoadedSupplierPhone;
 
     /**
      * Boolean flag that keeps track of whether the sale has been edited (true) or not (false)
@@ -285,47 +295,75 @@ public class AddEditSaleActivity extends AppCompatActivity implements
 
         // Create a ContentValues object where column names are the keys,
         // and pet attributes from the editor are the values.
-        ContentValues values = new ContentValues();
+        final ContentValues values = new ContentValues();
         values.put( SaleEntry.COLUMN_SALE_PRODUCT_NAME, nameString );
         values.put( SaleEntry.COLUMN_SALE_PRICE, priceString );
         values.put( SaleEntry.COLUMN_SALE_QUANTITY, quantityString );
-        values.put( SaleEntry.COLUMN_SALE_SUPPLIER_NAME, mSupplierName );
-        values.put( SaleEntry.COLUMN_SALE_SUPPLIER_PHONE, supplierPhone );
+        if (mCurrentSaleUri != null && nameString.equals( mLoadedName )) {
+            // The sale stays with its product, whose supplier is edited with the product
+            if (mSupplierName != mLoadedSupplierName || !supplierPhone.equals( mLoadedSupplierPhone )) {
+                mSupplierPhoneEditText.setError( getString( R.string.editor_sale_supplier_is_product ) );
+                return false;
+            }
+        } else {
+            values.put( SaleEntry.COLUMN_SALE_SUPPLIER_NAME, mSupplierName );
+            values.put( SaleEntry.COLUMN_SALE_SUPPLIER_PHONE, supplierPhone );
+        }
+
+        // The toasts are shown after this activity has finished, so they use the app context
+        final Context appContext = getApplicationContext();
+        DataOperationQueue queue = DataOperationQueue.getInstance( this );
 
         // Determine if this is a new or existing pet by checking if mCurrentSaleUri is null or not
         if (mCurrentSaleUri == null) {
             // This is a NEW pet, so insert a new pet into the provider,
             // returning the content URI for the new pet.
-            Uri newUri = getContentResolver().insert( SaleEntry.CONTENT_URI, values );
-
-            // Show a toast message depending on whether or not the insertion was successful.
-            if (newUri == null) {
-                // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText( this, getString( R.string.editor_insert_sale_failed ),
-                        Toast.LENGTH_SHORT ).show();
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast.
-                Toast.makeText( this, getString( R.string.editor_insert_sale_successful ),
-                        Toast.LENGTH_SHORT ).show();
-            }
+            queue.enqueue( SaleEntry.CONTENT_URI, new DataOperationQueue.Operation<Uri>() {
+                @Override
+                public Uri run(ContentResolver resolver) {
+                    return resolver.insert( SaleEntry.CONTENT_URI, values );
+                }
+            }, new DataOperationQueue.Callback<Uri>() {
+                @Override
+                public void onComplete(Uri newUri) {
+                    // Show a toast message depending on whether or not the insertion was successful.
+                    if (newUri == null) {
+                        // If the new content URI is null, then there was an error with insertion.
+                        Toast.makeText( appContext, appContext.getString( R.string.editor_insert_sale_failed ),
+                                Toast.LENGTH_SHORT ).show();
+                    } else {
+                        // Otherwise, the insertion was successful and we can display a toast.
+                        Toast.makeText( appContext, appContext.getString( R.string.editor_insert_sale_successful ),
+                                Toast.LENGTH_SHORT ).show();
+                    }
+                }
+            } );
         } else {
             // Otherwise this is an EXISTING product, so update the sale with content URI: mCurrentSaleUri
             // and pass in the new ContentValues. Pass in null for the selection and selection args
             // because mCurrentSaleUri will already identify the correct row in the database that
             // we want to modify.
-            int rowsAffected = 0;
-            rowsAffected = getContentResolver().update( mCurrentSaleUri, values, null, null );
-
-            // Show a toast message depending on whether or not the update was successful.
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error with the update.
-                Toast.makeText( this, getString( R.string.editor_update_sale_failed ),
-                        Toast.LENGTH_SHORT ).show();
-            } else {
-                // Otherwise, the update was successful and we can display a toast.
-                Toast.makeText( this, getString( R.string.editor_update_sale_successful ),
-                        Toast.LENGTH_SHORT ).show();
-            }
+            final Uri currentSaleUri = mCurrentSaleUri;
+            queue.enqueue( currentSaleUri, new DataOperationQueue.Operation<Integer>() {
+                @Override
+                public Integer run(ContentResolver resolver) {
+                    return resolver.update( currentSaleUri, values, null, null );
+                }
+            }, new DataOperationQueue.Callback<Integer>() {
+                @Override
+                public void onComplete(Integer rowsAffected) {
+                    // Show a toast message depending on whether or not the update was successful.
+                    if (rowsAffected == null || rowsAffected == 0) {
+                        // If no rows were affected, then there was an error with the update.
+                        Toast.makeText( appContext, appContext.getString( R.string.editor_update_sale_failed ),
+                                Toast.LENGTH_SHORT ).show();
+                    } else {
+                        // Otherwise, the update was successful and we can display a toast.
+                        Toast.makeText( appContext, appContext.getString( R.string.editor_update_sale_successful ),
+                                Toast.LENGTH_SHORT ).show();
+                    }
+                }
+            } );
         }
         return true;
     }
@@ -505,6 +543,10 @@ public class AddEditSaleActivity extends AppCompatActivity implements
 
             mSupplierPhoneEditText.setText( supplierPhone );
             mQuantityTextView.setText( Integer.toString( quantity ) );
+
+            mLoadedName = name;
+            mLoadedSupplierName = supplierName;
+            mLoadedSupplierPhone = supplierPhone == null ? "" : supplierPhone.trim();
         }
     }
 
@@ -586,18 +628,30 @@ public class AddEditSaleActivity extends AppCompatActivity implements
             // Call the ContentResolver to delete the pet at the given content URI.
             // Pass in null for the selection and selection args because the mCurrentSaleUri
             // content URI already identifies the pet that we want.
-            int rowsDeleted = getContentResolver().delete( mCurrentSaleUri, null, null );
-
-            // Show a toast message depending on whether or not the delete was successful.
-            if (rowsDeleted == 0) {
-                // If no rows were deleted, then there was an error with the delete.
-                Toast.makeText( this, getString( R.string.editor_delete_sale_failed ),
-                        Toast.LENGTH_SHORT ).show();
-            } else {
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText( this, getString( R.string.editor_delete_sale_successful ),
-                        Toast.LENGTH_SHORT ).show();
-            }
+            final Uri currentSaleUri = mCurrentSaleUri;
+            final Context appContext = getApplicationContext();
+            DataOperationQueue.getInstance( this ).enqueue( currentSaleUri,
+                    new DataOperationQueue.Operation<Integer>() {
+                        @Override
+                        public Integer run(ContentResolver resolver) {
+                            return resolver.delete( currentSaleUri, null, null );
+                        }
+                    },
+                    new DataOperationQueue.Callback<Integer>() {
+                        @Override
+                        public void onComplete(Integer rowsDeleted) {
+                            // Show a toast message depending on whether or not the delete was successful.
+                            if (rowsDeleted == null || rowsDeleted == 0) {
+                                // If no rows were deleted, then there was an error with the delete.
+                                Toast.makeText( appContext, appContext.getString( R.string.editor_delete_sale_failed ),
+                                        Toast.LENGTH_SHORT ).show();
+                            } else {
+                                // Otherwise, the delete was successful and we can display a toast.
+                                Toast.makeText( appContext, appContext.getString( R.string.editor_delete_sale_successful ),
+                                        Toast.LENGTH_SHORT ).show();
+                            }
+                        }
+                    } );
         }
 
         // Close the activity
@@ -0,0 +1,184 @@
+package com.example.android.inventoryapp.ui;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.app.ProgressDialog;
+import android.content.ContentResolver;
+import android.content.DialogInterface;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.provider.OpenableColumns;
+import android.util.Log;
+
+import com.example.android.inventoryapp.R;
+import com.example.android.inventoryapp.data.ProductCsvImporter;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Imports a CSV file of products picked by the user in the background, showing its progress in
+ * a dialog that can cancel it, and the rows that were skipped once it is done.
+ *
+ * The task outlives a configuration change of the activity that started it: the new activity
+ * attaches itself and gets the dialog back. Used on the main thread only, apart from the import.
+ */
+class ProductImportTask extends AsyncTask<Void, Long, ProductCsvImporter.Report> {
+
+    private static final String LOG_TAG = ProductImportTask.class.getSimpleName();
+
+    /** Skipped rows listed in the report dialog; the others are only counted */
+    private static final int SHOWN_ERRORS = 20;
+
+    private final ContentResolver mResolver;
+
+    private final Uri mUri;
+
+    private final ProductCsvImporter mImporter;
+
+    /** Size of the file in bytes, or -1 if unknown. Read in the background. */
+    private volatile long mSize = -1;
+
+    private Activity mActivity;
+
+    private ProgressDialog mDialog;
+
+    private long mBytesRead;
+    private long mRowsImported;
+
+    ProductImportTask(ContentResolver resolver, Uri uri) {
+        mResolver = resolver;
+        mUri = uri;
+        mImporter = new ProductCsvImporter(resolver);
+    }
+
+    /**
+     * Shows the progress of the import in the given activity, until it is detached.
+     */
+    void attach(Activity activity) {
+        mActivity = activity;
+        if (getStatus() == Status.FINISHED) {
+            return;
+        }
+        mDialog = new ProgressDialog(activity);
+        mDialog.setTitle(R.string.import_products_title);
+        mDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        mDialog.setMax(100);
+        mDialog.setCancelable(false);
+        mDialog.setButton(DialogInterface.BUTTON_NEGATIVE, activity.getString(android.R.string.cancel),
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        // The import stops after its current chunk, and then shows its report
+                        mImporter.cancel();
+                    }
+                });
+        showProgress();
+        mDialog.show();
+    }
+
+    /**
+     * Stops showing the progress, for instance because the activity is destroyed. The import
+     * goes on.
+     */
+    void detach() {
+        if (mDialog != null) {
+            mDialog.dismiss();
+            mDialog = null;
+        }
+        mActivity = null;
+    }
+
+    /**
+     * Returns whether the import has not finished yet.
+     */
+    boolean isRunning() {
+        return getStatus() != Status.FINISHED;
+    }
+
+    @Override
+    protected ProductCsvImporter.Report doInBackground(Void... ignored) {
+        mSize = readSize();
+        try {
+            InputStream in = mResolver.openInputStream(mUri);
+            if (in == null) {
+                return null;
+            }
+            return mImporter.importFrom(in, new ProductCsvImporter.ProgressListener() {
+                @Override
+                public void onProgress(long bytesRead, int rowsImported) {
+                    publishProgress(bytesRead, (long) rowsImported);
+                }
+            });
+        } catch (IOException | SecurityException e) {
+            Log.e(LOG_TAG, "Could not import " + mUri, e);
+            return null;
+        }
+    }
+
+    private long readSize() {
+        Cursor cursor = null;
+        try {
+            cursor = mResolver.query(mUri, new String[]{OpenableColumns.SIZE}, null, null, null);
+            if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            }
+        } catch (RuntimeException e) {
+            // Not every provider answers queries for its files, the progress is then unknown
+            Log.w(LOG_TAG, "No size for " + mUri, e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    protected void onProgressUpdate(Long... progress) {
+        mBytesRead = progress[0];
+        mRowsImported = progress[1];
+        showProgress();
+    }
+
+    private void showProgress() {
+        if (mDialog == null) {
+            return;
+        }
+        mDialog.setIndeterminate(mSize <= 0);
+        if (mSize > 0) {
+            mDialog.setProgress((int) Math.min(100, mBytesRead * 100 / mSize));
+        }
+        mDialog.setMessage(mActivity.getString(R.string.import_progress, mRowsImported));
+    }
+
+    @Override
+    protected void onPostExecute(ProductCsvImporter.Report report) {
+        Activity activity = mActivity;
+        detach();
+        if (activity == null || activity.isFinishing()) {
+            return;
+        }
+        new AlertDialog.Builder(activity)
+                .setTitle(report != null && report.cancelled
+                        ? R.string.import_cancelled_title : R.string.import_done_title)
+                .setMessage(describe(activity, report))
+                .setPositiveButton(android.R.string.ok, null)
+                .show();
+    }
+
+    private static String describe(Activity activity, ProductCsvImporter.Report report) {
+        if (report == null) {
+            return activity.getString(R.string.import_failed);
+        }
+        StringBuilder message = new StringBuilder(activity.getString(R.string.import_result,
+                report.rowsImported, report.rowsRejected));
+        int shown = Math.min(report.errors.size(), SHOWN_ERRORS);
+        for (int i = 0; i < shown; i++) {
+            ProductCsvImporter.RowError error = report.errors.get(i);
+            message.append('\n').append(activity.getString(R.string.import_error_line, error.line, error.message));
+        }
+        return message.toString();
+    }
+}
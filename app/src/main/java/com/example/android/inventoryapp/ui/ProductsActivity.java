@@ -1,6 +1,7 @@
 package com.example.android.inventoryapp.ui;
 
 import android.app.LoaderManager;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.CursorLoader;
@@ -8,21 +9,33 @@ import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.Menu;
+import android.view.KeyEvent;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
+import android.view.inputmethod.EditorInfo;
 import android.widget.Button;
-import android.widget.ListView;
+import android.widget.EditText;
+import android.widget.TextView;
 import android.support.design.widget.FloatingActionButton;
 import android.widget.Toast;
 
 import com.example.android.inventoryapp.R;
+import com.example.android.inventoryapp.StartupTimer;
 import com.example.android.inventoryapp.adapter.ProductCursorAdapter;
 
+import com.example.android.inventoryapp.data.DataOperationQueue;
+import com.example.android.inventoryapp.data.KeysetCursorLoader;
+import com.example.android.inventoryapp.data.ListSnapshotFile;
 import com.example.android.inventoryapp.data.ProductContract;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
 import com.example.android.inventoryapp.data.SaleContract.SaleEntry;
@@ -36,17 +49,64 @@ public class ProductsActivity extends AppCompatActivity implements LoaderManager
     /** Identifier for the product data loader */
     private static final int PRODUCT_LOADER = 0;
 
-    /** Adapter for the ListView */
+    /** Number of rows loaded at a time as the list is scrolled */
+    private static final int PAGE_SIZE = 50;
+
+    /** Number of rows left below the last visible one when the next page is loaded */
+    private static final int PREFETCH_DISTANCE = 20;
+
+    /** Loader argument holding the search text, if the list shows search results */
+    private static final String ARG_SEARCH = "search";
+
+    /** Number of rows saved for the next launch, more than fit on a screen */
+    private static final int SNAPSHOT_ROWS = 30;
+
+    /** Request code of the picker of the CSV file to import */
+    private static final int REQUEST_IMPORT = 1;
+
+    /** Key of whether scan mode is on in the saved instance state */
+    private static final String STATE_SCAN_MODE = "scan_mode";
+
+    /** Columns the list is loaded with */
+    private static final String[] PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_IMAGE};
+
+    /** Adapter for the RecyclerView */
     ProductCursorAdapter mCursorAdapter;
 
     Button saleButton;
 
     long mIdForProduct;
 
+    /** Text the list is searched for, or null if it shows every product */
+    String mSearchText;
+
+    /** Collects quick taps on the sale buttons into one sale per product */
+    SaleTapCoalescer mSaleTaps;
+
+    /** First rows of the list, saved when the activity stops */
+    ListSnapshotFile mListSnapshot;
+
+    /** Rows read from {@link #mListSnapshot}, while they are shown instead of the loaded ones */
+    Cursor mSnapshotCursor;
+
+    /** Import started from this activity or the one it replaces, or null */
+    ProductImportTask mImportTask;
+
+    /** Field scanned SKUs are typed into, shown in scan mode */
+    View mScanBar;
+    EditText mScanCodeText;
+    TextView mScanStatusText;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView( R.layout.activity_products );
+        StartupTimer.reportFirstFrame( this );
 
         // Setup FAB to open AddEditProductActivity
         FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab);
@@ -59,20 +119,82 @@ public class ProductsActivity extends AppCompatActivity implements LoaderManager
             }
         });
 
-        // Find the ListView which will be populated with the pet data
-        ListView productListView = (ListView) findViewById(R.id.list);
-
-        // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = findViewById(R.id.empty_view);
-        productListView.setEmptyView(emptyView);
+        // Find the RecyclerView which will be populated with the product data
+        RecyclerView productListView = (RecyclerView) findViewById(R.id.list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        productListView.setLayoutManager(layoutManager);
 
-        // Setup an Adapter to create a list item for each row of pet data in the Cursor.
+        // Setup an Adapter to create a list item for each row of product data in the Cursor.
         // There is no product data yet (until the loader finishes) so pass in null for the Cursor.
         mCursorAdapter = new ProductCursorAdapter(this, null);
         productListView.setAdapter(mCursorAdapter);
 
+        // Find and set empty view on the adapter, so that it only shows when the list has 0 items.
+        mCursorAdapter.setEmptyView(findViewById(R.id.empty_view));
+
+        // Show the rows saved when the list was last left until the loader has read the live ones
+        mListSnapshot = new ListSnapshotFile( this, "products.snapshot" );
+        if (savedInstanceState == null) {
+            mSnapshotCursor = mListSnapshot.read( PROJECTION );
+            if (mSnapshotCursor != null) {
+                mCursorAdapter.swapCursor( mSnapshotCursor );
+            }
+        }
+
+        // Keep the pages around the shown rows loaded, and load the next page before the user
+        // reaches the end of the loaded rows
+        productListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                Loader<Cursor> loader = getLoaderManager().getLoader(PRODUCT_LOADER);
+                if (!(loader instanceof KeysetCursorLoader)) {
+                    return;
+                }
+                KeysetCursorLoader pages = (KeysetCursorLoader) loader;
+                int lastVisible = layoutManager.findLastVisibleItemPosition();
+                pages.setVisibleRange(layoutManager.findFirstVisibleItemPosition(), lastVisible);
+                int totalItemCount = layoutManager.getItemCount();
+                if (totalItemCount > 0 && lastVisible + 1 + PREFETCH_DISTANCE >= totalItemCount) {
+                    pages.loadNextPage();
+                }
+            }
+        });
+
         //saleButton = findViewById( R.id.sale_button );
 
+        // Show the stock expected from the taps right away, and the committed stock once known
+        mSaleTaps = new SaleTapCoalescer( this, new SaleTapCoalescer.Listener() {
+            @Override
+            public void onSaleCommitted(long productId, int units, int remaining, int unitsStillPending) {
+                if (remaining == ProductEntry.SELL_REJECTED) {
+                    Toast.makeText( ProductsActivity.this, getString( R.string.sale_out_of_stock ),
+                            Toast.LENGTH_SHORT ).show();
+                    giveBack( productId, units, unitsStillPending );
+                } else {
+                    // Reconcile the row with the stock the provider returned
+                    mCursorAdapter.showQuantity( productId, remaining - unitsStillPending,
+                            unitsStillPending == 0 );
+                }
+            }
+
+            @Override
+            public void onSaleFailed(long productId, int units, int unitsStillPending) {
+                Toast.makeText( ProductsActivity.this, getString( R.string.sale_failed ),
+                        Toast.LENGTH_SHORT ).show();
+                giveBack( productId, units, unitsStillPending );
+            }
+
+            /** Nothing was sold, so give the units back */
+            private void giveBack(long productId, int units, int unitsStillPending) {
+                if (unitsStillPending == 0) {
+                    mCursorAdapter.clearQuantity( productId );
+                } else {
+                    mCursorAdapter.showQuantity( productId,
+                            mCursorAdapter.getQuantity( productId ) + units, false );
+                }
+            }
+        } );
+
         // Setup the item click listener
         mCursorAdapter.setListener( new ProductCursorAdapter.OnProductInteractionListener() {
             @Override
@@ -97,53 +219,149 @@ public class ProductsActivity extends AppCompatActivity implements LoaderManager
 
             @Override
             public void onSaleButtonClick(long id) {
-                Toast.makeText( ProductsActivity.this, "You pressed SALE button.", Toast.LENGTH_SHORT ).show();
-
-                ContentValues values = new ContentValues();
-
-                // Form the content URI that represents the specific product that was clicked on,
-                // by appending the "id" (passed as input to this method) onto the
-                // {@link ProductEntry#CONTENT_URI}.
-                // For example, the URI would be "content://com.example.android.inventoryapp/prodcuts/2"
-                // if the product with ID 2 was clicked on.
-                Uri currentProductUri = ContentUris.withAppendedId( ProductEntry.CONTENT_URI, id);
-
-                //specify the columns to be fetched
-                String[] projection = {ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY,};
-                //Select condition
-                String selection = ProductContract.ProductEntry.COLUMN_PRODUCT_NAME + " = ?";
-                //Arguments for selection
-                String saleProductName = values.getAsString( ProductContract.ProductEntry.COLUMN_PRODUCT_NAME );
-                String[] selectionArgs = {saleProductName};
-                Cursor cursorPoductInTable = getContentResolver().query( currentProductUri, projection, selection, selectionArgs, null );
-                // for current quantity in product table
-                cursorPoductInTable.moveToFirst();
-                int indexForQuantityInProductTable = cursorPoductInTable.getColumnIndex( ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY );
-                int quantityInProductTable = cursorPoductInTable.getInt( indexForQuantityInProductTable );
-
-                int newQuantity = 0;
-                if(quantityInProductTable >0){
-                    newQuantity = quantityInProductTable - 1;
+                // Sell one unit of the product that was clicked on. Taps in quick succession are
+                // committed together; the provider decrements the stock and records the sale in
+                // one transaction.
+                int quantity = mCursorAdapter.getQuantity( id );
+                if (quantity == 0) {
+                    Toast.makeText( ProductsActivity.this, getString( R.string.sale_out_of_stock ),
+                            Toast.LENGTH_SHORT ).show();
+                    return;
                 }
+                if (quantity > 0) {
+                    mCursorAdapter.showQuantity( id, quantity - 1, false );
+                }
+                mSaleTaps.tap( id );
+            }
+        } );
 
-                values.put( ProductEntry.COLUMN_PRODUCT_QUANTITY, newQuantity );
-
-                getContentResolver().update( currentProductUri, values, null, null );
-
+        // In scan mode, barcode scanners type the SKU followed by Enter, which sells one unit
+        mScanBar = findViewById( R.id.scan_bar );
+        mScanCodeText = (EditText) findViewById( R.id.scan_code );
+        mScanStatusText = (TextView) findViewById( R.id.scan_status );
+        mScanCodeText.setOnEditorActionListener( new TextView.OnEditorActionListener() {
+            @Override
+            public boolean onEditorAction(TextView view, int actionId, KeyEvent event) {
+                if (actionId == EditorInfo.IME_ACTION_DONE || (event != null
+                        && event.getKeyCode() == KeyEvent.KEYCODE_ENTER
+                        && event.getAction() == KeyEvent.ACTION_DOWN)) {
+                    sellScannedProduct();
+                    return true;
+                }
+                return false;
             }
         } );
+        if (savedInstanceState != null && savedInstanceState.getBoolean( STATE_SCAN_MODE )) {
+            setScanMode( true );
+        }
+
+        // Show the progress of an import started before a configuration change
+        Object retained = getLastCustomNonConfigurationInstance();
+        if (retained instanceof ProductImportTask) {
+            mImportTask = (ProductImportTask) retained;
+            mImportTask.attach( this );
+        }
 
         // Kick off the loader
         getLoaderManager().initLoader(PRODUCT_LOADER, null, this);
     }
 
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState( outState );
+        outState.putBoolean( STATE_SCAN_MODE, mScanBar.getVisibility() == View.VISIBLE );
+    }
+
+    /**
+     * Show or hide the field scanned SKUs are typed into, and give it the focus when shown.
+     */
+    private void setScanMode(boolean on) {
+        mScanBar.setVisibility( on ? View.VISIBLE : View.GONE );
+        if (on) {
+            mScanCodeText.requestFocus();
+        }
+        invalidateOptionsMenu();
+    }
+
+    /**
+     * Sell one unit of the product whose SKU was scanned, and clear the field for the next scan.
+     * The provider finds the product and records the sale in one transaction.
+     */
+    private void sellScannedProduct() {
+        final String sku = mScanCodeText.getText().toString().trim();
+        mScanCodeText.setText( "" );
+        if (sku.isEmpty()) {
+            return;
+        }
+        final Uri sellUri = ProductEntry.buildSkuSellUri( sku, 1 );
+        DataOperationQueue.getInstance( this ).enqueue( ProductEntry.buildSkuUri( sku ),
+                new DataOperationQueue.Operation<Integer>() {
+                    @Override
+                    public Integer run(ContentResolver resolver) {
+                        return resolver.update( sellUri, null, null, null );
+                    }
+                },
+                new DataOperationQueue.FailureCallback<Integer>() {
+                    @Override
+                    public void onComplete(Integer remaining) {
+                        if (isFinishing()) {
+                            return;
+                        }
+                        if (remaining == ProductEntry.SELL_REJECTED) {
+                            mScanStatusText.setText( getString( R.string.scan_rejected, sku ) );
+                        } else {
+                            mScanStatusText.setText( getString( R.string.scan_sold, sku, remaining ) );
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(RuntimeException error) {
+                        // Not a rejected SKU: the sale may be saved by scanning again
+                        if (!isFinishing()) {
+                            mScanStatusText.setText( getString( R.string.scan_failed, sku ) );
+                        }
+                    }
+                } );
+    }
+
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        // A running import goes on in the next activity
+        return mImportTask != null && mImportTask.isRunning() ? mImportTask : null;
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mImportTask != null) {
+            mImportTask.detach();
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // Commit the collected sales before the user leaves the list
+        mSaleTaps.flush();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // Save the first screen of the full list for the next launch
+        Cursor cursor = mCursorAdapter.getCursor();
+        if (mSearchText == null && cursor != null && cursor != mSnapshotCursor && !cursor.isClosed()) {
+            mListSnapshot.save( cursor, SNAPSHOT_ROWS );
+        }
+    }
+
     /**
      * Helper method to insert hardcoded pet data into the database. For debugging purposes only.
      */
     private void insertPet() {
         // Create a ContentValues object where column names are the keys,
         // and Toto's pet attributes are the values.
-        ContentValues values = new ContentValues();
+        final ContentValues values = new ContentValues();
         values.put(ProductEntry.COLUMN_PRODUCT_NAME, "FC176");
         values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 60);
         values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 445);
@@ -153,16 +371,87 @@ public class ProductsActivity extends AppCompatActivity implements LoaderManager
         // Insert a new row for Toto into the provider using the ContentResolver.
         // Use the {@link PetEntry#CONTENT_URI} to indicate that we want to insert
         // into the pets database table.
-        // Receive the new content URI that will allow us to access Toto's data in the future.
-        Uri newUri = getContentResolver().insert(ProductEntry.CONTENT_URI, values);
+        DataOperationQueue.getInstance(this).enqueue(ProductEntry.CONTENT_URI,
+                new DataOperationQueue.Operation<Uri>() {
+                    @Override
+                    public Uri run(ContentResolver resolver) {
+                        return resolver.insert(ProductEntry.CONTENT_URI, values);
+                    }
+                }, null);
     }
 
     /**
-     * Helper method to delete all pets in the database.
+     * Let the user pick a CSV file of products to import.
+     */
+    private void pickImportFile() {
+        Intent intent;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            intent = new Intent( Intent.ACTION_OPEN_DOCUMENT );
+            intent.setType( "*/*" );
+            intent.putExtra( Intent.EXTRA_MIME_TYPES,
+                    new String[]{"text/csv", "text/comma-separated-values", "text/plain"} );
+        } else {
+            intent = new Intent( Intent.ACTION_GET_CONTENT );
+            intent.setType( "text/*" );
+        }
+        intent.addCategory( Intent.CATEGORY_OPENABLE );
+        startActivityForResult( intent, REQUEST_IMPORT );
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_IMPORT) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null
+                    && (mImportTask == null || !mImportTask.isRunning())) {
+                mImportTask = new ProductImportTask( getContentResolver(), data.getData() );
+                mImportTask.attach( this );
+                // Not on the serial executor, which saves the list snapshots
+                mImportTask.executeOnExecutor( AsyncTask.THREAD_POOL_EXECUTOR );
+            }
+            return;
+        }
+        super.onActivityResult( requestCode, resultCode, data );
+    }
+
+    /**
+     * Helper method to delete all pets in the database. Products that have sales cannot be
+     * deleted, so they are kept and counted.
      */
     private void deleteAllPets() {
-        int rowsDeleted = getContentResolver().delete(ProductEntry.CONTENT_URI, null, null);
-        Log.v("CatalogActivity", rowsDeleted + " rows deleted from pet database");
+        DataOperationQueue.getInstance(this).enqueue(ProductEntry.CONTENT_URI,
+                new DataOperationQueue.Operation<Integer>() {
+                    @Override
+                    public Integer run(ContentResolver resolver) {
+                        int rowsDeleted = resolver.delete(ProductEntry.UNSOLD_URI, null, null);
+                        Log.v("CatalogActivity", rowsDeleted + " rows deleted from pet database");
+                        Cursor kept = resolver.query(ProductEntry.CONTENT_URI, new String[]{ProductEntry._ID},
+                                null, null, null);
+                        if (kept == null) {
+                            return 0;
+                        }
+                        try {
+                            return kept.getCount();
+                        } finally {
+                            kept.close();
+                        }
+                    }
+                },
+                new DataOperationQueue.FailureCallback<Integer>() {
+                    @Override
+                    public void onComplete(Integer productsKept) {
+                        if (productsKept > 0) {
+                            Toast.makeText(ProductsActivity.this, getResources().getQuantityString(
+                                    R.plurals.delete_all_kept_products_with_sales, productsKept, productsKept),
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(RuntimeException error) {
+                        Toast.makeText(ProductsActivity.this, R.string.delete_products_failed,
+                                Toast.LENGTH_SHORT).show();
+                    }
+                });
     }
 
     @Override
@@ -170,6 +459,35 @@ public class ProductsActivity extends AppCompatActivity implements LoaderManager
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_all, menu);
+        getMenuInflater().inflate(R.menu.menu_products, menu);
+        menu.findItem(R.id.action_scan_to_sell).setChecked(mScanBar.getVisibility() == View.VISIBLE);
+
+        // Show search results in the list while the search field has text
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_products_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                String searchText = TextUtils.isEmpty(newText.trim()) ? null : newText;
+                if (TextUtils.equals(searchText, mSearchText)) {
+                    return true;
+                }
+                mSearchText = searchText;
+
+                Bundle args = null;
+                if (searchText != null) {
+                    args = new Bundle();
+                    args.putString(ARG_SEARCH, searchText);
+                }
+                getLoaderManager().restartLoader(PRODUCT_LOADER, args, ProductsActivity.this);
+                return true;
+            }
+        });
         return true;
     }
 
@@ -195,38 +513,62 @@ public class ProductsActivity extends AppCompatActivity implements LoaderManager
             case R.id.action_delete_all_entries:
                 deleteAllPets();
                 return true;
+            case R.id.action_import_products:
+                pickImportFile();
+                return true;
+            case R.id.action_scan_to_sell:
+                setScanMode( mScanBar.getVisibility() != View.VISIBLE );
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {
-                ProductEntry._ID,
-                ProductEntry.COLUMN_PRODUCT_NAME,
-                ProductEntry.COLUMN_PRODUCT_PRICE,
-                ProductEntry.COLUMN_PRODUCT_QUANTITY};
-
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
+        // Search results are few and ranked, so they are loaded at once
+        if (bundle != null && bundle.containsKey(ARG_SEARCH)) {
+            return new CursorLoader(this,
+                    ProductEntry.buildSearchUri(bundle.getString(ARG_SEARCH)),
+                    PROJECTION,
+                    null,
+                    null,
+                    null);
+        }
+
+        // This loader will execute the ContentProvider's query method on a background thread,
+        // one page at a time as the list is scrolled
+        return new KeysetCursorLoader(this,   // Parent activity context
                 ProductEntry.CONTENT_URI,   // Provider content URI to query
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
+                PROJECTION,             // Columns to include in the resulting Cursor
+                ProductEntry.COLUMN_PRODUCT_NAME,                   // Column the pages are sorted by
+                PAGE_SIZE);             // Rows per page
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
         // Update {@link PetCursorAdapter} with this new cursor containing updated pet data
         mCursorAdapter.swapCursor(data);
+        closeSnapshot();
+        if (data != null && loader instanceof KeysetCursorLoader) {
+            StartupTimer.reportFullList( this );
+        }
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
         // Callback called when the data needs to be deleted
         mCursorAdapter.swapCursor(null);
+        closeSnapshot();
+    }
+
+    /**
+     * Closes the saved rows once the list shows the loaded ones.
+     */
+    private void closeSnapshot() {
+        if (mSnapshotCursor != null) {
+            mSnapshotCursor.close();
+            mSnapshotCursor = null;
+        }
     }
 
 }
@@ -0,0 +1,154 @@
+package com.example.android.inventoryapp.ui;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.os.TraceCompat;
+import android.util.LongSparseArray;
+
+import com.example.android.inventoryapp.data.DataOperationQueue;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+/**
+ * Collects the taps on the sale buttons of the product list, and sells the units tapped for a
+ * product within a short window as one sale. Ten quick taps on a row decrement the stock once by
+ * ten and record one sale of ten units, instead of ten of each.
+ *
+ * Used on the main thread only.
+ */
+class SaleTapCoalescer {
+
+    /** How long taps are collected after the first one, in milliseconds */
+    static final long WINDOW_MILLIS = 400;
+
+    /** Receives the outcome of every committed sale, on the main thread. */
+    interface Listener {
+        /**
+         * @param units            units sold together
+         * @param remaining        stock left after the sale, or {@link ProductEntry#SELL_REJECTED}
+         *                         if nothing was sold
+         * @param unitsStillPending units of the product tapped since, and not committed yet
+         */
+        void onSaleCommitted(long productId, int units, int remaining, int unitsStillPending);
+
+        /**
+         * Called instead of {@link #onSaleCommitted} when the sale could not be written, such as
+         * when the storage is full. Nothing was sold.
+         */
+        void onSaleFailed(long productId, int units, int unitsStillPending);
+    }
+
+    private final Context mContext;
+
+    private final Listener mListener;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** Units tapped per product and not committed yet */
+    private final LongSparseArray<Integer> mTapped = new LongSparseArray<>();
+
+    /** Units committed per product whose outcome is not known yet */
+    private final LongSparseArray<Integer> mCommitting = new LongSparseArray<>();
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private boolean mFlushScheduled;
+
+    SaleTapCoalescer(Context context, Listener listener) {
+        mContext = context.getApplicationContext();
+        mListener = listener;
+    }
+
+    /**
+     * Adds one unit of a product to the sale being collected for it.
+     */
+    void tap(long productId) {
+        mTapped.put(productId, mTapped.get(productId, 0) + 1);
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mHandler.postDelayed(mFlush, WINDOW_MILLIS);
+        }
+    }
+
+    /**
+     * Returns the units of a product tapped or committed whose outcome is not known yet.
+     */
+    int getPendingUnits(long productId) {
+        return mTapped.get(productId, 0) + mCommitting.get(productId, 0);
+    }
+
+    /**
+     * Commits the units collected so far without waiting for the window to end.
+     */
+    void flush() {
+        TraceCompat.beginSection("SaleTapCoalescer.flush");
+        try {
+            mHandler.removeCallbacks(mFlush);
+            mFlushScheduled = false;
+            for (int i = 0; i < mTapped.size(); i++) {
+                commit(mTapped.keyAt(i), mTapped.valueAt(i));
+            }
+            mTapped.clear();
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    private void commit(final long productId, final int units) {
+        mCommitting.put(productId, mCommitting.get(productId, 0) + units);
+
+        final Uri sellUri = ProductEntry.buildSellUri(productId, units);
+        DataOperationQueue.getInstance(mContext).enqueue(
+                ContentUris.withAppendedId(ProductEntry.CONTENT_URI, productId),
+                new DataOperationQueue.Operation<Integer>() {
+                    @Override
+                    public Integer run(ContentResolver resolver) {
+                        TraceCompat.beginSection("SaleTapCoalescer.sell");
+                        try {
+                            return resolver.update(sellUri, new ContentValues(), null, null);
+                        } finally {
+                            TraceCompat.endSection();
+                        }
+                    }
+                },
+                new DataOperationQueue.FailureCallback<Integer>() {
+                    @Override
+                    public void onComplete(Integer remaining) {
+                        TraceCompat.beginSection("SaleTapCoalescer.committed");
+                        try {
+                            committed(productId, units);
+                            mListener.onSaleCommitted(productId, units, remaining, getPendingUnits(productId));
+                        } finally {
+                            TraceCompat.endSection();
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(RuntimeException error) {
+                        committed(productId, units);
+                        mListener.onSaleFailed(productId, units, getPendingUnits(productId));
+                    }
+                });
+    }
+
+    /**
+     * Forgets units whose outcome is now known.
+     */
+    private void committed(long productId, int units) {
+        int committing = mCommitting.get(productId, 0) - units;
+        if (committing > 0) {
+            mCommitting.put(productId, committing);
+        } else {
+            mCommitting.remove(productId);
+        }
+    }
+}
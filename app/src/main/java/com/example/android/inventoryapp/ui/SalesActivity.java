@@ -1,26 +1,30 @@
 package com.example.android.inventoryapp.ui;
 
 import android.app.LoaderManager;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
 import android.support.design.widget.FloatingActionButton;
 
 import com.example.android.inventoryapp.R;
 import com.example.android.inventoryapp.adapter.SaleCursorAdapter;
 
+import com.example.android.inventoryapp.data.DataOperationQueue;
+import com.example.android.inventoryapp.data.KeysetCursorLoader;
+import com.example.android.inventoryapp.data.ListSnapshotFile;
+import com.example.android.inventoryapp.data.SaleContract;
 import com.example.android.inventoryapp.data.SaleContract.SaleEntry;
 
 
@@ -32,9 +36,30 @@ public class SalesActivity extends AppCompatActivity implements LoaderManager.Lo
     /** Identifier for the sale data loader */
     private static final int SALE_LOADER = 0;
 
-    /** Adapter for the ListView */
+    /** Number of rows loaded at a time as the list is scrolled */
+    private static final int PAGE_SIZE = 50;
+
+    /** Number of rows left below the last visible one when the next page is loaded */
+    private static final int PREFETCH_DISTANCE = 20;
+
+    /** Number of rows saved for the next launch, more than fit on a screen */
+    private static final int SNAPSHOT_ROWS = 30;
+
+    /** Columns the list is loaded with */
+    private static final String[] PROJECTION = {SaleEntry._ID,
+            SaleEntry.COLUMN_SALE_PRODUCT_NAME,
+            SaleEntry.COLUMN_SALE_PRICE,
+            SaleEntry.COLUMN_SALE_QUANTITY };
+
+    /** Adapter for the RecyclerView */
     SaleCursorAdapter mCursorAdapter;
 
+    /** First rows of the list, saved when the activity stops */
+    ListSnapshotFile mListSnapshot;
+
+    /** Rows read from {@link #mListSnapshot}, while they are shown instead of the loaded ones */
+    Cursor mSnapshotCursor;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -50,22 +75,51 @@ public class SalesActivity extends AppCompatActivity implements LoaderManager.Lo
             }
         });
 
-        // Find the ListView which will be populated with the pet data
-        ListView saleListView = (ListView) findViewById(R.id.list);
+        // Find the RecyclerView which will be populated with the sale data
+        RecyclerView saleListView = (RecyclerView) findViewById(R.id.list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        saleListView.setLayoutManager(layoutManager);
 
-        // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = findViewById(R.id.empty_view);
-        saleListView.setEmptyView(emptyView);
-
-        // Setup an Adapter to create a list item for each row of pet data in the Cursor.
-        // There is no product data yet (until the loader finishes) so pass in null for the Cursor.
+        // Setup an Adapter to create a list item for each row of sale data in the Cursor.
+        // There is no sale data yet (until the loader finishes) so pass in null for the Cursor.
         mCursorAdapter = new SaleCursorAdapter(this, null);
         saleListView.setAdapter(mCursorAdapter);
 
+        // Find and set empty view on the adapter, so that it only shows when the list has 0 items.
+        mCursorAdapter.setEmptyView(findViewById(R.id.empty_view));
+
+        // Show the rows saved when the list was last left until the loader has read the live ones
+        mListSnapshot = new ListSnapshotFile(this, "sales.snapshot");
+        if (savedInstanceState == null) {
+            mSnapshotCursor = mListSnapshot.read(PROJECTION);
+            if (mSnapshotCursor != null) {
+                mCursorAdapter.swapCursor(mSnapshotCursor);
+            }
+        }
+
+        // Keep the pages around the shown rows loaded, and load the next page before the user
+        // reaches the end of the loaded rows
+        saleListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                Loader<Cursor> loader = getLoaderManager().getLoader(SALE_LOADER);
+                if (loader == null) {
+                    return;
+                }
+                KeysetCursorLoader pages = (KeysetCursorLoader) loader;
+                int lastVisible = layoutManager.findLastVisibleItemPosition();
+                pages.setVisibleRange(layoutManager.findFirstVisibleItemPosition(), lastVisible);
+                int totalItemCount = layoutManager.getItemCount();
+                if (totalItemCount > 0 && lastVisible + 1 + PREFETCH_DISTANCE >= totalItemCount) {
+                    pages.loadNextPage();
+                }
+            }
+        });
+
         // Setup the item click listener
-        saleListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        mCursorAdapter.setListener(new SaleCursorAdapter.OnSaleInteractionListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onItemClick(long id) {
                 // Create new intent to go to {@link EditorActivity}
                 Intent intent = new Intent(SalesActivity.this, AddEditSaleActivity.class);
 
@@ -88,13 +142,23 @@ public class SalesActivity extends AppCompatActivity implements LoaderManager.Lo
         getLoaderManager().initLoader(SALE_LOADER, null, this);
     }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // Save the first screen of the list for the next launch
+        Cursor cursor = mCursorAdapter.getCursor();
+        if (cursor != null && cursor != mSnapshotCursor && !cursor.isClosed()) {
+            mListSnapshot.save(cursor, SNAPSHOT_ROWS);
+        }
+    }
+
     /**
      * Helper method to insert hardcoded pet data into the database. For debugging purposes only.
      */
     private void insertPet() {
         // Create a ContentValues object where column names are the keys,
         // and Toto's pet attributes are the values.
-        ContentValues values = new ContentValues();
+        final ContentValues values = new ContentValues();
         values.put(SaleEntry.COLUMN_SALE_PRODUCT_NAME, "DA176");
         values.put(SaleEntry.COLUMN_SALE_PRICE, 88);
         values.put(SaleEntry.COLUMN_SALE_QUANTITY, 105);
@@ -104,16 +168,44 @@ public class SalesActivity extends AppCompatActivity implements LoaderManager.Lo
         // Insert a new row for Toto into the provider using the ContentResolver.
         // Use the {@link PetEntry#CONTENT_URI} to indicate that we want to insert
         // into the pets database table.
-        // Receive the new content URI that will allow us to access Toto's data in the future.
-        Uri newUri = getContentResolver().insert(SaleEntry.CONTENT_URI, values);
+        DataOperationQueue.getInstance(this).enqueue(SaleEntry.CONTENT_URI,
+                new DataOperationQueue.Operation<Uri>() {
+                    @Override
+                    public Uri run(ContentResolver resolver) {
+                        return resolver.insert(SaleEntry.CONTENT_URI, values);
+                    }
+                }, null);
     }
 
     /**
      * Helper method to delete all pets in the database.
      */
     private void deleteAllPets() {
-        int rowsDeleted = getContentResolver().delete(SaleEntry.CONTENT_URI, null, null);
-        Log.v("CatalogActivity", rowsDeleted + " rows deleted from pet database");
+        DataOperationQueue.getInstance(this).enqueue(SaleEntry.CONTENT_URI,
+                new DataOperationQueue.Operation<Integer>() {
+                    @Override
+                    public Integer run(ContentResolver resolver) {
+                        return resolver.delete(SaleEntry.CONTENT_URI, null, null);
+                    }
+                },
+                new DataOperationQueue.Callback<Integer>() {
+                    @Override
+                    public void onComplete(Integer rowsDeleted) {
+                        Log.v("CatalogActivity", rowsDeleted + " rows deleted from pet database");
+                    }
+                });
+    }
+
+    /**
+     * Let the user pick an app to save or send every sale to. The app reads the export through
+     * a URI granted to it, which streams the sales as they are read.
+     */
+    private void shareExport(Uri exportUri, String type) {
+        Intent intent = new Intent( Intent.ACTION_SEND );
+        intent.setType( type );
+        intent.putExtra( Intent.EXTRA_STREAM, exportUri );
+        intent.addFlags( Intent.FLAG_GRANT_READ_URI_PERMISSION );
+        startActivity( Intent.createChooser( intent, getString( R.string.export_sales_title ) ) );
     }
 
     @Override
@@ -121,6 +213,7 @@ public class SalesActivity extends AppCompatActivity implements LoaderManager.Lo
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_all, menu);
+        getMenuInflater().inflate(R.menu.menu_sales, menu);
         return true;
     }
 
@@ -146,37 +239,49 @@ public class SalesActivity extends AppCompatActivity implements LoaderManager.Lo
             case R.id.action_delete_all_entries:
                 deleteAllPets();
                 return true;
+            case R.id.action_export_csv:
+                shareExport( SaleContract.EXPORT_CSV_URI, SaleContract.EXPORT_CSV_TYPE );
+                return true;
+            case R.id.action_export_json_lines:
+                shareExport( SaleContract.EXPORT_JSON_LINES_URI, SaleContract.EXPORT_JSON_LINES_TYPE );
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {SaleEntry._ID,
-                SaleEntry.COLUMN_SALE_PRODUCT_NAME,
-                SaleEntry.COLUMN_SALE_PRICE,
-                SaleEntry.COLUMN_SALE_QUANTITY };
-
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
+        // This loader will execute the ContentProvider's query method on a background thread,
+        // one page at a time as the list is scrolled
+        return new KeysetCursorLoader(this,   // Parent activity context
                 SaleEntry.CONTENT_URI,   // Provider content URI to query
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
+                PROJECTION,             // Columns to include in the resulting Cursor
+                null,                   // Pages are sorted by id alone
+                PAGE_SIZE);             // Rows per page
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
         // Update {@link PetCursorAdapter} with this new cursor containing updated pet data
         mCursorAdapter.swapCursor(data);
+        closeSnapshot();
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
         // Callback called when the data needs to be deleted
         mCursorAdapter.swapCursor(null);
+        closeSnapshot();
+    }
+
+    /**
+     * Closes the saved rows once the list shows the loaded ones.
+     */
+    private void closeSnapshot() {
+        if (mSnapshotCursor != null) {
+            mSnapshotCursor.close();
+            mSnapshotCursor = null;
+        }
     }
 }
 
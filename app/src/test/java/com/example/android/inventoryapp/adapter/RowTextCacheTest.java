@@ -0,0 +1,122 @@
+package com.example.android.inventoryapp.adapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Binds rows the way the list adapters do during a scripted fling, and checks that scrolling
+ * back over rows seen before allocates nothing. Runs on the host JVM.
+ */
+public class RowTextCacheTest {
+
+    private static final int ROWS = 1000;
+
+    private static final int VISIBLE_ROWS = 12;
+
+    private static final int CACHED_ROWS = 256;
+
+    private String[] mNames;
+
+    private int[] mPrices;
+
+    private int[] mVersions;
+
+    private RowTextCache mCache;
+
+    /** Texts of the row bound last, as they would be set on the row's views */
+    private String[] mShown;
+
+    @Before
+    public void setUp() {
+        mNames = new String[ROWS];
+        mPrices = new int[ROWS];
+        mVersions = new int[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            mNames[i] = "Product " + i;
+            mPrices[i] = 10 + i % 90;
+        }
+        mCache = new RowTextCache( CACHED_ROWS, 2 );
+    }
+
+    @Test
+    public void flingBackOverSeenRowsAllocatesNothing() {
+        com.sun.management.ThreadMXBean threads = allocationCounter();
+
+        // Fling down over 200 rows, then warm up the scroll back once
+        fling( 0, 200 );
+        fling( 200, 0 );
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes( threadId );
+        fling( 0, 200 );
+        fling( 200, 0 );
+        long allocated = threads.getThreadAllocatedBytes( threadId ) - before;
+
+        assertEquals( 0, allocated );
+        assertEquals( "Product 0", mShown[0] );
+    }
+
+    @Test
+    public void changedRowIsFormattedAgain() {
+        bind( 5 );
+        assertNotNull( mCache.get( 5, mVersions[5] ) );
+
+        mPrices[5] = 99;
+        mVersions[5]++;
+        assertNull( mCache.get( 5, mVersions[5] ) );
+        bind( 5 );
+        assertEquals( "99", mShown[1] );
+    }
+
+    @Test
+    public void cacheKeepsAFixedNumberOfRows() {
+        fling( 0, ROWS - VISIBLE_ROWS );
+
+        int cached = 0;
+        for (int i = 0; i < ROWS; i++) {
+            if (mCache.get( i, mVersions[i] ) != null) {
+                cached++;
+            }
+        }
+        assertEquals( CACHED_ROWS, cached );
+
+        // Rows pushed out of the cache are read again with their own texts
+        fling( ROWS - VISIBLE_ROWS, 0 );
+        assertEquals( "Product 0", mShown[0] );
+    }
+
+    /** Binds the rows that scroll into view, one row at a time, from one position to another. */
+    private void fling(int from, int to) {
+        int step = from < to ? 1 : -1;
+        for (int top = from; top != to; top += step) {
+            bind( step > 0 ? top + VISIBLE_ROWS : top );
+        }
+        bind( to );
+    }
+
+    private void bind(int position) {
+        String[] texts = mCache.get( position, mVersions[position] );
+        if (texts == null) {
+            texts = mCache.put( position, mVersions[position] );
+            texts[0] = mNames[position];
+            texts[1] = String.valueOf( mPrices[position] );
+        }
+        mShown = texts;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue( threads instanceof com.sun.management.ThreadMXBean );
+        com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue( counter.isThreadAllocatedMemorySupported() );
+        counter.setThreadAllocatedMemoryEnabled( true );
+        return counter;
+    }
+}
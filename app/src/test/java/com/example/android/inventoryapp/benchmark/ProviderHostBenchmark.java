@@ -0,0 +1,44 @@
+package com.example.android.inventoryapp.benchmark;
+
+import com.example.android.inventoryapp.data.ProductContract;
+import com.example.android.inventoryapp.data.ProductProvider;
+import com.example.android.inventoryapp.data.SaleContract;
+import com.example.android.inventoryapp.data.SaleProvider;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Runs {@link ProviderBenchmark} on the host JVM, against the real providers on Robolectric's
+ * SQLite. Table sizes come from the {@code benchmark.rows} system property, for example
+ * {@code -Pbenchmark.rows=10000,100000}, and results are printed to standard output. Without
+ * the property the benchmark is skipped, so that a plain test run stays quick.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class ProviderHostBenchmark {
+
+    @Test
+    public void providers() {
+        String sizes = System.getProperty("benchmark.rows");
+        Assume.assumeTrue("No benchmark.rows given", sizes != null);
+        Robolectric.setupContentProvider(ProductProvider.class, ProductContract.CONTENT_AUTHORITY);
+        Robolectric.setupContentProvider(SaleProvider.class, SaleContract.CONTENT_AUTHORITY);
+
+        ProviderBenchmark benchmark = new ProviderBenchmark(RuntimeEnvironment.application.getContentResolver());
+        for (int tableRows : ProviderBenchmark.parseTableRows(sizes)) {
+            for (BenchmarkResult result : benchmark.run(tableRows)) {
+                System.out.println(result);
+                assertFalse(result.operation, result.opsPerSecond == 0);
+            }
+            System.out.println(benchmark.stockTableStats());
+        }
+    }
+}
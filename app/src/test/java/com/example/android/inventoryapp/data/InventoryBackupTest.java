@@ -0,0 +1,165 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.SaleContract.SaleEntry;
+import com.example.android.inventoryapp.data.SaleContract.SaleSummaryEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that a restore brings back the products and sales of a backup, across blocks, with
+ * the search index and the sales totals rebuilt, and that damaged backups change nothing.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class InventoryBackupTest {
+
+    private static final int SALES = InventoryBackup.BLOCK_ROWS + 10;
+
+    private ContentResolver mResolver;
+
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(ProductProvider.class, ProductContract.CONTENT_AUTHORITY);
+        Robolectric.setupContentProvider(SaleProvider.class, SaleContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mFile = new File(RuntimeEnvironment.application.getFilesDir(), "inventory.backup");
+
+        ContentValues[] products = new ContentValues[3];
+        for (int i = 0; i < products.length; i++) {
+            products[i] = new ContentValues();
+            products[i].put(ProductEntry.COLUMN_PRODUCT_NAME, i == 0 ? "Bottes en cuir été" : "Socks " + i);
+            products[i].put(ProductEntry.COLUMN_PRODUCT_PRICE, 20 + i);
+            products[i].put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 1000);
+            products[i].put(ProductEntry.COLUMN_SUPPLIER_NAME, i == 2 ? ProductEntry.FOREX : ProductEntry.NIKE);
+            products[i].put(ProductEntry.COLUMN_SUPPLIER_PHONE, "0123");
+            if (i != 1) {
+                products[i].put(ProductEntry.COLUMN_PRODUCT_SKU, "400638133393" + i);
+            }
+        }
+        mResolver.bulkInsert(ProductEntry.CONTENT_URI, products);
+
+        ContentValues[] sales = new ContentValues[SALES];
+        for (int i = 0; i < sales.length; i++) {
+            ContentValues values = new ContentValues();
+            values.put(SaleEntry.COLUMN_SALE_PRODUCT_ID, 1 + i % 3);
+            values.put(SaleEntry.COLUMN_SALE_PRICE, 10 + i % 7);
+            values.put(SaleEntry.COLUMN_SALE_QUANTITY, 1 + i % 4);
+            if (i % 100 != 0) {
+                values.put(SaleEntry.COLUMN_SALE_DATE, 1527775331000L + i * 60000L);
+            }
+            sales[i] = values;
+        }
+        mResolver.bulkInsert(SaleEntry.CONTENT_URI, sales);
+    }
+
+    @Test
+    public void restoreBringsBackTheBackup() {
+        String products = dump(ProductEntry.CONTENT_URI);
+        String sales = dump(SaleEntry.CONTENT_URI);
+        String totals = dump(SaleSummaryEntry.SUPPLIER_URI);
+
+        Bundle written = call(ProductContract.METHOD_BACKUP);
+        assertEquals(3, written.getInt(ProductContract.KEY_BACKUP_PRODUCTS));
+        assertEquals(SALES, written.getInt(ProductContract.KEY_BACKUP_SALES));
+
+        // Change everything the backup holds
+        mResolver.delete(SaleEntry.CONTENT_URI,
+                SaleEntry.COLUMN_SALE_PRODUCT_ID + " = 3 OR " + SaleEntry._ID + " > 10", null);
+        mResolver.delete(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 3), null, null);
+        ContentValues renamed = new ContentValues();
+        renamed.put(ProductEntry.COLUMN_PRODUCT_NAME, "Sandals");
+        mResolver.update(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 1), renamed, null, null);
+
+        Bundle restored = call(ProductContract.METHOD_RESTORE);
+        assertEquals(3, restored.getInt(ProductContract.KEY_BACKUP_PRODUCTS));
+        assertEquals(SALES, restored.getInt(ProductContract.KEY_BACKUP_SALES));
+        assertEquals(products, dump(ProductEntry.CONTENT_URI));
+        assertEquals(sales, dump(SaleEntry.CONTENT_URI));
+        assertEquals(totals, dump(SaleSummaryEntry.SUPPLIER_URI));
+        assertEquals(1, count(ProductEntry.buildSearchUri("bott")));
+
+        // The triggers are back: a new sale counts in the totals
+        ContentValues sale = new ContentValues();
+        sale.put(SaleEntry.COLUMN_SALE_PRODUCT_ID, 3);
+        sale.put(SaleEntry.COLUMN_SALE_PRICE, 5);
+        sale.put(SaleEntry.COLUMN_SALE_QUANTITY, 1);
+        mResolver.insert(SaleEntry.CONTENT_URI, sale);
+        assertEquals(SALES + 1, count(SaleEntry.CONTENT_URI));
+    }
+
+    @Test
+    public void damagedBackupChangesNothing() throws IOException {
+        call(ProductContract.METHOD_BACKUP);
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(file.length() / 2);
+            int b = file.read();
+            file.seek(file.length() / 2);
+            file.write(b ^ 0x40);
+        } finally {
+            file.close();
+        }
+        mResolver.delete(SaleEntry.CONTENT_URI, null, null);
+
+        try {
+            call(ProductContract.METHOD_RESTORE);
+            fail("Restored a damaged backup");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(3, count(ProductEntry.CONTENT_URI));
+        assertEquals(0, count(SaleEntry.CONTENT_URI));
+    }
+
+    private Bundle call(String method) {
+        return mResolver.call(ProductContract.BASE_CONTENT_URI, method, mFile.getPath(), null);
+    }
+
+    private int count(Uri uri) {
+        Cursor cursor = mResolver.query(uri, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Returns every value of every row, in the order of the query. */
+    private String dump(Uri uri) {
+        StringBuilder dump = new StringBuilder();
+        Cursor cursor = mResolver.query(uri, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    dump.append(cursor.getString(i)).append(',');
+                }
+                dump.append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return dump.toString();
+    }
+}
@@ -0,0 +1,249 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Loader;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.SaleContract.SaleEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the providers notify the URI of a single changed row, and that the list loader
+ * puts the row in place of the rows loaded before, against the real providers.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class KeysetCursorLoaderTest {
+
+    private static final String[] PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY};
+
+    private static final int PAGE_SIZE = 4;
+
+    private ContentResolver mResolver;
+
+    private KeysetCursorLoader mLoader;
+
+    private final List<Cursor> mDelivered = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(ProductProvider.class, ProductContract.CONTENT_AUTHORITY);
+        Robolectric.setupContentProvider(SaleProvider.class, SaleContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @After
+    public void tearDown() {
+        if (mLoader != null) {
+            mLoader.reset();
+        }
+    }
+
+    @Test
+    public void changeUriNamesTheRow() {
+        Uri change = RowChanges.buildChangeUri(ProductEntry.CONTENT_URI, 12, RowChanges.CHANGE_UPDATE);
+
+        assertEquals(12, RowChanges.getChangedId(ProductEntry.CONTENT_URI, change));
+        assertEquals(RowChanges.CHANGE_UPDATE, RowChanges.getChange(change));
+        assertEquals(-1, RowChanges.getChangedId(SaleEntry.CONTENT_URI, change));
+        assertEquals(-1, RowChanges.getChangedId(ProductEntry.CONTENT_URI, ProductEntry.CONTENT_URI));
+    }
+
+    @Test
+    public void soldProductIsUpdatedInPlace() {
+        long[] ids = insertProducts("A", "B", "C", "D", "E", "F");
+        startProducts();
+        assertRows("A5 B5 C5 D5");
+
+        assertEquals(4, mResolver.update(ProductEntry.buildSellUri(ids[1], 1), new ContentValues(), null, null));
+        awaitDelivery(2);
+        assertRows("A5 B4 C5 D5");
+    }
+
+    @Test
+    public void renamedProductMovesToItsPlace() {
+        long[] ids = insertProducts("A", "B", "C", "D", "E", "F");
+        startProducts();
+
+        rename(ids[0], "Ca");
+        awaitDelivery(2);
+        assertRows("B5 C5 Ca5 D5");
+
+        // Renamed past the last loaded row, it is left for the next page
+        rename(ids[1], "Z");
+        awaitDelivery(3);
+        assertRows("C5 Ca5 D5");
+
+        mLoader.loadNextPage();
+        awaitDelivery(4);
+        assertRows("C5 Ca5 D5 E5 F5 Z5");
+    }
+
+    @Test
+    public void insertedAndDeletedProductsArePatched() {
+        long[] ids = insertProducts("B", "D", "F", "H", "J");
+        startProducts();
+        assertRows("B5 D5 F5 H5");
+
+        insertProducts("E");
+        awaitDelivery(2);
+        assertRows("B5 D5 E5 F5 H5");
+
+        // Inserted after the last loaded row, it is read with its page
+        insertProducts("K");
+        awaitDelivery(3);
+        assertRows("B5 D5 E5 F5 H5");
+
+        assertEquals(1, mResolver.delete(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, ids[1]), null, null));
+        awaitDelivery(4);
+        assertRows("B5 E5 F5 H5");
+
+        mLoader.loadNextPage();
+        awaitDelivery(5);
+        assertRows("B5 E5 F5 H5 J5 K5");
+    }
+
+    @Test
+    public void changeToManyRowsReadsThemAgain() {
+        insertProducts("A", "B", "C");
+        startProducts();
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 9);
+        assertEquals(3, mResolver.update(ProductEntry.CONTENT_URI, values, null, null));
+        awaitDelivery(2);
+        assertRows("A9 B9 C9");
+    }
+
+    @Test
+    public void pagesAwayFromTheVisibleRowsAreEvicted() {
+        String[] names = new String[40];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = String.format("P%02d", i);
+        }
+        long[] ids = insertProducts(names);
+        startProducts();
+
+        // Scroll to the end a page at a time
+        for (int pages = 1; pages < names.length / PAGE_SIZE; pages++) {
+            mLoader.setVisibleRange(pages * PAGE_SIZE - PAGE_SIZE, pages * PAGE_SIZE - 1);
+            mLoader.loadNextPage();
+            awaitDelivery(pages + 1);
+        }
+        mLoader.setVisibleRange(36, 39);
+        Cursor cursor = mDelivered.get(mDelivered.size() - 1);
+        assertEquals(40, cursor.getCount());
+
+        // The first page and the pages around the visible rows are kept, the others only by id
+        assertEquals("P00", nameAt(cursor, 0));
+        assertEquals(null, nameAt(cursor, 10));
+        assertEquals(ids[10], cursor.getLong(0));
+        assertEquals("P28", nameAt(cursor, 28));
+        assertEquals("P39", nameAt(cursor, 39));
+
+        // Scrolling back reads the evicted pages again, and evicts the ones left behind
+        int delivered = mDelivered.size();
+        mLoader.setVisibleRange(8, 11);
+        awaitDelivery(delivered + 1);
+        cursor = mDelivered.get(mDelivered.size() - 1);
+        assertEquals(40, cursor.getCount());
+        assertEquals("P10", nameAt(cursor, 10));
+        assertEquals("P19", nameAt(cursor, 19));
+        assertEquals(null, nameAt(cursor, 20));
+        assertEquals(ids[39], snapshotId(cursor, 39));
+    }
+
+    private static String nameAt(Cursor cursor, int position) {
+        cursor.moveToPosition(position);
+        return cursor.getString(1);
+    }
+
+    private static long snapshotId(Cursor cursor, int position) {
+        return ((RowSnapshot.Holder) cursor).getRowSnapshot().getId(position);
+    }
+
+    private long[] insertProducts(String... names) {
+        long[] ids = new long[names.length];
+        for (int i = 0; i < names.length; i++) {
+            ContentValues values = new ContentValues();
+            values.put(ProductEntry.COLUMN_PRODUCT_NAME, names[i]);
+            values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 20);
+            values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 5);
+            values.put(ProductEntry.COLUMN_SUPPLIER_NAME, ProductEntry.NIKE);
+            values.put(ProductEntry.COLUMN_SUPPLIER_PHONE, "0");
+            ids[i] = ContentUris.parseId(mResolver.insert(ProductEntry.CONTENT_URI, values));
+        }
+        return ids;
+    }
+
+    private void rename(long id, String name) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        assertEquals(1, mResolver.update(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id),
+                values, null, null));
+    }
+
+    private void startProducts() {
+        mLoader = new KeysetCursorLoader(RuntimeEnvironment.application, ProductEntry.CONTENT_URI,
+                PROJECTION, ProductEntry.COLUMN_PRODUCT_NAME, PAGE_SIZE);
+        mLoader.registerListener(0, new Loader.OnLoadCompleteListener<Cursor>() {
+            @Override
+            public void onLoadComplete(Loader<Cursor> loader, Cursor data) {
+                mDelivered.add(data);
+            }
+        });
+        mLoader.startLoading();
+        awaitDelivery(1);
+    }
+
+    /** Runs the loads and the main looper until the given number of results has been delivered. */
+    private void awaitDelivery(int count) {
+        long deadline = SystemClock.uptimeMillis() + 5000;
+        while (mDelivered.size() < count && SystemClock.uptimeMillis() < deadline) {
+            ShadowApplication.runBackgroundTasks();
+            ShadowLooper.runUiThreadTasks();
+            Thread.yield();
+        }
+        assertEquals(count, mDelivered.size());
+    }
+
+    /** Checks the rows of the result delivered last, as name and quantity. */
+    private void assertRows(String expected) {
+        Cursor cursor = mDelivered.get(mDelivered.size() - 1);
+        RowSnapshot snapshot = ((RowSnapshot.Holder) cursor).getRowSnapshot();
+        StringBuilder rows = new StringBuilder();
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            if (rows.length() > 0) {
+                rows.append(' ');
+            }
+            rows.append(cursor.getString(1)).append(cursor.getInt(2));
+            assertEquals(cursor.getLong(0), snapshot.getId(cursor.getPosition()));
+        }
+        assertEquals(expected, rows.toString());
+        assertEquals(cursor.getCount(), snapshot.size());
+    }
+}
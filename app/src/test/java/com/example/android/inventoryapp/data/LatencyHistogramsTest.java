@@ -0,0 +1,86 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the buckets of the latency histograms, and that the providers count their calls per
+ * operation and URI pattern.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class LatencyHistogramsTest {
+
+    @Test
+    public void bucketsHoldTheirLatencies() {
+        int previous = -1;
+        for (long micros = 0; micros < 1L << 34; micros = micros < 64 ? micros + 1 : micros + micros / 7) {
+            int bucket = LatencyHistograms.bucketOf(micros);
+            assertTrue(bucket >= previous);
+            previous = bucket;
+            long ceiling = LatencyHistograms.bucketCeiling(bucket);
+            if (micros < 1L << 32) {
+                // Within an eighth of the latency
+                assertTrue(micros <= ceiling);
+                assertTrue(ceiling - micros <= micros / 8);
+            }
+        }
+        assertEquals(LatencyHistograms.bucketOf(1L << 40), LatencyHistograms.bucketOf((1L << 33) - 1));
+    }
+
+    @Test
+    public void providersCountCallsPerUriPattern() {
+        Robolectric.setupContentProvider(ProductProvider.class, ProductContract.CONTENT_AUTHORITY);
+        ContentResolver resolver = RuntimeEnvironment.application.getContentResolver();
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Boots");
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 20);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 5);
+        values.put(ProductEntry.COLUMN_SUPPLIER_NAME, ProductEntry.NIKE);
+        long id = ContentUris.parseId(resolver.insert(ProductEntry.CONTENT_URI, values));
+        for (int i = 0; i < 3; i++) {
+            resolver.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id),
+                    new String[]{ProductEntry.COLUMN_PRODUCT_NAME}, null, null, null).close();
+        }
+        resolver.update(ProductEntry.buildSellUri(id, 1), new ContentValues(), null, null);
+
+        Cursor metrics = resolver.query(ProductContract.METRICS_URI, null, null, null, null);
+        StringBuilder rows = new StringBuilder();
+        try {
+            int operation = metrics.getColumnIndexOrThrow(LatencyHistograms.COLUMN_OPERATION);
+            int uri = metrics.getColumnIndexOrThrow(LatencyHistograms.COLUMN_URI);
+            int count = metrics.getColumnIndexOrThrow(LatencyHistograms.COLUMN_COUNT);
+            while (metrics.moveToNext()) {
+                rows.append(metrics.getString(operation)).append(' ').append(metrics.getString(uri))
+                        .append(' ').append(metrics.getLong(count)).append('\n');
+            }
+        } finally {
+            metrics.close();
+        }
+        assertEquals("query products/# 3\ninsert products 1\nupdate products/#/sell 1\n", rows.toString());
+
+        StringWriter dump = new StringWriter();
+        // A new provider, attached to the app so that it can also dump its slow statements
+        ProductProvider provider = Robolectric.buildContentProvider(ProductProvider.class).create().get();
+        provider.dump(null, new PrintWriter(dump), new String[0]);
+        assertTrue(dump.toString().contains("no calls yet"));
+    }
+}
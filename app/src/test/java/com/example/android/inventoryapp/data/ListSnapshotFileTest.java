@@ -0,0 +1,100 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.AsyncTask;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the first rows of a list survive a round trip through the snapshot file.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class ListSnapshotFileTest {
+
+    private static final String[] PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY};
+
+    private ListSnapshotFile mFile;
+
+    @Before
+    public void setUp() {
+        mFile = new ListSnapshotFile(RuntimeEnvironment.application, "test.snapshot");
+    }
+
+    @Test
+    public void firstRowsAreReadBack() {
+        MatrixCursor rows = new MatrixCursor(PROJECTION);
+        for (int i = 0; i < 40; i++) {
+            rows.addRow(new Object[]{i + 1L, i == 3 ? null : "Product " + i, 10 + i, 2.5 * i});
+        }
+        saveAndWait(rows, 30);
+
+        Cursor cursor = mFile.read(PROJECTION);
+        assertNotNull(cursor);
+        try {
+            assertEquals(30, cursor.getCount());
+            assertTrue(cursor.moveToPosition(3));
+            assertEquals(4, cursor.getLong(0));
+            assertTrue(cursor.isNull(1));
+            assertEquals(13, cursor.getInt(2));
+            assertEquals(Cursor.FIELD_TYPE_FLOAT, cursor.getType(3));
+            assertEquals(7.5, cursor.getDouble(3), 0);
+
+            // The rows carry the same snapshot as the live rows, so that the list keeps its items
+            RowSnapshot snapshot = ((RowSnapshot.Holder) cursor).getRowSnapshot();
+            assertEquals(30, snapshot.size());
+            assertEquals(4, snapshot.getId(3));
+            rows.moveToPosition(3);
+            assertEquals(RowSnapshot.hashRow(rows, PROJECTION.length), snapshot.getRowVersion(3));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void otherColumnsOrNoFileReadNothing() {
+        assertNull(mFile.read(PROJECTION));
+
+        saveAndWait(new MatrixCursor(PROJECTION), 30);
+        assertEquals(0, mFile.read(PROJECTION).getCount());
+        assertNull(mFile.read(new String[]{ProductEntry._ID, ProductEntry.COLUMN_PRODUCT_NAME}));
+    }
+
+    /** Saves the rows and waits for the file to be written in the background. */
+    private void saveAndWait(Cursor rows, int maxRows) {
+        mFile.save(rows, maxRows);
+        // Saves run one after the other, so the file is written once this task has run
+        final CountDownLatch written = new CountDownLatch(1);
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                written.countDown();
+            }
+        });
+        try {
+            assertTrue(written.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
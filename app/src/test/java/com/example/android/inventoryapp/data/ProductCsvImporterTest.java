@@ -0,0 +1,118 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that CSV files are parsed as spreadsheets write them, that invalid rows are reported
+ * with their line, and that imports go in chunks that can be cancelled.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class ProductCsvImporterTest {
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(ProductProvider.class, ProductContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void validRowsAreImportedAndInvalidOnesReported() throws IOException {
+        String csv = "\uFEFFSupplier,Name,Quantity,Price,Supplier_Phone\r\n"
+                + "NIKE,\"Boots, black\",5,20,0123\r\n"
+                + "4,\"The \"\"best\"\" sandals\",1,7,\r\n"
+                + "\r\n"
+                + "ACME,Socks,3,2,\r\n"
+                + "1,Laces,-1,2,\r\n"
+                + "1,\"Two\nlines\",2,2\r\n"
+                + "1,Short\r\n";
+
+        ProductCsvImporter.Report report = new ProductCsvImporter(mResolver).importFrom(stream(csv), null);
+
+        assertEquals(3, report.rowsImported);
+        assertEquals(3, report.rowsRejected);
+        assertFalse(report.cancelled);
+        assertEquals(5, report.errors.get(0).line);
+        assertTrue(report.errors.get(0).message.contains("supplier"));
+        assertEquals(6, report.errors.get(1).line);
+        assertEquals(9, report.errors.get(2).line);
+
+        Cursor cursor = mResolver.query(ProductEntry.CONTENT_URI,
+                new String[]{ProductEntry.COLUMN_PRODUCT_NAME, ProductEntry.COLUMN_SUPPLIER_NAME,
+                        ProductEntry.COLUMN_SUPPLIER_PHONE},
+                null, null, ProductEntry._ID);
+        try {
+            assertEquals(3, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("Boots, black", cursor.getString(0));
+            assertEquals(ProductEntry.NIKE, cursor.getInt(1));
+            assertEquals("0123", cursor.getString(2));
+            cursor.moveToNext();
+            assertEquals("The \"best\" sandals", cursor.getString(0));
+            cursor.moveToNext();
+            assertEquals("Two\nlines", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void missingColumnsImportNothing() throws IOException {
+        ProductCsvImporter.Report report = new ProductCsvImporter(mResolver)
+                .importFrom(stream("name,price\nBoots,20\n"), null);
+        assertEquals(0, report.rowsImported);
+        assertEquals(1, report.errors.size());
+    }
+
+    @Test
+    public void cancelledImportKeepsItsCommittedChunks() throws IOException {
+        StringBuilder csv = new StringBuilder("name,price,quantity,supplier\n");
+        for (int i = 0; i < ProductCsvImporter.CHUNK_ROWS * 3; i++) {
+            csv.append("Product ").append(i).append(",10,1,2\n");
+        }
+        final ProductCsvImporter importer = new ProductCsvImporter(mResolver);
+        ProductCsvImporter.Report report = importer.importFrom(stream(csv.toString()),
+                new ProductCsvImporter.ProgressListener() {
+                    @Override
+                    public void onProgress(long bytesRead, int rowsImported) {
+                        importer.cancel();
+                    }
+                });
+
+        assertTrue(report.cancelled);
+        assertEquals(ProductCsvImporter.CHUNK_ROWS, report.rowsImported);
+        Cursor cursor = mResolver.query(ProductEntry.CONTENT_URI, new String[]{ProductEntry._ID},
+                null, null, null);
+        try {
+            assertEquals(ProductCsvImporter.CHUNK_ROWS, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static InputStream stream(String csv) {
+        return new ByteArrayInputStream(csv.getBytes(Charset.forName("UTF-8")));
+    }
+}
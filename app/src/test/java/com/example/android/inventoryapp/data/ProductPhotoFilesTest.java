@@ -0,0 +1,136 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the file of a photo is deleted once no product holds it anymore, and only once
+ * the change that let it go is committed.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class ProductPhotoFilesTest {
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(ProductProvider.class, ProductContract.CONTENT_AUTHORITY);
+        Robolectric.setupContentProvider(SaleProvider.class, SaleContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void replacedAndRemovedPhotosAreDeleted() throws IOException {
+        File first = photo("first.jpg");
+        File second = photo("second.jpg");
+        Uri product = insertProduct(first);
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_IMAGE, second.getPath());
+        mResolver.update(product, values, null, null);
+        assertFalse(first.exists());
+        assertTrue(second.exists());
+
+        // Changes that keep the photo keep its file
+        values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Sandals");
+        mResolver.update(product, values, null, null);
+        assertTrue(second.exists());
+
+        values = new ContentValues();
+        values.putNull(ProductEntry.COLUMN_PRODUCT_IMAGE);
+        mResolver.update(product, values, null, null);
+        assertFalse(second.exists());
+    }
+
+    @Test
+    public void deletedProductLosesItsPhoto() throws IOException {
+        File kept = photo("kept.jpg");
+        File deleted = photo("deleted.jpg");
+        insertProduct(kept);
+        Uri product = insertProduct(deleted);
+
+        mResolver.delete(product, null, null);
+        assertFalse(deleted.exists());
+        assertTrue(kept.exists());
+    }
+
+    @Test
+    public void failedBatchKeepsThePhoto() throws Exception {
+        File photo = photo("batch.jpg");
+        Uri product = insertProduct(photo);
+
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        batch.add(ContentProviderOperation.newDelete(product).build());
+        batch.add(ContentProviderOperation.newUpdate(ProductEntry.CONTENT_URI)
+                .withValue(ProductEntry.COLUMN_SUPPLIER_NAME, -1)
+                .build());
+        try {
+            mResolver.applyBatch(ProductContract.CONTENT_AUTHORITY, batch);
+            fail("Applied a batch with an invalid supplier");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertTrue(photo.exists());
+
+        batch.remove(1);
+        mResolver.applyBatch(ProductContract.CONTENT_AUTHORITY, batch);
+        assertFalse(photo.exists());
+    }
+
+    @Test
+    public void restoreDeletesPhotosTheBackupDoesNotHave() throws IOException {
+        File backup = new File(RuntimeEnvironment.application.getFilesDir(), "inventory.backup");
+        File kept = photo("kept.jpg");
+        insertProduct(kept);
+        mResolver.call(ProductContract.BASE_CONTENT_URI, ProductContract.METHOD_BACKUP, backup.getPath(), null);
+
+        File added = photo("added.jpg");
+        insertProduct(added);
+        mResolver.call(ProductContract.BASE_CONTENT_URI, ProductContract.METHOD_RESTORE, backup.getPath(), null);
+        assertFalse(added.exists());
+        assertTrue(kept.exists());
+    }
+
+    /** Returns a new file in the directory the photos are copied to. */
+    private static File photo(String name) throws IOException {
+        File directory = new File(RuntimeEnvironment.application.getFilesDir(), "photos");
+        assertTrue(directory.isDirectory() || directory.mkdirs());
+        File file = new File(directory, name);
+        assertTrue(file.createNewFile());
+        return file;
+    }
+
+    private Uri insertProduct(File photo) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Boots");
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 20);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 10);
+        values.put(ProductEntry.COLUMN_SUPPLIER_NAME, ProductEntry.NIKE);
+        values.put(ProductEntry.COLUMN_SUPPLIER_PHONE, "0123");
+        values.put(ProductEntry.COLUMN_PRODUCT_IMAGE, photo.getPath());
+        Uri uri = mResolver.insert(ProductEntry.CONTENT_URI, values);
+        return ContentUris.withAppendedId(ProductEntry.CONTENT_URI, ContentUris.parseId(uri));
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.android.inventoryapp.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the subsampling of photos: as coarse as possible while both sides keep the requested
+ * pixels, so neither a photo copy nor a thumbnail is ever upscaled. Runs on the host JVM.
+ */
+public class ProductPhotosTest {
+
+    @Test
+    public void smallImagesAreNotSubsampled() {
+        assertEquals(1, ProductPhotos.sampleSize(800, 600, ProductPhotos.MAX_SIDE));
+        assertEquals(1, ProductPhotos.sampleSize(2000, 1080, ProductPhotos.MAX_SIDE));
+    }
+
+    @Test
+    public void shorterSideKeepsTheRequestedPixels() {
+        // A 12 megapixel camera photo
+        assertEquals(2, ProductPhotos.sampleSize(4000, 3000, ProductPhotos.MAX_SIDE));
+        assertEquals(2, ProductPhotos.sampleSize(3000, 4000, ProductPhotos.MAX_SIDE));
+        // Thumbnails of a row, from the copy
+        assertEquals(8, ProductPhotos.sampleSize(1440, 1080, 112));
+        assertEquals(16, ProductPhotos.sampleSize(1440, 1080, 56));
+    }
+}
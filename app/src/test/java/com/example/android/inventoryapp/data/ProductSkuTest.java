@@ -0,0 +1,173 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.SaleContract.SaleEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that products are found by their SKU, that a scanned SKU sells its product and
+ * records the sale, and that no two products can have the same SKU.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class ProductSkuTest {
+
+    private static final String SKU = "4006381333931";
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(ProductProvider.class, ProductContract.CONTENT_AUTHORITY);
+        Robolectric.setupContentProvider(SaleProvider.class, SaleContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+
+        ContentValues[] products = new ContentValues[3];
+        for (int i = 0; i < products.length; i++) {
+            products[i] = product("Socks " + i, 2);
+        }
+        products[1].put(ProductEntry.COLUMN_PRODUCT_SKU, SKU);
+        mResolver.bulkInsert(ProductEntry.CONTENT_URI, products);
+    }
+
+    @Test
+    public void skuFindsItsProduct() {
+        Cursor cursor = mResolver.query(ProductEntry.buildSkuUri(SKU),
+                new String[]{ProductEntry._ID, ProductEntry.COLUMN_PRODUCT_NAME}, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals(2, cursor.getLong(0));
+            assertEquals("Socks 1", cursor.getString(1));
+        } finally {
+            cursor.close();
+        }
+        assertEquals(0, count(ProductEntry.buildSkuUri("12345")));
+    }
+
+    @Test
+    public void scanSellsUntilOutOfStock() {
+        Uri scan = ProductEntry.buildSkuSellUri(SKU, 1);
+        assertEquals(1, mResolver.update(scan, null, null, null));
+        assertEquals(0, mResolver.update(scan, null, null, null));
+        assertEquals(ProductEntry.SELL_REJECTED, mResolver.update(scan, null, null, null));
+
+        // The sales are recorded against the product, and other products keep their stock
+        assertEquals(2, count(SaleEntry.CONTENT_URI));
+        Cursor cursor = mResolver.query(ProductEntry.CONTENT_URI,
+                new String[]{ProductEntry.COLUMN_PRODUCT_QUANTITY}, null, null, ProductEntry._ID);
+        try {
+            assertTrue(cursor.moveToNext());
+            assertEquals(2, cursor.getInt(0));
+            assertTrue(cursor.moveToNext());
+            assertEquals(0, cursor.getInt(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void unknownSkuSellsNothing() {
+        assertEquals(ProductEntry.SELL_REJECTED,
+                mResolver.update(ProductEntry.buildSkuSellUri("12345", 1), null, null, null));
+        assertEquals(0, count(SaleEntry.CONTENT_URI));
+    }
+
+    @Test
+    public void skuIsUnique() {
+        ContentValues duplicate = product("Boots", 1);
+        duplicate.put(ProductEntry.COLUMN_PRODUCT_SKU, SKU);
+        try {
+            mResolver.insert(ProductEntry.CONTENT_URI, duplicate);
+            fail("Inserted a second product with the same SKU");
+        } catch (IllegalArgumentException expected) {
+            assertSkuUsed(expected);
+        }
+        try {
+            mResolver.bulkInsert(ProductEntry.CONTENT_URI, new ContentValues[]{duplicate});
+            fail("Inserted a second product with the same SKU");
+        } catch (IllegalArgumentException expected) {
+            assertSkuUsed(expected);
+        }
+
+        ContentValues update = new ContentValues();
+        update.put(ProductEntry.COLUMN_PRODUCT_SKU, SKU);
+        try {
+            mResolver.update(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 3), update, null, null);
+            fail("Gave a second product the same SKU");
+        } catch (IllegalArgumentException expected) {
+            assertSkuUsed(expected);
+        }
+
+        // Any number of products have no SKU
+        assertEquals(2, count(ProductEntry.CONTENT_URI, ProductEntry.COLUMN_PRODUCT_SKU + " IS NULL"));
+    }
+
+    @Test
+    public void otherConstraintsAreNotReportedAsSku() {
+        // The product keeps its own SKU, but loses its supplier phone
+        ContentValues update = new ContentValues();
+        update.put(ProductEntry.COLUMN_PRODUCT_SKU, SKU);
+        update.putNull(ProductEntry.COLUMN_SUPPLIER_PHONE);
+        try {
+            mResolver.update(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 2), update, null, null);
+            fail("Saved a product without supplier phone");
+        } catch (IllegalArgumentException expected) {
+            assertFalse(expected.getMessage(), expected.getMessage().contains("SKU"));
+        }
+
+        ContentValues insert = product("Boots", 1);
+        insert.put(ProductEntry.COLUMN_PRODUCT_SKU, "12345");
+        insert.putNull(ProductEntry.COLUMN_SUPPLIER_PHONE);
+        try {
+            mResolver.insert(ProductEntry.CONTENT_URI, insert);
+            fail("Saved a product without supplier phone");
+        } catch (IllegalArgumentException expected) {
+            assertFalse(expected.getMessage(), expected.getMessage().contains("SKU"));
+        }
+    }
+
+    private static void assertSkuUsed(IllegalArgumentException e) {
+        assertTrue(e.getMessage(), e.getMessage().startsWith("Product SKU is already used"));
+    }
+
+    private static ContentValues product(String name, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 12);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_SUPPLIER_NAME, ProductEntry.NIKE);
+        return values;
+    }
+
+    private int count(Uri uri) {
+        return count(uri, null);
+    }
+
+    private int count(Uri uri, String selection) {
+        Cursor cursor = mResolver.query(uri, null, selection, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
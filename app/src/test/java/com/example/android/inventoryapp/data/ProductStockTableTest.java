@@ -0,0 +1,256 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.SaleContract.SaleEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.annotation.RealObject;
+import org.robolectric.shadow.api.Shadow;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that reads of a single product are answered from the stock table, and that every write
+ * path keeps the table in step with the database, against the real providers.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27, shadows = ProductStockTableTest.ShadowCommit.class)
+public class ProductStockTableTest {
+
+    private static final String[] PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY};
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(ProductProvider.class, ProductContract.CONTENT_AUTHORITY);
+        Robolectric.setupContentProvider(SaleProvider.class, SaleContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void repeatedReadIsAHit() {
+        long id = insertProduct("Boots", 10);
+
+        assertEquals("Boots 10", read(id));
+        assertEquals("Boots 10", read(id));
+        assertEquals("Boots 10", read(id));
+
+        Bundle stats = stats();
+        assertEquals(2, stats.getLong(ProductContract.KEY_STOCK_TABLE_HITS));
+        assertEquals(1, stats.getLong(ProductContract.KEY_STOCK_TABLE_MISSES));
+        assertEquals(1, stats.getInt(ProductContract.KEY_STOCK_TABLE_ROWS));
+        assertTrue(stats.getLong(ProductContract.KEY_STOCK_TABLE_BYTES) > 0);
+    }
+
+    @Test
+    public void writesAreSeenByTheNextRead() throws Exception {
+        long id = insertProduct("Boots", 10);
+        read(id);
+
+        assertEquals(7, mResolver.update(ProductEntry.buildSellUri(id, 3), new ContentValues(), null, null));
+        assertEquals("Boots 7", read(id));
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Sandals");
+        mResolver.update(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id), values, null, null);
+        assertEquals("Sandals 7", read(id));
+
+        values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 20);
+        mResolver.update(ProductEntry.CONTENT_URI, values, null, null);
+        assertEquals("Sandals 20", read(id));
+
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        batch.add(ContentProviderOperation.newUpdate(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id))
+                .withValue(ProductEntry.COLUMN_PRODUCT_QUANTITY, 4)
+                .build());
+        mResolver.applyBatch(ProductContract.CONTENT_AUTHORITY, batch);
+        assertEquals("Sandals 4", read(id));
+
+        // Products with sales are kept, so the sale is removed first
+        mResolver.delete(SaleEntry.CONTENT_URI, SaleEntry.COLUMN_SALE_PRODUCT_ID + " = " + id, null);
+        mResolver.delete(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id), null, null);
+        assertNull(read(id));
+    }
+
+    @Test
+    public void readDuringASellKeepsNoStaleStock() throws Exception {
+        // Not in the table when the sale starts
+        long missing = insertProduct("Boots", 10);
+        assertEquals("Boots 10", readWhileCommitting(missing));
+        assertEquals("Boots 9", read(missing));
+
+        // In the table when the sale starts
+        long kept = insertProduct("Socks", 10);
+        read(kept);
+        assertEquals("Socks 10", readWhileCommitting(kept));
+        assertEquals("Socks 9", read(kept));
+    }
+
+    @Test
+    public void sellBeyondKnownStockIsRejected() {
+        long id = insertProduct("Boots", 2);
+        read(id);
+
+        assertEquals(ProductEntry.SELL_REJECTED,
+                mResolver.update(ProductEntry.buildSellUri(id, 3), new ContentValues(), null, null));
+        assertEquals("Boots 2", read(id));
+    }
+
+    @Test
+    public void tableHoldsManyProducts() {
+        long[] ids = new long[2000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = insertProduct("Product " + i, i);
+            read(ids[i]);
+        }
+        // Remove every third one, so that rows are shifted back within probe sequences
+        for (int i = 0; i < ids.length; i += 3) {
+            mResolver.delete(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, ids[i]), null, null);
+        }
+
+        long before = stats().getLong(ProductContract.KEY_STOCK_TABLE_HITS);
+        for (int i = 0; i < ids.length; i++) {
+            String row = read(ids[i]);
+            if (i % 3 == 0) {
+                assertNull(row);
+            } else {
+                assertEquals("Product " + i + " " + i, row);
+            }
+        }
+        assertEquals(before + ids.length - (ids.length + 2) / 3,
+                stats().getLong(ProductContract.KEY_STOCK_TABLE_HITS));
+        assertEquals(ids.length - (ids.length + 2) / 3, stats().getInt(ProductContract.KEY_STOCK_TABLE_ROWS));
+    }
+
+    @Test
+    public void otherColumnsAreReadFromTheDatabase() {
+        long id = insertProduct("Boots", 10);
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id),
+                new String[]{ProductEntry.COLUMN_SUPPLIER_PHONE}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("0123", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+        assertEquals(0, stats().getLong(ProductContract.KEY_STOCK_TABLE_MISSES));
+        assertFalse(ProductStockTable.covers(null));
+    }
+
+    private long insertProduct(String name, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 20);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_SUPPLIER_NAME, ProductEntry.NIKE);
+        values.put(ProductEntry.COLUMN_SUPPLIER_PHONE, "0123");
+        return ContentUris.parseId(mResolver.insert(ProductEntry.CONTENT_URI, values));
+    }
+
+    /** Reads a product as "name quantity", or null if it does not exist. */
+    private String read(long id) {
+        Uri uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+        Cursor cursor = mResolver.query(uri, PROJECTION, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            assertEquals(id, cursor.getLong(0));
+            return cursor.getString(1) + " " + cursor.getInt(2);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Sells one unit of the product, and reads it from another thread once the stock is
+     * decremented but before the sale commits. Returns what that read saw.
+     */
+    private String readWhileCommitting(final long id) throws Exception {
+        final String[] seen = new String[1];
+        final Exception[] failed = new Exception[1];
+        ShadowCommit.sBeforeCommit = new Runnable() {
+            @Override
+            public void run() {
+                Thread reader = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            seen[0] = read(id);
+                        } catch (Exception e) {
+                            failed[0] = e;
+                        }
+                    }
+                };
+                reader.start();
+                try {
+                    reader.join();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        };
+        try {
+            assertEquals(9, mResolver.update(ProductEntry.buildSellUri(id, 1), new ContentValues(), null, null));
+        } finally {
+            ShadowCommit.sBeforeCommit = null;
+        }
+        if (failed[0] != null) {
+            throw failed[0];
+        }
+        return seen[0];
+    }
+
+    private Bundle stats() {
+        return mResolver.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_STOCK_TABLE_STATS, null, null);
+    }
+
+    /**
+     * Runs a task once, just before the next transaction ends, on the thread ending it.
+     */
+    @Implements(SQLiteDatabase.class)
+    public static class ShadowCommit {
+
+        static volatile Runnable sBeforeCommit;
+
+        @RealObject
+        private SQLiteDatabase mDatabase;
+
+        @Implementation
+        public void endTransaction() {
+            Runnable task = sBeforeCommit;
+            if (task != null) {
+                sBeforeCommit = null;
+                task.run();
+            }
+            Shadow.directlyOn(mDatabase, SQLiteDatabase.class, "endTransaction");
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the MIME types the product provider gives its URIs.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class ProductTypeTest {
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(ProductProvider.class, ProductContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void productUrisHaveProductTypes() {
+        assertEquals(ProductEntry.CONTENT_LIST_TYPE, mResolver.getType(ProductEntry.CONTENT_URI));
+        assertEquals(ProductEntry.CONTENT_LIST_TYPE, mResolver.getType(ProductEntry.buildSearchUri("boots")));
+        assertEquals(ProductEntry.CONTENT_ITEM_TYPE,
+                mResolver.getType(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 3)));
+    }
+
+    @Test
+    public void sellUriIsOneProduct() {
+        assertEquals(ProductEntry.CONTENT_ITEM_TYPE, mResolver.getType(ProductEntry.buildSellUri(3, 1)));
+        assertEquals(ProductEntry.CONTENT_ITEM_TYPE, mResolver.getType(ProductEntry.buildSkuSellUri("4006381333931", 1)));
+    }
+}
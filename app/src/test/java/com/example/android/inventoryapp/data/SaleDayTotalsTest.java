@@ -0,0 +1,118 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.SaleContract.SaleEntry;
+import com.example.android.inventoryapp.data.SaleContract.SaleSummaryEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that a sale counts for the day stored on it when it was added, so that later changes
+ * take it out of that day whatever the time zone is by then.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class SaleDayTotalsTest {
+
+    /** A day no sale made now falls on */
+    private static final String OTHER_DAY = "1999-12-31";
+
+    private ContentResolver mResolver;
+
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(ProductProvider.class, ProductContract.CONTENT_AUTHORITY);
+        Robolectric.setupContentProvider(SaleProvider.class, SaleContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mDatabase = SalesAndProductsDbHelper.getInstance(RuntimeEnvironment.application).getWritableDatabase();
+    }
+
+    @Test
+    public void saleLeavesTheDayItWasAddedTo() {
+        Uri sale = insertSale(insertProduct(), 2);
+        assertEquals(1, days());
+
+        // As if the sale had been added in a time zone where it fell on another day
+        mDatabase.execSQL("UPDATE " + SaleEntry.TABLE_NAME + " SET "
+                + SalesAndProductsDbHelper.COLUMN_SALE_DAY + " = ?", new Object[]{OTHER_DAY});
+        mDatabase.execSQL("UPDATE " + SalesAndProductsDbHelper.TABLE_SALES_BY_DAY + " SET "
+                + SaleSummaryEntry.COLUMN_DAY + " = ?", new Object[]{OTHER_DAY});
+
+        // Changing the quantity keeps the stored day
+        ContentValues quantity = new ContentValues();
+        quantity.put(SaleEntry.COLUMN_SALE_QUANTITY, 5);
+        assertEquals(1, mResolver.update(sale, quantity, null, null));
+        assertEquals(5, unitsOf(OTHER_DAY));
+        assertEquals(1, days());
+
+        assertEquals(1, mResolver.delete(sale, null, null));
+        assertEquals(0, days());
+    }
+
+    @Test
+    public void newTimeMovesTheSaleToItsDay() {
+        Uri sale = insertSale(insertProduct(), 3);
+
+        ContentValues date = new ContentValues();
+        date.put(SaleEntry.COLUMN_SALE_DATE, 946641600000L);
+        assertEquals(1, mResolver.update(sale, date, null, null));
+        assertEquals(1, days());
+
+        assertEquals(1, mResolver.delete(sale, null, null));
+        assertEquals(0, days());
+    }
+
+    private long insertProduct() {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Boots");
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 20);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 10);
+        values.put(ProductEntry.COLUMN_SUPPLIER_NAME, ProductEntry.NIKE);
+        values.put(ProductEntry.COLUMN_SUPPLIER_PHONE, "0123");
+        return ContentUris.parseId(mResolver.insert(ProductEntry.CONTENT_URI, values));
+    }
+
+    private Uri insertSale(long productId, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(SaleEntry.COLUMN_SALE_PRODUCT_ID, productId);
+        values.put(SaleEntry.COLUMN_SALE_PRICE, 20);
+        values.put(SaleEntry.COLUMN_SALE_QUANTITY, quantity);
+        return mResolver.insert(SaleEntry.CONTENT_URI, values);
+    }
+
+    private int days() {
+        Cursor cursor = mResolver.query(SaleSummaryEntry.DAY_URI, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long unitsOf(String day) {
+        Cursor cursor = mResolver.query(SaleSummaryEntry.DAY_URI, new String[]{SaleSummaryEntry.COLUMN_UNITS},
+                SaleSummaryEntry.COLUMN_DAY + " = ?", new String[]{day}, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.SaleContract.SaleEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that past sales keep the name and supplier of their product: products with sales are
+ * not deleted, or are left out of deletes of the products without sales, and the supplier is
+ * not edited through a sale.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class SaleProductIntegrityTest {
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(ProductProvider.class, ProductContract.CONTENT_AUTHORITY);
+        Robolectric.setupContentProvider(SaleProvider.class, SaleContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void productWithSalesIsKept() {
+        long sold = insertProduct("Boots");
+        long unsold = insertProduct("Socks");
+        Uri sale = insertSale(sold);
+
+        try {
+            mResolver.delete(ProductEntry.CONTENT_URI, null, null);
+            fail("Deleted a product with sales");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(2, count(ProductEntry.CONTENT_URI));
+        assertEquals("Boots", saleName(sale));
+
+        // Products without sales can still be deleted, and so can a product once its sales are
+        assertEquals(1, mResolver.delete(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, unsold), null, null));
+        mResolver.delete(sale, null, null);
+        assertEquals(1, mResolver.delete(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, sold), null, null));
+    }
+
+    @Test
+    public void unsoldDeleteKeepsProductsWithSales() {
+        long sold = insertProduct("Boots");
+        insertProduct("Socks");
+        insertProduct("Hat");
+        Uri sale = insertSale(sold);
+
+        assertEquals(2, mResolver.delete(ProductEntry.UNSOLD_URI, null, null));
+        assertEquals(1, count(ProductEntry.CONTENT_URI));
+        assertEquals("Boots", saleName(sale));
+    }
+
+    @Test
+    public void saleSupplierBelongsToTheProduct() {
+        Uri sale = insertSale(insertProduct("Boots"));
+
+        // The supplier the product has is accepted with the rest of the sale
+        ContentValues values = new ContentValues();
+        values.put(SaleEntry.COLUMN_SALE_PRODUCT_NAME, "Boots");
+        values.put(SaleEntry.COLUMN_SALE_QUANTITY, 2);
+        values.put(SaleEntry.COLUMN_SALE_SUPPLIER_NAME, ProductEntry.NIKE);
+        values.put(SaleEntry.COLUMN_SALE_SUPPLIER_PHONE, "0123");
+        assertEquals(1, mResolver.update(sale, values, null, null));
+
+        // Another one is rejected, rather than lost
+        values.put(SaleEntry.COLUMN_SALE_SUPPLIER_PHONE, "0456");
+        try {
+            mResolver.update(sale, values, null, null);
+            fail("Changed the supplier through a sale");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        // It describes a product the sale is moved to
+        values.put(SaleEntry.COLUMN_SALE_PRODUCT_NAME, "Sandals");
+        assertEquals(1, mResolver.update(sale, values, null, null));
+        assertEquals("Sandals", saleName(sale));
+    }
+
+    private long insertProduct(String name) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 20);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 10);
+        values.put(ProductEntry.COLUMN_SUPPLIER_NAME, ProductEntry.NIKE);
+        values.put(ProductEntry.COLUMN_SUPPLIER_PHONE, "0123");
+        return ContentUris.parseId(mResolver.insert(ProductEntry.CONTENT_URI, values));
+    }
+
+    private Uri insertSale(long productId) {
+        ContentValues values = new ContentValues();
+        values.put(SaleEntry.COLUMN_SALE_PRODUCT_ID, productId);
+        values.put(SaleEntry.COLUMN_SALE_PRICE, 20);
+        values.put(SaleEntry.COLUMN_SALE_QUANTITY, 1);
+        return mResolver.insert(SaleEntry.CONTENT_URI, values);
+    }
+
+    private String saleName(Uri sale) {
+        Cursor cursor = mResolver.query(sale, new String[]{SaleEntry.COLUMN_SALE_PRODUCT_NAME}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int count(Uri uri) {
+        Cursor cursor = mResolver.query(uri, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
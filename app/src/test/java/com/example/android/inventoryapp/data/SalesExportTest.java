@@ -0,0 +1,89 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.provider.OpenableColumns;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.SaleContract.SaleEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that exports write every sale, across pages, with names escaped for their format.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class SalesExportTest {
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(ProductProvider.class, ProductContract.CONTENT_AUTHORITY);
+        Robolectric.setupContentProvider(SaleProvider.class, SaleContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+
+        ContentValues[] sales = new ContentValues[SalesExport.PAGE_ROWS + 2];
+        for (int i = 0; i < sales.length; i++) {
+            ContentValues values = new ContentValues();
+            values.put(SaleEntry.COLUMN_SALE_PRODUCT_NAME, i == 0 ? "Boots, \"tall\"" : "Socks");
+            values.put(SaleEntry.COLUMN_SALE_PRICE, 20);
+            values.put(SaleEntry.COLUMN_SALE_QUANTITY, 1 + i % 3);
+            values.put(SaleEntry.COLUMN_SALE_SUPPLIER_NAME, ProductEntry.NIKE);
+            values.put(SaleEntry.COLUMN_SALE_SUPPLIER_PHONE, "0123");
+            values.put(SaleEntry.COLUMN_SALE_DATE, 0L);
+            sales[i] = values;
+        }
+        mResolver.bulkInsert(SaleEntry.CONTENT_URI, sales);
+    }
+
+    @Test
+    public void csvHasAHeaderAndEverySale() throws IOException {
+        String[] lines = export(SalesExport.FORMAT_CSV).split("\n");
+        assertEquals(SalesExport.PAGE_ROWS + 3, lines.length);
+        assertEquals("id,date,product_id,product,supplier,quantity,price", lines[0]);
+        assertEquals("1,1970-01-01T00:00:00Z,1,\"Boots, \"\"tall\"\"\",4,1,20", lines[1]);
+        assertEquals(SalesExport.PAGE_ROWS + 2 + ",1970-01-01T00:00:00Z,2,Socks,4,3,20",
+                lines[lines.length - 1]);
+    }
+
+    @Test
+    public void jsonLinesHaveOneObjectPerSale() throws IOException {
+        String[] lines = export(SalesExport.FORMAT_JSON_LINES).split("\n");
+        assertEquals(SalesExport.PAGE_ROWS + 2, lines.length);
+        assertEquals("{\"id\":1,\"date\":\"1970-01-01T00:00:00Z\",\"product_id\":1,"
+                + "\"product\":\"Boots, \\\"tall\\\"\",\"supplier\":4,\"quantity\":1,\"price\":20}", lines[0]);
+    }
+
+    @Test
+    public void exportsAreDescribedForOtherApps() {
+        assertEquals(SaleContract.EXPORT_CSV_TYPE, mResolver.getType(SaleContract.EXPORT_CSV_URI));
+        Cursor cursor = mResolver.query(SaleContract.EXPORT_JSON_LINES_URI, null, null, null, null);
+        try {
+            cursor.moveToFirst();
+            assertEquals("sales.jsonl", cursor.getString(cursor.getColumnIndexOrThrow(OpenableColumns.DISPLAY_NAME)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String export(int format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SalesAndProductsDbHelper helper = SalesAndProductsDbHelper.getInstance(RuntimeEnvironment.application);
+        new SalesExport(format, out).write(helper.getReadableDatabase());
+        return out.toString("UTF-8");
+    }
+}
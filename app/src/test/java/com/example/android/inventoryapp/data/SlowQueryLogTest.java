@@ -0,0 +1,107 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.AsyncTask;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that statements over the threshold are logged with their plan, and that the log and
+ * the threshold are read back from the file.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class SlowQueryLogTest {
+
+    @Test
+    public void slowStatementsAreLoggedWithTheirPlan() {
+        Robolectric.setupContentProvider(ProductProvider.class, ProductContract.CONTENT_AUTHORITY);
+        ContentResolver resolver = RuntimeEnvironment.application.getContentResolver();
+        // Every statement is slow
+        resolver.call(ProductContract.BASE_CONTENT_URI, ProductContract.METHOD_SET_SLOW_QUERY_THRESHOLD, "0", null);
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Boots");
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 20);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 5);
+        values.put(ProductEntry.COLUMN_SUPPLIER_NAME, ProductEntry.NIKE);
+        resolver.insert(ProductEntry.CONTENT_URI, values);
+        resolver.query(ProductEntry.CONTENT_URI, new String[]{ProductEntry._ID},
+                ProductEntry.COLUMN_PRODUCT_PRICE + " > ?", new String[]{"10"}, null).close();
+
+        Cursor log = resolver.query(ProductContract.SLOW_QUERIES_URI, null, null, null, null);
+        try {
+            // Inserts are not logged
+            assertEquals(1, log.getCount());
+            log.moveToFirst();
+            assertTrue(log.getString(log.getColumnIndexOrThrow(SlowQueryLog.COLUMN_STATEMENT))
+                    .startsWith("SELECT _id FROM products WHERE price > ?"));
+            assertEquals(1, log.getInt(log.getColumnIndexOrThrow(SlowQueryLog.COLUMN_ARGUMENTS)));
+            assertEquals(1, log.getInt(log.getColumnIndexOrThrow(SlowQueryLog.COLUMN_ROWS)));
+            // There is no index on the price
+            assertTrue(log.getString(log.getColumnIndexOrThrow(SlowQueryLog.COLUMN_PLAN))
+                    .contains("SCAN"));
+        } finally {
+            log.close();
+        }
+    }
+
+    @Test
+    public void logIsReadBackFromItsFile() {
+        File file = new File(RuntimeEnvironment.application.getFilesDir(), "test_slow_queries.log");
+        SlowQueryLog log = new SlowQueryLog(file);
+        log.setThresholdMillis(0);
+        SalesAndProductsDbHelper helper = SalesAndProductsDbHelper.getInstance(RuntimeEnvironment.application);
+        for (int i = 0; i < SlowQueryLog.CAPACITY + 3; i++) {
+            log.log(helper.getReadableDatabase(), "SELECT " + i, "SELECT " + i, null, null, 1,
+                    SlowQueryLog.start());
+        }
+        waitForFile();
+
+        SlowQueryLog readBack = new SlowQueryLog(file);
+        waitForFile();
+        assertEquals(0, readBack.getThresholdMillis());
+        Cursor cursor = readBack.query();
+        try {
+            // The oldest statements were dropped
+            assertEquals(SlowQueryLog.CAPACITY, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("SELECT 3", cursor.getString(cursor.getColumnIndexOrThrow(SlowQueryLog.COLUMN_STATEMENT)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Waits for the file to be read or written in the background. */
+    private static void waitForFile() {
+        // Reads and writes run one after the other, so they are done once this task has run
+        final CountDownLatch done = new CountDownLatch(1);
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        try {
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
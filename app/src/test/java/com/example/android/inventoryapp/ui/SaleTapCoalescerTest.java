@@ -0,0 +1,136 @@
+package com.example.android.inventoryapp.ui;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.SystemClock;
+
+import com.example.android.inventoryapp.data.ProductContract;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductProvider;
+import com.example.android.inventoryapp.data.SaleContract;
+import com.example.android.inventoryapp.data.SaleContract.SaleEntry;
+import com.example.android.inventoryapp.data.SaleProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that taps collected within the window are sold as one sale, against the real providers.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class SaleTapCoalescerTest {
+
+    private ContentResolver mResolver;
+
+    /** Outcomes reported to the listener, as "units remaining pending" */
+    private final List<String> mCommitted = new ArrayList<>();
+
+    private SaleTapCoalescer mCoalescer;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(ProductProvider.class, ProductContract.CONTENT_AUTHORITY);
+        Robolectric.setupContentProvider(SaleProvider.class, SaleContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+
+        mCoalescer = new SaleTapCoalescer(RuntimeEnvironment.application, new SaleTapCoalescer.Listener() {
+            @Override
+            public void onSaleCommitted(long productId, int units, int remaining, int unitsStillPending) {
+                mCommitted.add(units + " " + remaining + " " + unitsStillPending);
+            }
+
+            @Override
+            public void onSaleFailed(long productId, int units, int unitsStillPending) {
+                mCommitted.add(units + " failed " + unitsStillPending);
+            }
+        });
+    }
+
+    @Test
+    public void tapsWithinTheWindowAreOneSale() {
+        long id = insertProduct(10);
+
+        for (int i = 0; i < 4; i++) {
+            mCoalescer.tap(id);
+        }
+        assertEquals(4, mCoalescer.getPendingUnits(id));
+        assertEquals(10, quantity(id));
+
+        ShadowLooper.idleMainLooper(SaleTapCoalescer.WINDOW_MILLIS);
+        awaitCommits(1);
+
+        assertEquals("[4 6 0]", mCommitted.toString());
+        assertEquals(0, mCoalescer.getPendingUnits(id));
+        assertEquals(6, quantity(id));
+
+        Cursor sales = mResolver.query(SaleEntry.CONTENT_URI, new String[]{SaleEntry.COLUMN_SALE_QUANTITY},
+                null, null, null);
+        try {
+            assertEquals(1, sales.getCount());
+            assertTrue(sales.moveToFirst());
+            assertEquals(4, sales.getInt(0));
+        } finally {
+            sales.close();
+        }
+    }
+
+    @Test
+    public void saleBeyondTheStockIsRejected() {
+        long id = insertProduct(2);
+
+        for (int i = 0; i < 3; i++) {
+            mCoalescer.tap(id);
+        }
+        mCoalescer.flush();
+        awaitCommits(1);
+
+        assertEquals("[3 " + ProductEntry.SELL_REJECTED + " 0]", mCommitted.toString());
+        assertEquals(2, quantity(id));
+    }
+
+    private long insertProduct(int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Boots");
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 20);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_SUPPLIER_NAME, ProductEntry.NIKE);
+        values.put(ProductEntry.COLUMN_SUPPLIER_PHONE, "0");
+        return ContentUris.parseId(mResolver.insert(ProductEntry.CONTENT_URI, values));
+    }
+
+    private int quantity(long id) {
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id),
+                new String[]{ProductEntry.COLUMN_PRODUCT_QUANTITY}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Runs the main looper until the listener has been told of the given number of sales. */
+    private void awaitCommits(int count) {
+        long deadline = SystemClock.uptimeMillis() + 5000;
+        while (mCommitted.size() < count && SystemClock.uptimeMillis() < deadline) {
+            ShadowLooper.runUiThreadTasks();
+            Thread.yield();
+        }
+        assertEquals(count, mCommitted.size());
+    }
+}